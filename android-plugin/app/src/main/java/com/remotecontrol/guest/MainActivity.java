@@ -15,6 +15,7 @@ import android.os.PowerManager;
 import android.provider.Settings;
 import android.util.Log;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
@@ -39,6 +40,7 @@ public class MainActivity extends AppCompatActivity {
     private Button startButton;
     private Button stopButton;
     private Button settingsButton;
+    private CheckBox recordSessionsCheckBox;
 
     private SessionManager sessionManager;
     private boolean isServiceRunning = false;
@@ -68,8 +70,8 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        initializeViews();
         sessionManager = SessionManager.getInstance(this);
+        initializeViews();
         
         // Register broadcast receiver for session code updates
         IntentFilter filter = new IntentFilter();
@@ -91,6 +93,12 @@ public class MainActivity extends AppCompatActivity {
         startButton.setOnClickListener(v -> startRemoteControl());
         stopButton.setOnClickListener(v -> stopRemoteControl());
         settingsButton.setOnClickListener(v -> openAccessibilitySettings());
+
+        // Recording is opt-in; a change applies from the next session
+        recordSessionsCheckBox = findViewById(R.id.record_sessions_checkbox);
+        recordSessionsCheckBox.setChecked(sessionManager.isRecordingEnabled());
+        recordSessionsCheckBox.setOnCheckedChangeListener(
+            (button, checked) -> sessionManager.setRecordingEnabled(checked));
     }
 
     private void checkPermissions() {
@@ -0,0 +1,60 @@
+package com.remotecontrol.guest.capture;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Cheap first-pass check run before the full tile diff. Each call hashes one pixel out of
+// every step x step block of an RGBA frame and compares it with the hash the same sample
+// phase produced last time. The phase rotates on every call, so after step * step frames
+// every pixel has been sampled and a change anywhere is reported within that many frames.
+public class ChangeDetector {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private final int step;
+    private final long[] phaseHashes;
+    private final boolean[] phaseValid;
+    private int phase;
+    private int width;
+    private int height;
+    
+    public ChangeDetector(int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        this.step = step;
+        this.phaseHashes = new long[step * step];
+        this.phaseValid = new boolean[step * step];
+    }
+    
+    public boolean hasChanged(ByteBuffer rgba, int width, int height, int rowStride) {
+        if (width != this.width || height != this.height) {
+            reset();
+            this.width = width;
+            this.height = height;
+        }
+        int phaseX = phase % step;
+        int phaseY = phase / step;
+        
+        long h = FNV_OFFSET;
+        int base = rgba.position();
+        int columnStep = step * 4;
+        for (int y = phaseY; y < height; y += step) {
+            int rowOffset = base + y * rowStride;
+            for (int offset = rowOffset + phaseX * 4, end = rowOffset + width * 4; offset < end; offset += columnStep) {
+                h = (h ^ rgba.getInt(offset)) * FNV_PRIME;
+            }
+        }
+        
+        boolean changed = !phaseValid[phase] || phaseHashes[phase] != h;
+        phaseHashes[phase] = h;
+        phaseValid[phase] = true;
+        phase = (phase + 1) % phaseHashes.length;
+        return changed;
+    }
+    
+    // Forgets all samples so the next frames are reported as changed
+    public void reset() {
+        Arrays.fill(phaseValid, false);
+    }
+}
@@ -0,0 +1,46 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.platform.TileEncoder;
+
+import java.io.OutputStream;
+
+// Encodes each tile with the codec the TileClassifier picks for it. Without a WebP encoder
+// tiles classified as WebP fall back to JPEG. Counts the tiles sent per codec. Confined to one
+// thread, like the encoders it wraps.
+public class CodecSelectingTileEncoder implements TileEncoder {
+    private static final int CODEC_COUNT = 3;
+    
+    private final TileEncoder jpeg;
+    private final TileEncoder webp;
+    private final PaletteTileEncoder palette = new PaletteTileEncoder();
+    private final TileClassifier classifier = new TileClassifier(palette);
+    private final long[] tileCounts = new long[CODEC_COUNT];
+    
+    // webp may be null
+    public CodecSelectingTileEncoder(TileEncoder jpeg, TileEncoder webp) {
+        this.jpeg = jpeg;
+        this.webp = webp;
+    }
+    
+    @Override
+    public int encodeNv21(byte[] nv21, int width, int height, int left, int top, int right, int bottom,
+                          int quality, OutputStream out) {
+        int codec;
+        int classified = classifier.classify(nv21, width, height, left, top, right, bottom);
+        if (classified == DeltaFrameWriter.CODEC_PALETTE) {
+            codec = palette.write(out);
+        } else if (classified == DeltaFrameWriter.CODEC_WEBP && webp != null) {
+            codec = webp.encodeNv21(nv21, width, height, left, top, right, bottom, quality, out);
+        } else {
+            codec = jpeg.encodeNv21(nv21, width, height, left, top, right, bottom, quality, out);
+        }
+        if (codec >= 0 && codec < CODEC_COUNT) {
+            tileCounts[codec]++;
+        }
+        return codec;
+    }
+    
+    public long getTileCount(int codec) {
+        return tileCounts[codec];
+    }
+}
@@ -0,0 +1,237 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.utils.EncodeBuffer;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+// Builds the binary delta frame message sent to controllers:
+//
+//   byte   magic ('D')
+//   byte   version
+//   byte   flags (FLAG_KEYFRAME, FLAG_IDLE, FLAG_ROI, FLAG_TRACE, FLAG_SLICED)
+//   byte   reserved
+//   int    frame id
+//   short  frame width
+//   short  frame height
+//   short  tile size
+//   short  tile count
+//   [FLAG_ROI only] short left, short top, short right, short bottom
+//   [FLAG_TRACE only] long image available time in epoch nanoseconds, int acquire,
+//       int convert, int encode, int send offsets from it in microseconds
+//   tile count x { int tile index, byte codec, int length, byte[length] encoded tile }
+//
+// All values are big-endian. A keyframe carries a single entry with index FULL_FRAME holding
+// the whole encoded screen, unless FLAG_SLICED is set: the screen is then split into horizontal
+// slices of whole tile rows that were encoded independently, in parallel. Each slice entry's
+// index is the first tile of its top row and the slice runs down to the row of the next entry,
+// or to the bottom of the frame. Encoded images may be downscaled and are stretched to their
+// tile rectangle by the receiver. Each tile names its codec: CODEC_JPEG, CODEC_WEBP or
+// CODEC_PALETTE, the lossless format written by PaletteTileEncoder. A frame without tiles is a
+// heartbeat: nothing changed since the given frame id, and FLAG_IDLE tells the receiver the
+// guest has dropped to its idle keepalive rate. FLAG_ROI adds the bounds of the region of
+// interest in frame pixels; its tiles are encoded at higher quality than the rest. FLAG_TRACE
+// carries the frame's pipeline timestamps on the guest's wall clock, so a controller that knows
+// its clock offset can compute glass-to-glass latency. The backing buffer is reused between
+// frames and encoders can stream tiles straight into it through beginTile/endTile.
+public class DeltaFrameWriter {
+    public static final byte MAGIC = 'D';
+    public static final byte VERSION = 5;
+    public static final byte FLAG_KEYFRAME = 0x01;
+    public static final byte FLAG_IDLE = 0x02;
+    public static final byte FLAG_ROI = 0x04;
+    public static final byte FLAG_TRACE = 0x08;
+    public static final byte FLAG_SLICED = 0x10;
+    public static final int FULL_FRAME = -1;
+    public static final byte CODEC_JPEG = 0;
+    public static final byte CODEC_WEBP = 1;
+    public static final byte CODEC_PALETTE = 2;
+    public static final int HEADER_SIZE = 16;
+    public static final int ROI_SIZE = 8;
+    public static final int TRACE_SIZE = 24;
+    public static final int TILE_HEADER_SIZE = 9;
+    
+    private final EncodeBuffer out = new EncodeBuffer(64 * 1024);
+    private int tileCount;
+    private int tileStart = -1;
+    private int traceStart = -1;
+    
+    public void begin(int frameId, TileGrid grid, boolean keyframe) {
+        begin(frameId, grid, keyframe ? FLAG_KEYFRAME : 0);
+    }
+    
+    public void begin(int frameId, TileGrid grid, int flags) {
+        out.reset();
+        tileCount = 0;
+        tileStart = -1;
+        traceStart = -1;
+        out.skip(HEADER_SIZE);
+        byte[] buffer = out.getData();
+        buffer[0] = MAGIC;
+        buffer[1] = VERSION;
+        buffer[2] = (byte) flags;
+        buffer[3] = 0;
+        putInt(4, frameId);
+        putShort(8, grid.getWidth());
+        putShort(10, grid.getHeight());
+        putShort(12, grid.getTileSize());
+        putShort(14, 0);
+    }
+    
+    // Must be called before the first tile
+    public void setRegionOfInterest(int left, int top, int right, int bottom) {
+        if (tileCount > 0 || tileStart >= 0 || out.getLength() != HEADER_SIZE) {
+            throw new IllegalStateException("Region of interest must precede the trace and the tiles");
+        }
+        int offset = out.skip(ROI_SIZE);
+        out.getData()[2] |= FLAG_ROI;
+        putShort(offset, left);
+        putShort(offset + 2, top);
+        putShort(offset + 4, right);
+        putShort(offset + 6, bottom);
+    }
+    
+    // Reserves the trace block; must be called after the region of interest and before the
+    // first tile. The times are filled in later with setTrace.
+    public void reserveTrace() {
+        if (tileCount > 0 || tileStart >= 0 || traceStart >= 0) {
+            throw new IllegalStateException("Trace must precede the tiles");
+        }
+        traceStart = out.skip(TRACE_SIZE);
+        out.getData()[2] |= FLAG_TRACE;
+    }
+    
+    // May be called after finishBuffer(), so the send time can be stamped just before the
+    // frame is handed on
+    public void setTrace(long availableEpochNanos, int acquireUs, int convertUs, int encodeUs, int sendUs) {
+        if (traceStart < 0) {
+            throw new IllegalStateException("No trace reserved");
+        }
+        putInt(traceStart, (int) (availableEpochNanos >>> 32));
+        putInt(traceStart + 4, (int) availableEpochNanos);
+        putInt(traceStart + 8, acquireUs);
+        putInt(traceStart + 12, convertUs);
+        putInt(traceStart + 16, encodeUs);
+        putInt(traceStart + 20, sendUs);
+    }
+    
+    // Image available time carried by a finished frame, or -1 if it has no trace block
+    public static long readTraceEpochNanos(ByteBuffer frame) {
+        int start = frame.position();
+        if (frame.remaining() < HEADER_SIZE || frame.get(start) != MAGIC) {
+            return -1;
+        }
+        byte flags = frame.get(start + 2);
+        if ((flags & FLAG_TRACE) == 0) {
+            return -1;
+        }
+        int offset = start + HEADER_SIZE + ((flags & FLAG_ROI) != 0 ? ROI_SIZE : 0);
+        if (frame.limit() < offset + TRACE_SIZE) {
+            return -1;
+        }
+        return frame.getLong(offset);
+    }
+    
+    // Adds the tile indices of a finished delta frame to tiles. Returns false for keyframes,
+    // whose entries are slices or the whole screen, and for anything that is not a whole frame.
+    public static boolean readTiles(ByteBuffer frame, BitSet tiles) {
+        int start = frame.position();
+        if (frame.remaining() < HEADER_SIZE || frame.get(start) != MAGIC) {
+            return false;
+        }
+        byte flags = frame.get(start + 2);
+        if ((flags & FLAG_KEYFRAME) != 0) {
+            return false;
+        }
+        int count = frame.getShort(start + 14) & 0xffff;
+        int offset = start + HEADER_SIZE + ((flags & FLAG_ROI) != 0 ? ROI_SIZE : 0)
+            + ((flags & FLAG_TRACE) != 0 ? TRACE_SIZE : 0);
+        for (int i = 0; i < count; i++) {
+            if (frame.limit() < offset + TILE_HEADER_SIZE) {
+                return false;
+            }
+            int index = frame.getInt(offset);
+            if (index < 0) {
+                return false;
+            }
+            tiles.set(index);
+            offset += TILE_HEADER_SIZE + frame.getInt(offset + 5);
+        }
+        return true;
+    }
+    
+    public void addTile(int tileIndex, byte[] data, int offset, int count) {
+        addTile(tileIndex, CODEC_JPEG, data, offset, count);
+    }
+    
+    public void addTile(int tileIndex, int codec, byte[] data, int offset, int count) {
+        beginTile(tileIndex, codec);
+        out.write(data, offset, count);
+        endTile();
+    }
+    
+    // Reserves a tile entry; the encoded bytes written to the returned stream become its payload
+    public OutputStream beginTile(int tileIndex) {
+        return beginTile(tileIndex, CODEC_JPEG);
+    }
+    
+    // The codec can still be changed with setTileCodec until the tile is ended
+    public OutputStream beginTile(int tileIndex, int codec) {
+        if (tileStart >= 0) {
+            throw new IllegalStateException("Tile " + tileCount + " not ended");
+        }
+        tileStart = out.skip(TILE_HEADER_SIZE);
+        putInt(tileStart, tileIndex);
+        out.getData()[tileStart + 4] = (byte) codec;
+        return out;
+    }
+    
+    public void setTileCodec(int codec) {
+        if (tileStart < 0) {
+            throw new IllegalStateException("No tile in progress");
+        }
+        out.getData()[tileStart + 4] = (byte) codec;
+    }
+    
+    public void endTile() {
+        if (tileStart < 0) {
+            throw new IllegalStateException("No tile in progress");
+        }
+        putInt(tileStart + 5, out.getLength() - tileStart - TILE_HEADER_SIZE);
+        tileStart = -1;
+        tileCount++;
+    }
+    
+    // View of the finished frame, valid until the next begin()
+    public ByteBuffer finishBuffer() {
+        if (tileStart >= 0) {
+            throw new IllegalStateException("Tile " + tileCount + " not ended");
+        }
+        putShort(14, tileCount);
+        return out.asByteBuffer();
+    }
+    
+    public byte[] finish() {
+        finishBuffer();
+        return out.toByteArray();
+    }
+    
+    public int getTileCount() {
+        return tileCount;
+    }
+    
+    private void putShort(int index, int value) {
+        byte[] buffer = out.getData();
+        buffer[index] = (byte) (value >>> 8);
+        buffer[index + 1] = (byte) value;
+    }
+    
+    private void putInt(int index, int value) {
+        byte[] buffer = out.getData();
+        buffer[index] = (byte) (value >>> 24);
+        buffer[index + 1] = (byte) (value >>> 16);
+        buffer[index + 2] = (byte) (value >>> 8);
+        buffer[index + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,58 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.models.LatencyReport;
+
+// Keeps one latency histogram per stage of a frame's trip from the display to the send
+// queue, fed with the nanoTime stamps each frame collects on the way. Memory is fixed: the
+// histograms are reused for every reporting window.
+public class FrameLatencyTracker {
+    public static final int STAGE_ACQUIRE = 0;
+    public static final int STAGE_CONVERT = 1;
+    public static final int STAGE_QUEUE = 2;
+    public static final int STAGE_ENCODE = 3;
+    public static final int STAGE_SEND = 4;
+    public static final int STAGE_TOTAL = 5;
+    private static final String[] STAGE_NAMES = {"acquire", "convert", "queue", "encode", "send", "total"};
+    private static final long MAX_TRACKABLE_US = 60_000_000L;
+    
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+    
+    public FrameLatencyTracker() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram(MAX_TRACKABLE_US);
+        }
+    }
+    
+    // Timestamps are System.nanoTime() values: image available, acquired, converted and
+    // queued, taken from the queue, encoded, handed to the sender
+    public synchronized void recordFrame(long available, long acquired, long converted,
+                                         long dequeued, long encoded, long sent) {
+        histograms[STAGE_ACQUIRE].record((acquired - available) / 1000);
+        histograms[STAGE_CONVERT].record((converted - acquired) / 1000);
+        histograms[STAGE_QUEUE].record((dequeued - converted) / 1000);
+        histograms[STAGE_ENCODE].record((encoded - dequeued) / 1000);
+        histograms[STAGE_SEND].record((sent - encoded) / 1000);
+        histograms[STAGE_TOTAL].record((sent - available) / 1000);
+    }
+    
+    // Percentiles of the window since the last call, which starts a new window
+    public synchronized LatencyReport reportAndReset() {
+        int stages = histograms.length;
+        double[] p50 = new double[stages];
+        double[] p90 = new double[stages];
+        double[] p99 = new double[stages];
+        double[] max = new double[stages];
+        for (int i = 0; i < stages; i++) {
+            LatencyHistogram histogram = histograms[i];
+            p50[i] = histogram.getValueAtPercentile(50) / 1000.0;
+            p90[i] = histogram.getValueAtPercentile(90) / 1000.0;
+            p99[i] = histogram.getValueAtPercentile(99) / 1000.0;
+            max[i] = histogram.getMaxUs() / 1000.0;
+        }
+        long frames = histograms[STAGE_TOTAL].getCount();
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        return new LatencyReport(STAGE_NAMES, frames, p50, p90, p99, max);
+    }
+}
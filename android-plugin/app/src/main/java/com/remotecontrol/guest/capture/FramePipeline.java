@@ -0,0 +1,590 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.models.LatencyReport;
+import com.remotecontrol.guest.platform.Clock;
+import com.remotecontrol.guest.platform.Logger;
+import com.remotecontrol.guest.platform.RgbaFrame;
+import com.remotecontrol.guest.platform.TileEncoder;
+import com.remotecontrol.guest.transport.QualitySettings;
+import com.remotecontrol.guest.utils.EncodeBuffer;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Locale;
+
+// The JPEG tile pipeline between a captured RGBA frame and the delta frame message, free of
+// Android types so it runs unchanged on a plain JVM. The capture stage (process) diffs a
+// frame, picks the tiles to send and converts them into a pooled NV21 frame; the encode stage
+// (encodeNext) compresses them into a delta frame and hands it to the listener. The two stages
+// run on different threads with only the newest converted frame waiting between them; a frame
+// that is dropped there passes its changes on to its replacement, and the tiles of a frame the
+// transport drops are sent again with the next one. When and how often frames are acquired
+// stays with the caller.
+public class FramePipeline {
+    private static final String TAG = "FramePipeline";
+    
+    public interface Listener {
+        // An encoded delta frame or heartbeat; the buffer is only valid during the call
+        void onFrame(ByteBuffer frame);
+        
+        // Called before the first frame sent on a new tile grid
+        void onGridChanged(TileGrid grid);
+        
+        void onLatencyReport(LatencyReport report);
+    }
+    
+    // Delta encoding: only tiles that changed since the previous frame are sent
+    public static final int TILE_SIZE = 128;
+    private static final float FULL_FRAME_THRESHOLD = 0.5f;
+    
+    // A sampled checksum gates the full tile diff
+    private static final int CHANGE_SAMPLE_STEP = 4;
+    
+    // Region of interest: tiles around the last touch and tiles that keep changing are sent at
+    // ROI_QUALITY, the background at the configured quality every ROI_BACKGROUND_INTERVAL_MS
+    private static final int ROI_RADIUS = 192;
+    private static final long ROI_TOUCH_HOLD_MS = 3000;
+    private static final long ROI_CHANGE_HOLD_MS = 500;
+    private static final int ROI_MAX_TILES = 24;
+    private static final long ROI_BACKGROUND_INTERVAL_MS = 500;
+    private static final int ROI_QUALITY = 90;
+    
+    private static final int FRAME_QUEUE_CAPACITY = 1;
+    private static final int FRAMES_PER_FORMAT = FRAME_QUEUE_CAPACITY + 2;
+    // Pool key for NV21 buffers, the value of android.graphics.ImageFormat.NV21
+    private static final int FORMAT_NV21 = 0x11;
+    private static final long TIMINGS_LOG_INTERVAL_MS = 5000;
+    private static final int STAGE_DIFF = 0;
+    private static final int STAGE_CONVERT = 1;
+    private static final int STAGE_QUEUE = 2;
+    private static final int STAGE_ENCODE = 3;
+    private static final int STAGE_SEND = 4;
+    
+    private final TileEncoder encoder;
+    private final ParallelTileEncoder parallelEncoder;
+    private final Listener listener;
+    private final Clock clock;
+    private final Logger logger;
+    private final TileDiffer tileDiffer;
+    private final ChangeDetector changeDetector = new ChangeDetector(CHANGE_SAMPLE_STEP);
+    private final RoiSelector roiSelector = new RoiSelector(ROI_RADIUS, ROI_TOUCH_HOLD_MS, ROI_CHANGE_HOLD_MS,
+        ROI_MAX_TILES, ROI_BACKGROUND_INTERVAL_MS);
+    private final DeltaFrameWriter deltaFrameWriter = new DeltaFrameWriter();
+    private final DeltaFrameWriter heartbeatWriter = new DeltaFrameWriter();
+    private final Nv21Converter nv21Converter = new Nv21Converter();
+    private final StageTimings stageTimings = new StageTimings("diff", "convert", "queue", "encode", "send");
+    private final FrameLatencyTracker latencyTracker = new FrameLatencyTracker();
+    private final int[] convertRegion = new int[4];
+    private final int[] encodeRegion = new int[4];
+    private final int[] mergeRegion = new int[4];
+    private int[] jobIndices = new int[0];
+    private int[] jobRegions = new int[0];
+    private int[] jobQualities = new int[0];
+    private final FramePool<PipelineFrame> framePool = new FramePool<>(new FramePool.Allocator<PipelineFrame>() {
+        @Override
+        public PipelineFrame allocate(int width, int height, int stride, int config) {
+            return new PipelineFrame(width, height);
+        }
+        
+        @Override
+        public void discard(PipelineFrame frame) {
+            // Heap buffers are reclaimed by the GC
+        }
+    }, FRAMES_PER_FORMAT);
+    private final FrameQueue<PipelineFrame> frameQueue = new FrameQueue<>(FRAME_QUEUE_CAPACITY, (stale, newer) -> {
+        if (!newer.merge(stale, mergeRegion)) {
+            requestKeyframe();
+        }
+        releaseFrame(stale);
+    });
+    
+    // Tiles of delta frames the transport dropped, guarded by itself
+    private final BitSet droppedTiles = new BitSet();
+    private volatile boolean tilesDropped;
+    
+    private volatile QualitySettings qualitySettings;
+    private volatile int frameId;
+    private volatile long lastFrameSentTime;
+    private volatile long unchangedSkips;
+    private volatile long heartbeatsSent;
+    private TileGrid publishedGrid;
+    private long lastTimingsLog;
+    
+    public FramePipeline(long keyframeIntervalMs, QualitySettings qualitySettings, TileEncoder encoder,
+                         Listener listener, Clock clock, Logger logger) {
+        this(keyframeIntervalMs, qualitySettings, encoder, null, listener, clock, logger);
+    }
+    
+    // With a parallel encoder, tiles are encoded concurrently and keyframes are sent as slices
+    // encoded concurrently; the pipeline does not shut the encoder down
+    public FramePipeline(long keyframeIntervalMs, QualitySettings qualitySettings, TileEncoder encoder,
+                         ParallelTileEncoder parallelEncoder, Listener listener, Clock clock, Logger logger) {
+        this.tileDiffer = new TileDiffer(TILE_SIZE, keyframeIntervalMs, clock);
+        this.qualitySettings = qualitySettings;
+        this.encoder = encoder;
+        this.parallelEncoder = parallelEncoder;
+        this.listener = listener;
+        this.clock = clock;
+        this.logger = logger;
+    }
+    
+    public void setQualitySettings(QualitySettings settings) {
+        qualitySettings = settings;
+    }
+    
+    public void requestKeyframe() {
+        tileDiffer.requestKeyframe();
+    }
+    
+    // A delta frame was dropped before it reached the controller; its tiles go out again with
+    // the next frame, a dropped keyframe is replaced by a new one. May be called on any thread.
+    public void onFrameDropped(ByteBuffer frame) {
+        synchronized (droppedTiles) {
+            if (!DeltaFrameWriter.readTiles(frame, droppedTiles)) {
+                requestKeyframe();
+            }
+            tilesDropped = !droppedTiles.isEmpty();
+        }
+    }
+    
+    public void onTouch(float x, float y, long nowMs) {
+        roiSelector.onTouch(x, y, nowMs);
+    }
+    
+    // Cheap sampled check; a frame reported unchanged may still hide a small change and should
+    // get a full process() later if no newer frame arrives
+    public boolean isUnchanged(RgbaFrame frame) {
+        if (tileDiffer.isKeyframeDue() || tilesDropped
+                || changeDetector.hasChanged(frame.getPixels(), frame.getWidth(), frame.getHeight(), frame.getRowStride())) {
+            return false;
+        }
+        unchangedSkips++;
+        return true;
+    }
+    
+    // Background tiles still waiting for their turn, to be taken from the same frame later
+    public boolean hasPendingBackground() {
+        return roiSelector.hasPending();
+    }
+    
+    public long getBackgroundDelayMs(long nowMs) {
+        return roiSelector.getBackgroundDelayMs(nowMs);
+    }
+    
+    // Capture stage. Reads the frame but does not close it. Returns the number of tiles that
+    // changed since the previous frame.
+    public int process(RgbaFrame image) {
+        long start = clock.nanoTime();
+        long available = image.getTimestampNanos();
+        if (available <= 0 || available > start) {
+            available = start;
+        }
+        ByteBuffer pixels = image.getPixels();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowStride = image.getRowStride();
+        int changedTiles = tileDiffer.diff(pixels, width, height, rowStride);
+        long diffed = clock.nanoTime();
+        stageTimings.record(STAGE_DIFF, diffed - start);
+        boolean regionOfInterest = qualitySettings.isRegionOfInterest();
+        if (changedTiles == 0 && !tilesDropped && !(regionOfInterest && roiSelector.hasPending())) {
+            return 0; // Screen unchanged since the last frame
+        }
+        
+        int frameWidth = Nv21Converter.evenDimension(width);
+        int frameHeight = Nv21Converter.evenDimension(height);
+        PipelineFrame frame = framePool.acquire(frameWidth, frameHeight, frameWidth, FORMAT_NV21);
+        try {
+            frame.reset(tileDiffer);
+            takeDroppedTiles(frame);
+            if (regionOfInterest && !frame.keyframe) {
+                roiSelector.select(frame.grid, frame.dirtyTiles, clock.uptimeMillis());
+                frame.applySelection(roiSelector);
+            } else {
+                roiSelector.takePending(frame.grid, frame.dirtyTiles);
+            }
+            if (!frame.dirtyTiles.isEmpty()) {
+                convertFrame(pixels, width, height, rowStride, frame);
+            }
+        } catch (RuntimeException e) {
+            releaseFrame(frame);
+            throw e;
+        }
+        if (frame.dirtyTiles.isEmpty()) {
+            releaseFrame(frame); // Only background tiles changed and they are not due yet
+            return changedTiles;
+        }
+        frame.availableAt = available;
+        frame.acquiredAt = start;
+        frame.queuedAt = clock.nanoTime();
+        stageTimings.record(STAGE_CONVERT, frame.queuedAt - diffed);
+        frameQueue.offer(frame);
+        return changedTiles;
+    }
+    
+    // A keyframe resends every tile anyway; tiles beyond a grid that has since shrunk are stale
+    private void takeDroppedTiles(PipelineFrame frame) {
+        if (!tilesDropped) {
+            return;
+        }
+        synchronized (droppedTiles) {
+            if (!frame.keyframe) {
+                frame.dirtyTiles.or(droppedTiles);
+                int tileCount = frame.grid.getTileCount();
+                frame.dirtyTiles.clear(tileCount, Math.max(tileCount, frame.dirtyTiles.length()));
+            }
+            droppedTiles.clear();
+            tilesDropped = false;
+        }
+    }
+    
+    // Converts the whole frame when it will be sent as a keyframe, otherwise only the dirty tiles
+    private void convertFrame(ByteBuffer pixels, int width, int height, int rowStride, PipelineFrame frame) {
+        TileGrid grid = frame.grid;
+        if (frame.keyframe || frame.dirtyTiles.cardinality() > grid.getTileCount() * FULL_FRAME_THRESHOLD) {
+            nv21Converter.convert(pixels, width, height, rowStride,
+                frame.nv21, frame.width, frame.height, 0, 0, frame.width, frame.height);
+            frame.complete = true;
+            return;
+        }
+        for (int tile = frame.dirtyTiles.nextSetBit(0); tile >= 0; tile = frame.dirtyTiles.nextSetBit(tile + 1)) {
+            frame.tileRegion(tile, convertRegion);
+            nv21Converter.convert(pixels, width, height, rowStride, frame.nv21, frame.width, frame.height,
+                convertRegion[0], convertRegion[1], convertRegion[2], convertRegion[3]);
+        }
+    }
+    
+    // Encode stage: runs on the calling thread until it is interrupted
+    public void runEncodeLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                encode(frameQueue.take());
+            }
+        } catch (InterruptedException e) {
+            // Capture stopped
+        } finally {
+            PipelineFrame pending;
+            while ((pending = frameQueue.poll()) != null) {
+                releaseFrame(pending);
+            }
+        }
+    }
+    
+    // Encodes the waiting frame, if any, on the calling thread; for single-threaded drivers
+    public boolean encodeNext() {
+        PipelineFrame frame = frameQueue.poll();
+        if (frame == null) {
+            return false;
+        }
+        encode(frame);
+        return true;
+    }
+    
+    private void encode(PipelineFrame frame) {
+        long start = clock.nanoTime();
+        stageTimings.record(STAGE_QUEUE, start - frame.queuedAt);
+        try {
+            ByteBuffer encodedFrame = encodeDeltaFrame(frame);
+            long encoded = clock.nanoTime();
+            stageTimings.record(STAGE_ENCODE, encoded - start);
+            
+            if (encodedFrame != null) {
+                // Touch mapping switches with the first frame at a new resolution
+                if (frame.grid != publishedGrid) {
+                    publishedGrid = frame.grid;
+                    listener.onGridChanged(publishedGrid);
+                }
+                long sent = clock.nanoTime();
+                stampTrace(frame, encoded, sent);
+                listener.onFrame(encodedFrame);
+                lastFrameSentTime = clock.uptimeMillis();
+                stageTimings.record(STAGE_SEND, clock.nanoTime() - encoded);
+                latencyTracker.recordFrame(frame.availableAt, frame.acquiredAt, frame.queuedAt, start, encoded, sent);
+            }
+        } catch (RuntimeException e) {
+            logger.e(TAG, "Error encoding frame", e);
+            requestKeyframe();
+        } finally {
+            releaseFrame(frame);
+        }
+        logTimingsIfDue();
+    }
+    
+    // Stamps the encoded frame just before it is handed on; the times are relative to the
+    // image becoming available, which is sent on the wall clock
+    private void stampTrace(PipelineFrame frame, long encoded, long sent) {
+        long available = frame.availableAt;
+        long availableEpochNanos = clock.currentTimeMillis() * 1_000_000L + (available - clock.nanoTime());
+        deltaFrameWriter.setTrace(availableEpochNanos, micros(frame.acquiredAt - available),
+            micros(frame.queuedAt - available), micros(encoded - available), micros(sent - available));
+    }
+    
+    private static int micros(long nanos) {
+        return (int) Math.min(nanos / 1000, Integer.MAX_VALUE);
+    }
+    
+    // The returned view is only valid until the next frame is encoded
+    private ByteBuffer encodeDeltaFrame(PipelineFrame frame) {
+        int quality = qualitySettings.getJpegQuality();
+        TileGrid grid = frame.grid;
+        int changedCount = frame.dirtyTiles.cardinality();
+        
+        // Past the threshold a single full-frame JPEG is smaller than the individual tiles
+        boolean keyframe = frame.complete && (frame.keyframe || changedCount > grid.getTileCount() * FULL_FRAME_THRESHOLD);
+        boolean sliced = keyframe && parallelEncoder != null && parallelEncoder.getThreadCount() > 1 && grid.getRows() > 1;
+        int flags = keyframe ? DeltaFrameWriter.FLAG_KEYFRAME : 0;
+        deltaFrameWriter.begin(frameId++, grid, sliced ? flags | DeltaFrameWriter.FLAG_SLICED : flags);
+        if (!keyframe && frame.hasRegion) {
+            deltaFrameWriter.setRegionOfInterest(frame.regionLeft, frame.regionTop, frame.regionRight, frame.regionBottom);
+        }
+        
+        deltaFrameWriter.reserveTrace();
+        
+        if (parallelEncoder != null) {
+            int jobs = sliced ? addSliceJobs(frame, quality) : addTileJobs(frame, keyframe, quality);
+            if (!encodeJobs(frame, jobs)) {
+                requestKeyframe();
+                return null;
+            }
+        } else if (keyframe) {
+            setRegion(encodeRegion, 0, 0, frame.width, frame.height);
+            if (!encodeTile(frame, DeltaFrameWriter.FULL_FRAME, quality)) {
+                requestKeyframe();
+                return null;
+            }
+        } else {
+            for (int tile = frame.dirtyTiles.nextSetBit(0); tile >= 0; tile = frame.dirtyTiles.nextSetBit(tile + 1)) {
+                frame.tileRegion(tile, encodeRegion);
+                int tileQuality = frame.regionTiles.get(tile) ? Math.max(quality, ROI_QUALITY) : quality;
+                if (!encodeTile(frame, tile, tileQuality)) {
+                    // The controller would drift out of sync, resend everything next frame
+                    requestKeyframe();
+                    return null;
+                }
+            }
+        }
+        
+        return deltaFrameWriter.finishBuffer();
+    }
+    
+    // One slice per worker, each made of whole tile rows
+    private int addSliceJobs(PipelineFrame frame, int quality) {
+        TileGrid grid = frame.grid;
+        int rows = grid.getRows();
+        int slices = Math.min(parallelEncoder.getThreadCount(), rows);
+        ensureJobCapacity(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            int firstTile = rows * slice / slices * grid.getColumns();
+            int lastTile = (rows * (slice + 1) / slices - 1) * grid.getColumns();
+            frame.tileRegion(firstTile, encodeRegion);
+            int top = encodeRegion[1];
+            frame.tileRegion(lastTile, encodeRegion);
+            addJob(slice, firstTile, 0, top, frame.width, encodeRegion[3], quality);
+        }
+        return slices;
+    }
+    
+    // A keyframe that is not sliced is a single FULL_FRAME job
+    private int addTileJobs(PipelineFrame frame, boolean keyframe, int quality) {
+        if (keyframe) {
+            ensureJobCapacity(1);
+            addJob(0, DeltaFrameWriter.FULL_FRAME, 0, 0, frame.width, frame.height, quality);
+            return 1;
+        }
+        ensureJobCapacity(frame.dirtyTiles.cardinality());
+        int jobs = 0;
+        for (int tile = frame.dirtyTiles.nextSetBit(0); tile >= 0; tile = frame.dirtyTiles.nextSetBit(tile + 1)) {
+            frame.tileRegion(tile, encodeRegion);
+            int tileQuality = frame.regionTiles.get(tile) ? Math.max(quality, ROI_QUALITY) : quality;
+            addJob(jobs++, tile, encodeRegion[0], encodeRegion[1], encodeRegion[2], encodeRegion[3], tileQuality);
+        }
+        return jobs;
+    }
+    
+    private void addJob(int job, int tile, int left, int top, int right, int bottom, int quality) {
+        jobIndices[job] = tile;
+        jobRegions[job * 4] = left;
+        jobRegions[job * 4 + 1] = top;
+        jobRegions[job * 4 + 2] = right;
+        jobRegions[job * 4 + 3] = bottom;
+        jobQualities[job] = quality;
+    }
+    
+    // Encodes the jobs concurrently, then copies them into the frame message in order
+    private boolean encodeJobs(PipelineFrame frame, int jobs) {
+        if (!parallelEncoder.encode(frame.nv21, frame.width, frame.height, jobRegions, jobQualities, jobs)) {
+            return false;
+        }
+        for (int job = 0; job < jobs; job++) {
+            EncodeBuffer out = parallelEncoder.getOutput(job);
+            deltaFrameWriter.addTile(jobIndices[job], parallelEncoder.getCodec(job), out.getData(), 0, out.getLength());
+        }
+        return true;
+    }
+    
+    private void ensureJobCapacity(int jobs) {
+        if (jobIndices.length < jobs) {
+            jobIndices = new int[jobs];
+            jobRegions = new int[jobs * 4];
+            jobQualities = new int[jobs];
+        }
+    }
+    
+    // The encoder writes straight into the frame message, no per-tile byte arrays
+    private boolean encodeTile(PipelineFrame frame, int tile, int quality) {
+        OutputStream out = deltaFrameWriter.beginTile(tile);
+        int codec = encoder.encodeNv21(frame.nv21, frame.width, frame.height,
+            encodeRegion[0], encodeRegion[1], encodeRegion[2], encodeRegion[3], quality, out);
+        if (codec != TileEncoder.FAILED) {
+            deltaFrameWriter.setTileCodec(codec);
+        }
+        deltaFrameWriter.endTile();
+        return codec != TileEncoder.FAILED;
+    }
+    
+    // Tells controllers the screen is unchanged since the last frame; returns false before the
+    // first frame
+    public boolean sendHeartbeat(boolean idle) {
+        TileGrid grid = tileDiffer.getGrid();
+        if (grid == null) {
+            return false;
+        }
+        heartbeatWriter.begin(frameId - 1, grid, idle ? DeltaFrameWriter.FLAG_IDLE : 0);
+        listener.onFrame(heartbeatWriter.finishBuffer());
+        lastFrameSentTime = clock.uptimeMillis();
+        heartbeatsSent++;
+        return true;
+    }
+    
+    // Uptime of the last frame or heartbeat handed to the listener
+    public long getLastFrameSentTime() {
+        return lastFrameSentTime;
+    }
+    
+    private void logTimingsIfDue() {
+        long now = clock.currentTimeMillis();
+        if (now - lastTimingsLog >= TIMINGS_LOG_INTERVAL_MS) {
+            lastTimingsLog = now;
+            LatencyReport report = latencyTracker.reportAndReset();
+            listener.onLatencyReport(report);
+            logger.d(TAG, "Pipeline timings: " + stageTimings.summarizeAndReset()
+                + String.format(Locale.US, ", end to end p50 %.1f p99 %.1f ms",
+                    report.getP50Ms(FrameLatencyTracker.STAGE_TOTAL), report.getP99Ms(FrameLatencyTracker.STAGE_TOTAL))
+                + ", dropped " + frameQueue.getDroppedCount() + "/" + frameQueue.getOfferedCount()
+                + ", pool allocations " + framePool.getAllocationCount()
+                + ", unchanged skips " + unchangedSkips + ", heartbeats " + heartbeatsSent);
+        }
+    }
+    
+    private void releaseFrame(PipelineFrame frame) {
+        framePool.release(frame, frame.width, frame.height, frame.width, FORMAT_NV21);
+    }
+    
+    // Drops pooled buffers once capture has stopped
+    public void release() {
+        framePool.clear();
+    }
+    
+    private static void setRegion(int[] region, int left, int top, int right, int bottom) {
+        region[0] = left;
+        region[1] = top;
+        region[2] = right;
+        region[3] = bottom;
+    }
+    
+    // A pooled NV21 frame and the tiles that changed in it, waiting for the encode stage.
+    // Only dirty tiles are converted unless the frame is complete.
+    private static class PipelineFrame {
+        final byte[] nv21;
+        final int width;
+        final int height;
+        final BitSet dirtyTiles = new BitSet();
+        final BitSet regionTiles = new BitSet();
+        TileGrid grid;
+        long availableAt;
+        long acquiredAt;
+        long queuedAt;
+        boolean keyframe;
+        boolean complete;
+        boolean hasRegion;
+        int regionLeft;
+        int regionTop;
+        int regionRight;
+        int regionBottom;
+        
+        PipelineFrame(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.nv21 = new byte[Nv21Converter.frameSize(width, height)];
+        }
+        
+        void reset(TileDiffer differ) {
+            grid = differ.getGrid();
+            keyframe = differ.isKeyframe();
+            complete = false;
+            
+            hasRegion = false;
+            regionTiles.clear();
+            dirtyTiles.clear();
+            int[] changedTiles = differ.getChangedTiles();
+            for (int i = 0; i < differ.getChangedCount(); i++) {
+                dirtyTiles.set(changedTiles[i]);
+            }
+        }
+        
+        // Narrows the frame to the tiles the selector sends now
+        void applySelection(RoiSelector selector) {
+            dirtyTiles.clear();
+            dirtyTiles.or(selector.getSendTiles());
+            regionTiles.or(selector.getRegionTiles());
+            hasRegion = selector.hasRegion();
+            regionLeft = selector.getRegionLeft();
+            regionTop = selector.getRegionTop();
+            regionRight = selector.getRegionRight();
+            regionBottom = selector.getRegionBottom();
+        }
+        
+        // Tile bounds in this frame's (possibly downscaled) coordinates as left, top, right, bottom
+        void tileRegion(int tile, int[] region) {
+            int left = grid.tileX(tile);
+            int top = grid.tileY(tile);
+            setRegion(region,
+                Nv21Converter.scaleEdge(left, grid.getWidth(), width),
+                Nv21Converter.scaleEdge(top, grid.getHeight(), height),
+                Nv21Converter.scaleEdge(left + grid.tileWidth(tile), grid.getWidth(), width),
+                Nv21Converter.scaleEdge(top + grid.tileHeight(tile), grid.getHeight(), height));
+        }
+        
+        // A dropped frame's changes must still reach the controller through its replacement.
+        // Tiles it converted that are unchanged here are copied over; returns false if the
+        // frames are incompatible and a keyframe is needed instead.
+        boolean merge(PipelineFrame stale, int[] region) {
+            if (stale.grid != grid || stale.width != width || stale.height != height) {
+                return !stale.keyframe && stale.dirtyTiles.isEmpty();
+            }
+            if (!complete) {
+                int tileCount = grid.getTileCount();
+                for (int tile = 0; tile < tileCount; tile++) {
+                    if (!dirtyTiles.get(tile) && (stale.complete || stale.dirtyTiles.get(tile))) {
+                        tileRegion(tile, region);
+                        Nv21Converter.copyRegion(stale.nv21, nv21, width, height,
+                            region[0], region[1], region[2], region[3]);
+                    }
+                }
+                complete = stale.complete;
+            }
+            keyframe |= stale.keyframe;
+            dirtyTiles.or(stale.dirtyTiles);
+            regionTiles.or(stale.regionTiles);
+            if (!hasRegion && stale.hasRegion) {
+                hasRegion = true;
+                regionLeft = stale.regionLeft;
+                regionTop = stale.regionTop;
+                regionRight = stale.regionRight;
+                regionBottom = stale.regionBottom;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.remotecontrol.guest.capture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Pool of frame-sized objects (bitmaps, pixel buffers) keyed by width, height, stride and
+// pixel config. Acquire and release on a warm pool perform no allocation; the allocation
+// count reports how many objects had to be created and should stay flat in steady state.
+public class FramePool<T> {
+    
+    public interface Allocator<T> {
+        T allocate(int width, int height, int stride, int config);
+        
+        void discard(T item);
+    }
+    
+    private final Allocator<T> allocator;
+    private final int maxPerKey;
+    private final HashMap<Key, ArrayDeque<T>> freeLists = new HashMap<>();
+    private final Key probe = new Key();
+    private long allocationCount;
+    private long reuseCount;
+    
+    public FramePool(Allocator<T> allocator, int maxPerKey) {
+        if (maxPerKey <= 0) {
+            throw new IllegalArgumentException("maxPerKey must be positive");
+        }
+        this.allocator = allocator;
+        this.maxPerKey = maxPerKey;
+    }
+    
+    public T acquire(int width, int height, int stride, int config) {
+        synchronized (this) {
+            ArrayDeque<T> free = freeLists.get(probe.set(width, height, stride, config));
+            T item = free != null ? free.pollLast() : null;
+            if (item != null) {
+                reuseCount++;
+                return item;
+            }
+            allocationCount++;
+        }
+        return allocator.allocate(width, height, stride, config);
+    }
+    
+    public void release(T item, int width, int height, int stride, int config) {
+        boolean pooled;
+        synchronized (this) {
+            ArrayDeque<T> free = freeLists.get(probe.set(width, height, stride, config));
+            if (free == null) {
+                free = new ArrayDeque<>(maxPerKey);
+                freeLists.put(new Key().set(width, height, stride, config), free);
+            }
+            pooled = free.size() < maxPerKey;
+            if (pooled) {
+                free.addLast(item);
+            }
+        }
+        if (!pooled) {
+            allocator.discard(item);
+        }
+    }
+    
+    // Discards every pooled object, e.g. when capture stops
+    public void clear() {
+        List<T> discarded = new ArrayList<>();
+        synchronized (this) {
+            for (ArrayDeque<T> free : freeLists.values()) {
+                discarded.addAll(free);
+            }
+            freeLists.clear();
+        }
+        for (T item : discarded) {
+            allocator.discard(item);
+        }
+    }
+    
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+    
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+    
+    private static final class Key {
+        int width;
+        int height;
+        int stride;
+        int config;
+        
+        Key set(int width, int height, int stride, int config) {
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.config = config;
+            return this;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height
+                && stride == other.stride && config == other.config;
+        }
+        
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + stride;
+            result = 31 * result + config;
+            return result;
+        }
+    }
+}
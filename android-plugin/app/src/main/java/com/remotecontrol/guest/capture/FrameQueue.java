@@ -0,0 +1,73 @@
+package com.remotecontrol.guest.capture;
+
+import java.util.ArrayDeque;
+
+// Bounded hand-off between capture pipeline stages. When the queue is full the oldest
+// frame is evicted, so a slow consumer always works on the freshest frames instead of
+// building up latency.
+public class FrameQueue<T> {
+    
+    // Called under the queue lock before the incoming frame becomes visible to consumers,
+    // so state carried by the evicted frame can be folded into its replacement
+    public interface EvictionListener<T> {
+        void onEvicted(T evicted, T incoming);
+    }
+    
+    private final ArrayDeque<T> frames;
+    private final int capacity;
+    private final EvictionListener<T> evictionListener;
+    private long offeredCount;
+    private long droppedCount;
+    
+    public FrameQueue(int capacity) {
+        this(capacity, null);
+    }
+    
+    public FrameQueue(int capacity, EvictionListener<T> evictionListener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.frames = new ArrayDeque<>(capacity);
+        this.evictionListener = evictionListener;
+    }
+    
+    // Returns the evicted stale frame, or null if nothing was dropped
+    public synchronized T offer(T frame) {
+        T evicted = null;
+        if (frames.size() == capacity) {
+            evicted = frames.pollFirst();
+            droppedCount++;
+            if (evictionListener != null) {
+                evictionListener.onEvicted(evicted, frame);
+            }
+        }
+        frames.addLast(frame);
+        offeredCount++;
+        notifyAll();
+        return evicted;
+    }
+    
+    public synchronized T take() throws InterruptedException {
+        while (frames.isEmpty()) {
+            wait();
+        }
+        return frames.pollFirst();
+    }
+    
+    public synchronized T poll() {
+        return frames.pollFirst();
+    }
+    
+    public synchronized int size() {
+        return frames.size();
+    }
+    
+    public synchronized long getOfferedCount() {
+        return offeredCount;
+    }
+    
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+}
@@ -0,0 +1,89 @@
+package com.remotecontrol.guest.capture;
+
+import java.util.Arrays;
+
+// Fixed-memory latency histogram in the style of HdrHistogram. Values in microseconds are
+// counted in log-linear buckets: every power of two is split into SUB_BUCKETS linear steps, so
+// any recorded value is reported within about 3% regardless of magnitude. Values above the
+// configured maximum land in the last bucket; the exact maximum is tracked separately.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    private final long[] counts;
+    private final long maxTrackableUs;
+    private long totalCount;
+    private long totalUs;
+    private long maxUs;
+    
+    public LatencyHistogram(long maxTrackableUs) {
+        if (maxTrackableUs < SUB_BUCKETS) {
+            throw new IllegalArgumentException("maxTrackableUs must be at least " + SUB_BUCKETS);
+        }
+        this.maxTrackableUs = maxTrackableUs;
+        this.counts = new long[bucketIndex(maxTrackableUs) + 1];
+    }
+    
+    private static int bucketIndex(long valueUs) {
+        if (valueUs < SUB_BUCKETS) {
+            return (int) valueUs;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(valueUs) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((valueUs >>> shift) - SUB_BUCKETS);
+    }
+    
+    // Largest value that falls into the bucket
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long base = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((base + 1) << shift) - 1;
+    }
+    
+    public void record(long valueUs) {
+        long value = Math.max(0, valueUs);
+        counts[bucketIndex(Math.min(value, maxTrackableUs))]++;
+        totalCount++;
+        totalUs += value;
+        if (value > maxUs) {
+            maxUs = value;
+        }
+    }
+    
+    // Value at or below which the given percentage of recorded values fall
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                return Math.min(bucketUpperBound(i), maxUs);
+            }
+        }
+        return maxUs;
+    }
+    
+    public long getCount() {
+        return totalCount;
+    }
+    
+    public long getMaxUs() {
+        return maxUs;
+    }
+    
+    public double getMeanUs() {
+        return totalCount == 0 ? 0 : totalUs / (double) totalCount;
+    }
+    
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalUs = 0;
+        maxUs = 0;
+    }
+}
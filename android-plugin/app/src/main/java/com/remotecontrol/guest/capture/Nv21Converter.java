@@ -0,0 +1,153 @@
+package com.remotecontrol.guest.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Converts RGBA_8888 pixels read straight from an Image plane into NV21 (full-range BT.601,
+// the colour space JPEG uses), downscaling with nearest-neighbour sampling when the output is
+// smaller. Only the requested output region is written, so unchanged tiles cost nothing.
+// Chroma is averaged over each 2x2 block; output dimensions and region edges must be even.
+public class Nv21Converter {
+    private int[] columnOffsets = new int[0];
+    private int mappedSourceWidth;
+    private int mappedOutputWidth;
+    
+    public static int frameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+    
+    public static int evenDimension(int size) {
+        return Math.max(2, size & ~1);
+    }
+    
+    // Output coordinate of a source edge, kept even so regions line up with NV21 chroma pairs
+    public static int scaleEdge(int sourceEdge, int sourceSize, int outputSize) {
+        if (sourceEdge >= sourceSize) {
+            return outputSize;
+        }
+        return (int) ((long) sourceEdge * outputSize / sourceSize) & ~1;
+    }
+    
+    public void convert(ByteBuffer rgba, int sourceWidth, int sourceHeight, int rowStride,
+                        byte[] nv21, int width, int height, int left, int top, int right, int bottom) {
+        if ((width & 1) != 0 || (height & 1) != 0 || nv21.length < frameSize(width, height)) {
+            throw new IllegalArgumentException("Invalid NV21 frame " + width + "x" + height);
+        }
+        if (left < 0 || top < 0 || right > width || bottom > height
+                || ((left | top | right | bottom) & 1) != 0) {
+            throw new IllegalArgumentException("Invalid region " + left + "," + top + "-" + right + "," + bottom);
+        }
+        if (rowStride < sourceWidth * 4 || rgba.remaining() < rowStride * (sourceHeight - 1) + sourceWidth * 4) {
+            throw new IllegalArgumentException("Buffer too small for " + sourceWidth + "x" + sourceHeight);
+        }
+        mapColumns(sourceWidth, width);
+        
+        // Big-endian reads give R in the top byte, little-endian in the bottom one
+        boolean bigEndian = rgba.order() == ByteOrder.BIG_ENDIAN;
+        int redShift = bigEndian ? 24 : 0;
+        int greenShift = bigEndian ? 16 : 8;
+        int blueShift = bigEndian ? 8 : 16;
+        
+        int base = rgba.position();
+        int chromaBase = width * height;
+        int[] columns = columnOffsets;
+        for (int y = top; y < bottom; y += 2) {
+            int row0 = base + (int) ((long) y * sourceHeight / height) * rowStride;
+            int row1 = base + (int) ((long) (y + 1) * sourceHeight / height) * rowStride;
+            int luma0 = y * width;
+            int luma1 = luma0 + width;
+            int chroma = chromaBase + (y >> 1) * width;
+            
+            for (int x = left; x < right; x += 2) {
+                int column0 = columns[x];
+                int column1 = columns[x + 1];
+                int p00 = rgba.getInt(row0 + column0);
+                int p01 = rgba.getInt(row0 + column1);
+                int p10 = rgba.getInt(row1 + column0);
+                int p11 = rgba.getInt(row1 + column1);
+                
+                int r00 = (p00 >>> redShift) & 0xff, g00 = (p00 >>> greenShift) & 0xff, b00 = (p00 >>> blueShift) & 0xff;
+                int r01 = (p01 >>> redShift) & 0xff, g01 = (p01 >>> greenShift) & 0xff, b01 = (p01 >>> blueShift) & 0xff;
+                int r10 = (p10 >>> redShift) & 0xff, g10 = (p10 >>> greenShift) & 0xff, b10 = (p10 >>> blueShift) & 0xff;
+                int r11 = (p11 >>> redShift) & 0xff, g11 = (p11 >>> greenShift) & 0xff, b11 = (p11 >>> blueShift) & 0xff;
+                
+                nv21[luma0 + x] = luma(r00, g00, b00);
+                nv21[luma0 + x + 1] = luma(r01, g01, b01);
+                nv21[luma1 + x] = luma(r10, g10, b10);
+                nv21[luma1 + x + 1] = luma(r11, g11, b11);
+                
+                int r = r00 + r01 + r10 + r11;
+                int g = g00 + g01 + g10 + g11;
+                int b = b00 + b01 + b10 + b11;
+                nv21[chroma + x] = (byte) (((32768 * r - 27439 * g - 5329 * b) >> 18) + 128);
+                nv21[chroma + x + 1] = (byte) (((-11059 * r - 21709 * g + 32768 * b) >> 18) + 128);
+            }
+        }
+    }
+    
+    // Copies a region between two NV21 frames of the same size
+    public static void copyRegion(byte[] source, byte[] target, int width, int height,
+                                  int left, int top, int right, int bottom) {
+        int count = right - left;
+        for (int y = top; y < bottom; y++) {
+            int offset = y * width + left;
+            System.arraycopy(source, offset, target, offset, count);
+        }
+        int chromaBase = width * height;
+        for (int y = top >> 1; y < bottom >> 1; y++) {
+            int offset = chromaBase + y * width + left;
+            System.arraycopy(source, offset, target, offset, count);
+        }
+    }
+    
+    // Decodes a region of an NV21 frame back into opaque ARGB pixels, rows packed at the region
+    // width, with the full-range BT.601 inverse a JPEG decoder applies
+    public static void toArgb(byte[] nv21, int width, int height, int left, int top, int right, int bottom, int[] argb) {
+        int regionWidth = right - left;
+        if (argb.length < regionWidth * (bottom - top)) {
+            throw new IllegalArgumentException("Output too small for " + regionWidth + "x" + (bottom - top));
+        }
+        int chromaBase = width * height;
+        int out = 0;
+        for (int y = top; y < bottom; y++) {
+            int luma = y * width;
+            int chroma = chromaBase + (y >> 1) * width;
+            for (int x = left; x < right; x++) {
+                int pair = chroma + (x & ~1);
+                argb[out++] = yuvToArgb(nv21[luma + x] & 0xff, nv21[pair + 1] & 0xff, nv21[pair] & 0xff);
+            }
+        }
+    }
+    
+    public static int yuvToArgb(int y, int u, int v) {
+        u -= 128;
+        v -= 128;
+        int scaled = (y << 16) + 32768;
+        int r = clamp((scaled + 91881 * v) >> 16);
+        int g = clamp((scaled - 22554 * u - 46802 * v) >> 16);
+        int b = clamp((scaled + 116130 * u) >> 16);
+        return 0xff000000 | r << 16 | g << 8 | b;
+    }
+    
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+    
+    private static byte luma(int r, int g, int b) {
+        return (byte) ((19595 * r + 38470 * g + 7471 * b + 32768) >> 16);
+    }
+    
+    private void mapColumns(int sourceWidth, int width) {
+        if (sourceWidth == mappedSourceWidth && width == mappedOutputWidth) {
+            return;
+        }
+        if (columnOffsets.length < width) {
+            columnOffsets = new int[width];
+        }
+        for (int x = 0; x < width; x++) {
+            columnOffsets[x] = (int) ((long) x * sourceWidth / width) * 4;
+        }
+        mappedSourceWidth = sourceWidth;
+        mappedOutputWidth = width;
+    }
+}
@@ -0,0 +1,187 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.platform.TileEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Lossless tile codec for flat UI and text: a palette of up to MAX_COLORS colours followed by
+// run lengths of palette indices. Lossless with respect to the NV21 frame, so grey text on a
+// plain background comes out exactly as captured. Payload:
+//
+//   short  width
+//   short  height
+//   byte   colour count - 1
+//   colour count x { byte r, byte g, byte b }
+//   runs { byte palette index, varint run length - 1 } covering width x height pixels
+//
+// Runs follow the pixels in row order and may continue into the next row. Varints hold 7 bits
+// per byte, least significant group first, with the top bit set on every byte but the last.
+// Colours are the decoded RGB of each pixel's Y and shared U/V, as Nv21Converter.toArgb gives
+// them. scan() can be used alone to measure a region before deciding to encode it, and
+// write() then emits the scanned region. Not thread-safe.
+public class PaletteTileEncoder implements TileEncoder {
+    public static final int MAX_COLORS = 256;
+    private static final int HEADER_SIZE = 5;
+    private static final int TABLE_SIZE = 1024;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    // Marks a used hash slot, since a YUV key can be 0
+    private static final int USED = 1 << 24;
+    
+    private final int[] tableKeys = new int[TABLE_SIZE];
+    private final int[] tableIndices = new int[TABLE_SIZE];
+    private final int[] usedSlots = new int[MAX_COLORS];
+    private final int[] colors = new int[MAX_COLORS];
+    private int colorCount;
+    private int[] runIndices = new int[1024];
+    private int[] runLengths = new int[1024];
+    private int runCount;
+    private int encodedSize;
+    private int scannedWidth;
+    private int scannedHeight;
+    
+    @Override
+    public int encodeNv21(byte[] nv21, int width, int height, int left, int top, int right, int bottom,
+                          int quality, OutputStream out) {
+        if (!scan(nv21, width, height, left, top, right, bottom, Integer.MAX_VALUE)) {
+            return FAILED;
+        }
+        return write(out);
+    }
+    
+    // Builds the palette and runs of a region. Returns false as soon as the region has more than
+    // MAX_COLORS colours or its payload would exceed maxBytes.
+    public boolean scan(byte[] nv21, int width, int height, int left, int top, int right, int bottom, int maxBytes) {
+        clearTable();
+        runCount = 0;
+        scannedWidth = 0;
+        scannedHeight = 0;
+        encodedSize = HEADER_SIZE;
+        int chromaBase = width * height;
+        int runKey = -1;
+        int runIndex = -1;
+        int runLength = 0;
+        for (int y = top; y < bottom; y++) {
+            int luma = y * width;
+            int chroma = chromaBase + (y >> 1) * width;
+            for (int x = left; x < right; x++) {
+                int pair = chroma + (x & ~1);
+                int key = (nv21[luma + x] & 0xff) << 16 | (nv21[pair + 1] & 0xff) << 8 | (nv21[pair] & 0xff);
+                if (key == runKey) {
+                    runLength++;
+                    continue;
+                }
+                if (runLength > 0 && !addRun(runIndex, runLength, maxBytes)) {
+                    return false;
+                }
+                runIndex = indexOf(key);
+                if (runIndex < 0 || encodedSize > maxBytes) {
+                    return false;
+                }
+                runKey = key;
+                runLength = 1;
+            }
+        }
+        if (runLength > 0 && !addRun(runIndex, runLength, maxBytes)) {
+            return false;
+        }
+        scannedWidth = right - left;
+        scannedHeight = bottom - top;
+        return true;
+    }
+    
+    // Writes the last successfully scanned region
+    public int write(OutputStream out) {
+        if (scannedWidth == 0 || scannedHeight == 0) {
+            return FAILED;
+        }
+        try {
+            out.write(scannedWidth >>> 8);
+            out.write(scannedWidth);
+            out.write(scannedHeight >>> 8);
+            out.write(scannedHeight);
+            out.write(colorCount - 1);
+            for (int i = 0; i < colorCount; i++) {
+                int argb = colors[i];
+                out.write(argb >>> 16);
+                out.write(argb >>> 8);
+                out.write(argb);
+            }
+            for (int i = 0; i < runCount; i++) {
+                out.write(runIndices[i]);
+                int value = runLengths[i] - 1;
+                while (value >= 0x80) {
+                    out.write(value & 0x7f | 0x80);
+                    value >>>= 7;
+                }
+                out.write(value);
+            }
+        } catch (IOException e) {
+            return FAILED;
+        }
+        return DeltaFrameWriter.CODEC_PALETTE;
+    }
+    
+    public int getColorCount() {
+        return colorCount;
+    }
+    
+    public int getRunCount() {
+        return runCount;
+    }
+    
+    // Payload size of the scanned region, so far while a scan is running
+    public int getEncodedSize() {
+        return encodedSize;
+    }
+    
+    private boolean addRun(int index, int length, int maxBytes) {
+        if (runCount == runIndices.length) {
+            runIndices = Arrays.copyOf(runIndices, runCount * 2);
+            runLengths = Arrays.copyOf(runLengths, runCount * 2);
+        }
+        runIndices[runCount] = index;
+        runLengths[runCount] = length;
+        runCount++;
+        encodedSize += 1 + varintSize(length - 1);
+        return encodedSize <= maxBytes;
+    }
+    
+    // Palette index of a YUV key, adding it if there is room; -1 once the palette is full
+    private int indexOf(int key) {
+        int stored = key | USED;
+        int slot = (key * 0x9E3779B1) >>> 22 & TABLE_MASK;
+        while (tableKeys[slot] != 0) {
+            if (tableKeys[slot] == stored) {
+                return tableIndices[slot];
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        if (colorCount == MAX_COLORS) {
+            return -1;
+        }
+        tableKeys[slot] = stored;
+        tableIndices[slot] = colorCount;
+        usedSlots[colorCount] = slot;
+        colors[colorCount] = Nv21Converter.yuvToArgb(key >>> 16, key >>> 8 & 0xff, key & 0xff);
+        encodedSize += 3;
+        return colorCount++;
+    }
+    
+    private void clearTable() {
+        for (int i = 0; i < colorCount; i++) {
+            tableKeys[usedSlots[i]] = 0;
+        }
+        colorCount = 0;
+    }
+    
+    private static int varintSize(int value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
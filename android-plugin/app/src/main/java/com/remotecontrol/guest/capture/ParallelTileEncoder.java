@@ -0,0 +1,195 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.platform.TileEncoder;
+import com.remotecontrol.guest.utils.EncodeBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Encodes several regions of one NV21 frame at once on a fixed pool of workers. The calling
+// thread encodes alongside threadCount - 1 pool threads, each claiming the next region until
+// none are left, so uneven regions still keep every core busy. Every thread gets its own
+// TileEncoder from the factory, since encoders are confined to one thread. Each region is
+// encoded into its own buffer and has to be decodable on its own. One frame at a time: encode()
+// must not be called concurrently.
+public class ParallelTileEncoder {
+    private static final int INITIAL_OUTPUT_CAPACITY = 16 * 1024;
+    
+    public interface EncoderFactory {
+        TileEncoder create();
+    }
+    
+    private final int threadCount;
+    private final ExecutorService executor;
+    private final ThreadLocal<TileEncoder> encoders;
+    private final AtomicInteger nextJob = new AtomicInteger();
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final Runnable worker = this::encodeJobs;
+    private EncodeBuffer[] outputs = new EncodeBuffer[0];
+    private int[] codecs = new int[0];
+    
+    // Job of the frame being encoded, published to the workers by submit()
+    private byte[] nv21;
+    private int width;
+    private int height;
+    private int[] regions;
+    private int[] qualities;
+    private int jobCount;
+    
+    public ParallelTileEncoder(int threadCount, EncoderFactory factory) {
+        this(threadCount, factory, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TileEncoder-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    public ParallelTileEncoder(int threadCount, final EncoderFactory factory, ThreadFactory threadFactory) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threadCount must be positive");
+        }
+        this.threadCount = threadCount;
+        this.executor = threadCount > 1 ? Executors.newFixedThreadPool(threadCount - 1, threadFactory) : null;
+        this.encoders = new ThreadLocal<TileEncoder>() {
+            @Override
+            protected TileEncoder initialValue() {
+                return factory.create();
+            }
+        };
+    }
+    
+    // One worker per core; the encode thread itself is one of them
+    public static int defaultThreadCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+    
+    public int getThreadCount() {
+        return threadCount;
+    }
+    
+    // Encodes count regions, given as left, top, right, bottom quadruples, with the matching
+    // qualities. Returns false if any region failed; the output of region i is getOutput(i)
+    // in the codec getCodec(i) until the next call.
+    public boolean encode(byte[] nv21, int width, int height, int[] regions, int[] qualities, int count) {
+        if (regions.length < count * 4 || qualities.length < count) {
+            throw new IllegalArgumentException("Fewer regions than count " + count);
+        }
+        ensureOutputs(count);
+        this.nv21 = nv21;
+        this.width = width;
+        this.height = height;
+        this.regions = regions;
+        this.qualities = qualities;
+        this.jobCount = count;
+        nextJob.set(0);
+        
+        try {
+            int helpers = executor != null ? Math.min(threadCount, count) - 1 : 0;
+            for (int i = 0; i < helpers; i++) {
+                try {
+                    pending.add(executor.submit(worker));
+                } catch (RejectedExecutionException e) {
+                    break; // Shut down; the calling thread encodes what is left
+                }
+            }
+            encodeJobs();
+            boolean encoded = awaitWorkers();
+            for (int i = 0; i < count && encoded; i++) {
+                encoded = codecs[i] != TileEncoder.FAILED;
+            }
+            return encoded;
+        } finally {
+            this.nv21 = null;
+            this.regions = null;
+            this.qualities = null;
+        }
+    }
+    
+    public EncodeBuffer getOutput(int index) {
+        if (index >= jobCount) {
+            throw new IndexOutOfBoundsException("Region " + index + " of " + jobCount);
+        }
+        return outputs[index];
+    }
+    
+    public int getCodec(int index) {
+        if (index >= jobCount) {
+            throw new IndexOutOfBoundsException("Region " + index + " of " + jobCount);
+        }
+        return codecs[index];
+    }
+    
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    private void encodeJobs() {
+        TileEncoder encoder = encoders.get();
+        int job;
+        while ((job = nextJob.getAndIncrement()) < jobCount) {
+            EncodeBuffer out = outputs[job];
+            out.reset();
+            int base = job * 4;
+            int codec;
+            try {
+                codec = encoder.encodeNv21(nv21, width, height,
+                    regions[base], regions[base + 1], regions[base + 2], regions[base + 3], qualities[job], out);
+            } catch (RuntimeException e) {
+                codec = TileEncoder.FAILED;
+            }
+            codecs[job] = codec;
+        }
+    }
+    
+    // Future.get() also makes the workers' outputs visible to this thread
+    private boolean awaitWorkers() {
+        boolean completed = true;
+        boolean interrupted = false;
+        for (Future<?> future : pending) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Finish the frame first, its buffers are still in use by the workers
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    completed = false;
+                    break;
+                }
+            }
+        }
+        pending.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return completed;
+    }
+    
+    private void ensureOutputs(int count) {
+        if (outputs.length >= count) {
+            return;
+        }
+        EncodeBuffer[] grown = new EncodeBuffer[Math.max(count, outputs.length * 2)];
+        System.arraycopy(outputs, 0, grown, 0, outputs.length);
+        for (int i = outputs.length; i < grown.length; i++) {
+            grown[i] = new EncodeBuffer(INITIAL_OUTPUT_CAPACITY);
+        }
+        outputs = grown;
+        codecs = new int[grown.length];
+    }
+}
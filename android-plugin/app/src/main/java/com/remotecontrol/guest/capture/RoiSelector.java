@@ -0,0 +1,168 @@
+package com.remotecontrol.guest.capture;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Splits the changed tiles of each frame into a region of interest, encoded at high quality,
+// and background tiles, which are only sent every backgroundIntervalMs and otherwise stay
+// pending. The region covers tiles within radius of the last touch while it is recent, then
+// tiles that keep changing (changed again within changeHoldMs), up to maxRegionTiles.
+// Coordinates are in frame pixels, the space controllers send touches in.
+public class RoiSelector {
+    private final int radius;
+    private final long touchHoldMs;
+    private final long changeHoldMs;
+    private final int maxRegionTiles;
+    private final long backgroundIntervalMs;
+    
+    private TileGrid grid;
+    private long[] lastChangedMs = new long[0];
+    private final BitSet pendingTiles = new BitSet();
+    private final BitSet regionTiles = new BitSet();
+    private final BitSet sendTiles = new BitSet();
+    private float touchX;
+    private float touchY;
+    private long touchMs = Long.MIN_VALUE / 2;
+    private long lastBackgroundMs = Long.MIN_VALUE / 2;
+    private int regionLeft;
+    private int regionTop;
+    private int regionRight;
+    private int regionBottom;
+    
+    public RoiSelector(int radius, long touchHoldMs, long changeHoldMs, int maxRegionTiles, long backgroundIntervalMs) {
+        if (radius < 0 || maxRegionTiles <= 0) {
+            throw new IllegalArgumentException("radius must not be negative and maxRegionTiles must be positive");
+        }
+        this.radius = radius;
+        this.touchHoldMs = touchHoldMs;
+        this.changeHoldMs = changeHoldMs;
+        this.maxRegionTiles = maxRegionTiles;
+        this.backgroundIntervalMs = backgroundIntervalMs;
+    }
+    
+    public synchronized void onTouch(float x, float y, long nowMs) {
+        touchX = x;
+        touchY = y;
+        touchMs = nowMs;
+    }
+    
+    // Takes the tiles that changed in a frame; afterwards getSendTiles() holds the tiles to
+    // encode now and getRegionTiles() the subset to encode at high quality. Both are reused
+    // by the next call.
+    public synchronized void select(TileGrid frameGrid, BitSet changedTiles, long nowMs) {
+        if (frameGrid != grid) {
+            grid = frameGrid;
+            lastChangedMs = new long[frameGrid.getTileCount()];
+            Arrays.fill(lastChangedMs, Long.MIN_VALUE / 2);
+            pendingTiles.clear();
+        }
+        regionTiles.clear();
+        sendTiles.clear();
+        regionLeft = regionTop = regionRight = regionBottom = 0;
+        pendingTiles.or(changedTiles);
+        
+        int regionCount = 0;
+        if (nowMs - touchMs <= touchHoldMs) {
+            int columns = grid.getColumns();
+            int tileSize = grid.getTileSize();
+            int firstColumn = clamp((int) ((touchX - radius) / tileSize), columns);
+            int lastColumn = clamp((int) ((touchX + radius) / tileSize), columns);
+            int firstRow = clamp((int) ((touchY - radius) / tileSize), grid.getRows());
+            int lastRow = clamp((int) ((touchY + radius) / tileSize), grid.getRows());
+            for (int row = firstRow; row <= lastRow && regionCount < maxRegionTiles; row++) {
+                for (int column = firstColumn; column <= lastColumn && regionCount < maxRegionTiles; column++) {
+                    addToRegion(row * columns + column);
+                    regionCount++;
+                }
+            }
+        }
+        for (int tile = changedTiles.nextSetBit(0); tile >= 0; tile = changedTiles.nextSetBit(tile + 1)) {
+            if (regionCount < maxRegionTiles && !regionTiles.get(tile) && nowMs - lastChangedMs[tile] <= changeHoldMs) {
+                addToRegion(tile);
+                regionCount++;
+            }
+            lastChangedMs[tile] = nowMs;
+        }
+        
+        regionTiles.and(pendingTiles);
+        sendTiles.or(regionTiles);
+        if (nowMs - lastBackgroundMs >= backgroundIntervalMs) {
+            sendTiles.or(pendingTiles);
+            lastBackgroundMs = nowMs;
+        }
+        pendingTiles.andNot(sendTiles);
+    }
+    
+    // Moves pending tiles into a frame that is sent in full detail, e.g. after ROI mode ends
+    public synchronized void takePending(TileGrid frameGrid, BitSet tiles) {
+        if (frameGrid == grid) {
+            tiles.or(pendingTiles);
+        }
+        pendingTiles.clear();
+    }
+    
+    public synchronized boolean hasPending() {
+        return !pendingTiles.isEmpty();
+    }
+    
+    // Time until pending background tiles are due
+    public synchronized long getBackgroundDelayMs(long nowMs) {
+        return Math.max(0, lastBackgroundMs + backgroundIntervalMs - nowMs);
+    }
+    
+    public synchronized BitSet getSendTiles() {
+        return sendTiles;
+    }
+    
+    public synchronized BitSet getRegionTiles() {
+        return regionTiles;
+    }
+    
+    public synchronized int getPendingCount() {
+        return pendingTiles.cardinality();
+    }
+    
+    public synchronized boolean hasRegion() {
+        return regionRight > regionLeft;
+    }
+    
+    // Bounds of the region in frame pixels, including tiles near the touch that did not change
+    public synchronized int getRegionLeft() {
+        return regionLeft;
+    }
+    
+    public synchronized int getRegionTop() {
+        return regionTop;
+    }
+    
+    public synchronized int getRegionRight() {
+        return regionRight;
+    }
+    
+    public synchronized int getRegionBottom() {
+        return regionBottom;
+    }
+    
+    private void addToRegion(int tile) {
+        int left = grid.tileX(tile);
+        int top = grid.tileY(tile);
+        int right = left + grid.tileWidth(tile);
+        int bottom = top + grid.tileHeight(tile);
+        if (regionRight > regionLeft) {
+            regionLeft = Math.min(regionLeft, left);
+            regionTop = Math.min(regionTop, top);
+            regionRight = Math.max(regionRight, right);
+            regionBottom = Math.max(regionBottom, bottom);
+        } else {
+            regionLeft = left;
+            regionTop = top;
+            regionRight = right;
+            regionBottom = bottom;
+        }
+        regionTiles.set(tile);
+    }
+    
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(count - 1, value));
+    }
+}
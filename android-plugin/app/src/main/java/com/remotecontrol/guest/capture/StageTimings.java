@@ -0,0 +1,55 @@
+package com.remotecontrol.guest.capture;
+
+import java.util.Locale;
+
+// Per-stage timing accumulator for the capture pipeline. Stages are recorded from
+// different threads, summaries are read periodically for logging.
+public class StageTimings {
+    private final String[] stageNames;
+    private final long[] counts;
+    private final long[] totalNanos;
+    private final long[] maxNanos;
+    
+    public StageTimings(String... stageNames) {
+        this.stageNames = stageNames.clone();
+        this.counts = new long[stageNames.length];
+        this.totalNanos = new long[stageNames.length];
+        this.maxNanos = new long[stageNames.length];
+    }
+    
+    public synchronized void record(int stage, long nanos) {
+        counts[stage]++;
+        totalNanos[stage] += nanos;
+        if (nanos > maxNanos[stage]) {
+            maxNanos[stage] = nanos;
+        }
+    }
+    
+    public synchronized double getAverageMillis(int stage) {
+        return counts[stage] == 0 ? 0 : totalNanos[stage] / (double) counts[stage] / 1_000_000.0;
+    }
+    
+    public synchronized double getMaxMillis(int stage) {
+        return maxNanos[stage] / 1_000_000.0;
+    }
+    
+    public synchronized long getCount(int stage) {
+        return counts[stage];
+    }
+    
+    // Formats "stage avg/max (count)" for every stage and starts a new window
+    public synchronized String summarizeAndReset() {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < stageNames.length; i++) {
+            if (i > 0) {
+                summary.append(", ");
+            }
+            summary.append(String.format(Locale.US, "%s %.1f/%.1fms (%d)",
+                stageNames[i], getAverageMillis(i), getMaxMillis(i), counts[i]));
+            counts[i] = 0;
+            totalNanos[i] = 0;
+            maxNanos[i] = 0;
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.remotecontrol.guest.capture;
+
+// Picks the codec of a tile from its content. Flat UI and text on plain backgrounds, few
+// colours in long runs, go to the lossless palette codec when its payload stays within
+// PALETTE_MAX_BYTES_PER_PIXEL, about what JPEG spends on such tiles. Among the rest, tiles
+// with a high density of sharp luma edges (text over images, fine UI detail) go to WebP,
+// which keeps edges cleaner than JPEG at the same size; smooth, photo-like tiles stay JPEG.
+// After a CODEC_PALETTE result the palette encoder holds the scanned tile, ready to write.
+// Not thread-safe.
+public class TileClassifier {
+    private static final float PALETTE_MAX_BYTES_PER_PIXEL = 0.25f;
+    // A horizontal luma step above EDGE_THRESHOLD counts as an edge; every EDGE_ROW_STEP-th row
+    // is sampled
+    private static final int EDGE_THRESHOLD = 48;
+    private static final int EDGE_ROW_STEP = 2;
+    private static final float TEXT_EDGE_DENSITY = 0.06f;
+    
+    private final PaletteTileEncoder palette;
+    private float edgeDensity;
+    
+    public TileClassifier(PaletteTileEncoder palette) {
+        this.palette = palette;
+    }
+    
+    public int classify(byte[] nv21, int width, int height, int left, int top, int right, int bottom) {
+        int pixels = (right - left) * (bottom - top);
+        edgeDensity = 0;
+        if (palette.scan(nv21, width, height, left, top, right, bottom, (int) (pixels * PALETTE_MAX_BYTES_PER_PIXEL))) {
+            return DeltaFrameWriter.CODEC_PALETTE;
+        }
+        edgeDensity = edgeDensity(nv21, width, left, top, right, bottom);
+        return edgeDensity >= TEXT_EDGE_DENSITY ? DeltaFrameWriter.CODEC_WEBP : DeltaFrameWriter.CODEC_JPEG;
+    }
+    
+    // Share of sampled neighbouring pixels with a sharp luma step, 0 for palette tiles
+    public float getEdgeDensity() {
+        return edgeDensity;
+    }
+    
+    private static float edgeDensity(byte[] nv21, int width, int left, int top, int right, int bottom) {
+        int edges = 0;
+        int samples = 0;
+        for (int y = top; y < bottom; y += EDGE_ROW_STEP) {
+            int row = y * width;
+            int previous = nv21[row + left] & 0xff;
+            for (int x = left + 1; x < right; x++) {
+                int luma = nv21[row + x] & 0xff;
+                if (Math.abs(luma - previous) > EDGE_THRESHOLD) {
+                    edges++;
+                }
+                previous = luma;
+            }
+            samples += right - left - 1;
+        }
+        return samples > 0 ? (float) edges / samples : 0;
+    }
+}
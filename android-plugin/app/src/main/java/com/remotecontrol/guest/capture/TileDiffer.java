@@ -0,0 +1,141 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.platform.Clock;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Splits RGBA frames into tiles, hashes each tile and reports which ones changed since
+// the previous frame. Once keyframeIntervalMs have passed on the clock since the last keyframe
+// (and on the first frame, after a resolution change or on request) all tiles are reported as
+// changed.
+public class TileDiffer {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private final int tileSize;
+    private final long keyframeIntervalMs;
+    private final Clock clock;
+    
+    private TileGrid grid;
+    private long[] previousHashes;
+    private long[] currentHashes;
+    private int[] changedTiles;
+    private int changedCount;
+    private boolean keyframe;
+    private volatile boolean keyframeRequested = true;
+    private long lastKeyframeTime;
+    
+    public TileDiffer(int tileSize, long keyframeIntervalMs, Clock clock) {
+        if (tileSize <= 0 || keyframeIntervalMs <= 0) {
+            throw new IllegalArgumentException("tileSize and keyframeIntervalMs must be positive");
+        }
+        this.tileSize = tileSize;
+        this.keyframeIntervalMs = keyframeIntervalMs;
+        this.clock = clock;
+    }
+    
+    // Diff a frame held in an RGBA plane buffer. rowStride is in bytes and may include padding.
+    public int diff(ByteBuffer rgba, int width, int height, int rowStride) {
+        prepare(width, height);
+        int columns = grid.getColumns();
+        for (int y = 0; y < height; y++) {
+            int hashBase = (y / tileSize) * columns;
+            int rowOffset = rgba.position() + y * rowStride;
+            for (int column = 0; column < columns; column++) {
+                int x0 = column * tileSize;
+                int x1 = Math.min(x0 + tileSize, width);
+                long h = currentHashes[hashBase + column];
+                for (int offset = rowOffset + x0 * 4, end = rowOffset + x1 * 4; offset < end; offset += 4) {
+                    h = (h ^ rgba.getInt(offset)) * FNV_PRIME;
+                }
+                currentHashes[hashBase + column] = h;
+            }
+        }
+        return collectChanges();
+    }
+    
+    // Diff a frame held as packed ARGB ints. stride is in pixels.
+    public int diff(int[] pixels, int width, int height, int stride) {
+        prepare(width, height);
+        int columns = grid.getColumns();
+        for (int y = 0; y < height; y++) {
+            int hashBase = (y / tileSize) * columns;
+            int rowOffset = y * stride;
+            for (int column = 0; column < columns; column++) {
+                int x0 = column * tileSize;
+                int x1 = Math.min(x0 + tileSize, width);
+                long h = currentHashes[hashBase + column];
+                for (int i = rowOffset + x0, end = rowOffset + x1; i < end; i++) {
+                    h = (h ^ pixels[i]) * FNV_PRIME;
+                }
+                currentHashes[hashBase + column] = h;
+            }
+        }
+        return collectChanges();
+    }
+    
+    private void prepare(int width, int height) {
+        if (grid == null || !grid.matches(width, height, tileSize)) {
+            grid = new TileGrid(width, height, tileSize);
+            int tileCount = grid.getTileCount();
+            previousHashes = new long[tileCount];
+            currentHashes = new long[tileCount];
+            changedTiles = new int[tileCount];
+            keyframeRequested = true;
+        }
+        Arrays.fill(currentHashes, FNV_OFFSET);
+    }
+    
+    private int collectChanges() {
+        int tileCount = grid.getTileCount();
+        long now = clock.uptimeMillis();
+        keyframe = keyframeRequested || now - lastKeyframeTime >= keyframeIntervalMs;
+        changedCount = 0;
+        for (int i = 0; i < tileCount; i++) {
+            if (keyframe || currentHashes[i] != previousHashes[i]) {
+                changedTiles[changedCount++] = i;
+            }
+        }
+        
+        long[] swap = previousHashes;
+        previousHashes = currentHashes;
+        currentHashes = swap;
+        
+        if (keyframe) {
+            keyframeRequested = false;
+            lastKeyframeTime = now;
+        }
+        return changedCount;
+    }
+    
+    // Forces the next diffed frame to be a keyframe, e.g. when a new controller joins
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+    
+    public boolean isKeyframeRequested() {
+        return keyframeRequested;
+    }
+    
+    // True if the next diffed frame will be a keyframe, requested or because the interval is up
+    public boolean isKeyframeDue() {
+        return keyframeRequested || clock.uptimeMillis() - lastKeyframeTime >= keyframeIntervalMs;
+    }
+    
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+    
+    public int[] getChangedTiles() {
+        return changedTiles;
+    }
+    
+    public int getChangedCount() {
+        return changedCount;
+    }
+    
+    public TileGrid getGrid() {
+        return grid;
+    }
+}
@@ -0,0 +1,65 @@
+package com.remotecontrol.guest.capture;
+
+// Fixed-size tile layout over a frame. Edge tiles are clipped to the frame bounds.
+public class TileGrid {
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    
+    public TileGrid(int width, int height, int tileSize) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid tile grid " + width + "x" + height + " tile " + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int getTileSize() {
+        return tileSize;
+    }
+    
+    public int getColumns() {
+        return columns;
+    }
+    
+    public int getRows() {
+        return rows;
+    }
+    
+    public int getTileCount() {
+        return columns * rows;
+    }
+    
+    public int tileX(int tileIndex) {
+        return (tileIndex % columns) * tileSize;
+    }
+    
+    public int tileY(int tileIndex) {
+        return (tileIndex / columns) * tileSize;
+    }
+    
+    public int tileWidth(int tileIndex) {
+        return Math.min(tileSize, width - tileX(tileIndex));
+    }
+    
+    public int tileHeight(int tileIndex) {
+        return Math.min(tileSize, height - tileY(tileIndex));
+    }
+    
+    public boolean matches(int width, int height, int tileSize) {
+        return this.width == width && this.height == height && this.tileSize == tileSize;
+    }
+}
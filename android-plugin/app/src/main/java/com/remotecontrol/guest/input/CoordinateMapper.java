@@ -0,0 +1,25 @@
+package com.remotecontrol.guest.input;
+
+// Maps controller coordinates, given in pixels of the streamed frames, to device screen
+// coordinates. The frame size follows the capture resolution, which changes at runtime.
+public class CoordinateMapper {
+    private volatile float scaleX = 1.0f;
+    private volatile float scaleY = 1.0f;
+    
+    public void setFrameSize(int frameWidth, int frameHeight, int screenWidth, int screenHeight) {
+        if (frameWidth <= 0 || frameHeight <= 0 || screenWidth <= 0 || screenHeight <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + frameWidth + "x" + frameHeight
+                + " for screen " + screenWidth + "x" + screenHeight);
+        }
+        scaleX = (float) screenWidth / frameWidth;
+        scaleY = (float) screenHeight / frameHeight;
+    }
+    
+    public float mapX(float x) {
+        return x * scaleX;
+    }
+    
+    public float mapY(float y) {
+        return y * scaleY;
+    }
+}
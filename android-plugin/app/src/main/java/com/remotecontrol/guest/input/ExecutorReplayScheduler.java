@@ -0,0 +1,22 @@
+package com.remotecontrol.guest.input;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ExecutorReplayScheduler implements ReplayScheduler {
+    private final ScheduledExecutorService executor;
+    
+    public ExecutorReplayScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+    
+    @Override
+    public void schedule(Runnable task, long delayNanos) {
+        executor.schedule(task, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,175 @@
+package com.remotecontrol.guest.input;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns remote down/move/up samples into continuous strokes. Each pointer is tracked from
+// down to up; its samples are batched into segments that are dispatched together with the
+// segments of every other active pointer, so pinches stay in one gesture. Segments of an
+// unfinished pointer are marked to continue, and the next segment picks up where the last
+// one ended. If the sink is still busy with the previous gesture, samples keep
+// accumulating and go out in the next accepted dispatch.
+public class GestureAssembler {
+    
+    public static final String ACTION_DOWN = "down";
+    public static final String ACTION_MOVE = "move";
+    public static final String ACTION_UP = "up";
+    
+    public interface GestureSink {
+        // Returns false if a gesture is still in progress and this one should be retried later
+        boolean dispatch(List<GestureSegment> segments, long durationMs);
+    }
+    
+    private static final class PointerStream {
+        final GestureSegment segment;
+        float lastX;
+        float lastY;
+        boolean started;
+        boolean ended;
+        boolean dirty;
+        
+        PointerStream(int pointerId) {
+            segment = new GestureSegment(pointerId);
+        }
+    }
+    
+    private final GestureSink sink;
+    private final int maxPointers;
+    private final long batchWindowMs;
+    private final long minSegmentMs;
+    private final long maxSegmentMs;
+    private final Map<Integer, PointerStream> pointers = new LinkedHashMap<>();
+    private final List<GestureSegment> batch = new ArrayList<>();
+    private long lastDispatchMs = Long.MIN_VALUE / 2;
+    private long firstSampleMs = -1;
+    private long lastSampleMs = -1;
+    private long droppedSamples;
+    
+    public GestureAssembler(GestureSink sink, int maxPointers, long batchWindowMs, long minSegmentMs, long maxSegmentMs) {
+        this.sink = sink;
+        this.maxPointers = maxPointers;
+        this.batchWindowMs = batchWindowMs;
+        this.minSegmentMs = minSegmentMs;
+        this.maxSegmentMs = maxSegmentMs;
+    }
+    
+    public synchronized void onTouch(int pointerId, String action, float x, float y, long nowMs) {
+        // Gesture paths may not have negative coordinates
+        x = Math.max(0, x);
+        y = Math.max(0, y);
+        PointerStream stream = pointers.get(pointerId);
+        
+        if (ACTION_DOWN.equals(action)) {
+            if (stream != null) {
+                // Missed the up for this pointer, release it where it was
+                stream.ended = true;
+                stream.dirty = true;
+                if (!flush(nowMs)) {
+                    pointers.remove(pointerId);
+                }
+            }
+            if (pointers.size() >= maxPointers) {
+                droppedSamples++;
+                return;
+            }
+            stream = new PointerStream(pointerId);
+            pointers.put(pointerId, stream);
+            addSample(stream, x, y, nowMs);
+            flush(nowMs);
+        } else if (ACTION_MOVE.equals(action)) {
+            // A move without a down, e.g. after the down was lost or the stream cancelled, would
+            // start a stroke the controller never pressed
+            if (stream == null || stream.ended) {
+                droppedSamples++;
+                return;
+            }
+            addSample(stream, x, y, nowMs);
+            if (nowMs - lastDispatchMs >= batchWindowMs) {
+                flush(nowMs);
+            }
+        } else if (ACTION_UP.equals(action)) {
+            if (stream == null || stream.ended) {
+                droppedSamples++;
+                return;
+            }
+            addSample(stream, x, y, nowMs);
+            stream.ended = true;
+            flush(nowMs);
+        } else {
+            droppedSamples++;
+        }
+    }
+    
+    private void addSample(PointerStream stream, float x, float y, long nowMs) {
+        stream.segment.addPoint(x, y);
+        stream.lastX = x;
+        stream.lastY = y;
+        stream.dirty = true;
+        if (firstSampleMs < 0) {
+            firstSampleMs = nowMs;
+        }
+        lastSampleMs = nowMs;
+    }
+    
+    // Dispatches pending samples; returns true if the sink accepted a gesture
+    public synchronized boolean flush(long nowMs) {
+        if (!hasPending()) {
+            return false;
+        }
+        
+        batch.clear();
+        for (PointerStream stream : pointers.values()) {
+            // Stationary pointers still need a segment or their stroke would be cut off
+            stream.segment.setContinuation(stream.started, !stream.ended);
+            batch.add(stream.segment);
+        }
+        
+        long durationMs = Math.max(minSegmentMs, Math.min(maxSegmentMs, lastSampleMs - firstSampleMs));
+        if (!sink.dispatch(batch, durationMs)) {
+            return false;
+        }
+        
+        Iterator<PointerStream> iterator = pointers.values().iterator();
+        while (iterator.hasNext()) {
+            PointerStream stream = iterator.next();
+            if (stream.ended) {
+                iterator.remove();
+            } else {
+                stream.started = true;
+                stream.dirty = false;
+                stream.segment.restartFromLastPoint();
+            }
+        }
+        lastDispatchMs = nowMs;
+        firstSampleMs = -1;
+        lastSampleMs = -1;
+        return true;
+    }
+    
+    public synchronized boolean hasPending() {
+        for (PointerStream stream : pointers.values()) {
+            if (stream.dirty) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Forgets every tracked pointer, e.g. when the system interrupts gesture dispatch
+    public synchronized void cancel() {
+        pointers.clear();
+        firstSampleMs = -1;
+        lastSampleMs = -1;
+    }
+    
+    public synchronized int getActivePointerCount() {
+        return pointers.size();
+    }
+    
+    public synchronized long getDroppedSamples() {
+        return droppedSamples;
+    }
+}
@@ -0,0 +1,68 @@
+package com.remotecontrol.guest.input;
+
+import java.util.Arrays;
+
+// One pointer's part of a dispatched gesture: the points to trace, and whether the stroke
+// continues a previously dispatched stroke and/or will be continued by the next one.
+// Instances are reused by GestureAssembler and are only valid during dispatch.
+public class GestureSegment {
+    private final int pointerId;
+    private float[] points = new float[32];
+    private int pointCount;
+    private boolean continuesPrevious;
+    private boolean willContinue;
+    
+    GestureSegment(int pointerId) {
+        this.pointerId = pointerId;
+    }
+    
+    public int getPointerId() {
+        return pointerId;
+    }
+    
+    public int getPointCount() {
+        return pointCount;
+    }
+    
+    public float getX(int index) {
+        return points[index * 2];
+    }
+    
+    public float getY(int index) {
+        return points[index * 2 + 1];
+    }
+    
+    public boolean continuesPrevious() {
+        return continuesPrevious;
+    }
+    
+    public boolean willContinue() {
+        return willContinue;
+    }
+    
+    void addPoint(float x, float y) {
+        if (pointCount > 0 && getX(pointCount - 1) == x && getY(pointCount - 1) == y) {
+            return;
+        }
+        if (pointCount * 2 == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[pointCount * 2] = x;
+        points[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+    
+    // Starts the next segment at the point where this one ended
+    void restartFromLastPoint() {
+        if (pointCount > 1) {
+            points[0] = points[(pointCount - 1) * 2];
+            points[1] = points[(pointCount - 1) * 2 + 1];
+            pointCount = 1;
+        }
+    }
+    
+    void setContinuation(boolean continuesPrevious, boolean willContinue) {
+        this.continuesPrevious = continuesPrevious;
+        this.willContinue = willContinue;
+    }
+}
@@ -0,0 +1,118 @@
+package com.remotecontrol.guest.input;
+
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.TouchEvent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Sits between the network and gesture injection. Consecutive "move" samples of a pointer
+// are merged so at most one move per pointer is forwarded per resample interval. This
+// decimates rather than resamples: the latest sample wins and nothing is interpolated, so
+// every forwarded position is one the controller actually sent. Anything else (down, up,
+// keys) flushes the pending moves first and is forwarded immediately, which keeps down/up
+// boundaries and event order intact.
+public class InputCoalescer {
+    
+    private static final class PendingMove {
+        final ControlEvent event = new ControlEvent();
+        final TouchEvent touch = new TouchEvent();
+        boolean pending;
+        
+        PendingMove() {
+            event.setType("touch");
+            event.setTouchData(touch);
+        }
+        
+        // Incoming events may be reused by the decoder, so the fields are copied
+        void set(ControlEvent source) {
+            TouchEvent from = source.getTouchData();
+            touch.setAction(from.getAction());
+            touch.setX(from.getX());
+            touch.setY(from.getY());
+            touch.setPressure(from.getPressure());
+            touch.setPointerId(from.getPointerId());
+            touch.setTimestamp(from.getTimestamp());
+            event.setTimestamp(source.getTimestamp());
+        }
+    }
+    
+    public interface Listener {
+        void onControlEvent(ControlEvent event);
+    }
+    
+    private final Listener listener;
+    private final long resampleIntervalMs;
+    private final Map<Integer, PendingMove> moves = new LinkedHashMap<>();
+    private long lastFlushMs = Long.MIN_VALUE / 2;
+    private int pendingCount;
+    private long receivedCount;
+    private long receivedMoveCount;
+    private long dispatchedCount;
+    
+    public InputCoalescer(Listener listener, long resampleIntervalMs) {
+        this.listener = listener;
+        this.resampleIntervalMs = resampleIntervalMs;
+    }
+    
+    // Returns true if moves are still pending and flush should be called after the interval
+    public synchronized boolean offer(ControlEvent event, long nowMs) {
+        receivedCount++;
+        TouchEvent touch = event.getTouchData();
+        if ("touch".equals(event.getType()) && touch != null && GestureAssembler.ACTION_MOVE.equals(touch.getAction())) {
+            receivedMoveCount++;
+            PendingMove move = moves.get(touch.getPointerId());
+            if (move == null) {
+                move = new PendingMove();
+                moves.put(touch.getPointerId(), move);
+            }
+            if (!move.pending) {
+                move.pending = true;
+                pendingCount++;
+            }
+            move.set(event);
+            
+            if (nowMs - lastFlushMs >= resampleIntervalMs) {
+                flush(nowMs);
+            }
+            return pendingCount > 0;
+        }
+        
+        flush(nowMs);
+        dispatchedCount++;
+        listener.onControlEvent(event);
+        return false;
+    }
+    
+    // Forwards the latest pending move of every pointer
+    public synchronized void flush(long nowMs) {
+        if (pendingCount == 0) {
+            return;
+        }
+        for (PendingMove move : moves.values()) {
+            if (move.pending) {
+                move.pending = false;
+                dispatchedCount++;
+                listener.onControlEvent(move.event);
+            }
+        }
+        pendingCount = 0;
+        lastFlushMs = nowMs;
+    }
+    
+    public synchronized boolean hasPending() {
+        return pendingCount > 0;
+    }
+    
+    public synchronized long getReceivedCount() {
+        return receivedCount;
+    }
+    
+    public synchronized long getReceivedMoveCount() {
+        return receivedMoveCount;
+    }
+    
+    public synchronized long getDispatchedCount() {
+        return dispatchedCount;
+    }
+}
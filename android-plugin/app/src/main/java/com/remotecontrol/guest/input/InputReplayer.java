@@ -0,0 +1,148 @@
+package com.remotecontrol.guest.input;
+
+import com.remotecontrol.guest.models.ControlEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Re-injects a recorded control event sequence with its original timing. Each event's due
+// time is computed from the replay start and the event's own timestamp divided by the speed,
+// so scheduling delays never accumulate into drift; events that are already late are
+// dispatched back to back until the replay has caught up. MAX_SPEED ignores the timestamps
+// and dispatches in batches, yielding to the scheduler between batches so stop() still works.
+public class InputReplayer {
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+    private static final int MAX_SPEED_BATCH = 64;
+    
+    public interface CompletionListener {
+        void onReplayFinished(long dispatched, boolean stopped);
+    }
+    
+    private final List<ControlEvent> events;
+    private final long[] offsetsMs;
+    private final InputCoalescer.Listener sink;
+    private final ReplayScheduler scheduler;
+    private final CompletionListener completionListener;
+    private double speed;
+    private long startNanos;
+    private int nextEvent;
+    private int generation;
+    private boolean running;
+    private long dispatchedCount;
+    private long maxLatenessNanos;
+    
+    public InputReplayer(List<ControlEvent> events, InputCoalescer.Listener sink,
+                         ReplayScheduler scheduler, CompletionListener completionListener) {
+        this.events = new ArrayList<>(events);
+        // Timestamps that step backwards are replayed immediately instead of reordering events
+        offsetsMs = new long[this.events.size()];
+        long previousMs = 0;
+        for (int i = 0; i < offsetsMs.length; i++) {
+            long offsetMs = this.events.get(i).getTimestamp() - this.events.get(0).getTimestamp();
+            previousMs = Math.max(previousMs, offsetMs);
+            offsetsMs[i] = previousMs;
+        }
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.completionListener = completionListener;
+    }
+    
+    // Speed multiplies the original pace: 2.0 replays twice as fast, MAX_SPEED as fast as possible
+    public synchronized void start(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        if (running) {
+            throw new IllegalStateException("Replay already running");
+        }
+        this.speed = speed;
+        running = true;
+        nextEvent = 0;
+        dispatchedCount = 0;
+        maxLatenessNanos = 0;
+        startNanos = scheduler.nanoTime();
+        scheduleNext(++generation);
+    }
+    
+    public void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            generation++;
+        }
+        if (completionListener != null) {
+            completionListener.onReplayFinished(dispatchedCount, true);
+        }
+    }
+    
+    private void scheduleNext(int scheduledGeneration) {
+        long delayNanos = 0;
+        if (speed != MAX_SPEED && nextEvent < events.size()) {
+            delayNanos = dueNanos(nextEvent) - scheduler.nanoTime();
+        }
+        scheduler.schedule(() -> run(scheduledGeneration), delayNanos);
+    }
+    
+    private long dueNanos(int index) {
+        return startNanos + (long) (offsetsMs[index] * 1000000L / speed);
+    }
+    
+    private void run(int scheduledGeneration) {
+        boolean finished;
+        synchronized (this) {
+            if (scheduledGeneration != generation) {
+                return;
+            }
+            long now = scheduler.nanoTime();
+            int batch = 0;
+            while (nextEvent < events.size()) {
+                if (speed == MAX_SPEED) {
+                    if (batch++ == MAX_SPEED_BATCH) {
+                        break;
+                    }
+                } else {
+                    long due = dueNanos(nextEvent);
+                    if (due > now) {
+                        break;
+                    }
+                    maxLatenessNanos = Math.max(maxLatenessNanos, now - due);
+                }
+                dispatchedCount++;
+                sink.onControlEvent(events.get(nextEvent++));
+                // stop() from the sink ends the replay here, not at the end of the batch
+                if (scheduledGeneration != generation) {
+                    return;
+                }
+            }
+            finished = nextEvent == events.size();
+            if (finished) {
+                running = false;
+                generation++;
+            } else {
+                scheduleNext(scheduledGeneration);
+            }
+        }
+        if (finished && completionListener != null) {
+            completionListener.onReplayFinished(dispatchedCount, false);
+        }
+    }
+    
+    public synchronized boolean isRunning() {
+        return running;
+    }
+    
+    public synchronized long getDispatchedCount() {
+        return dispatchedCount;
+    }
+    
+    // Worst delay between an event's due time and its dispatch in the current or last replay
+    public synchronized long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+    
+    public int getEventCount() {
+        return events.size();
+    }
+}
@@ -0,0 +1,9 @@
+package com.remotecontrol.guest.input;
+
+// Time source and task scheduling for InputReplayer. The executor-backed implementation drives
+// real replays; VirtualReplayScheduler runs the same replay against a manually advanced clock.
+public interface ReplayScheduler {
+    long nanoTime();
+    
+    void schedule(Runnable task, long delayNanos);
+}
@@ -0,0 +1,86 @@
+package com.remotecontrol.guest.input;
+
+import java.util.PriorityQueue;
+
+// Deterministic scheduler with a virtual clock that only moves when advanced. Tasks due at the
+// same time run in the order they were scheduled, and tasks scheduled while advancing run in
+// the same call if they fall due before its end, so a replay can be checked on a plain JVM.
+public class VirtualReplayScheduler implements ReplayScheduler {
+    
+    private static final class Task implements Comparable<Task> {
+        final long dueNanos;
+        final long sequence;
+        final Runnable runnable;
+        
+        Task(long dueNanos, long sequence, Runnable runnable) {
+            this.dueNanos = dueNanos;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+        
+        @Override
+        public int compareTo(Task other) {
+            if (dueNanos != other.dueNanos) {
+                return Long.compare(dueNanos, other.dueNanos);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+    
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long nowNanos;
+    private long nextSequence;
+    
+    @Override
+    public synchronized long nanoTime() {
+        return nowNanos;
+    }
+    
+    @Override
+    public synchronized void schedule(Runnable task, long delayNanos) {
+        tasks.add(new Task(nowNanos + Math.max(delayNanos, 0), nextSequence++, task));
+    }
+    
+    // Moves the clock forward, running every task that falls due on the way at its due time
+    public void advanceBy(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("nanos must not be negative");
+        }
+        long target;
+        synchronized (this) {
+            target = nowNanos + nanos;
+        }
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = tasks.peek();
+                if (task == null || task.dueNanos > target) {
+                    nowNanos = target;
+                    return;
+                }
+                tasks.poll();
+                nowNanos = task.dueNanos;
+            }
+            task.runnable.run();
+        }
+    }
+    
+    // Runs tasks until none are left, jumping the clock to each due time
+    public void runAll() {
+        while (true) {
+            long dueNanos;
+            synchronized (this) {
+                Task task = tasks.peek();
+                if (task == null) {
+                    return;
+                }
+                dueNanos = task.dueNanos;
+            }
+            advanceBy(dueNanos - nanoTime());
+        }
+    }
+    
+    public synchronized int getPendingCount() {
+        return tasks.size();
+    }
+}
@@ -0,0 +1,38 @@
+package com.remotecontrol.guest.models;
+
+// Size of the frames being streamed and of the device screen they were captured from.
+// Controllers send touch coordinates in frame pixels.
+public class CaptureSize {
+    private final int width;
+    private final int height;
+    private final int screenWidth;
+    private final int screenHeight;
+    
+    public CaptureSize(int width, int height, int screenWidth, int screenHeight) {
+        this.width = width;
+        this.height = height;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+    
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+    
+    @Override
+    public String toString() {
+        return width + "x" + height + " of " + screenWidth + "x" + screenHeight;
+    }
+}
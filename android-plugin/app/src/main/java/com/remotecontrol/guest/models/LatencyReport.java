@@ -0,0 +1,48 @@
+package com.remotecontrol.guest.models;
+
+// Latency percentiles per pipeline stage over one reporting window, in milliseconds
+public class LatencyReport {
+    private final String[] stages;
+    private final long frameCount;
+    private final double[] p50;
+    private final double[] p90;
+    private final double[] p99;
+    private final double[] max;
+    
+    public LatencyReport(String[] stages, long frameCount, double[] p50, double[] p90, double[] p99, double[] max) {
+        this.stages = stages;
+        this.frameCount = frameCount;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+    
+    public int getStageCount() {
+        return stages.length;
+    }
+    
+    public String getStage(int stage) {
+        return stages[stage];
+    }
+    
+    public long getFrameCount() {
+        return frameCount;
+    }
+    
+    public double getP50Ms(int stage) {
+        return p50[stage];
+    }
+    
+    public double getP90Ms(int stage) {
+        return p90[stage];
+    }
+    
+    public double getP99Ms(int stage) {
+        return p99[stage];
+    }
+    
+    public double getMaxMs(int stage) {
+        return max[stage];
+    }
+}
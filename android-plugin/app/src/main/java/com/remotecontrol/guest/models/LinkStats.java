@@ -0,0 +1,68 @@
+package com.remotecontrol.guest.models;
+
+import java.util.Locale;
+
+// Snapshot of the WebSocket link as measured by the guest. RTT figures come from ping/pong
+// and are -1 until the first pong arrives; throughput counts bytes that left the send buffer.
+public class LinkStats {
+    private final double rttMs;
+    private final double rttJitterMs;
+    private final double minRttMs;
+    private final double lastRttMs;
+    private final double throughputBytesPerSec;
+    private final long queuedBytes;
+    private final long rttSamples;
+    private final long pingTimeouts;
+    
+    public LinkStats(double rttMs, double rttJitterMs, double minRttMs, double lastRttMs,
+                     double throughputBytesPerSec, long queuedBytes, long rttSamples, long pingTimeouts) {
+        this.rttMs = rttMs;
+        this.rttJitterMs = rttJitterMs;
+        this.minRttMs = minRttMs;
+        this.lastRttMs = lastRttMs;
+        this.throughputBytesPerSec = throughputBytesPerSec;
+        this.queuedBytes = queuedBytes;
+        this.rttSamples = rttSamples;
+        this.pingTimeouts = pingTimeouts;
+    }
+    
+    // Smoothed round-trip time
+    public double getRttMs() {
+        return rttMs;
+    }
+    
+    // Smoothed mean deviation of the round-trip time
+    public double getRttJitterMs() {
+        return rttJitterMs;
+    }
+    
+    public double getMinRttMs() {
+        return minRttMs;
+    }
+    
+    public double getLastRttMs() {
+        return lastRttMs;
+    }
+    
+    public double getThroughputBytesPerSec() {
+        return throughputBytesPerSec;
+    }
+    
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+    
+    public long getRttSamples() {
+        return rttSamples;
+    }
+    
+    public long getPingTimeouts() {
+        return pingTimeouts;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "rtt %.1f ms (jitter %.1f, min %.1f), %.0f B/s, %d B queued, %d timeouts",
+            rttMs, rttJitterMs, minRttMs, throughputBytesPerSec, queuedBytes, pingTimeouts);
+    }
+}
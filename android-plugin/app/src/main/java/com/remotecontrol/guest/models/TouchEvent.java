@@ -5,6 +5,7 @@ public class TouchEvent {
     private float x;
     private float y;
     private float pressure;
+    private int pointerId; // 0 for single touch, distinct ids for multi-touch
     private long timestamp;
     
     public TouchEvent() {}
@@ -49,6 +50,14 @@ public class TouchEvent {
         this.pressure = pressure;
     }
     
+    public int getPointerId() {
+        return pointerId;
+    }
+    
+    public void setPointerId(int pointerId) {
+        this.pointerId = pointerId;
+    }
+    
     public long getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,12 @@
+package com.remotecontrol.guest.platform;
+
+// Time sources the capture and input pipelines read. uptimeMillis is the monotonic clock used
+// for scheduling decisions, nanoTime for stage timings and currentTimeMillis for timestamps
+// that leave the device.
+public interface Clock {
+    long uptimeMillis();
+    
+    long nanoTime();
+    
+    long currentTimeMillis();
+}
@@ -0,0 +1,8 @@
+package com.remotecontrol.guest.platform;
+
+// Supplies captured screen frames, newest first
+public interface FrameSource {
+    // Returns the newest available frame and discards older ones, or null if there is none.
+    // The caller must close the frame.
+    RgbaFrame acquireLatestFrame();
+}
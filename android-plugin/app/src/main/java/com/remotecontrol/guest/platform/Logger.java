@@ -0,0 +1,10 @@
+package com.remotecontrol.guest.platform;
+
+// Minimal logging surface of the platform-independent code, mirroring android.util.Log
+public interface Logger {
+    void d(String tag, String message);
+    
+    void w(String tag, String message, Throwable error);
+    
+    void e(String tag, String message, Throwable error);
+}
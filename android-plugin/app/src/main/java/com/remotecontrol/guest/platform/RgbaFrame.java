@@ -0,0 +1,20 @@
+package com.remotecontrol.guest.platform;
+
+import java.nio.ByteBuffer;
+
+// One captured RGBA_8888 frame. Rows are rowStride bytes apart and may be padded. The pixels
+// stay valid until close(), which hands the buffer back to the source.
+public interface RgbaFrame {
+    ByteBuffer getPixels();
+    
+    int getWidth();
+    
+    int getHeight();
+    
+    int getRowStride();
+    
+    // When the frame became available, on the Clock's nanoTime scale
+    long getTimestampNanos();
+    
+    void close();
+}
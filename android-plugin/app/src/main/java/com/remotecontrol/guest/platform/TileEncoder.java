@@ -0,0 +1,14 @@
+package com.remotecontrol.guest.platform;
+
+import java.io.OutputStream;
+
+// Compresses a region of an NV21 frame into one tile payload
+public interface TileEncoder {
+    int FAILED = -1;
+    
+    // Region edges must be even. Returns the codec of the payload, one of the DeltaFrameWriter
+    // CODEC_ values, or FAILED if the region could not be encoded; the stream may then hold a
+    // partial payload.
+    int encodeNv21(byte[] nv21, int width, int height, int left, int top, int right, int bottom,
+                   int quality, OutputStream out);
+}
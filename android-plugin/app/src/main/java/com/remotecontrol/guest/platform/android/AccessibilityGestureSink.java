@@ -0,0 +1,103 @@
+package com.remotecontrol.guest.platform.android;
+
+import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Path;
+import android.os.Handler;
+
+import com.remotecontrol.guest.input.GestureAssembler;
+import com.remotecontrol.guest.input.GestureSegment;
+import com.remotecontrol.guest.platform.Clock;
+import com.remotecontrol.guest.platform.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Dispatches assembled gestures through an AccessibilityService. One gesture is in flight at a
+// time; segments of unfinished pointers continue the stroke dispatched before them. All state
+// is guarded by the assembler's lock, which dispatch() is called with.
+public class AccessibilityGestureSink implements GestureAssembler.GestureSink {
+    private static final String TAG = "AccessibilityGestureSink";
+    
+    private final AccessibilityService service;
+    private final Handler handler;
+    private final Clock clock;
+    private final Logger logger;
+    private final Map<Integer, GestureDescription.StrokeDescription> continuedStrokes = new HashMap<>();
+    private GestureAssembler assembler;
+    private boolean gestureInFlight;
+    
+    private final AccessibilityService.GestureResultCallback gestureCallback = new AccessibilityService.GestureResultCallback() {
+        @Override
+        public void onCompleted(GestureDescription gestureDescription) {
+            synchronized (assembler) {
+                gestureInFlight = false;
+                assembler.flush(clock.uptimeMillis());
+            }
+        }
+        
+        @Override
+        public void onCancelled(GestureDescription gestureDescription) {
+            logger.w(TAG, "Gesture cancelled", null);
+            synchronized (assembler) {
+                // Continued strokes are gone, later samples start new strokes
+                gestureInFlight = false;
+                continuedStrokes.clear();
+                assembler.cancel();
+            }
+        }
+    };
+    
+    public AccessibilityGestureSink(AccessibilityService service, Handler handler, Clock clock, Logger logger) {
+        this.service = service;
+        this.handler = handler;
+        this.clock = clock;
+        this.logger = logger;
+    }
+    
+    // The assembler feeding this sink; completed gestures flush it for the next batch
+    public void attach(GestureAssembler assembler) {
+        this.assembler = assembler;
+    }
+    
+    // Abandons the strokes in progress, e.g. when the service is interrupted
+    public void cancel() {
+        synchronized (assembler) {
+            continuedStrokes.clear();
+            assembler.cancel();
+        }
+    }
+    
+    @Override
+    public boolean dispatch(List<GestureSegment> segments, long durationMs) {
+        if (gestureInFlight) {
+            return false;
+        }
+        
+        GestureDescription.Builder gestureBuilder = new GestureDescription.Builder();
+        for (GestureSegment segment : segments) {
+            Path path = new Path();
+            path.moveTo(segment.getX(0), segment.getY(0));
+            for (int i = 1; i < segment.getPointCount(); i++) {
+                path.lineTo(segment.getX(i), segment.getY(i));
+            }
+            
+            GestureDescription.StrokeDescription previous = continuedStrokes.remove(segment.getPointerId());
+            GestureDescription.StrokeDescription stroke = segment.continuesPrevious() && previous != null
+                ? previous.continueStroke(path, 0, durationMs, segment.willContinue())
+                : new GestureDescription.StrokeDescription(path, 0, durationMs, segment.willContinue());
+            if (segment.willContinue()) {
+                continuedStrokes.put(segment.getPointerId(), stroke);
+            }
+            gestureBuilder.addStroke(stroke);
+        }
+        
+        gestureInFlight = service.dispatchGesture(gestureBuilder.build(), gestureCallback, handler);
+        if (!gestureInFlight) {
+            logger.e(TAG, "Failed to dispatch gesture", null);
+            continuedStrokes.clear();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package com.remotecontrol.guest.platform.android;
+
+import android.os.SystemClock;
+
+import com.remotecontrol.guest.platform.Clock;
+
+public class AndroidClock implements Clock {
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+    
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+    
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
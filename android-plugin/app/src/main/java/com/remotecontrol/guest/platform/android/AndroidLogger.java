@@ -0,0 +1,22 @@
+package com.remotecontrol.guest.platform.android;
+
+import android.util.Log;
+
+import com.remotecontrol.guest.platform.Logger;
+
+public class AndroidLogger implements Logger {
+    @Override
+    public void d(String tag, String message) {
+        Log.d(tag, message);
+    }
+    
+    @Override
+    public void w(String tag, String message, Throwable error) {
+        Log.w(tag, message, error);
+    }
+    
+    @Override
+    public void e(String tag, String message, Throwable error) {
+        Log.e(tag, message, error);
+    }
+}
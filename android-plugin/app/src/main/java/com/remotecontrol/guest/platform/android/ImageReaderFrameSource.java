@@ -0,0 +1,65 @@
+package com.remotecontrol.guest.platform.android;
+
+import android.media.Image;
+import android.media.ImageReader;
+
+import com.remotecontrol.guest.platform.FrameSource;
+import com.remotecontrol.guest.platform.RgbaFrame;
+
+import java.nio.ByteBuffer;
+
+// Frames rendered by a VirtualDisplay into an RGBA_8888 ImageReader. Image timestamps use the
+// same monotonic clock as System.nanoTime.
+public class ImageReaderFrameSource implements FrameSource {
+    private final ImageReader imageReader;
+    
+    public ImageReaderFrameSource(ImageReader imageReader) {
+        this.imageReader = imageReader;
+    }
+    
+    @Override
+    public RgbaFrame acquireLatestFrame() {
+        Image image = imageReader.acquireLatestImage();
+        return image != null ? new ImageFrame(image) : null;
+    }
+    
+    private static final class ImageFrame implements RgbaFrame {
+        private final Image image;
+        private final Image.Plane plane;
+        
+        ImageFrame(Image image) {
+            this.image = image;
+            this.plane = image.getPlanes()[0];
+        }
+        
+        @Override
+        public ByteBuffer getPixels() {
+            return plane.getBuffer();
+        }
+        
+        @Override
+        public int getWidth() {
+            return image.getWidth();
+        }
+        
+        @Override
+        public int getHeight() {
+            return image.getHeight();
+        }
+        
+        @Override
+        public int getRowStride() {
+            return plane.getRowStride();
+        }
+        
+        @Override
+        public long getTimestampNanos() {
+            return image.getTimestamp();
+        }
+        
+        @Override
+        public void close() {
+            image.close();
+        }
+    }
+}
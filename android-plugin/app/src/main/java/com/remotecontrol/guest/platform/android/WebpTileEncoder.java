@@ -0,0 +1,49 @@
+package com.remotecontrol.guest.platform.android;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.capture.Nv21Converter;
+import com.remotecontrol.guest.platform.TileEncoder;
+
+import java.io.OutputStream;
+
+// Lossy WebP tiles through Bitmap.compress. The NV21 region is decoded to ARGB first, so a
+// tile costs more than through YuvImage; the classifier only picks WebP for tiles with sharp
+// edges. The bitmap is reused while the tile size stays the same. Confined to one thread.
+public class WebpTileEncoder implements TileEncoder {
+    private static final String TAG = "WebpTileEncoder";
+    
+    private int[] pixels = new int[0];
+    private Bitmap bitmap;
+    
+    @Override
+    @SuppressWarnings("deprecation")
+    public int encodeNv21(byte[] nv21, int width, int height, int left, int top, int right, int bottom,
+                          int quality, OutputStream out) {
+        int regionWidth = right - left;
+        int regionHeight = bottom - top;
+        try {
+            if (bitmap == null || bitmap.getWidth() != regionWidth || bitmap.getHeight() != regionHeight) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                bitmap = Bitmap.createBitmap(regionWidth, regionHeight, Bitmap.Config.ARGB_8888);
+            }
+            if (pixels.length < regionWidth * regionHeight) {
+                pixels = new int[regionWidth * regionHeight];
+            }
+            Nv21Converter.toArgb(nv21, width, height, left, top, right, bottom, pixels);
+            bitmap.setPixels(pixels, 0, regionWidth, 0, 0, regionWidth, regionHeight);
+            // Plain WEBP is lossy below quality 100 before WEBP_LOSSY exists
+            Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+            return bitmap.compress(format, Math.min(quality, 99), out) ? DeltaFrameWriter.CODEC_WEBP : FAILED;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "WebP encoding failed", e);
+            return FAILED;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.remotecontrol.guest.platform.android;
+
+import android.graphics.Rect;
+
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.platform.TileEncoder;
+import com.remotecontrol.guest.utils.ImageEncoder;
+
+import java.io.OutputStream;
+
+// JPEG tiles through YuvImage.compressToJpeg. An instance is confined to the encode thread.
+public class YuvImageTileEncoder implements TileEncoder {
+    private final Rect region = new Rect();
+    
+    @Override
+    public int encodeNv21(byte[] nv21, int width, int height, int left, int top, int right, int bottom,
+                          int quality, OutputStream out) {
+        region.set(left, top, right, bottom);
+        return ImageEncoder.encodeNv21(nv21, width, height, region, quality, out) ? DeltaFrameWriter.CODEC_JPEG : FAILED;
+    }
+}
@@ -0,0 +1,65 @@
+package com.remotecontrol.guest.platform.jvm;
+
+import com.remotecontrol.guest.platform.RgbaFrame;
+
+import java.nio.ByteBuffer;
+
+// RgbaFrame over a plain heap buffer. Closing is counted but does not invalidate the pixels.
+public class BufferFrame implements RgbaFrame {
+    private final ByteBuffer pixels;
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final long timestampNanos;
+    private int closeCount;
+    
+    public BufferFrame(byte[] pixels, int width, int height, int rowStride, long timestampNanos) {
+        if (rowStride < width * 4 || pixels.length < rowStride * (height - 1) + width * 4) {
+            throw new IllegalArgumentException("Buffer too small for " + width + "x" + height
+                + " with stride " + rowStride);
+        }
+        this.pixels = ByteBuffer.wrap(pixels);
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.timestampNanos = timestampNanos;
+    }
+    
+    @Override
+    public ByteBuffer getPixels() {
+        return pixels.duplicate();
+    }
+    
+    @Override
+    public int getWidth() {
+        return width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return height;
+    }
+    
+    @Override
+    public int getRowStride() {
+        return rowStride;
+    }
+    
+    @Override
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+    
+    @Override
+    public synchronized void close() {
+        closeCount++;
+    }
+    
+    public synchronized boolean isClosed() {
+        return closeCount > 0;
+    }
+    
+    public synchronized int getCloseCount() {
+        return closeCount;
+    }
+}
@@ -0,0 +1,55 @@
+package com.remotecontrol.guest.platform.jvm;
+
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.platform.TileEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Deterministic stand-in for the JPEG encoder: writes a small payload derived from the region's
+// luma so identical input always yields identical frames, and counts the work it was given
+public class FakeTileEncoder implements TileEncoder {
+    private int calls;
+    private long encodedPixels;
+    private boolean failing;
+    
+    @Override
+    public synchronized int encodeNv21(byte[] nv21, int width, int height, int left, int top,
+                                       int right, int bottom, int quality, OutputStream out) {
+        calls++;
+        if (failing) {
+            return FAILED;
+        }
+        int hash = 17;
+        for (int y = top; y < bottom; y++) {
+            int row = y * width;
+            for (int x = left; x < right; x++) {
+                hash = hash * 31 + nv21[row + x];
+            }
+        }
+        encodedPixels += (long) (right - left) * (bottom - top);
+        try {
+            out.write(quality);
+            out.write(hash >>> 24);
+            out.write(hash >>> 16);
+            out.write(hash >>> 8);
+            out.write(hash);
+        } catch (IOException e) {
+            return FAILED;
+        }
+        return DeltaFrameWriter.CODEC_JPEG;
+    }
+    
+    // Makes every following call fail, as a real encoder would on a bad region
+    public synchronized void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+    
+    public synchronized int getCallCount() {
+        return calls;
+    }
+    
+    public synchronized long getEncodedPixels() {
+        return encodedPixels;
+    }
+}
@@ -0,0 +1,46 @@
+package com.remotecontrol.guest.platform.jvm;
+
+import com.remotecontrol.guest.platform.Clock;
+
+// Clock that only moves when told to, so timing-dependent behaviour is reproducible
+public class ManualClock implements Clock {
+    private static final long NANOS_PER_MILLI = 1000000L;
+    
+    private long nanos;
+    private long epochOffsetMillis;
+    
+    public ManualClock() {
+        this(0, 0);
+    }
+    
+    public ManualClock(long uptimeMillis, long epochMillis) {
+        nanos = uptimeMillis * NANOS_PER_MILLI;
+        epochOffsetMillis = epochMillis - uptimeMillis;
+    }
+    
+    public synchronized void advanceMillis(long millis) {
+        advanceNanos(millis * NANOS_PER_MILLI);
+    }
+    
+    public synchronized void advanceNanos(long delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("Clock cannot go backwards: " + delta);
+        }
+        nanos += delta;
+    }
+    
+    @Override
+    public synchronized long uptimeMillis() {
+        return nanos / NANOS_PER_MILLI;
+    }
+    
+    @Override
+    public synchronized long nanoTime() {
+        return nanos;
+    }
+    
+    @Override
+    public synchronized long currentTimeMillis() {
+        return uptimeMillis() + epochOffsetMillis;
+    }
+}
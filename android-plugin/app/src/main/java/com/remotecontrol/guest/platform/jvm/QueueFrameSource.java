@@ -0,0 +1,35 @@
+package com.remotecontrol.guest.platform.jvm;
+
+import com.remotecontrol.guest.platform.FrameSource;
+import com.remotecontrol.guest.platform.RgbaFrame;
+
+import java.util.ArrayDeque;
+
+// FrameSource fed by the caller. Like an ImageReader, acquiring returns the newest frame and
+// closes the ones it skips.
+public class QueueFrameSource implements FrameSource {
+    private final ArrayDeque<RgbaFrame> frames = new ArrayDeque<>();
+    private int droppedCount;
+    
+    public synchronized void offer(RgbaFrame frame) {
+        frames.addLast(frame);
+    }
+    
+    @Override
+    public synchronized RgbaFrame acquireLatestFrame() {
+        RgbaFrame latest = frames.pollLast();
+        while (!frames.isEmpty()) {
+            frames.pollFirst().close();
+            droppedCount++;
+        }
+        return latest;
+    }
+    
+    public synchronized int getPendingCount() {
+        return frames.size();
+    }
+    
+    public synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+}
@@ -0,0 +1,71 @@
+package com.remotecontrol.guest.platform.jvm;
+
+import com.remotecontrol.guest.input.GestureAssembler;
+import com.remotecontrol.guest.input.GestureSegment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Gesture sink that records what would have been dispatched. While busy it refuses gestures,
+// like the accessibility service does while a stroke is still in flight.
+public class RecordingGestureSink implements GestureAssembler.GestureSink {
+    public static final class Dispatch {
+        public final List<Stroke> strokes;
+        public final long durationMs;
+        
+        Dispatch(List<Stroke> strokes, long durationMs) {
+            this.strokes = strokes;
+            this.durationMs = durationMs;
+        }
+    }
+    
+    // Copy of a GestureSegment, which the assembler reuses once dispatch returns
+    public static final class Stroke {
+        public final int pointerId;
+        // x, y pairs
+        public final float[] points;
+        public final boolean continuesPrevious;
+        public final boolean willContinue;
+        
+        Stroke(GestureSegment segment) {
+            pointerId = segment.getPointerId();
+            points = new float[segment.getPointCount() * 2];
+            for (int i = 0; i < segment.getPointCount(); i++) {
+                points[i * 2] = segment.getX(i);
+                points[i * 2 + 1] = segment.getY(i);
+            }
+            continuesPrevious = segment.continuesPrevious();
+            willContinue = segment.willContinue();
+        }
+    }
+    
+    private final List<Dispatch> dispatches = new ArrayList<>();
+    private boolean busy;
+    private int rejectedCount;
+    
+    @Override
+    public synchronized boolean dispatch(List<GestureSegment> segments, long durationMs) {
+        if (busy) {
+            rejectedCount++;
+            return false;
+        }
+        List<Stroke> strokes = new ArrayList<>();
+        for (GestureSegment segment : segments) {
+            strokes.add(new Stroke(segment));
+        }
+        dispatches.add(new Dispatch(strokes, durationMs));
+        return true;
+    }
+    
+    public synchronized void setBusy(boolean busy) {
+        this.busy = busy;
+    }
+    
+    public synchronized List<Dispatch> getDispatches() {
+        return new ArrayList<>(dispatches);
+    }
+    
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+}
@@ -0,0 +1,68 @@
+package com.remotecontrol.guest.platform.jvm;
+
+import com.remotecontrol.guest.platform.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps log lines in memory instead of printing them; echo additionally writes them to stderr
+public class RecordingLogger implements Logger {
+    private final List<String> lines = new ArrayList<>();
+    private final boolean echo;
+    private int warnings;
+    private int errors;
+    
+    public RecordingLogger() {
+        this(false);
+    }
+    
+    public RecordingLogger(boolean echo) {
+        this.echo = echo;
+    }
+    
+    @Override
+    public void d(String tag, String message) {
+        record("D", tag, message, null);
+    }
+    
+    @Override
+    public void w(String tag, String message, Throwable error) {
+        record("W", tag, message, error);
+    }
+    
+    @Override
+    public void e(String tag, String message, Throwable error) {
+        record("E", tag, message, error);
+    }
+    
+    public synchronized List<String> getLines() {
+        return new ArrayList<>(lines);
+    }
+    
+    public synchronized int getWarningCount() {
+        return warnings;
+    }
+    
+    public synchronized int getErrorCount() {
+        return errors;
+    }
+    
+    public synchronized void clear() {
+        lines.clear();
+        warnings = 0;
+        errors = 0;
+    }
+    
+    private synchronized void record(String level, String tag, String message, Throwable error) {
+        if ("W".equals(level)) {
+            warnings++;
+        } else if ("E".equals(level)) {
+            errors++;
+        }
+        String line = level + "/" + tag + ": " + message + (error != null ? " (" + error + ")" : "");
+        lines.add(line);
+        if (echo) {
+            System.err.println(line);
+        }
+    }
+}
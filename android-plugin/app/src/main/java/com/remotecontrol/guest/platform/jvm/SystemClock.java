@@ -0,0 +1,23 @@
+package com.remotecontrol.guest.platform.jvm;
+
+import com.remotecontrol.guest.platform.Clock;
+
+// Wall and monotonic time of the running JVM, for profiling runs
+public class SystemClock implements Clock {
+    private final long startNanos = System.nanoTime();
+    
+    @Override
+    public long uptimeMillis() {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+    
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+    
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
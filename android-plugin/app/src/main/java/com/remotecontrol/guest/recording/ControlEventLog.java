@@ -0,0 +1,87 @@
+package com.remotecontrol.guest.recording;
+
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.KeyEvent;
+import com.remotecontrol.guest.models.TouchEvent;
+import com.remotecontrol.guest.transport.ControlEventCodec;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Loads control event sequences for replay, either from a session recording directory or from
+// a JSON lines file holding one control event message per line (the same JSON the server
+// sends), which is convenient for hand-written reproduction scripts.
+public class ControlEventLog {
+    
+    private ControlEventLog() {}
+    
+    public static List<ControlEvent> readRecording(File directory, long indexIntervalUs) throws IOException {
+        List<ControlEvent> events = new ArrayList<>();
+        ControlEventCodec codec = new ControlEventCodec();
+        try (RecordingReader reader = new RecordingReader(directory, indexIntervalUs)) {
+            RecordingEntry entry;
+            while ((entry = reader.next()) != null) {
+                if (entry.getType() != RecordingEntry.TYPE_CONTROL_EVENT) {
+                    continue;
+                }
+                ControlEvent event = codec.decode(entry.getPayload());
+                if (event != null) {
+                    // The codec reuses its event instance between decodes
+                    events.add(copy(event));
+                }
+            }
+        }
+        return events;
+    }
+    
+    public static List<ControlEvent> readJsonLines(File file, Gson gson) throws IOException {
+        List<ControlEvent> events = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    ControlEvent event = gson.fromJson(line, ControlEvent.class);
+                    if (event != null && event.getType() != null) {
+                        events.add(event);
+                    }
+                } catch (JsonParseException e) {
+                    throw new IOException("Invalid control event on line " + lineNumber + " of " + file, e);
+                }
+            }
+        }
+        return events;
+    }
+    
+    private static ControlEvent copy(ControlEvent source) {
+        ControlEvent event = new ControlEvent(source.getType(), source.getTimestamp());
+        TouchEvent touch = source.getTouchData();
+        if (touch != null) {
+            TouchEvent touchCopy = new TouchEvent(touch.getAction(), touch.getX(), touch.getY(), touch.getTimestamp());
+            touchCopy.setPressure(touch.getPressure());
+            touchCopy.setPointerId(touch.getPointerId());
+            event.setTouchData(touchCopy);
+        }
+        KeyEvent key = source.getKeyData();
+        if (key != null) {
+            KeyEvent keyCopy = new KeyEvent(key.getAction(), key.getKeyCode(), key.getTimestamp());
+            keyCopy.setMetaState(key.getMetaState());
+            event.setKeyData(keyCopy);
+        }
+        return event;
+    }
+}
@@ -0,0 +1,45 @@
+package com.remotecontrol.guest.recording;
+
+import java.nio.ByteBuffer;
+
+// One entry of a session recording. Readers reuse a single instance and hand out a payload
+// slice of the mapped segment, so both are only valid until the next call to next().
+public class RecordingEntry {
+    public static final short TYPE_FRAME = 1;
+    public static final short TYPE_CONTROL_EVENT = 2;
+    
+    // The record starts a decodable sequence (a keyframe), replay may begin here
+    public static final short FLAG_SYNC = 0x01;
+    
+    private short type;
+    private short flags;
+    private long timestampUs;
+    private ByteBuffer payload;
+    
+    void set(short type, short flags, long timestampUs, ByteBuffer payload) {
+        this.type = type;
+        this.flags = flags;
+        this.timestampUs = timestampUs;
+        this.payload = payload;
+    }
+    
+    public short getType() {
+        return type;
+    }
+    
+    public short getFlags() {
+        return flags;
+    }
+    
+    public boolean isSync() {
+        return (flags & FLAG_SYNC) != 0;
+    }
+    
+    public long getTimestampUs() {
+        return timestampUs;
+    }
+    
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+}
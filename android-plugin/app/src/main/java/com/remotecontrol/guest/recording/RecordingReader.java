@@ -0,0 +1,124 @@
+package com.remotecontrol.guest.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads a recording directory written by RecordingWriter as one continuous stream of records.
+// Seeking binary-searches the segments by their first timestamp and then the segment's sparse
+// index, so positioning costs O(log n) plus a scan of at most two index intervals.
+public class RecordingReader implements Closeable {
+    private final SegmentReader[] segments;
+    private int current;
+    
+    public RecordingReader(File directory, long indexIntervalUs) throws IOException {
+        List<SegmentReader> opened = new ArrayList<>();
+        try {
+            for (File file : RecordingWriter.listSegments(directory)) {
+                SegmentReader segment = new SegmentReader(file, indexIntervalUs);
+                if (segment.isEmpty()) {
+                    segment.close();
+                } else {
+                    opened.add(segment);
+                }
+            }
+        } catch (IOException e) {
+            for (SegmentReader segment : opened) {
+                segment.close();
+            }
+            throw e;
+        }
+        segments = opened.toArray(new SegmentReader[0]);
+    }
+    
+    // Returns the next record in timestamp order, or null at the end of the recording. The
+    // record and its payload are only valid until the next call.
+    public RecordingEntry next() {
+        while (current < segments.length) {
+            RecordingEntry record = segments[current].next();
+            if (record != null) {
+                return record;
+            }
+            current++;
+            if (current < segments.length) {
+                segments[current].rewind();
+            }
+        }
+        return null;
+    }
+    
+    public void rewind() {
+        current = 0;
+        if (segments.length > 0) {
+            segments[0].rewind();
+        }
+    }
+    
+    // Positions the reader at the first record with a timestamp at or after the given one
+    public void seek(long timestampUs) {
+        current = segmentFor(timestampUs);
+        if (current < segments.length) {
+            segments[current].seek(timestampUs);
+        }
+    }
+    
+    // Positions the reader at the latest indexed sync record at or before the timestamp, falling
+    // back to the start of the recording, and returns the timestamp replay resumes from
+    public long seekToSync(long timestampUs) {
+        for (int i = segmentFor(timestampUs); i >= 0 && i < segments.length; i--) {
+            long syncUs = segments[i].seekToSync(timestampUs);
+            if (syncUs >= 0) {
+                current = i;
+                return syncUs;
+            }
+        }
+        rewind();
+        return getStartTimestampUs();
+    }
+    
+    // Last segment starting at or before the timestamp, or the first segment
+    private int segmentFor(long timestampUs) {
+        int low = 0;
+        int high = segments.length - 1;
+        int result = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (segments[mid].getFirstTimestampUs() <= timestampUs) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+    
+    public long getStartTimestampUs() {
+        return segments.length > 0 ? segments[0].getFirstTimestampUs() : -1;
+    }
+    
+    public long getEndTimestampUs() {
+        return segments.length > 0 ? segments[segments.length - 1].getLastTimestampUs() : -1;
+    }
+    
+    public int getSegmentCount() {
+        return segments.length;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (SegmentReader segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
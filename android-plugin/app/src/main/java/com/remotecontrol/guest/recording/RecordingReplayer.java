@@ -0,0 +1,40 @@
+package com.remotecontrol.guest.recording;
+
+// Walks a time range of a recording for playback and audit tools. Playback starts at the last
+// sync point before the requested start, so frames before it are handed over as catch-up: the
+// consumer applies them to rebuild the screen without presenting them.
+public class RecordingReplayer {
+    
+    public interface Listener {
+        // Return false to stop the replay early
+        boolean onRecord(RecordingEntry record, boolean catchUp);
+    }
+    
+    private final RecordingReader reader;
+    
+    public RecordingReplayer(RecordingReader reader) {
+        this.reader = reader;
+    }
+    
+    // Returns the number of records delivered
+    public long replay(long fromUs, long toUs, Listener listener) {
+        if (toUs < fromUs) {
+            throw new IllegalArgumentException("toUs must not be before fromUs");
+        }
+        reader.seekToSync(fromUs);
+        long delivered = 0;
+        RecordingEntry record;
+        while ((record = reader.next()) != null && record.getTimestampUs() <= toUs) {
+            boolean catchUp = record.getTimestampUs() < fromUs;
+            // Control events before the start already happened; only frames rebuild state
+            if (catchUp && record.getType() != RecordingEntry.TYPE_FRAME) {
+                continue;
+            }
+            delivered++;
+            if (!listener.onRecord(record, catchUp)) {
+                break;
+            }
+        }
+        return delivered;
+    }
+}
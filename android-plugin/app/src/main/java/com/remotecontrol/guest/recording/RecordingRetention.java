@@ -0,0 +1,83 @@
+package com.remotecontrol.guest.recording;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Keeps the recordings of all sessions (one directory each under a common root) under a single
+// byte cap. Whole sessions are deleted, least recently written first, so a kept recording is
+// never left with holes.
+public final class RecordingRetention {
+    
+    private RecordingRetention() {
+    }
+    
+    // Deletes session directories under root until the others fit in maxBytes; the directory
+    // named keep is neither counted nor deleted. Returns the number of sessions deleted.
+    public static int prune(File root, long maxBytes, String keep) {
+        File[] directories = root.listFiles(File::isDirectory);
+        if (directories == null) {
+            return 0;
+        }
+        List<Session> sessions = new ArrayList<>();
+        long totalBytes = 0;
+        for (File directory : directories) {
+            if (directory.getName().equals(keep)) {
+                continue;
+            }
+            Session session = new Session(directory);
+            sessions.add(session);
+            totalBytes += session.bytes;
+        }
+        Collections.sort(sessions, (a, b) -> Long.compare(a.lastWritten, b.lastWritten));
+        
+        int deleted = 0;
+        for (Session session : sessions) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            delete(session.directory);
+            totalBytes -= session.bytes;
+            deleted++;
+        }
+        return deleted;
+    }
+    
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+    
+    private static final class Session {
+        final File directory;
+        long bytes;
+        long lastWritten;
+        
+        Session(File directory) {
+            this.directory = directory;
+            lastWritten = directory.lastModified();
+            measure(directory);
+        }
+        
+        private void measure(File file) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    measure(child);
+                } else {
+                    bytes += child.length();
+                    lastWritten = Math.max(lastWritten, child.lastModified());
+                }
+            }
+        }
+    }
+}
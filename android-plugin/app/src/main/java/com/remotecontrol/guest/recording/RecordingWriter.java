@@ -0,0 +1,132 @@
+package com.remotecontrol.guest.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Writes a recording as a directory of numbered segments (segment-000001.seg, ...). A segment is
+// closed and a new one started when the next record does not fit under the segment size cap;
+// once the total size would exceed its cap the oldest closed segments are deleted. Appending
+// to an existing directory continues after its highest segment number.
+public class RecordingWriter implements Closeable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    
+    private final File directory;
+    private final int maxSegmentBytes;
+    private final long maxTotalBytes;
+    private final long indexIntervalUs;
+    private final ArrayDeque<File> closedSegments = new ArrayDeque<>();
+    private long closedBytes;
+    private int nextSegmentNumber = 1;
+    private SegmentWriter segment;
+    private int segmentsOpened;
+    private long recordCount;
+    
+    public RecordingWriter(File directory, int maxSegmentBytes, long maxTotalBytes, long indexIntervalUs)
+            throws IOException {
+        if (maxTotalBytes < maxSegmentBytes) {
+            throw new IllegalArgumentException("maxTotalBytes must be at least maxSegmentBytes");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create recording directory " + directory);
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.indexIntervalUs = indexIntervalUs;
+        
+        for (File existing : listSegments(directory)) {
+            closedSegments.addLast(existing);
+            closedBytes += sizeOf(existing);
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(existing) + 1);
+        }
+    }
+    
+    // Returns false only when the record is larger than a whole segment
+    public boolean append(short type, short flags, long timestampUs, ByteBuffer payload) throws IOException {
+        if (SegmentWriter.HEADER_SIZE + SegmentWriter.RECORD_HEADER_SIZE + payload.remaining() > maxSegmentBytes) {
+            return false;
+        }
+        if (segment == null) {
+            openSegment(timestampUs);
+        }
+        if (!segment.append(type, flags, timestampUs, payload)) {
+            closeSegment();
+            openSegment(timestampUs);
+            segment.append(type, flags, timestampUs, payload);
+        }
+        recordCount++;
+        return true;
+    }
+    
+    private void openSegment(long timestampUs) throws IOException {
+        // Make room for the new segment before it claims its full size on disk
+        while (!closedSegments.isEmpty() && closedBytes + maxSegmentBytes > maxTotalBytes) {
+            File oldest = closedSegments.removeFirst();
+            closedBytes -= sizeOf(oldest);
+            SegmentWriter.indexFileFor(oldest).delete();
+            oldest.delete();
+        }
+        File file = new File(directory, String.format(Locale.US, "%s%06d%s",
+            SEGMENT_PREFIX, nextSegmentNumber++, SegmentWriter.SEGMENT_SUFFIX));
+        segment = new SegmentWriter(file, maxSegmentBytes, indexIntervalUs, timestampUs);
+        segmentsOpened++;
+    }
+    
+    private void closeSegment() throws IOException {
+        SegmentWriter closing = segment;
+        segment = null;
+        closing.close();
+        closedSegments.addLast(closing.getFile());
+        closedBytes += sizeOf(closing.getFile());
+    }
+    
+    // Incremented on every new segment; callers use it to notice rollovers
+    public int getSegmentsOpened() {
+        return segmentsOpened;
+    }
+    
+    public long getRecordCount() {
+        return recordCount;
+    }
+    
+    public File getDirectory() {
+        return directory;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (segment != null) {
+            closeSegment();
+        }
+    }
+    
+    // Segment files of a recording directory in write order
+    public static File[] listSegments(File directory) {
+        File[] files = directory.listFiles((dir, name) ->
+            name.startsWith(SEGMENT_PREFIX) && name.endsWith(SegmentWriter.SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)));
+        return files;
+    }
+    
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SegmentWriter.SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private static long sizeOf(File segment) {
+        return segment.length() + SegmentWriter.indexFileFor(segment).length();
+    }
+}
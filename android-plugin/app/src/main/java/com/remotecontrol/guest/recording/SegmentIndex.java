@@ -0,0 +1,156 @@
+package com.remotecontrol.guest.recording;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Sparse time index of one segment, stored next to it as <segment>.idx:
+//
+//   int    magic ('RIDX')
+//   int    entry count
+//   long   timestamp of the last record in microseconds
+//   entry count x { long timestamp, int record offset, int record flags }
+//
+// The first record of a segment is always indexed, then sync records at least one interval
+// after the previous indexed sync record, and any record once two intervals have passed
+// without an entry, so a seek scans at most two intervals of records after the binary search.
+// Sync records are spaced against each other only, so a forced entry just before a keyframe
+// does not hide it from floorSync.
+public class SegmentIndex {
+    public static final int MAGIC = 0x52494458;
+    
+    private final long intervalUs;
+    private long[] timestamps = new long[64];
+    private int[] offsets = new int[64];
+    private short[] flags = new short[64];
+    private int size;
+    private long lastTimestampUs = -1;
+    private long lastSyncUs = Long.MIN_VALUE / 2;
+    
+    public SegmentIndex(long intervalUs) {
+        if (intervalUs <= 0) {
+            throw new IllegalArgumentException("intervalUs must be positive");
+        }
+        this.intervalUs = intervalUs;
+    }
+    
+    // Called for every record in write order; keeps the ones that qualify as index entries
+    public void offer(long timestampUs, int offset, short recordFlags) {
+        lastTimestampUs = timestampUs;
+        boolean sync = (recordFlags & RecordingEntry.FLAG_SYNC) != 0;
+        if (size > 0) {
+            boolean syncDue = sync && timestampUs - lastSyncUs >= intervalUs;
+            if (!syncDue && timestampUs - timestamps[size - 1] < 2 * intervalUs) {
+                return;
+            }
+        }
+        if (sync) {
+            lastSyncUs = timestampUs;
+        }
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+            flags = Arrays.copyOf(flags, size * 2);
+        }
+        timestamps[size] = timestampUs;
+        offsets[size] = offset;
+        flags[size] = recordFlags;
+        size++;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public long getTimestampUs(int entry) {
+        return timestamps[entry];
+    }
+    
+    public int getOffset(int entry) {
+        return offsets[entry];
+    }
+    
+    public boolean isSync(int entry) {
+        return (flags[entry] & RecordingEntry.FLAG_SYNC) != 0;
+    }
+    
+    public long getFirstTimestampUs() {
+        return size > 0 ? timestamps[0] : -1;
+    }
+    
+    public long getLastTimestampUs() {
+        return lastTimestampUs;
+    }
+    
+    // Last entry at or before the timestamp, or -1 if the segment starts after it
+    public int floor(long timestampUs) {
+        int low = 0;
+        int high = size - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= timestampUs) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+    
+    // Last sync entry at or before the timestamp, or -1 if there is none
+    public int floorSync(long timestampUs) {
+        for (int entry = floor(timestampUs); entry >= 0; entry--) {
+            if (isSync(entry)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+    
+    public void writeTo(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            out.writeLong(lastTimestampUs);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(timestamps[i]);
+                out.writeInt(offsets[i]);
+                out.writeInt(flags[i]);
+            }
+        }
+    }
+    
+    public static SegmentIndex readFrom(File file, long intervalUs) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a segment index: " + file);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt segment index: " + file);
+            }
+            SegmentIndex index = new SegmentIndex(intervalUs);
+            index.timestamps = new long[Math.max(count, 1)];
+            index.offsets = new int[Math.max(count, 1)];
+            index.flags = new short[Math.max(count, 1)];
+            index.lastTimestampUs = in.readLong();
+            for (int i = 0; i < count; i++) {
+                index.timestamps[i] = in.readLong();
+                index.offsets[i] = in.readInt();
+                index.flags[i] = (short) in.readInt();
+            }
+            index.size = count;
+            return index;
+        }
+    }
+}
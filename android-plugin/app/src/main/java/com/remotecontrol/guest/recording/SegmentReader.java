@@ -0,0 +1,137 @@
+package com.remotecontrol.guest.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads one segment written by SegmentWriter through a read-only mapping. The index is loaded
+// from the sidecar file, or rebuilt with a single scan when the writer did not close cleanly.
+public class SegmentReader implements Closeable {
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final SegmentIndex index;
+    private final long createdUs;
+    private final RecordingEntry record = new RecordingEntry();
+    
+    public SegmentReader(File file, long indexIntervalUs) throws IOException {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < SegmentWriter.HEADER_SIZE || buffer.getInt() != SegmentWriter.MAGIC) {
+                throw new IOException("Not a recording segment: " + file);
+            }
+            short version = buffer.getShort();
+            if (version != SegmentWriter.VERSION) {
+                throw new IOException("Unsupported segment version " + version + ": " + file);
+            }
+            buffer.getShort();
+            createdUs = buffer.getLong();
+            index = loadIndex(indexIntervalUs);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        buffer.position(SegmentWriter.HEADER_SIZE);
+    }
+    
+    private SegmentIndex loadIndex(long indexIntervalUs) throws IOException {
+        File indexFile = SegmentWriter.indexFileFor(file);
+        if (indexFile.exists()) {
+            return SegmentIndex.readFrom(indexFile, indexIntervalUs);
+        }
+        SegmentIndex rebuilt = new SegmentIndex(indexIntervalUs);
+        buffer.position(SegmentWriter.HEADER_SIZE);
+        while (true) {
+            int offset = buffer.position();
+            if (next() == null) {
+                break;
+            }
+            rebuilt.offer(record.getTimestampUs(), offset, record.getFlags());
+        }
+        return rebuilt;
+    }
+    
+    // Returns the record at the current position, or null at the end of the segment. A record
+    // cut short by a crash is treated as the end.
+    public RecordingEntry next() {
+        int position = buffer.position();
+        if (buffer.limit() - position < SegmentWriter.RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt(position);
+        short type = buffer.getShort(position + 4);
+        if (type == 0 || length < 0
+                || length > buffer.limit() - position - SegmentWriter.RECORD_HEADER_SIZE) {
+            return null;
+        }
+        short flags = buffer.getShort(position + 6);
+        long timestampUs = buffer.getLong(position + 8);
+        int payloadStart = position + SegmentWriter.RECORD_HEADER_SIZE;
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(payloadStart + length).position(payloadStart);
+        buffer.position(payloadStart + length);
+        record.set(type, flags, timestampUs, payload.slice());
+        return record;
+    }
+    
+    public void rewind() {
+        buffer.position(SegmentWriter.HEADER_SIZE);
+    }
+    
+    // Positions the reader at the first record with a timestamp at or after the given one
+    public void seek(long timestampUs) {
+        int entry = index.floor(timestampUs);
+        buffer.position(entry >= 0 ? index.getOffset(entry) : SegmentWriter.HEADER_SIZE);
+        while (true) {
+            int position = buffer.position();
+            RecordingEntry next = next();
+            if (next == null || next.getTimestampUs() >= timestampUs) {
+                buffer.position(position);
+                return;
+            }
+        }
+    }
+    
+    // Positions the reader at the latest indexed sync record at or before the timestamp and
+    // returns its timestamp, or returns -1 and leaves the position untouched if there is none
+    public long seekToSync(long timestampUs) {
+        int entry = index.floorSync(timestampUs);
+        if (entry < 0) {
+            return -1;
+        }
+        buffer.position(index.getOffset(entry));
+        return index.getTimestampUs(entry);
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public long getCreatedUs() {
+        return createdUs;
+    }
+    
+    public long getFirstTimestampUs() {
+        return index.getFirstTimestampUs();
+    }
+    
+    public long getLastTimestampUs() {
+        return index.getLastTimestampUs();
+    }
+    
+    public boolean isEmpty() {
+        return index.size() == 0;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+}
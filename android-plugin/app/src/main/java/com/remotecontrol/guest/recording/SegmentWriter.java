@@ -0,0 +1,121 @@
+package com.remotecontrol.guest.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Appends records to one memory-mapped segment file:
+//
+//   int    magic ('RSEG')
+//   short  version
+//   short  reserved
+//   long   creation time in epoch microseconds
+//   records { int payload length, short type, short flags, long timestamp, byte[length] payload }
+//
+// All values are big-endian. The file is mapped at its full size cap up front, so appends are
+// plain memory copies and the page cache writes them back. Unused space stays zero, which
+// reads as a record of type 0 and ends the segment; a crashed writer therefore leaves a
+// readable segment without its index, which the reader rebuilds by scanning. close() trims the
+// file to the written length and stores the index next to it.
+public class SegmentWriter implements Closeable {
+    public static final int MAGIC = 0x52534547;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 16;
+    public static final String SEGMENT_SUFFIX = ".seg";
+    public static final String INDEX_SUFFIX = ".idx";
+    
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final SegmentIndex index;
+    private long lastTimestampUs = Long.MIN_VALUE;
+    private int recordCount;
+    private boolean closed;
+    
+    public SegmentWriter(File file, int maxBytes, long indexIntervalUs, long createdUs) throws IOException {
+        if (maxBytes < HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("maxBytes too small: " + maxBytes);
+        }
+        this.file = file;
+        this.index = new SegmentIndex(indexIntervalUs);
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // Start from an empty file so the mapped tail is guaranteed to be zero
+            randomAccessFile.setLength(0);
+            channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(createdUs);
+    }
+    
+    // Returns false when the record does not fit in the remaining space of this segment.
+    // Timestamps are clamped to be non-decreasing so the index stays searchable.
+    public boolean append(short type, short flags, long timestampUs, ByteBuffer payload) {
+        if (closed) {
+            throw new IllegalStateException("Segment is closed");
+        }
+        if (type == 0) {
+            throw new IllegalArgumentException("Record type 0 is reserved");
+        }
+        int length = payload.remaining();
+        if (buffer.remaining() < RECORD_HEADER_SIZE + length) {
+            return false;
+        }
+        timestampUs = Math.max(timestampUs, lastTimestampUs);
+        int offset = buffer.position();
+        buffer.putInt(length).putShort(type).putShort(flags).putLong(timestampUs);
+        buffer.put(payload.duplicate());
+        index.offer(timestampUs, offset, flags);
+        lastTimestampUs = timestampUs;
+        recordCount++;
+        return true;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public int getLength() {
+        return buffer.position();
+    }
+    
+    public int getRecordCount() {
+        return recordCount;
+    }
+    
+    public SegmentIndex getIndex() {
+        return index;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            buffer.force();
+            channel.truncate(buffer.position());
+            index.writeTo(indexFileFor(file));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+    
+    public static File indexFileFor(File segmentFile) {
+        String name = segmentFile.getName();
+        if (name.endsWith(SEGMENT_SUFFIX)) {
+            name = name.substring(0, name.length() - SEGMENT_SUFFIX.length());
+        }
+        return new File(segmentFile.getParentFile(), name + INDEX_SUFFIX);
+    }
+}
@@ -0,0 +1,191 @@
+package com.remotecontrol.guest.recording;
+
+import android.util.Log;
+
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.transport.ControlEventCodec;
+import com.remotecontrol.guest.transport.VideoPacketizer;
+import com.remotecontrol.guest.utils.EventBroadcaster;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Records the outgoing frame stream and incoming control events of a session for auditing.
+// The bus listeners only copy into pooled entries and hand them to a writer thread, so capture
+// never waits on the disk; when the writer falls behind and the pool runs dry, records are
+// dropped and counted. A keyframe is requested at the start and on every segment rollover so
+// each segment can be replayed on its own.
+public class SessionRecorder {
+    private static final String TAG = "SessionRecorder";
+    private static final long POLL_TIMEOUT_MS = 100;
+    
+    private final RecordingWriter writer;
+    private final ArrayBlockingQueue<Entry> pending;
+    private final ArrayBlockingQueue<Entry> free;
+    private final long startEpochUs;
+    private final long startNanos;
+    private final EventBroadcaster.FrameListener frameListener = this::onFrame;
+    private final EventBroadcaster.ControlEventListener controlEventListener = this::onControlEvent;
+    private volatile boolean running;
+    private Thread writerThread;
+    private int segmentsSeen;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    
+    private static final class Entry {
+        short type;
+        short flags;
+        long timestampUs;
+        byte[] data = new byte[ControlEventCodec.MESSAGE_SIZE];
+        int length;
+        
+        ByteBuffer ensureCapacity(int capacity) {
+            if (data.length < capacity) {
+                data = new byte[Math.max(capacity, data.length * 2)];
+            }
+            return ByteBuffer.wrap(data, 0, capacity);
+        }
+    }
+    
+    public SessionRecorder(File directory, int maxSegmentBytes, long maxTotalBytes,
+                           long indexIntervalUs, int queueCapacity) throws IOException {
+        writer = new RecordingWriter(directory, maxSegmentBytes, maxTotalBytes, indexIntervalUs);
+        pending = new ArrayBlockingQueue<>(queueCapacity);
+        free = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < queueCapacity; i++) {
+            free.add(new Entry());
+        }
+        startEpochUs = System.currentTimeMillis() * 1000;
+        startNanos = System.nanoTime();
+    }
+    
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::writeLoop, "SessionRecorder");
+        writerThread.start();
+        EventBroadcaster.getInstance().addFrameListener(frameListener);
+        EventBroadcaster.getInstance().addControlEventListener(controlEventListener);
+        EventBroadcaster.getInstance().broadcastKeyframeRequest();
+    }
+    
+    // Unsubscribes, writes out everything already queued and closes the current segment
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        EventBroadcaster.getInstance().removeFrameListener(frameListener);
+        EventBroadcaster.getInstance().removeControlEventListener(controlEventListener);
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.d(TAG, "Recording stopped: " + writer.getRecordCount() + " records, "
+            + droppedRecords.get() + " dropped");
+    }
+    
+    private long nowUs() {
+        return startEpochUs + (System.nanoTime() - startNanos) / 1000;
+    }
+    
+    private void onFrame(ByteBuffer frame) {
+        Entry entry = free.poll();
+        if (entry == null) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+        entry.type = RecordingEntry.TYPE_FRAME;
+        entry.flags = isSyncFrame(frame) ? RecordingEntry.FLAG_SYNC : 0;
+        entry.timestampUs = nowUs();
+        entry.length = frame.remaining();
+        entry.ensureCapacity(entry.length).put(frame.duplicate());
+        pending.add(entry);
+    }
+    
+    private void onControlEvent(ControlEvent event) {
+        Entry entry = free.poll();
+        if (entry == null) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+        ByteBuffer out = entry.ensureCapacity(ControlEventCodec.MESSAGE_SIZE);
+        if (!ControlEventCodec.encode(event, out)) {
+            free.add(entry);
+            return;
+        }
+        entry.type = RecordingEntry.TYPE_CONTROL_EVENT;
+        entry.flags = 0;
+        entry.timestampUs = nowUs();
+        entry.length = ControlEventCodec.MESSAGE_SIZE;
+        pending.add(entry);
+    }
+    
+    // Delta keyframes and the first fragment of a video keyframe start a decodable sequence
+    private static boolean isSyncFrame(ByteBuffer frame) {
+        int start = frame.position();
+        if (frame.remaining() < 3) {
+            return false;
+        }
+        byte magic = frame.get(start);
+        byte flags = frame.get(start + 2);
+        if (magic == DeltaFrameWriter.MAGIC) {
+            return (flags & DeltaFrameWriter.FLAG_KEYFRAME) != 0;
+        }
+        if (magic == VideoPacketizer.MAGIC && frame.remaining() >= VideoPacketizer.HEADER_SIZE) {
+            return (flags & VideoPacketizer.FLAG_KEYFRAME) != 0 && frame.getShort(start + 16) == 0;
+        }
+        return false;
+    }
+    
+    private void writeLoop() {
+        try {
+            while (running || !pending.isEmpty()) {
+                Entry entry = pending.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (entry == null) {
+                    continue;
+                }
+                try {
+                    writer.append(entry.type, entry.flags, entry.timestampUs,
+                        ByteBuffer.wrap(entry.data, 0, entry.length));
+                } finally {
+                    free.add(entry);
+                }
+                if (writer.getSegmentsOpened() != segmentsSeen) {
+                    segmentsSeen = writer.getSegmentsOpened();
+                    if (segmentsSeen > 1) {
+                        EventBroadcaster.getInstance().broadcastKeyframeRequest();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing recording, recording stopped", e);
+            running = false;
+            EventBroadcaster.getInstance().removeFrameListener(frameListener);
+            EventBroadcaster.getInstance().removeControlEventListener(controlEventListener);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing recording", e);
+            }
+        }
+    }
+    
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+    
+    public File getDirectory() {
+        return writer.getDirectory();
+    }
+}
@@ -4,28 +4,95 @@ import android.accessibilityservice.AccessibilityService;
 import android.accessibilityservice.GestureDescription;
 import android.graphics.Path;
 import android.graphics.PointF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.remotecontrol.guest.input.CoordinateMapper;
+import com.remotecontrol.guest.input.ExecutorReplayScheduler;
+import com.remotecontrol.guest.input.GestureAssembler;
+import com.remotecontrol.guest.input.InputCoalescer;
+import com.remotecontrol.guest.input.InputReplayer;
 import com.remotecontrol.guest.models.ControlEvent;
 import com.remotecontrol.guest.models.TouchEvent;
 import com.remotecontrol.guest.models.KeyEvent;
+import com.remotecontrol.guest.platform.android.AccessibilityGestureSink;
+import com.remotecontrol.guest.platform.android.AndroidClock;
+import com.remotecontrol.guest.platform.android.AndroidLogger;
+import com.remotecontrol.guest.recording.ControlEventLog;
 import com.remotecontrol.guest.utils.EventBroadcaster;
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class RemoteControlAccessibilityService extends AccessibilityService {
     
     private static final String TAG = "RemoteControlAccessibility";
     private static RemoteControlAccessibilityService instance;
     
+    // Gesture assembly: remote pointer streams are dispatched as continued strokes
+    private static final long GESTURE_BATCH_WINDOW_MS = 32;
+    private static final long MIN_SEGMENT_MS = 10;
+    private static final long MAX_SEGMENT_MS = 500;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private GestureAssembler gestureAssembler;
+    private AccessibilityGestureSink gestureSink;
+    
+    // Input coalescing: remote moves are merged and resampled before gesture assembly
+    private static final long MOVE_RESAMPLE_INTERVAL_MS = 16;
+    private static final long INPUT_STATS_LOG_INTERVAL_MS = 10000;
+    private InputCoalescer inputCoalescer;
+    private long lastInputStatsLog = 0;
+    private final EventBroadcaster.ControlEventListener controlEventListener = this::onRemoteControlEvent;
+    
+    // Touch coordinates arrive in streamed frame pixels and follow the capture resolution
+    private final CoordinateMapper coordinateMapper = new CoordinateMapper();
+    private final EventBroadcaster.CaptureSizeListener captureSizeListener = size ->
+        coordinateMapper.setFrameSize(size.getWidth(), size.getHeight(), size.getScreenWidth(), size.getScreenHeight());
+    
+    // Replay of recorded control event sequences, injected straight into handleControlEvent
+    private static final long RECORDING_INDEX_INTERVAL_US = 1000000;
+    private ScheduledExecutorService replayExecutor;
+    private InputReplayer inputReplayer;
+    
+    private final Runnable flushMoves = new Runnable() {
+        @Override
+        public void run() {
+            inputCoalescer.flush(SystemClock.uptimeMillis());
+        }
+    };
+    
+    private final Runnable flushGestures = new Runnable() {
+        @Override
+        public void run() {
+            gestureAssembler.flush(SystemClock.uptimeMillis());
+        }
+    };
+    
     @Override
     public void onServiceConnected() {
         super.onServiceConnected();
         instance = this;
         Log.d(TAG, "Accessibility service connected");
         
+        gestureSink = new AccessibilityGestureSink(this, mainHandler,
+            new AndroidClock(), new AndroidLogger());
+        gestureAssembler = new GestureAssembler(gestureSink, GestureDescription.getMaxStrokeCount(),
+            GESTURE_BATCH_WINDOW_MS, MIN_SEGMENT_MS, MAX_SEGMENT_MS);
+        gestureSink.attach(gestureAssembler);
+        
+        inputCoalescer = new InputCoalescer(this::handleControlEvent, MOVE_RESAMPLE_INTERVAL_MS);
+        
         // Register for control events
-        EventBroadcaster.getInstance().setControlEventListener(this::handleControlEvent);
+        EventBroadcaster.getInstance().addCaptureSizeListener(captureSizeListener);
+        EventBroadcaster.getInstance().addControlEventListener(controlEventListener);
     }
     
     @Override
@@ -37,12 +104,23 @@ public class RemoteControlAccessibilityService extends AccessibilityService {
     @Override
     public void onInterrupt() {
         Log.d(TAG, "Accessibility service interrupted");
+        if (gestureSink != null) {
+            gestureSink.cancel();
+        }
     }
     
     @Override
     public void onDestroy() {
         super.onDestroy();
         instance = null;
+        EventBroadcaster.getInstance().removeControlEventListener(controlEventListener);
+        EventBroadcaster.getInstance().removeCaptureSizeListener(captureSizeListener);
+        mainHandler.removeCallbacks(flushGestures);
+        mainHandler.removeCallbacks(flushMoves);
+        stopReplay();
+        if (replayExecutor != null) {
+            replayExecutor.shutdownNow();
+        }
         Log.d(TAG, "Accessibility service destroyed");
     }
     
@@ -50,6 +128,54 @@ public class RemoteControlAccessibilityService extends AccessibilityService {
         return instance;
     }
     
+    private void onRemoteControlEvent(ControlEvent event) {
+        if (event == null) return;
+        
+        long now = SystemClock.uptimeMillis();
+        mainHandler.removeCallbacks(flushMoves);
+        if (inputCoalescer.offer(event, now)) {
+            mainHandler.postDelayed(flushMoves, MOVE_RESAMPLE_INTERVAL_MS);
+        }
+        
+        if (now - lastInputStatsLog >= INPUT_STATS_LOG_INTERVAL_MS) {
+            lastInputStatsLog = now;
+            Log.d(TAG, "Input events received " + inputCoalescer.getReceivedCount()
+                + " (moves " + inputCoalescer.getReceivedMoveCount() + "), dispatched " + inputCoalescer.getDispatchedCount()
+                + ", gesture samples dropped " + gestureAssembler.getDroppedSamples());
+        }
+    }
+    
+    // Replays a session recording directory or a JSON lines event file at the given speed
+    // (InputReplayer.MAX_SPEED for stress runs); returns false if the source cannot be read
+    public synchronized boolean startReplay(File source, double speed) {
+        List<ControlEvent> events;
+        try {
+            events = source.isDirectory()
+                ? ControlEventLog.readRecording(source, RECORDING_INDEX_INTERVAL_US)
+                : ControlEventLog.readJsonLines(source, new Gson());
+        } catch (IOException e) {
+            Log.e(TAG, "Error loading replay from " + source, e);
+            return false;
+        }
+        stopReplay();
+        if (replayExecutor == null) {
+            replayExecutor = Executors.newSingleThreadScheduledExecutor();
+        }
+        inputReplayer = new InputReplayer(events, this::handleControlEvent,
+            new ExecutorReplayScheduler(replayExecutor), (dispatched, stopped) ->
+                Log.d(TAG, "Replay " + (stopped ? "stopped" : "finished") + " after " + dispatched + " events"));
+        Log.d(TAG, "Replaying " + events.size() + " events from " + source + " at speed " + speed);
+        inputReplayer.start(speed);
+        return true;
+    }
+    
+    public synchronized void stopReplay() {
+        if (inputReplayer != null) {
+            inputReplayer.stop();
+            inputReplayer = null;
+        }
+    }
+    
     public void handleControlEvent(ControlEvent event) {
         if (event == null) return;
         
@@ -69,20 +195,23 @@ public class RemoteControlAccessibilityService extends AccessibilityService {
     }
     
     private void handleTouchEvent(TouchEvent touchEvent) {
-        if (touchEvent == null) return;
+        if (touchEvent == null || gestureAssembler == null) return;
         
         try {
-            float x = touchEvent.getX();
-            float y = touchEvent.getY();
+            float x = coordinateMapper.mapX(touchEvent.getX());
+            float y = coordinateMapper.mapY(touchEvent.getY());
             String action = touchEvent.getAction();
             
-            Log.d(TAG, "Touch event: " + action + " at (" + x + ", " + y + ")");
+            if (!GestureAssembler.ACTION_MOVE.equals(action)) {
+                Log.d(TAG, "Touch event: " + action + " at (" + x + ", " + y + ")");
+            }
+            
+            gestureAssembler.onTouch(touchEvent.getPointerId(), action, x, y, SystemClock.uptimeMillis());
             
-            if ("down".equals(action) || "up".equals(action)) {
-                performTap(x, y);
-            } else if ("move".equals(action)) {
-                // For move events, we could implement drag gestures
-                // This is more complex and requires tracking start/end points
+            // Trailing moves go out once the batch window passes without further samples
+            mainHandler.removeCallbacks(flushGestures);
+            if (gestureAssembler.hasPending()) {
+                mainHandler.postDelayed(flushGestures, GESTURE_BATCH_WINDOW_MS);
             }
             
         } catch (Exception e) {
@@ -125,37 +254,6 @@ public class RemoteControlAccessibilityService extends AccessibilityService {
         Log.d(TAG, "Scroll event received (not implemented)");
     }
     
-    private void performTap(float x, float y) {
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-            Path clickPath = new Path();
-            clickPath.moveTo(x, y);
-            
-            GestureDescription.StrokeDescription clickStroke = 
-                new GestureDescription.StrokeDescription(clickPath, 0, 100);
-            
-            GestureDescription.Builder gestureBuilder = new GestureDescription.Builder();
-            gestureBuilder.addStroke(clickStroke);
-            
-            boolean result = dispatchGesture(gestureBuilder.build(), new GestureResultCallback() {
-                @Override
-                public void onCompleted(GestureDescription gestureDescription) {
-                    Log.d(TAG, "Tap gesture completed");
-                }
-                
-                @Override
-                public void onCancelled(GestureDescription gestureDescription) {
-                    Log.w(TAG, "Tap gesture cancelled");
-                }
-            }, null);
-            
-            if (!result) {
-                Log.e(TAG, "Failed to dispatch tap gesture");
-            }
-        } else {
-            Log.w(TAG, "Gesture dispatch not supported on this Android version");
-        }
-    }
-    
     public void performSwipe(PointF start, PointF end, long duration) {
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
             Path swipePath = new Path();
@@ -6,29 +6,52 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.graphics.PixelFormat;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
-import android.media.Image;
 import android.media.ImageReader;
+import android.media.MediaFormat;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Surface;
 import android.view.WindowManager;
 
 import androidx.core.app.NotificationCompat;
 
 import com.remotecontrol.guest.R;
+import com.remotecontrol.guest.capture.CodecSelectingTileEncoder;
+import com.remotecontrol.guest.capture.FramePipeline;
+import com.remotecontrol.guest.capture.Nv21Converter;
+import com.remotecontrol.guest.capture.ParallelTileEncoder;
+import com.remotecontrol.guest.capture.TileGrid;
+import com.remotecontrol.guest.models.CaptureSize;
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.LatencyReport;
+import com.remotecontrol.guest.models.TouchEvent;
+import com.remotecontrol.guest.platform.FrameSource;
+import com.remotecontrol.guest.platform.RgbaFrame;
+import com.remotecontrol.guest.platform.TileEncoder;
+import com.remotecontrol.guest.platform.android.AndroidClock;
+import com.remotecontrol.guest.platform.android.AndroidLogger;
+import com.remotecontrol.guest.platform.android.ImageReaderFrameSource;
+import com.remotecontrol.guest.platform.android.WebpTileEncoder;
+import com.remotecontrol.guest.platform.android.YuvImageTileEncoder;
+import com.remotecontrol.guest.transport.QualitySettings;
 import com.remotecontrol.guest.utils.EventBroadcaster;
-import com.remotecontrol.guest.utils.ImageEncoder;
+import com.remotecontrol.guest.utils.VideoEncoder;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ScreenCaptureService extends Service {
     
@@ -36,19 +59,100 @@ public class ScreenCaptureService extends Service {
     private static final String CHANNEL_ID = "ScreenCaptureChannel";
     private static final int NOTIFICATION_ID = 1;
     
+    // Streaming modes: JPEG tiles by default, or hardware video through MediaCodec once a
+    // controller asks for it when joining
+    public static final String EXTRA_STREAM_MODE = "streamMode";
+    public static final String STREAM_MODE_VIDEO = "video";
+    public static final String STREAM_MODE_JPEG = "jpeg";
+    private static final String VIDEO_MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    // How long onDestroy waits for the capture and encode threads to finish
+    private static final long THREAD_JOIN_TIMEOUT_MS = 500;
+    
     private MediaProjection mediaProjection;
     private VirtualDisplay virtualDisplay;
-    private ImageReader imageReader;
-    private Handler backgroundHandler;
+    private volatile ImageReader imageReader;
+    private HandlerThread captureThread;
+    private Handler captureHandler;
+    private Thread encodeThread;
+    private volatile VideoEncoder videoEncoder;
+    private volatile String streamMode = STREAM_MODE_JPEG;
     private int screenWidth;
     private int screenHeight;
     private int screenDensity;
     
+    // JPEG mode captures at the resolution implied by the quality scale; the VirtualDisplay
+    // renders at that size so the GPU does the downscaling
+    private int captureWidth;
+    private int captureHeight;
+    
     // Frame rate control
     private static final int TARGET_FPS = 30;
-    private static final long FRAME_INTERVAL_MS = 1000 / TARGET_FPS;
     private long lastFrameTime = 0;
     
+    // Quality, scale and frame rate, adjusted at runtime by the adaptive quality controller
+    private volatile QualitySettings qualitySettings = new QualitySettings(75, 1.0f, TARGET_FPS);
+    private int baseVideoBitrate;
+    private final EventBroadcaster.QualityChangeListener qualityChangeListener = this::applyQualitySettings;
+    private final EventBroadcaster.KeyframeRequestListener keyframeRequestListener = this::requestKeyframe;
+    private final EventBroadcaster.StreamModeListener streamModeListener = this::onStreamModeRequested;
+    private final EventBroadcaster.FrameDropListener frameDropListener = this::onFrameDropped;
+    
+    // JPEG tiles: frames are diffed, converted and encoded by the frame pipeline. Frames are
+    // acquired and diffed on the capture thread, then handed to the encode thread; only the
+    // newest frame waits, stale ones are dropped. The encode thread shares the tiles of a frame
+    // with one pool thread per additional core; pool threads start with the first frame. Each
+    // tile is sent as JPEG, WebP or lossless palette, whichever suits its content. The first frame
+    // captured once KEYFRAME_INTERVAL_MS have passed since the last keyframe is sent whole; a
+    // static screen produces no frames and is covered by heartbeats instead.
+    private static final long KEYFRAME_INTERVAL_MS = 5000;
+    private final ParallelTileEncoder parallelEncoder = new ParallelTileEncoder(
+        ParallelTileEncoder.defaultThreadCount(), ScreenCaptureService::createTileEncoder, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                    runnable.run();
+                }, "CaptureEncode-" + count.incrementAndGet());
+            }
+        });
+    private final FramePipeline framePipeline = new FramePipeline(KEYFRAME_INTERVAL_MS, qualitySettings,
+        createTileEncoder(), parallelEncoder, new FramePipeline.Listener() {
+            @Override
+            public void onFrame(ByteBuffer frame) {
+                EventBroadcaster.getInstance().broadcastFrame(frame);
+            }
+            
+            @Override
+            public void onGridChanged(TileGrid grid) {
+                // Touch mapping switches with the first frame at a new resolution
+                EventBroadcaster.getInstance().broadcastCaptureSize(
+                    new CaptureSize(grid.getWidth(), grid.getHeight(), screenWidth, screenHeight));
+            }
+            
+            @Override
+            public void onLatencyReport(LatencyReport report) {
+                EventBroadcaster.getInstance().broadcastLatencyReport(report);
+            }
+        }, new AndroidClock(), new AndroidLogger());
+    
+    // Change detection: a sampled checksum gates the full tile diff, and a static screen only
+    // costs a small heartbeat. After IDLE_AFTER_MS without screen changes or remote input the
+    // check rate drops to IDLE_CHECK_INTERVAL_MS and heartbeats to the idle keepalive rate.
+    private static final long VERIFY_DELAY_MS = 250;
+    private static final long IDLE_AFTER_MS = 3000;
+    private static final long IDLE_CHECK_INTERVAL_MS = 250;
+    private static final long HEARTBEAT_INTERVAL_MS = 1000;
+    private static final long IDLE_HEARTBEAT_INTERVAL_MS = 5000;
+    private volatile FrameSource frameSource;
+    private RgbaFrame deferredFrame;
+    private volatile long lastActivityTime;
+    private final Runnable acquireFrameRunnable = this::acquireFrame;
+    private final Runnable verifyDeferredRunnable = this::verifyDeferredFrame;
+    private final Runnable heartbeatRunnable = this::sendHeartbeat;
+    private final EventBroadcaster.ControlEventListener activityListener = this::onRemoteInput;
+    
     @Override
     public void onCreate() {
         super.onCreate();
@@ -64,6 +168,12 @@ public class ScreenCaptureService extends Service {
         screenDensity = metrics.densityDpi;
         
         Log.d(TAG, "Screen dimensions: " + screenWidth + "x" + screenHeight + " density: " + screenDensity);
+        
+        EventBroadcaster.getInstance().addKeyframeRequestListener(keyframeRequestListener);
+        EventBroadcaster.getInstance().addQualityChangeListener(qualityChangeListener);
+        EventBroadcaster.getInstance().addStreamModeListener(streamModeListener);
+        EventBroadcaster.getInstance().addFrameDropListener(frameDropListener);
+        EventBroadcaster.getInstance().addControlEventListener(activityListener);
     }
     
     @Override
@@ -74,6 +184,10 @@ public class ScreenCaptureService extends Service {
         if (intent != null) {
             int resultCode = intent.getIntExtra("resultCode", -1);
             Intent data = intent.getParcelableExtra("data");
+            String requestedMode = intent.getStringExtra(EXTRA_STREAM_MODE);
+            if (requestedMode != null) {
+                streamMode = requestedMode;
+            }
             
             if (resultCode != -1 && data != null) {
                 startScreenCapture(resultCode, data);
@@ -93,90 +207,318 @@ public class ScreenCaptureService extends Service {
             return;
         }
         
-        // Create ImageReader for capturing frames
-        imageReader = ImageReader.newInstance(screenWidth, screenHeight, PixelFormat.RGBA_8888, 2);
+        // Start the capture thread, keeping all frame work off the main looper
+        captureThread = new HandlerThread("CaptureAcquire", Process.THREAD_PRIORITY_DISPLAY);
+        captureThread.start();
+        captureHandler = new Handler(captureThread.getLooper());
         
-        // Set up image available listener
-        imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
-            @Override
-            public void onImageAvailable(ImageReader reader) {
-                processFrame();
-            }
-        }, getBackgroundHandler());
+        int displayWidth = screenWidth;
+        int displayHeight = screenHeight;
+        Surface surface = null;
+        if (STREAM_MODE_VIDEO.equals(streamMode)) {
+            displayWidth = VideoEncoder.alignDimension(screenWidth);
+            displayHeight = VideoEncoder.alignDimension(screenHeight);
+            surface = startVideoEncoder(displayWidth, displayHeight);
+        }
+        if (surface != null) {
+            EventBroadcaster.getInstance().broadcastCaptureSize(
+                new CaptureSize(displayWidth, displayHeight, screenWidth, screenHeight));
+        } else {
+            streamMode = STREAM_MODE_JPEG;
+            float scale = qualitySettings.getScale();
+            displayWidth = captureDimension(screenWidth, scale);
+            displayHeight = captureDimension(screenHeight, scale);
+            surface = startImageReader(displayWidth, displayHeight);
+        }
         
         // Create virtual display
         virtualDisplay = mediaProjection.createVirtualDisplay(
             "RemoteControlCapture",
-            screenWidth,
-            screenHeight,
-            screenDensity,
+            displayWidth,
+            displayHeight,
+            captureDensity(displayWidth),
             DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
-            imageReader.getSurface(),
+            surface,
             null,
-            getBackgroundHandler()
+            captureHandler
         );
         
-        Log.d(TAG, "Screen capture started");
+        Log.d(TAG, "Screen capture started in " + streamMode + " mode");
+    }
+    
+    // Video mode: the VirtualDisplay renders straight into the encoder's input Surface
+    private Surface startVideoEncoder(int width, int height) {
+        videoEncoder = new VideoEncoder(VIDEO_MIME_TYPE, EventBroadcaster.getInstance()::broadcastFrame);
+        baseVideoBitrate = VideoEncoder.defaultBitrate(width, height, TARGET_FPS);
+        try {
+            return videoEncoder.start(width, height, videoBitrate(qualitySettings), TARGET_FPS, captureHandler);
+        } catch (IOException e) {
+            Log.w(TAG, "Video encoder unavailable, falling back to JPEG", e);
+            videoEncoder = null;
+            return null;
+        }
+    }
+    
+    // JPEG mode: frames are read back through an ImageReader and encoded on the encode thread
+    private Surface startImageReader(int width, int height) {
+        encodeThread = new Thread(this::encodeLoop, "CaptureEncode");
+        encodeThread.start();
+        
+        Surface surface = createImageReader(width, height);
+        
+        lastActivityTime = SystemClock.uptimeMillis();
+        captureHandler.postDelayed(heartbeatRunnable, HEARTBEAT_INTERVAL_MS);
+        
+        return surface;
+    }
+    
+    private Surface createImageReader(int width, int height) {
+        // Create ImageReader for capturing frames. One image may be held back for verification,
+        // so keep enough buffers for the display to render into meanwhile.
+        imageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 3);
+        captureWidth = width;
+        captureHeight = height;
+        frameSource = new ImageReaderFrameSource(imageReader);
+        
+        // Set up image available listener
+        imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                acquireFrame();
+            }
+        }, captureHandler);
+        
+        return imageReader.getSurface();
+    }
+    
+    // Runs on the capture thread. The VirtualDisplay is resized and switched to a new
+    // ImageReader while the session and the encode thread keep running; the size change
+    // makes the next diffed frame a keyframe on the new grid.
+    private void resizeCapture(float scale) {
+        int width = captureDimension(screenWidth, scale);
+        int height = captureDimension(screenHeight, scale);
+        ImageReader previous = imageReader;
+        if (virtualDisplay == null || previous == null || (width == captureWidth && height == captureHeight)) {
+            return;
+        }
+        
+        closeDeferredFrame();
+        Surface surface = createImageReader(width, height);
+        virtualDisplay.resize(width, height, captureDensity(width));
+        virtualDisplay.setSurface(surface);
+        previous.setOnImageAvailableListener(null, null);
+        previous.close();
+        Log.d(TAG, "Capture resized to " + width + "x" + height);
+    }
+    
+    private void onStreamModeRequested(String mode) {
+        Handler handler = captureHandler;
+        if (STREAM_MODE_VIDEO.equals(mode) && handler != null) {
+            handler.post(this::switchToVideo);
+        }
+    }
+    
+    // Runs on the capture thread. The VirtualDisplay is moved from the ImageReader onto the
+    // video encoder's input Surface; if no encoder is available the stream stays on JPEG tiles.
+    private void switchToVideo() {
+        ImageReader previous = imageReader;
+        if (virtualDisplay == null || previous == null || videoEncoder != null) {
+            return;
+        }
+        
+        int width = VideoEncoder.alignDimension(screenWidth);
+        int height = VideoEncoder.alignDimension(screenHeight);
+        Surface surface = startVideoEncoder(width, height);
+        if (surface == null) {
+            return;
+        }
+        
+        captureHandler.removeCallbacks(acquireFrameRunnable);
+        captureHandler.removeCallbacks(heartbeatRunnable);
+        closeDeferredFrame();
+        virtualDisplay.resize(width, height, captureDensity(width));
+        virtualDisplay.setSurface(surface);
+        imageReader = null;
+        previous.setOnImageAvailableListener(null, null);
+        previous.close();
+        streamMode = STREAM_MODE_VIDEO;
+        EventBroadcaster.getInstance().broadcastCaptureSize(new CaptureSize(width, height, screenWidth, screenHeight));
+        Log.d(TAG, "Switched to video mode at " + width + "x" + height);
+    }
+    
+    private static int captureDimension(int screenSize, float scale) {
+        return Nv21Converter.evenDimension(Math.round(screenSize * Math.min(1.0f, scale)));
+    }
+    
+    private int captureDensity(int width) {
+        return Math.max(1, Math.round((float) screenDensity * width / screenWidth));
+    }
+    
+    private void applyQualitySettings(QualitySettings settings) {
+        qualitySettings = settings;
+        framePipeline.setQualitySettings(settings);
+        VideoEncoder encoder = videoEncoder;
+        if (encoder != null) {
+            encoder.setBitrate(videoBitrate(settings));
+        }
+        Handler handler = captureHandler;
+        if (imageReader != null && handler != null) {
+            handler.post(() -> resizeCapture(settings.getScale()));
+        }
+        Log.d(TAG, "Quality settings: " + settings);
+    }
+    
+    // Video bitrate follows the pixel rate implied by the current scale and frame rate
+    private int videoBitrate(QualitySettings settings) {
+        float scale = settings.getScale();
+        return Math.round(baseVideoBitrate * scale * scale * settings.getFrameRate() / TARGET_FPS);
+    }
+    
+    private void requestKeyframe() {
+        VideoEncoder encoder = videoEncoder;
+        if (encoder != null) {
+            encoder.requestKeyframe();
+        } else {
+            framePipeline.requestKeyframe();
+        }
+    }
+    
+    // Video recovers through SendScheduler's GOP dropping, only delta frames need their tiles resent
+    private void onFrameDropped(ByteBuffer frame) {
+        if (videoEncoder == null) {
+            framePipeline.onFrameDropped(frame);
+        }
     }
     
-    private void processFrame() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastFrameTime < FRAME_INTERVAL_MS) {
-            return; // Skip frame to maintain target FPS
+    // Capture stage: runs on the capture thread and releases the Image as soon as it is copied
+    private void acquireFrame() {
+        long now = SystemClock.uptimeMillis();
+        long interval = qualitySettings.getFrameIntervalMs();
+        if (isIdle(now)) {
+            interval = Math.max(interval, IDLE_CHECK_INTERVAL_MS);
+        }
+        long wait = lastFrameTime + interval - now;
+        if (wait > 0) {
+            // Come back for the newest image when the interval is up, so the last frame of a
+            // burst is not left unprocessed once the display stops producing frames
+            captureHandler.removeCallbacks(acquireFrameRunnable);
+            captureHandler.postDelayed(acquireFrameRunnable, wait);
+            return;
         }
-        lastFrameTime = currentTime;
+        lastFrameTime = now;
         
-        Image image = null;
+        RgbaFrame frame = null;
         try {
-            image = imageReader.acquireLatestImage();
-            if (image != null) {
-                Bitmap bitmap = convertImageToBitmap(image);
-                if (bitmap != null) {
-                    // Encode and broadcast the frame
-                    byte[] encodedFrame = ImageEncoder.encodeBitmap(bitmap, 75); // 75% quality
-                    EventBroadcaster.getInstance().broadcastFrame(encodedFrame);
-                    bitmap.recycle();
+            frame = frameSource.acquireLatestFrame();
+            if (frame != null) {
+                if (framePipeline.isUnchanged(frame)) {
+                    // The samples can miss a small change; if no newer frame arrives, the held
+                    // frame gets a full diff instead
+                    holdFrame(frame, VERIFY_DELAY_MS);
+                    frame = null;
+                    return;
+                }
+                closeDeferredFrame();
+                processFrame(frame);
+                if (framePipeline.hasPendingBackground()) {
+                    holdFrame(frame, framePipeline.getBackgroundDelayMs(SystemClock.uptimeMillis()));
+                    frame = null;
                 }
             }
         } catch (Exception e) {
             Log.e(TAG, "Error processing frame", e);
         } finally {
-            if (image != null) {
-                image.close();
+            if (frame != null) {
+                frame.close();
             }
         }
     }
     
-    private Bitmap convertImageToBitmap(Image image) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer buffer = planes[0].getBuffer();
-        int pixelStride = planes[0].getPixelStride();
-        int rowStride = planes[0].getRowStride();
-        int rowPadding = rowStride - pixelStride * screenWidth;
-        
-        Bitmap bitmap = Bitmap.createBitmap(
-            screenWidth + rowPadding / pixelStride,
-            screenHeight,
-            Bitmap.Config.ARGB_8888
-        );
-        
-        bitmap.copyPixelsFromBuffer(buffer);
-        
-        // Crop if there's row padding
-        if (rowPadding != 0) {
-            Bitmap croppedBitmap = Bitmap.createBitmap(bitmap, 0, 0, screenWidth, screenHeight);
-            bitmap.recycle();
-            return croppedBitmap;
+    private void verifyDeferredFrame() {
+        RgbaFrame frame = deferredFrame;
+        deferredFrame = null;
+        if (frame == null) {
+            return;
         }
-        
-        return bitmap;
+        try {
+            processFrame(frame);
+            if (framePipeline.hasPendingBackground()) {
+                // Background tiles still waiting for their turn come from this frame
+                holdFrame(frame, framePipeline.getBackgroundDelayMs(SystemClock.uptimeMillis()));
+                frame = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error processing frame", e);
+        } finally {
+            if (frame != null) {
+                frame.close();
+            }
+        }
+    }
+    
+    // Keeps a frame for a later full diff, either to catch changes the sampled check missed
+    // or to send deferred background tiles, unless a newer frame arrives first
+    private void holdFrame(RgbaFrame frame, long delayMs) {
+        closeDeferredFrame();
+        deferredFrame = frame;
+        captureHandler.postDelayed(verifyDeferredRunnable, delayMs);
     }
     
-    private Handler getBackgroundHandler() {
-        if (backgroundHandler == null) {
-            backgroundHandler = new Handler(Looper.getMainLooper());
+    private void closeDeferredFrame() {
+        captureHandler.removeCallbacks(verifyDeferredRunnable);
+        if (deferredFrame != null) {
+            deferredFrame.close();
+            deferredFrame = null;
         }
-        return backgroundHandler;
+    }
+    
+    private void processFrame(RgbaFrame frame) {
+        if (framePipeline.process(frame) > 0) {
+            lastActivityTime = SystemClock.uptimeMillis();
+        }
+    }
+    
+    private boolean isIdle(long now) {
+        return now - lastActivityTime >= IDLE_AFTER_MS;
+    }
+    
+    private void onRemoteInput(ControlEvent event) {
+        TouchEvent touch = event.getTouchData();
+        if ("touch".equals(event.getType()) && touch != null) {
+            framePipeline.onTouch(touch.getX(), touch.getY(), SystemClock.uptimeMillis());
+        }
+        wakeFromIdle();
+    }
+    
+    // Remote input usually changes the screen, so leave idle mode before the result shows up
+    private void wakeFromIdle() {
+        long now = SystemClock.uptimeMillis();
+        boolean wasIdle = isIdle(now);
+        lastActivityTime = now;
+        Handler handler = captureHandler;
+        if (wasIdle && handler != null && imageReader != null) {
+            handler.post(acquireFrameRunnable);
+        }
+    }
+    
+    // Tells controllers the screen is unchanged, at a lower rate once idle
+    private void sendHeartbeat() {
+        long now = SystemClock.uptimeMillis();
+        long interval = isIdle(now) ? IDLE_HEARTBEAT_INTERVAL_MS : HEARTBEAT_INTERVAL_MS;
+        if (now - framePipeline.getLastFrameSentTime() >= interval) {
+            framePipeline.sendHeartbeat(isIdle(now));
+        }
+        captureHandler.postDelayed(heartbeatRunnable, HEARTBEAT_INTERVAL_MS);
+    }
+    
+    // Encode stage: runs on the encode thread until capture stops
+    private static TileEncoder createTileEncoder() {
+        return new CodecSelectingTileEncoder(new YuvImageTileEncoder(), new WebpTileEncoder());
+    }
+    
+    private void encodeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        framePipeline.runEncodeLoop();
     }
     
     private void createNotificationChannel() {
@@ -206,21 +548,69 @@ public class ScreenCaptureService extends Service {
     public void onDestroy() {
         super.onDestroy();
         
+        EventBroadcaster.getInstance().removeKeyframeRequestListener(keyframeRequestListener);
+        EventBroadcaster.getInstance().removeQualityChangeListener(qualityChangeListener);
+        EventBroadcaster.getInstance().removeStreamModeListener(streamModeListener);
+        EventBroadcaster.getInstance().removeFrameDropListener(frameDropListener);
+        EventBroadcaster.getInstance().removeControlEventListener(activityListener);
+        
         if (virtualDisplay != null) {
             virtualDisplay.release();
         }
         
-        if (imageReader != null) {
-            imageReader.close();
+        // The capture thread may still be reading an image or an encoder callback may be
+        // running, so the reader and encoder are closed on that thread after its pending work
+        Handler handler = captureHandler;
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(null);
+            handler.post(this::releaseCapture);
+            captureThread.quitSafely();
+            joinQuietly(captureThread);
+        } else {
+            releaseCapture();
         }
         
         if (mediaProjection != null) {
             mediaProjection.stop();
         }
         
+        if (encodeThread != null) {
+            encodeThread.interrupt();
+            joinQuietly(encodeThread);
+        }
+        
+        parallelEncoder.shutdown();
+        framePipeline.release();
+        
         Log.d(TAG, "Screen capture service destroyed");
     }
     
+    private void releaseCapture() {
+        closeDeferredFrame();
+        ImageReader reader = imageReader;
+        imageReader = null;
+        if (reader != null) {
+            reader.setOnImageAvailableListener(null, null);
+            reader.close();
+        }
+        VideoEncoder encoder = videoEncoder;
+        videoEncoder = null;
+        if (encoder != null) {
+            encoder.release();
+        }
+    }
+    
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join(THREAD_JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            Log.w(TAG, thread.getName() + " did not stop within " + THREAD_JOIN_TIMEOUT_MS + " ms");
+        }
+    }
+    
     @Override
     public IBinder onBind(Intent intent) {
         return null;
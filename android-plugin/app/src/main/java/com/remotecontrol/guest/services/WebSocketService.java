@@ -2,20 +2,49 @@ package com.remotecontrol.guest.services;
 
 import android.app.Service;
 import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.LatencyReport;
+import com.remotecontrol.guest.models.LinkStats;
+import com.remotecontrol.guest.recording.RecordingRetention;
+import com.remotecontrol.guest.recording.SessionRecorder;
+import com.remotecontrol.guest.transport.AdaptiveQualityController;
+import com.remotecontrol.guest.transport.ConnectionManager;
+import com.remotecontrol.guest.transport.ControlEventCodec;
+import com.remotecontrol.guest.transport.GuestProtocol;
+import com.remotecontrol.guest.transport.LinkMetrics;
+import com.remotecontrol.guest.transport.OutboundByteCounter;
+import com.remotecontrol.guest.transport.QualitySettings;
+import com.remotecontrol.guest.transport.ReconnectBackoff;
+import com.remotecontrol.guest.transport.SendScheduler;
 import com.remotecontrol.guest.utils.EventBroadcaster;
 import com.remotecontrol.guest.utils.SessionManager;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
+import org.java_websocket.WebSocket;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class WebSocketService extends Service {
     
@@ -25,7 +54,100 @@ public class WebSocketService extends Service {
     private WebSocketClient webSocketClient;
     private Gson gson;
     private SessionManager sessionManager;
-    private boolean isConnected = false;
+    private volatile boolean isConnected = false;
+    private final EventBroadcaster.FrameListener frameListener = this::sendFrame;
+    private final EventBroadcaster.LatencyReportListener latencyReportListener = this::sendLatencyReport;
+    
+    // Adaptive quality: the send buffer and RTT are sampled periodically and fed to the controller
+    private static final long QUALITY_UPDATE_INTERVAL_MS = 500;
+    private static final long TARGET_LATENCY_MS = 150;
+    private static final long MAX_BUFFERED_BYTES = 256 * 1024;
+    private static final long QUALITY_DECREASE_INTERVAL_MS = 1000;
+    private static final long QUALITY_INCREASE_HOLD_MS = 3000;
+    private static final long PING_TIMEOUT_MS = 5000;
+    private final AdaptiveQualityController qualityController = new AdaptiveQualityController(
+        TARGET_LATENCY_MS, MAX_BUFFERED_BYTES, QUALITY_DECREASE_INTERVAL_MS, QUALITY_INCREASE_HOLD_MS);
+    private ScheduledExecutorService linkMonitor;
+    // Bytes handed to the client and bytes its writer has put on the socket; their difference
+    // is the socket buffer the send scheduler and the quality controller look at
+    private final OutboundByteCounter byteCounter = new OutboundByteCounter();
+    private QualitySettings currentSettings;
+    
+    // Link metrics come from a ping/pong heartbeat on the link monitor. They are broadcast for
+    // local consumers and reported to the server as "link-stats" at the interval it asks for.
+    // A link that has not answered a ping for DEAD_LINK_TIMEOUT_MS is closed and reconnected.
+    private static final long DEAD_LINK_TIMEOUT_MS = 15000;
+    private static final long LINK_STATS_BROADCAST_INTERVAL_MS = 1000;
+    private static final long DEFAULT_LINK_STATS_REPORT_INTERVAL_MS = 5000;
+    private final LinkMetrics linkMetrics = new LinkMetrics(PING_TIMEOUT_MS);
+    private volatile long linkStatsReportIntervalMs = DEFAULT_LINK_STATS_REPORT_INTERVAL_MS;
+    private long lastLinkStatsBroadcast;
+    private long lastLinkStatsReport;
+    
+    // Outgoing messages go through the send scheduler: control first, frames bounded and newest-wins
+    private static final int MAX_QUEUED_FRAMES = 3;
+    private static final long MAX_SOCKET_BUFFERED_BYTES = 64 * 1024;
+    private static final long DROP_LOG_INTERVAL_MS = 1000;
+    private static final long DROP_KEYFRAME_INTERVAL_MS = 1000;
+    private SendScheduler sendScheduler;
+    private volatile long lastDropLog;
+    private volatile long lastDropKeyframeRequest;
+    
+    // Control events arrive as binary messages when the server accepts the binary encoding
+    private final ControlEventCodec controlEventCodec = new ControlEventCodec();
+    private volatile boolean binaryControlEvents = false;
+    
+    // When the user opted in, each session is recorded for auditing under
+    // files/recordings/<session code>; older sessions are deleted to keep all of them under
+    // RECORDING_TOTAL_MAX_BYTES
+    private static final int RECORDING_SEGMENT_BYTES = 32 * 1024 * 1024;
+    private static final long RECORDING_MAX_BYTES = 256L * 1024 * 1024;
+    private static final long RECORDING_TOTAL_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final long RECORDING_INDEX_INTERVAL_US = 1000000;
+    private static final int RECORDING_QUEUE_CAPACITY = 32;
+    private SessionRecorder sessionRecorder;
+    
+    // Reconnects back off exponentially with jitter and first try to resume the stored session,
+    // falling back to a new session if the server rejects it or does not answer in time
+    private static final long RECONNECT_INITIAL_DELAY_MS = 250;
+    private static final long RECONNECT_MAX_DELAY_MS = 30000;
+    private static final double RECONNECT_MULTIPLIER = 2.0;
+    private static final long RESUME_TIMEOUT_MS = 2000;
+    private ConnectionManager connectionManager;
+    private ConnectivityManager connectivityManager;
+    private Network currentNetwork;
+    private volatile int connectionId;
+    private volatile boolean resumePending;
+    
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            Network previous;
+            synchronized (WebSocketService.this) {
+                previous = currentNetwork;
+                currentNetwork = network;
+            }
+            // The socket is bound to the old network and would only time out; drop it now
+            WebSocketClient client = webSocketClient;
+            if (previous != null && !previous.equals(network) && isConnected && client != null) {
+                Log.d(TAG, "Default network changed, reconnecting");
+                client.close();
+            }
+            connectionManager.onNetworkAvailable();
+        }
+        
+        @Override
+        public void onLost(Network network) {
+            synchronized (WebSocketService.this) {
+                if (!network.equals(currentNetwork)) {
+                    return;
+                }
+                currentNetwork = null;
+            }
+            Log.d(TAG, "Network lost, pausing reconnects");
+            connectionManager.onNetworkLost();
+        }
+    };
     
     @Override
     public void onCreate() {
@@ -33,10 +155,47 @@ public class WebSocketService extends Service {
         gson = new Gson();
         sessionManager = SessionManager.getInstance(this);
         
+        sendScheduler = new SendScheduler(new SendScheduler.Transport() {
+            @Override
+            public boolean isOpen() {
+                return isConnected && webSocketClient != null;
+            }
+            
+            @Override
+            public long getBufferedBytes() {
+                return byteCounter.getBufferedBytes();
+            }
+            
+            // Failures propagate so the scheduler counts them as send errors
+            @Override
+            public void sendText(String message) {
+                webSocketClient.send(message);
+                byteCounter.onTextQueued(message);
+            }
+            
+            @Override
+            public void sendBinary(ByteBuffer data) {
+                int length = data.remaining();
+                webSocketClient.send(data);
+                byteCounter.onFrameQueued(length);
+            }
+        }, MAX_QUEUED_FRAMES, MAX_SOCKET_BUFFERED_BYTES, dropListener);
+        sendScheduler.start();
+        
         // Register for frame broadcasts
-        EventBroadcaster.getInstance().setFrameListener(this::sendFrame);
+        EventBroadcaster.getInstance().addFrameListener(frameListener);
+        EventBroadcaster.getInstance().addLatencyReportListener(latencyReportListener);
+        
+        linkMonitor = Executors.newSingleThreadScheduledExecutor();
+        linkMonitor.scheduleWithFixedDelay(this::updateLinkQuality,
+            QUALITY_UPDATE_INTERVAL_MS, QUALITY_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        
+        connectionManager = new ConnectionManager(this::connectToServer, linkMonitor, new ReconnectBackoff(
+            RECONNECT_INITIAL_DELAY_MS, RECONNECT_MAX_DELAY_MS, RECONNECT_MULTIPLIER, new Random()));
+        connectionManager.start();
         
-        connectToServer();
+        connectivityManager = getSystemService(ConnectivityManager.class);
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
     }
     
     private void connectToServer() {
@@ -51,8 +210,11 @@ public class WebSocketService extends Service {
                 @Override
                 public void onOpen(ServerHandshake handshake) {
                     Log.d(TAG, "WebSocket connected to server");
+                    byteCounter.reset();
+                    linkMetrics.onConnected(System.nanoTime());
                     isConnected = true;
-                    authenticateAndCreateSession();
+                    connectionManager.onConnected();
+                    authenticateOrResume();
                 }
                 
                 @Override
@@ -60,17 +222,28 @@ public class WebSocketService extends Service {
                     handleServerMessage(message);
                 }
                 
+                @Override
+                public void onMessage(ByteBuffer bytes) {
+                    handleBinaryMessage(bytes);
+                }
+                
+                @Override
+                public void onWebsocketPong(WebSocket conn, Framedata f) {
+                    super.onWebsocketPong(conn, f);
+                    linkMetrics.onPong(System.nanoTime());
+                }
+                
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     Log.d(TAG, "WebSocket disconnected: " + reason);
                     isConnected = false;
+                    resumePending = false;
+                    sendScheduler.clearFrames();
                     
-                    // Attempt to reconnect after delay
-                    new android.os.Handler().postDelayed(() -> {
-                        if (!isConnected) {
-                            connectToServer();
-                        }
-                    }, 5000);
+                    long delayMs = connectionManager.onDisconnected();
+                    if (delayMs >= 0) {
+                        Log.d(TAG, "Reconnecting in " + delayMs + " ms");
+                    }
                 }
                 
                 @Override
@@ -80,47 +253,88 @@ public class WebSocketService extends Service {
                 }
             };
             
+            // Plain ws: the factory's sockets count what the client's writer puts on the wire
+            webSocketClient.setSocketFactory(byteCounter.socketFactory());
             webSocketClient.connect();
             
         } catch (Exception e) {
             Log.e(TAG, "Failed to connect to server", e);
+            connectionManager.onDisconnected();
         }
     }
     
+    private void authenticateOrResume() {
+        String sessionCode = sessionManager.getCurrentSessionCode();
+        String token = sessionManager.getAuthToken();
+        if (!sessionManager.isSessionActive() || token == null) {
+            authenticateAndCreateSession();
+            return;
+        }
+        
+        Map<String, Object> resumeRequest = GuestProtocol.resumeSession(sessionCode, token, getDeviceInfo());
+        
+        int id = ++connectionId;
+        resumePending = true;
+        sendMessage(resumeRequest);
+        linkMonitor.schedule(() -> {
+            if (id == connectionId && resumePending && isConnected) {
+                Log.w(TAG, "No answer to session resume, creating a new session");
+                abandonResume();
+            }
+        }, RESUME_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    private synchronized void abandonResume() {
+        if (!resumePending) {
+            return;
+        }
+        resumePending = false;
+        sessionManager.endSession();
+        authenticateAndCreateSession();
+    }
+    
     private void authenticateAndCreateSession() {
         // Request guest authentication token from server
-        Map<String, Object> authRequest = new HashMap<>();
-        authRequest.put("type", "authenticate");
-        authRequest.put("role", "guest");
-        authRequest.put("deviceInfo", getDeviceInfo());
-        
-        sendMessage(authRequest);
+        sendMessage(GuestProtocol.authenticate(getDeviceInfo()));
     }
     
     private void handleServerMessage(String message) {
         try {
-            Map<String, Object> data = gson.fromJson(message, Map.class);
-            String type = (String) data.get("type");
+            JsonObject json = JsonParser.parseString(message).getAsJsonObject();
+            JsonElement typeElement = json.get("type");
+            String type = typeElement != null ? typeElement.getAsString() : null;
+            
+            // Control events are bound straight from the parse tree, skipping the Map round-trip
+            if (GuestProtocol.CONTROL_EVENT.equals(type)) {
+                handleControlEvent(json);
+                return;
+            }
+            
+            Map<String, Object> data = gson.fromJson(json, Map.class);
             
             Log.d(TAG, "Received message type: " + type);
             
             switch (type) {
-                case "auth-success":
+                case GuestProtocol.AUTH_SUCCESS:
                     handleAuthSuccess(data);
                     break;
-                case "session-created":
+                case GuestProtocol.SESSION_CREATED:
                     handleSessionCreated(data);
                     break;
-                case "controller-joined":
-                    handleControllerJoined(data);
+                case GuestProtocol.SESSION_RESUMED:
+                    handleSessionResumed(data);
                     break;
-                case "control-event":
-                    handleControlEvent(data);
+                case GuestProtocol.RESUME_FAILED:
+                    Log.w(TAG, "Session resume rejected: " + data.get("reason"));
+                    abandonResume();
                     break;
-                case "webrtc-signal":
+                case GuestProtocol.CONTROLLER_JOINED:
+                    handleControllerJoined(data);
+                    break;
+                case GuestProtocol.WEBRTC_SIGNAL:
                     handleWebRTCSignal(data);
                     break;
-                case "quality-change":
+                case GuestProtocol.QUALITY_CHANGE:
                     handleQualityChange(data);
                     break;
                 default:
@@ -136,15 +350,16 @@ public class WebSocketService extends Service {
         String token = (String) data.get("token");
         sessionManager.setAuthToken(token);
         
+        binaryControlEvents = GuestProtocol.isBinaryControlEncoding(data);
+        applyLinkStatsInterval(data);
+        Log.d(TAG, "Control event encoding: " + (binaryControlEvents ? "binary" : "json"));
+        
         // Create session
         createSession();
     }
     
     private void createSession() {
-        Map<String, Object> sessionRequest = new HashMap<>();
-        sessionRequest.put("type", "create-session");
-        
-        sendMessage(sessionRequest);
+        sendMessage(GuestProtocol.createSession());
     }
     
     private void handleSessionCreated(Map<String, Object> data) {
@@ -152,6 +367,9 @@ public class WebSocketService extends Service {
         sessionManager.setCurrentSession(sessionCode);
         
         Log.d(TAG, "Session created with code: " + sessionCode);
+        if (sessionManager.isRecordingEnabled()) {
+            startRecording(sessionCode);
+        }
         
         // Broadcast session code to UI
         Intent intent = new Intent("SESSION_CODE_RECEIVED");
@@ -159,26 +377,106 @@ public class WebSocketService extends Service {
         sendBroadcast(intent);
     }
     
+    private void handleSessionResumed(Map<String, Object> data) {
+        resumePending = false;
+        String sessionCode = sessionManager.getCurrentSessionCode();
+        // A token is good for one resume, the server hands out the next one
+        String token = (String) data.get("token");
+        if (token != null) {
+            sessionManager.setAuthToken(token);
+        }
+        binaryControlEvents = GuestProtocol.isBinaryControlEncoding(data);
+        applyLinkStatsInterval(data);
+        Log.d(TAG, "Session resumed: " + sessionCode + ", control event encoding: "
+            + (binaryControlEvents ? "binary" : "json"));
+        
+        // The recording continues in the session's directory after a service restart
+        synchronized (this) {
+            if (sessionRecorder == null && sessionManager.isRecordingEnabled()) {
+                startRecording(sessionCode);
+            }
+        }
+        
+        // Frames queued for the old connection were dropped, the controller needs a full picture
+        EventBroadcaster.getInstance().broadcastKeyframeRequest();
+        
+        Intent intent = new Intent("SESSION_CODE_RECEIVED");
+        intent.putExtra("sessionCode", sessionCode);
+        sendBroadcast(intent);
+    }
+    
+    private synchronized void startRecording(String sessionCode) {
+        stopRecording();
+        File root = new File(getFilesDir(), "recordings");
+        // This session may grow to its own cap, the others share what is left
+        int deleted = RecordingRetention.prune(root, RECORDING_TOTAL_MAX_BYTES - RECORDING_MAX_BYTES, sessionCode);
+        if (deleted > 0) {
+            Log.d(TAG, "Deleted " + deleted + " old session recordings");
+        }
+        File directory = new File(root, sessionCode);
+        try {
+            sessionRecorder = new SessionRecorder(directory, RECORDING_SEGMENT_BYTES, RECORDING_MAX_BYTES,
+                RECORDING_INDEX_INTERVAL_US, RECORDING_QUEUE_CAPACITY);
+            sessionRecorder.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Error starting session recording", e);
+            sessionRecorder = null;
+        }
+    }
+    
+    private synchronized void stopRecording() {
+        if (sessionRecorder != null) {
+            sessionRecorder.stop();
+            sessionRecorder = null;
+        }
+    }
+    
     private void handleControllerJoined(Map<String, Object> data) {
         String controllerId = (String) data.get("controllerId");
         
         Log.d(TAG, "Controller joined: " + controllerId);
         
+        // Capture starts with JPEG tiles; hardware video only when the controller asks for it
+        String streamMode = GuestProtocol.requestedStreamMode(data);
+        if (streamMode != null) {
+            EventBroadcaster.getInstance().broadcastStreamModeRequest(streamMode);
+        }
+        
+        // New controllers have no previous frame to apply deltas to
+        EventBroadcaster.getInstance().broadcastKeyframeRequest();
+        
         // Broadcast to UI
         Intent intent = new Intent("CONTROLLER_JOINED");
         intent.putExtra("controllerId", controllerId);
         sendBroadcast(intent);
     }
     
-    private void handleControlEvent(Map<String, Object> data) {
+    private void handleControlEvent(JsonObject json) {
         try {
-            ControlEvent event = gson.fromJson(gson.toJson(data), ControlEvent.class);
+            ControlEvent event = gson.fromJson(json, ControlEvent.class);
             EventBroadcaster.getInstance().broadcastControlEvent(event);
         } catch (Exception e) {
             Log.e(TAG, "Error parsing control event", e);
         }
     }
     
+    // A binary message may carry several control events back to back
+    private void handleBinaryMessage(ByteBuffer bytes) {
+        if (!binaryControlEvents) {
+            Log.w(TAG, "Ignoring binary message, binary control events not negotiated");
+            return;
+        }
+        
+        while (ControlEventCodec.isControlMessage(bytes)) {
+            ControlEvent event = controlEventCodec.decode(bytes);
+            if (event == null) {
+                Log.w(TAG, "Malformed binary control event");
+                return;
+            }
+            EventBroadcaster.getInstance().broadcastControlEvent(event);
+        }
+    }
+    
     private void handleWebRTCSignal(Map<String, Object> data) {
         // Handle WebRTC signaling for direct peer connection
         Log.d(TAG, "WebRTC signal received: " + data);
@@ -187,25 +485,151 @@ public class WebSocketService extends Service {
     
     private void handleQualityChange(Map<String, Object> data) {
         String quality = (String) data.get("quality");
-        EventBroadcaster.getInstance().broadcastQualityChange(quality);
+        Object regionOfInterest = data.get("roi");
+        if (regionOfInterest instanceof Boolean) {
+            qualityController.setRegionOfInterest((Boolean) regionOfInterest);
+        }
+        if (quality != null) {
+            qualityController.setPreset(quality);
+        }
+        publishQualitySettings(qualityController.getSettings());
+    }
+    
+    // Runs on the link monitor thread
+    private void updateLinkQuality() {
+        WebSocketClient client = webSocketClient;
+        if (!isConnected || client == null) {
+            return;
+        }
+        
+        try {
+            long now = SystemClock.elapsedRealtime();
+            long nowNanos = System.nanoTime();
+            long buffered = byteCounter.getBufferedBytes() + sendScheduler.getQueuedFrameBytes();
+            double throughput = linkMetrics.onBytesWritten(byteCounter.getWrittenBytes(), nowNanos);
+            linkMetrics.setQueuedBytes(buffered);
+            
+            // Time the queued bytes need to drain at the observed rate; a stalled link counts as a full interval
+            double sendLatencyMs = buffered == 0 ? 0 : throughput > 0 ? buffered * 1000.0 / throughput : QUALITY_UPDATE_INTERVAL_MS;
+            
+            if (!linkMetrics.isPingOutstanding()) {
+                linkMetrics.onPingSent(nowNanos);
+                client.sendPing();
+                byteCounter.onFrameQueued(0);
+            } else if (linkMetrics.getOutstandingPingMs(nowNanos) > DEAD_LINK_TIMEOUT_MS) {
+                Log.w(TAG, "No pong for " + DEAD_LINK_TIMEOUT_MS + " ms, dropping the connection");
+                client.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Heartbeat timeout");
+                return;
+            }
+            
+            publishQualitySettings(qualityController.update(now, buffered, sendLatencyMs,
+                linkMetrics.getEffectiveRttMs(nowNanos)));
+            publishLinkStats(now);
+        } catch (Exception e) {
+            Log.e(TAG, "Error updating link quality", e);
+        }
+    }
+    
+    private void publishLinkStats(long now) {
+        if (now - lastLinkStatsBroadcast < LINK_STATS_BROADCAST_INTERVAL_MS) {
+            return;
+        }
+        lastLinkStatsBroadcast = now;
+        LinkStats stats = linkMetrics.snapshot();
+        EventBroadcaster.getInstance().broadcastLinkStats(stats);
+        
+        long reportInterval = linkStatsReportIntervalMs;
+        if (reportInterval > 0 && now - lastLinkStatsReport >= reportInterval) {
+            lastLinkStatsReport = now;
+            Map<String, Object> message = GuestProtocol.message(GuestProtocol.LINK_STATS);
+            message.put("rttMs", stats.getRttMs());
+            message.put("rttJitterMs", stats.getRttJitterMs());
+            message.put("minRttMs", stats.getMinRttMs());
+            message.put("throughputBytesPerSec", Math.round(stats.getThroughputBytesPerSec()));
+            message.put("queuedBytes", stats.getQueuedBytes());
+            message.put("pingTimeouts", stats.getPingTimeouts());
+            message.put("framesDropped", sendScheduler.getFramesDropped());
+            message.put("sendErrors", sendScheduler.getSendErrors());
+            sendMessage(message);
+        }
+    }
+    
+    // Per-stage frame latency percentiles for the last reporting window, in milliseconds
+    private void sendLatencyReport(LatencyReport report) {
+        if (report.getFrameCount() == 0) {
+            return;
+        }
+        Map<String, Object> stages = new HashMap<>();
+        for (int i = 0; i < report.getStageCount(); i++) {
+            Map<String, Object> stage = new HashMap<>();
+            stage.put("p50", report.getP50Ms(i));
+            stage.put("p90", report.getP90Ms(i));
+            stage.put("p99", report.getP99Ms(i));
+            stage.put("max", report.getMaxMs(i));
+            stages.put(report.getStage(i), stage);
+        }
+        Map<String, Object> message = GuestProtocol.message(GuestProtocol.FRAME_LATENCY);
+        message.put("frames", report.getFrameCount());
+        message.put("stages", stages);
+        sendMessage(message);
+    }
+    
+    // The server may set the report interval in auth-success or session-resumed; 0 turns reports off
+    private void applyLinkStatsInterval(Map<String, Object> data) {
+        Object interval = data.get("linkStatsIntervalMs");
+        if (interval instanceof Number) {
+            linkStatsReportIntervalMs = Math.max(0, ((Number) interval).longValue());
+        }
+    }
+    
+    private synchronized void publishQualitySettings(QualitySettings settings) {
+        if (settings != currentSettings) {
+            currentSettings = settings;
+            EventBroadcaster.getInstance().broadcastQualityChange(settings);
+        }
     }
     
-    private void sendFrame(byte[] frameData) {
+    private void sendFrame(ByteBuffer frameData) {
         if (isConnected && webSocketClient != null) {
-            try {
-                // Send frame as binary data
-                webSocketClient.send(frameData);
-            } catch (Exception e) {
-                Log.e(TAG, "Error sending frame", e);
+            sendScheduler.sendFrame(frameData);
+        }
+    }
+    
+    // A dropped delta frame's tiles are sent again by the capture pipeline. Video that had to
+    // skip the rest of a GOP needs a new keyframe; on a link that stays congested the requests
+    // are spaced out and the encoder's own keyframes fill in.
+    private final SendScheduler.DropListener dropListener = new SendScheduler.DropListener() {
+        @Override
+        public void onFrameDropped(ByteBuffer frame, long totalDropped) {
+            logDrops(totalDropped);
+            EventBroadcaster.getInstance().broadcastFrameDrop(frame);
+        }
+        
+        @Override
+        public void onKeyframeNeeded() {
+            logDrops(sendScheduler.getFramesDropped());
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastDropKeyframeRequest >= DROP_KEYFRAME_INTERVAL_MS) {
+                lastDropKeyframeRequest = now;
+                EventBroadcaster.getInstance().broadcastKeyframeRequest();
             }
         }
+    };
+    
+    private void logDrops(long totalDropped) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastDropLog >= DROP_LOG_INTERVAL_MS) {
+            lastDropLog = now;
+            Log.d(TAG, "Dropped stale frames: " + totalDropped + " total, " + sendScheduler.getFramesSent()
+                + " sent (" + sendScheduler.getFramesSentDirect() + " without queueing)");
+        }
     }
     
     private void sendMessage(Map<String, Object> message) {
         if (isConnected && webSocketClient != null) {
             try {
                 String json = gson.toJson(message);
-                webSocketClient.send(json);
+                sendScheduler.sendControl(json);
             } catch (Exception e) {
                 Log.e(TAG, "Error sending message", e);
             }
@@ -225,6 +649,26 @@ public class WebSocketService extends Service {
     public void onDestroy() {
         super.onDestroy();
         
+        EventBroadcaster.getInstance().removeFrameListener(frameListener);
+        EventBroadcaster.getInstance().removeLatencyReportListener(latencyReportListener);
+        stopRecording();
+        
+        if (connectionManager != null) {
+            connectionManager.stop();
+        }
+        
+        if (connectivityManager != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        }
+        
+        if (linkMonitor != null) {
+            linkMonitor.shutdownNow();
+        }
+        
+        if (sendScheduler != null) {
+            sendScheduler.stop();
+        }
+        
         if (webSocketClient != null) {
             webSocketClient.close();
         }
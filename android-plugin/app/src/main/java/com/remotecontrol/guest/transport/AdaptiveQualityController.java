@@ -0,0 +1,134 @@
+package com.remotecontrol.guest.transport;
+
+// Picks encoding settings from a ladder of quality levels so that the estimated end-to-end
+// latency (time to drain the send buffer plus half the RTT) stays under the target.
+// Congestion steps down quickly, recovery steps up one level at a time after a hold period.
+// The controller never reads a clock: callers pass the current time, which keeps it
+// deterministic under simulation.
+public class AdaptiveQualityController {
+    
+    public static final String PRESET_AUTO = "auto";
+    public static final String PRESET_HIGH = "high";
+    public static final String PRESET_MEDIUM = "medium";
+    public static final String PRESET_LOW = "low";
+    
+    // Ordered from best to most conservative
+    private static final QualitySettings[] LEVELS = {
+        new QualitySettings(80, 1.0f, 30),
+        new QualitySettings(75, 1.0f, 30),
+        new QualitySettings(65, 1.0f, 24),
+        new QualitySettings(55, 0.75f, 24),
+        new QualitySettings(45, 0.75f, 20),
+        new QualitySettings(40, 0.5f, 15),
+        new QualitySettings(30, 0.5f, 10),
+        new QualitySettings(25, 0.35f, 5)
+    };
+    // Region-of-interest variants keep native resolution and rely on background quality and
+    // rate instead of downscaling
+    private static final QualitySettings[] ROI_LEVELS = new QualitySettings[LEVELS.length];
+    
+    static {
+        for (int i = 0; i < LEVELS.length; i++) {
+            ROI_LEVELS[i] = new QualitySettings(LEVELS[i].getJpegQuality(), 1.0f, LEVELS[i].getFrameRate(), true);
+        }
+    }
+    private static final int INITIAL_LEVEL = 1;
+    private static final int MEDIUM_LEVEL = 3;
+    private static final int LOW_LEVEL = 5;
+    
+    // Latency must fall below this fraction of the target before stepping up again
+    private static final double HEADROOM = 0.5;
+    
+    private final long targetLatencyMs;
+    private final long maxBufferedBytes;
+    private final long decreaseIntervalMs;
+    private final long increaseHoldMs;
+    
+    private int level = INITIAL_LEVEL;
+    private int bestAllowedLevel = 0;
+    private long lastChangeMs = Long.MIN_VALUE / 2;
+    private long healthySinceMs = -1;
+    private double lastLatencyMs;
+    private boolean regionOfInterest;
+    
+    public AdaptiveQualityController(long targetLatencyMs, long maxBufferedBytes, long decreaseIntervalMs, long increaseHoldMs) {
+        this.targetLatencyMs = targetLatencyMs;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.decreaseIntervalMs = decreaseIntervalMs;
+        this.increaseHoldMs = increaseHoldMs;
+    }
+    
+    // Feeds one observation and returns the settings to use from now on
+    public synchronized QualitySettings update(long nowMs, long bufferedBytes, double sendLatencyMs, double rttMs) {
+        double latencyMs = sendLatencyMs + rttMs / 2;
+        lastLatencyMs = latencyMs;
+        
+        boolean congested = latencyMs > targetLatencyMs || bufferedBytes > maxBufferedBytes;
+        boolean healthy = latencyMs < targetLatencyMs * HEADROOM && bufferedBytes < maxBufferedBytes / 4;
+        
+        if (congested) {
+            healthySinceMs = -1;
+            // Give the previous step time to drain before reacting again
+            if (nowMs - lastChangeMs >= decreaseIntervalMs) {
+                int steps = latencyMs > targetLatencyMs * 2 ? 2 : 1;
+                setLevel(level + steps, nowMs);
+            }
+        } else if (healthy) {
+            if (healthySinceMs < 0) {
+                healthySinceMs = nowMs;
+            }
+            if (nowMs - healthySinceMs >= increaseHoldMs && nowMs - lastChangeMs >= increaseHoldMs) {
+                setLevel(level - 1, nowMs);
+                healthySinceMs = nowMs;
+            }
+        } else {
+            healthySinceMs = -1;
+        }
+        
+        return current();
+    }
+    
+    // Applies a controller-requested preset, which caps the best level adaptation may reach
+    public synchronized QualitySettings setPreset(String preset) {
+        if (PRESET_LOW.equals(preset)) {
+            bestAllowedLevel = LOW_LEVEL;
+        } else if (PRESET_MEDIUM.equals(preset)) {
+            bestAllowedLevel = MEDIUM_LEVEL;
+        } else {
+            bestAllowedLevel = 0;
+        }
+        if (level < bestAllowedLevel) {
+            level = bestAllowedLevel;
+        }
+        return current();
+    }
+    
+    public synchronized QualitySettings setRegionOfInterest(boolean enabled) {
+        regionOfInterest = enabled;
+        return current();
+    }
+    
+    private QualitySettings current() {
+        return regionOfInterest ? ROI_LEVELS[level] : LEVELS[level];
+    }
+    
+    private void setLevel(int newLevel, long nowMs) {
+        newLevel = Math.max(bestAllowedLevel, Math.min(LEVELS.length - 1, newLevel));
+        if (newLevel != level) {
+            level = newLevel;
+            lastChangeMs = nowMs;
+        }
+    }
+    
+    public synchronized QualitySettings getSettings() {
+        return current();
+    }
+    
+    public synchronized int getLevel() {
+        return level;
+    }
+    
+    public synchronized double getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+}
@@ -0,0 +1,111 @@
+package com.remotecontrol.guest.transport;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Decides when to (re)connect. The owner reports connection and network state changes and the
+// manager runs the connector on its scheduler: immediately on start, after a backoff delay
+// when the connection drops, and immediately again when a network comes back. No retries are
+// scheduled while there is no network, since they could only fail.
+public class ConnectionManager {
+    
+    public interface Connector {
+        void connect();
+    }
+    
+    private final Connector connector;
+    private final ScheduledExecutorService scheduler;
+    private final ReconnectBackoff backoff;
+    private boolean started;
+    private boolean connected;
+    private boolean connecting;
+    private boolean networkAvailable = true;
+    private boolean everConnected;
+    private ScheduledFuture<?> pendingRetry;
+    private long reconnectCount;
+    
+    public ConnectionManager(Connector connector, ScheduledExecutorService scheduler, ReconnectBackoff backoff) {
+        this.connector = connector;
+        this.scheduler = scheduler;
+        this.backoff = backoff;
+    }
+    
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        connectNow();
+    }
+    
+    public synchronized void stop() {
+        started = false;
+        cancelRetry();
+    }
+    
+    public synchronized void onConnected() {
+        if (everConnected) {
+            reconnectCount++;
+        }
+        everConnected = true;
+        connected = true;
+        connecting = false;
+        backoff.reset();
+    }
+    
+    // Returns the delay before the next attempt, or -1 if none was scheduled
+    public synchronized long onDisconnected() {
+        connected = false;
+        connecting = false;
+        if (!started || !networkAvailable || pendingRetry != null) {
+            return -1;
+        }
+        long delayMs = backoff.nextDelayMs();
+        pendingRetry = scheduler.schedule(this::retry, delayMs, TimeUnit.MILLISECONDS);
+        return delayMs;
+    }
+    
+    // A network became the default: reconnect right away with a fresh backoff
+    public synchronized void onNetworkAvailable() {
+        networkAvailable = true;
+        backoff.reset();
+        if (started && !connected && !connecting) {
+            cancelRetry();
+            connectNow();
+        }
+    }
+    
+    public synchronized void onNetworkLost() {
+        networkAvailable = false;
+        cancelRetry();
+    }
+    
+    private synchronized void retry() {
+        pendingRetry = null;
+        if (started && !connected && !connecting) {
+            connectNow();
+        }
+    }
+    
+    private void connectNow() {
+        connecting = true;
+        // The connector may report failure synchronously, so it never runs under this lock
+        scheduler.execute(connector::connect);
+    }
+    
+    private void cancelRetry() {
+        if (pendingRetry != null) {
+            pendingRetry.cancel(false);
+            pendingRetry = null;
+        }
+    }
+    
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+    
+    public synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+}
@@ -0,0 +1,120 @@
+package com.remotecontrol.guest.transport;
+
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.KeyEvent;
+import com.remotecontrol.guest.models.TouchEvent;
+
+import java.nio.ByteBuffer;
+
+// Compact binary encoding for control events, used instead of JSON when negotiated at
+// authenticate time. Every message is MESSAGE_SIZE bytes, big-endian:
+//
+//   byte   magic ('C')
+//   byte   event type (TYPE_TOUCH, TYPE_KEY)
+//   byte   action (ACTION_DOWN, ACTION_UP, ACTION_MOVE)
+//   byte   pointer id (touch) | 0 (key)
+//   float  x        (touch) | int key code   (key)
+//   float  y        (touch) | int meta state (key)
+//   float  pressure (touch) | unused         (key)
+//   long   timestamp in milliseconds
+//
+// Decoding fills one reusable ControlEvent, TouchEvent and KeyEvent instead of allocating,
+// so the returned event is only valid until the next decode call.
+public class ControlEventCodec {
+    public static final String ENCODING_BINARY = "binary";
+    public static final String ENCODING_JSON = "json";
+    
+    public static final byte MAGIC = 'C';
+    public static final int MESSAGE_SIZE = 24;
+    
+    public static final byte TYPE_TOUCH = 1;
+    public static final byte TYPE_KEY = 2;
+    
+    public static final byte ACTION_DOWN = 0;
+    public static final byte ACTION_UP = 1;
+    public static final byte ACTION_MOVE = 2;
+    
+    private static final String[] ACTIONS = {"down", "up", "move"};
+    
+    private final ControlEvent event = new ControlEvent();
+    private final TouchEvent touchEvent = new TouchEvent();
+    private final KeyEvent keyEvent = new KeyEvent();
+    
+    public static boolean isControlMessage(ByteBuffer message) {
+        return message.remaining() >= MESSAGE_SIZE && message.get(message.position()) == MAGIC;
+    }
+    
+    // Decodes one message at the buffer's position, or returns null if it is malformed
+    public ControlEvent decode(ByteBuffer message) {
+        if (!isControlMessage(message)) {
+            return null;
+        }
+        int start = message.position();
+        byte type = message.get(start + 1);
+        int action = message.get(start + 2);
+        if (action < 0 || action >= ACTIONS.length) {
+            return null;
+        }
+        long timestamp = message.getLong(start + 16);
+        
+        event.setTimestamp(timestamp);
+        event.setScrollData(null);
+        if (type == TYPE_TOUCH) {
+            touchEvent.setAction(ACTIONS[action]);
+            touchEvent.setX(message.getFloat(start + 4));
+            touchEvent.setY(message.getFloat(start + 8));
+            touchEvent.setPressure(message.getFloat(start + 12));
+            touchEvent.setPointerId(message.get(start + 3) & 0xFF);
+            touchEvent.setTimestamp(timestamp);
+            event.setType("touch");
+            event.setTouchData(touchEvent);
+            event.setKeyData(null);
+        } else if (type == TYPE_KEY) {
+            keyEvent.setAction(ACTIONS[action]);
+            keyEvent.setKeyCode(message.getInt(start + 4));
+            keyEvent.setMetaState(message.getInt(start + 8));
+            keyEvent.setTimestamp(timestamp);
+            event.setType("key");
+            event.setKeyData(keyEvent);
+            event.setTouchData(null);
+        } else {
+            return null;
+        }
+        message.position(start + MESSAGE_SIZE);
+        return event;
+    }
+    
+    // Writes one message at the buffer's position; returns false for events this format cannot carry
+    public static boolean encode(ControlEvent event, ByteBuffer out) {
+        if ("touch".equals(event.getType()) && event.getTouchData() != null) {
+            TouchEvent touch = event.getTouchData();
+            int action = actionCode(touch.getAction());
+            if (action < 0) {
+                return false;
+            }
+            out.put(MAGIC).put(TYPE_TOUCH).put((byte) action).put((byte) touch.getPointerId());
+            out.putFloat(touch.getX()).putFloat(touch.getY()).putFloat(touch.getPressure());
+        } else if ("key".equals(event.getType()) && event.getKeyData() != null) {
+            KeyEvent key = event.getKeyData();
+            int action = actionCode(key.getAction());
+            if (action < 0) {
+                return false;
+            }
+            out.put(MAGIC).put(TYPE_KEY).put((byte) action).put((byte) 0);
+            out.putInt(key.getKeyCode()).putInt(key.getMetaState()).putInt(0);
+        } else {
+            return false;
+        }
+        out.putLong(event.getTimestamp());
+        return true;
+    }
+    
+    private static int actionCode(String action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,71 @@
+package com.remotecontrol.guest.transport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// JSON messages a guest exchanges with the server on the /android endpoint. A new guest sends
+// authenticate, answers auth-success with create-session and starts streaming on
+// session-created; a reconnecting guest sends resume-session instead and falls back to
+// authenticate on resume-failed. Shared by WebSocketService and the JVM load generator so both
+// speak exactly the same protocol.
+public final class GuestProtocol {
+    public static final String AUTHENTICATE = "authenticate";
+    public static final String AUTH_SUCCESS = "auth-success";
+    public static final String CREATE_SESSION = "create-session";
+    public static final String SESSION_CREATED = "session-created";
+    public static final String RESUME_SESSION = "resume-session";
+    public static final String SESSION_RESUMED = "session-resumed";
+    public static final String RESUME_FAILED = "resume-failed";
+    public static final String CONTROLLER_JOINED = "controller-joined";
+    public static final String CONTROL_EVENT = "control-event";
+    public static final String WEBRTC_SIGNAL = "webrtc-signal";
+    public static final String QUALITY_CHANGE = "quality-change";
+    public static final String LINK_STATS = "link-stats";
+    public static final String FRAME_LATENCY = "frame-latency";
+    
+    // Offered in order of preference
+    public static final List<String> CONTROL_ENCODINGS = Arrays.asList(
+        ControlEventCodec.ENCODING_BINARY, ControlEventCodec.ENCODING_JSON);
+    
+    private GuestProtocol() {}
+    
+    public static Map<String, Object> authenticate(Map<String, Object> deviceInfo) {
+        Map<String, Object> message = message(AUTHENTICATE);
+        message.put("role", "guest");
+        message.put("deviceInfo", deviceInfo);
+        message.put("controlEncodings", CONTROL_ENCODINGS);
+        return message;
+    }
+    
+    public static Map<String, Object> createSession() {
+        return message(CREATE_SESSION);
+    }
+    
+    public static Map<String, Object> resumeSession(String sessionCode, String token, Map<String, Object> deviceInfo) {
+        Map<String, Object> message = message(RESUME_SESSION);
+        message.put("sessionCode", sessionCode);
+        message.put("token", token);
+        message.put("deviceInfo", deviceInfo);
+        message.put("controlEncodings", CONTROL_ENCODINGS);
+        return message;
+    }
+    
+    public static Map<String, Object> message(String type) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", type);
+        return message;
+    }
+    
+    // Stream mode a joining controller asked for, or null to keep the current one
+    public static String requestedStreamMode(Map<String, Object> data) {
+        Object mode = data.get("streamMode");
+        return mode instanceof String ? (String) mode : null;
+    }
+    
+    // Whether auth-success or session-resumed selected binary control events
+    public static boolean isBinaryControlEncoding(Map<String, Object> data) {
+        return ControlEventCodec.ENCODING_BINARY.equals(data.get("controlEncoding"));
+    }
+}
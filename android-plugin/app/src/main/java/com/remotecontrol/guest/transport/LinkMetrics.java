@@ -0,0 +1,111 @@
+package com.remotecontrol.guest.transport;
+
+import com.remotecontrol.guest.models.LinkStats;
+
+// Measures the link from ping/pong round trips and the bytes leaving the send buffer. RTT and
+// jitter are smoothed the way TCP does it (RFC 6298: gain 1/8 for the mean, 1/4 for the mean
+// deviation) and throughput with an EWMA, so one slow sample does not swing adaptive decisions.
+// Only one ping is outstanding at a time; a ping without a pong for longer than the timeout
+// counts once as a timeout and its age is reported as the effective RTT until it is answered.
+public class LinkMetrics {
+    private static final double RTT_GAIN = 0.125;
+    private static final double JITTER_GAIN = 0.25;
+    private static final double THROUGHPUT_GAIN = 0.25;
+    
+    private final long pingTimeoutNanos;
+    private long pingSentNanos;
+    private boolean pingTimedOut;
+    private double smoothedRttMs = -1;
+    private double rttJitterMs;
+    private double minRttMs = -1;
+    private double lastRttMs = -1;
+    private long rttSamples;
+    private long pingTimeouts;
+    private double throughputBytesPerSec;
+    private long lastBytesWritten;
+    private long lastThroughputNanos;
+    private long queuedBytes;
+    
+    public LinkMetrics(long pingTimeoutMs) {
+        this.pingTimeoutNanos = pingTimeoutMs * 1000000L;
+    }
+    
+    // Clears per-connection state; the RTT estimate is kept as a starting point for the new link
+    public synchronized void onConnected(long nowNanos) {
+        pingSentNanos = 0;
+        pingTimedOut = false;
+        lastBytesWritten = 0;
+        lastThroughputNanos = nowNanos;
+        throughputBytesPerSec = 0;
+        queuedBytes = 0;
+    }
+    
+    public synchronized boolean isPingOutstanding() {
+        return pingSentNanos != 0;
+    }
+    
+    public synchronized void onPingSent(long nowNanos) {
+        pingSentNanos = nowNanos;
+        pingTimedOut = false;
+    }
+    
+    // Returns the round-trip time of the outstanding ping, or -1 if none was outstanding
+    public synchronized double onPong(long nowNanos) {
+        if (pingSentNanos == 0) {
+            return -1;
+        }
+        double rtt = (nowNanos - pingSentNanos) / 1e6;
+        pingSentNanos = 0;
+        lastRttMs = rtt;
+        minRttMs = minRttMs < 0 ? rtt : Math.min(minRttMs, rtt);
+        if (smoothedRttMs < 0) {
+            smoothedRttMs = rtt;
+            rttJitterMs = rtt / 2;
+        } else {
+            rttJitterMs += JITTER_GAIN * (Math.abs(smoothedRttMs - rtt) - rttJitterMs);
+            smoothedRttMs += RTT_GAIN * (rtt - smoothedRttMs);
+        }
+        rttSamples++;
+        return rtt;
+    }
+    
+    // Age of the outstanding ping in milliseconds, or 0 if none is outstanding
+    public synchronized long getOutstandingPingMs(long nowNanos) {
+        if (pingSentNanos == 0) {
+            return 0;
+        }
+        long ageNanos = nowNanos - pingSentNanos;
+        if (ageNanos > pingTimeoutNanos && !pingTimedOut) {
+            pingTimedOut = true;
+            pingTimeouts++;
+        }
+        return ageNanos / 1000000L;
+    }
+    
+    // RTT to act on: the smoothed value, or the age of a timed-out ping if that is longer
+    public synchronized double getEffectiveRttMs(long nowNanos) {
+        double rtt = Math.max(smoothedRttMs, 0);
+        long outstandingMs = getOutstandingPingMs(nowNanos);
+        return pingTimedOut ? Math.max(rtt, outstandingMs) : rtt;
+    }
+    
+    // Takes the total bytes written to the network so far and returns the rate since the last
+    // sample in bytes per second
+    public synchronized double onBytesWritten(long totalBytesWritten, long nowNanos) {
+        long elapsedNanos = Math.max(1000000L, nowNanos - lastThroughputNanos);
+        double rate = Math.max(0, totalBytesWritten - lastBytesWritten) * 1e9 / elapsedNanos;
+        lastBytesWritten = totalBytesWritten;
+        lastThroughputNanos = nowNanos;
+        throughputBytesPerSec += THROUGHPUT_GAIN * (rate - throughputBytesPerSec);
+        return rate;
+    }
+    
+    public synchronized void setQueuedBytes(long queuedBytes) {
+        this.queuedBytes = queuedBytes;
+    }
+    
+    public synchronized LinkStats snapshot() {
+        return new LinkStats(smoothedRttMs, smoothedRttMs < 0 ? -1 : rttJitterMs, minRttMs, lastRttMs,
+            throughputBytesPerSec, queuedBytes, rttSamples, pingTimeouts);
+    }
+}
@@ -0,0 +1,138 @@
+package com.remotecontrol.guest.transport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
+
+// Counts the bytes a WebSocket client is handed for sending and the bytes its writer thread
+// actually puts on the socket; the difference is what still waits in the client's queue.
+// Queued sizes include the header of a masked client frame, so they match the bytes the socket
+// sees. Sockets from socketFactory() report their writes. Reset once the handshake is done,
+// since the handshake itself is written but never queued here.
+public class OutboundByteCounter {
+    // Base header plus the masking key every client frame carries
+    private static final int FRAME_HEADER_SIZE = 2 + 4;
+    
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    
+    public void reset() {
+        queuedBytes.set(0);
+        writtenBytes.set(0);
+    }
+    
+    public void onTextQueued(String message) {
+        onFrameQueued(utf8Length(message));
+    }
+    
+    public void onFrameQueued(int payloadLength) {
+        queuedBytes.addAndGet(frameSize(payloadLength));
+    }
+    
+    // Bytes put on the socket since the last reset
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+    
+    // Pongs and close frames the client writes on its own are not queued here, hence the clamp
+    public long getBufferedBytes() {
+        return Math.max(0, queuedBytes.get() - writtenBytes.get());
+    }
+    
+    public SocketFactory socketFactory() {
+        return new SocketFactory() {
+            @Override
+            public Socket createSocket() {
+                return new CountingSocket();
+            }
+            
+            @Override
+            public Socket createSocket(String host, int port) throws IOException {
+                Socket socket = createSocket();
+                socket.connect(new InetSocketAddress(host, port));
+                return socket;
+            }
+            
+            @Override
+            public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+                Socket socket = createSocket();
+                socket.bind(new InetSocketAddress(localHost, localPort));
+                socket.connect(new InetSocketAddress(host, port));
+                return socket;
+            }
+            
+            @Override
+            public Socket createSocket(InetAddress host, int port) throws IOException {
+                Socket socket = createSocket();
+                socket.connect(new InetSocketAddress(host, port));
+                return socket;
+            }
+            
+            @Override
+            public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                    throws IOException {
+                Socket socket = createSocket();
+                socket.bind(new InetSocketAddress(localAddress, localPort));
+                socket.connect(new InetSocketAddress(address, port));
+                return socket;
+            }
+        };
+    }
+    
+    // Size on the wire of a masked client frame carrying payloadLength bytes
+    public static long frameSize(int payloadLength) {
+        int extendedLength = payloadLength > 0xFFFF ? 8 : payloadLength > 125 ? 2 : 0;
+        return FRAME_HEADER_SIZE + extendedLength + (long) payloadLength;
+    }
+    
+    // UTF-8 encoded length without encoding; unpaired surrogates count as the '?' they become
+    public static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0, count = text.length(); i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
+    private final class CountingSocket extends Socket {
+        private OutputStream output;
+        
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (output == null) {
+                output = new FilterOutputStream(super.getOutputStream()) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        writtenBytes.incrementAndGet();
+                    }
+                    
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        writtenBytes.addAndGet(len);
+                    }
+                };
+            }
+            return output;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.remotecontrol.guest.transport;
+
+// Encoding parameters chosen by AdaptiveQualityController
+public final class QualitySettings {
+    private final int jpegQuality;
+    private final float scale;
+    private final int frameRate;
+    private final boolean regionOfInterest;
+    
+    public QualitySettings(int jpegQuality, float scale, int frameRate) {
+        this(jpegQuality, scale, frameRate, false);
+    }
+    
+    public QualitySettings(int jpegQuality, float scale, int frameRate, boolean regionOfInterest) {
+        this.jpegQuality = jpegQuality;
+        this.scale = scale;
+        this.frameRate = frameRate;
+        this.regionOfInterest = regionOfInterest;
+    }
+    
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+    
+    // Downscale factor applied before encoding, 1.0 means native resolution
+    public float getScale() {
+        return scale;
+    }
+    
+    public int getFrameRate() {
+        return frameRate;
+    }
+    
+    // Region-of-interest mode: jpegQuality applies to the background, the area around the
+    // pointer is sent at high quality and native resolution
+    public boolean isRegionOfInterest() {
+        return regionOfInterest;
+    }
+    
+    public long getFrameIntervalMs() {
+        return 1000 / frameRate;
+    }
+    
+    @Override
+    public String toString() {
+        return "q" + jpegQuality + " x" + scale + " @" + frameRate + "fps" + (regionOfInterest ? " roi" : "");
+    }
+}
@@ -0,0 +1,41 @@
+package com.remotecontrol.guest.transport;
+
+import java.util.Random;
+
+// Exponential backoff with full jitter: the n-th retry waits a uniformly random time between
+// zero and min(maxDelay, initialDelay * multiplier^n). The randomness spreads out guests that
+// lost the server at the same moment, and the first retry comes within initialDelay.
+public class ReconnectBackoff {
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final double multiplier;
+    private final Random random;
+    private int attempt;
+    
+    public ReconnectBackoff(long initialDelayMs, long maxDelayMs, double multiplier, Random random) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs) {
+            throw new IllegalArgumentException("Invalid delays: " + initialDelayMs + ", " + maxDelayMs);
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.multiplier = multiplier;
+        this.random = random;
+    }
+    
+    public synchronized long nextDelayMs() {
+        double ceiling = Math.min(maxDelayMs, initialDelayMs * Math.pow(multiplier, attempt));
+        attempt++;
+        return (long) (random.nextDouble() * ceiling);
+    }
+    
+    public synchronized void reset() {
+        attempt = 0;
+    }
+    
+    public synchronized int getAttempt() {
+        return attempt;
+    }
+}
@@ -0,0 +1,380 @@
+package com.remotecontrol.guest.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+
+// Single sender thread in front of the WebSocket. Control and signaling messages are
+// always sent first and never dropped. Frames wait in a small bounded queue and are only
+// written while the socket's own buffer is below a threshold; when the queue is full the
+// oldest frame is dropped, so a slow link sends the newest picture instead of a backlog.
+// Video packets (VideoPacketizer) depend on each other, so the queue counts access units
+// rather than packets and only drops whole GOPs: when a new access unit finds it full, queued
+// units up to the newest keyframe go, or, while the queue holds only the current GOP, units
+// are skipped until the next keyframe. Fragments of an access unit and codec config packets
+// are never dropped and never wait for room. A frame offered while nothing is queued or in
+// flight and the socket has room is written straight from the caller's buffer; only frames
+// that have to wait are copied.
+public class SendScheduler {
+    
+    // The send methods throw if the message could not be handed to the connection
+    public interface Transport {
+        boolean isOpen();
+        
+        long getBufferedBytes();
+        
+        void sendText(String message);
+        
+        void sendBinary(ByteBuffer data);
+    }
+    
+    // Called on the thread offering the frame, outside the scheduler's lock
+    public interface DropListener {
+        // A queued frame was dropped unsent; the buffer is only valid during the call
+        void onFrameDropped(ByteBuffer frame, long totalDropped);
+        
+        // Video is being skipped until the next keyframe, which should be requested now
+        void onKeyframeNeeded();
+    }
+    
+    // How often a blocked frame re-checks whether the socket buffer has drained
+    private static final long WRITABLE_POLL_MS = 5;
+    
+    private final Transport transport;
+    private final int maxQueuedFrames;
+    private final long maxSocketBufferedBytes;
+    private final DropListener dropListener;
+    private final ThreadFactory threadFactory;
+    private final Object lock = new Object();
+    private final ArrayDeque<String> controlQueue = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> frameQueue;
+    private long queuedFrameBytes;
+    private long framesSent;
+    private long framesDropped;
+    private long controlSent;
+    private long sendErrors;
+    private long framesSentDirect;
+    private boolean skippingVideo;
+    private boolean sending;
+    private Thread senderThread;
+    private volatile boolean running;
+    
+    public SendScheduler(Transport transport, int maxQueuedFrames, long maxSocketBufferedBytes, DropListener dropListener) {
+        this(transport, maxQueuedFrames, maxSocketBufferedBytes, dropListener,
+            runnable -> new Thread(runnable, "SendScheduler"));
+    }
+    
+    // The factory creates the sender thread, e.g. a virtual thread when many schedulers share a JVM
+    public SendScheduler(Transport transport, int maxQueuedFrames, long maxSocketBufferedBytes,
+                         DropListener dropListener, ThreadFactory threadFactory) {
+        if (maxQueuedFrames <= 0) {
+            throw new IllegalArgumentException("maxQueuedFrames must be positive");
+        }
+        this.transport = transport;
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.maxSocketBufferedBytes = maxSocketBufferedBytes;
+        this.dropListener = dropListener;
+        this.threadFactory = threadFactory;
+        this.frameQueue = new ArrayDeque<>(maxQueuedFrames);
+    }
+    
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            senderThread = threadFactory.newThread(this::sendLoop);
+            senderThread.start();
+        }
+    }
+    
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            controlQueue.clear();
+            frameQueue.clear();
+            queuedFrameBytes = 0;
+            lock.notifyAll();
+        }
+        if (senderThread != null) {
+            senderThread.interrupt();
+        }
+    }
+    
+    public void sendControl(String message) {
+        synchronized (lock) {
+            controlQueue.addLast(message);
+            lock.notifyAll();
+        }
+    }
+    
+    public void sendFrame(byte[] frame) {
+        sendFrame(ByteBuffer.wrap(frame));
+    }
+    
+    // The frame's contents are only read during this call
+    public void sendFrame(ByteBuffer frame) {
+        ByteBuffer dropped = null;
+        long totalDropped = 0;
+        boolean keyframeNeeded = false;
+        synchronized (lock) {
+            boolean video = VideoPacketizer.isPacket(frame);
+            if (video && skipVideo(frame)) {
+                framesDropped++;
+                return;
+            }
+            if (running && !sending && controlQueue.isEmpty() && frameQueue.isEmpty()
+                    && transport.getBufferedBytes() < maxSocketBufferedBytes) {
+                sending = true;
+            } else {
+                if (!video && frameQueue.size() >= maxQueuedFrames) {
+                    dropped = dropOldestFrame();
+                    totalDropped = framesDropped;
+                } else if (video && startsSkippableUnit(frame) && queuedUnits() >= maxQueuedFrames
+                        && !dropQueuedGops(frame)) {
+                    skippingVideo = true;
+                    keyframeNeeded = true;
+                    framesDropped++;
+                }
+                if (!keyframeNeeded) {
+                    ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+                    copy.put(frame.duplicate());
+                    copy.flip();
+                    frameQueue.addLast(copy);
+                    queuedFrameBytes += copy.remaining();
+                    lock.notifyAll();
+                }
+                frame = null;
+            }
+        }
+        if (frame != null) {
+            try {
+                if (send(null, frame.duplicate())) {
+                    synchronized (lock) {
+                        framesSentDirect++;
+                    }
+                }
+            } finally {
+                synchronized (lock) {
+                    sending = false;
+                    lock.notifyAll();
+                }
+            }
+        }
+        if (dropListener != null) {
+            if (dropped != null) {
+                dropListener.onFrameDropped(dropped, totalDropped);
+            }
+            if (keyframeNeeded) {
+                dropListener.onKeyframeNeeded();
+            }
+        }
+    }
+    
+    // Oldest queued frame that is not video, or null if there is none
+    private ByteBuffer dropOldestFrame() {
+        Iterator<ByteBuffer> queued = frameQueue.iterator();
+        while (queued.hasNext()) {
+            ByteBuffer frame = queued.next();
+            if (!VideoPacketizer.isPacket(frame)) {
+                queued.remove();
+                queuedFrameBytes -= frame.remaining();
+                framesDropped++;
+                return frame;
+            }
+        }
+        return null;
+    }
+    
+    // Queued frames, counting a video access unit once however many fragments it has, and
+    // codec config not at all
+    private int queuedUnits() {
+        int units = 0;
+        for (ByteBuffer frame : frameQueue) {
+            if (!VideoPacketizer.isPacket(frame) || startsSkippableUnit(frame)) {
+                units++;
+            }
+        }
+        return units;
+    }
+    
+    // Drops the queued access units before the newest keyframe, queued or the incoming packet,
+    // so the decoder picks up cleanly there. Returns false if there was nothing to drop.
+    private boolean dropQueuedGops(ByteBuffer incoming) {
+        int newestKeyframe = -1;
+        int index = 0;
+        for (ByteBuffer packet : frameQueue) {
+            if (VideoPacketizer.isPacket(packet) && isKeyframeStart(packet)) {
+                newestKeyframe = index;
+            }
+            index++;
+        }
+        if (isKeyframeStart(incoming)) {
+            newestKeyframe = index;
+        }
+        
+        // Fragments at the head may belong to an access unit that is partly sent
+        boolean unitStarted = false;
+        long dropped = 0;
+        Iterator<ByteBuffer> queued = frameQueue.iterator();
+        for (index = 0; index < newestKeyframe; index++) {
+            ByteBuffer packet = queued.next();
+            if (!VideoPacketizer.isPacket(packet)) {
+                continue;
+            }
+            unitStarted |= VideoPacketizer.readFragmentIndex(packet) == 0;
+            if (unitStarted && (VideoPacketizer.readFlags(packet) & VideoPacketizer.FLAG_CONFIG) == 0) {
+                queued.remove();
+                queuedFrameBytes -= packet.remaining();
+                dropped++;
+            }
+        }
+        framesDropped += dropped;
+        return dropped > 0;
+    }
+    
+    // While skipping, whole access units are dropped until a keyframe starts the next GOP;
+    // codec config always goes through
+    private boolean skipVideo(ByteBuffer packet) {
+        if (!skippingVideo || (VideoPacketizer.readFlags(packet) & VideoPacketizer.FLAG_CONFIG) != 0) {
+            return false;
+        }
+        if (isKeyframeStart(packet)) {
+            skippingVideo = false;
+            return false;
+        }
+        return true;
+    }
+    
+    private static boolean isKeyframeStart(ByteBuffer packet) {
+        return (VideoPacketizer.readFlags(packet) & VideoPacketizer.FLAG_KEYFRAME) != 0
+            && VideoPacketizer.readFragmentIndex(packet) == 0;
+    }
+    
+    // First fragment of an access unit that is not codec config
+    private static boolean startsSkippableUnit(ByteBuffer packet) {
+        return VideoPacketizer.readFragmentIndex(packet) == 0
+            && (VideoPacketizer.readFlags(packet) & VideoPacketizer.FLAG_CONFIG) == 0;
+    }
+    
+    // Discards queued frames, e.g. after a reconnect when they no longer apply. Video resumes
+    // with the next keyframe, since the discarded packets may have been referenced.
+    public void clearFrames() {
+        synchronized (lock) {
+            frameQueue.clear();
+            queuedFrameBytes = 0;
+            skippingVideo = true;
+        }
+    }
+    
+    private void sendLoop() {
+        try {
+            while (running) {
+                String control = null;
+                ByteBuffer frame = null;
+                synchronized (lock) {
+                    while (running) {
+                        // A direct frame send is in progress on another thread, keep frames in order
+                        if (sending) {
+                            lock.wait();
+                            continue;
+                        }
+                        control = controlQueue.pollFirst();
+                        if (control != null) {
+                            break;
+                        }
+                        if (!frameQueue.isEmpty() && transport.getBufferedBytes() < maxSocketBufferedBytes) {
+                            frame = frameQueue.pollFirst();
+                            queuedFrameBytes -= frame.remaining();
+                            break;
+                        }
+                        lock.wait(frameQueue.isEmpty() ? 0 : WRITABLE_POLL_MS);
+                    }
+                    if (control != null || frame != null) {
+                        sending = true;
+                    }
+                }
+                
+                try {
+                    if (control != null) {
+                        send(control, null);
+                    } else if (frame != null) {
+                        send(null, frame);
+                    }
+                } finally {
+                    synchronized (lock) {
+                        sending = false;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Scheduler stopped
+        }
+    }
+    
+    private boolean send(String control, ByteBuffer frame) {
+        if (!transport.isOpen()) {
+            return false;
+        }
+        try {
+            if (control != null) {
+                transport.sendText(control);
+            } else {
+                transport.sendBinary(frame);
+            }
+            synchronized (lock) {
+                if (control != null) {
+                    controlSent++;
+                } else {
+                    framesSent++;
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                sendErrors++;
+            }
+            return false;
+        }
+    }
+    
+    public long getQueuedFrameBytes() {
+        synchronized (lock) {
+            return queuedFrameBytes;
+        }
+    }
+    
+    public long getFramesSent() {
+        synchronized (lock) {
+            return framesSent;
+        }
+    }
+    
+    // Frames written straight from the producer's buffer without being queued
+    public long getFramesSentDirect() {
+        synchronized (lock) {
+            return framesSentDirect;
+        }
+    }
+    
+    public long getFramesDropped() {
+        synchronized (lock) {
+            return framesDropped;
+        }
+    }
+    
+    public long getControlSent() {
+        synchronized (lock) {
+            return controlSent;
+        }
+    }
+    
+    public long getSendErrors() {
+        synchronized (lock) {
+            return sendErrors;
+        }
+    }
+}
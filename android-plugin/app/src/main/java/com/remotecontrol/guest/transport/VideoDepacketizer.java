@@ -0,0 +1,127 @@
+package com.remotecontrol.guest.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Reassembles packets produced by VideoPacketizer into access units. A missing fragment
+// or a gap in the sequence numbers discards the unit, and everything up to the next
+// keyframe or codec config is dropped since the decoder cannot use it.
+public class VideoDepacketizer {
+    
+    public static final class AccessUnit {
+        public final int sequence;
+        public final int codec;
+        public final int flags;
+        public final long presentationTimeUs;
+        public final byte[] data;
+        
+        AccessUnit(int sequence, int codec, int flags, long presentationTimeUs, byte[] data) {
+            this.sequence = sequence;
+            this.codec = codec;
+            this.flags = flags;
+            this.presentationTimeUs = presentationTimeUs;
+            this.data = data;
+        }
+        
+        public boolean isKeyframe() {
+            return (flags & VideoPacketizer.FLAG_KEYFRAME) != 0;
+        }
+        
+        public boolean isConfig() {
+            return (flags & VideoPacketizer.FLAG_CONFIG) != 0;
+        }
+    }
+    
+    private byte[] buffer = new byte[256 * 1024];
+    private int length;
+    private boolean assembling;
+    private int sequence;
+    private int codec;
+    private int flags;
+    private long presentationTimeUs;
+    private int nextFragment;
+    private int fragmentCount;
+    private boolean hasSequence;
+    private int expectedSequence;
+    private boolean waitingForKeyframe = true;
+    private long droppedUnits;
+    
+    // Returns the completed access unit, or null while fragments are still missing
+    public AccessUnit accept(byte[] packet, int offset, int count) {
+        if (count < VideoPacketizer.HEADER_SIZE) {
+            throw new IllegalArgumentException("Packet shorter than header: " + count + " bytes");
+        }
+        ByteBuffer header = ByteBuffer.wrap(packet, offset, count);
+        if (header.get() != VideoPacketizer.MAGIC || header.get() != VideoPacketizer.VERSION) {
+            throw new IllegalArgumentException("Not a video packet");
+        }
+        int packetFlags = header.get() & 0xFF;
+        int packetCodec = header.get() & 0xFF;
+        int packetSequence = header.getInt();
+        long packetTimeUs = header.getLong();
+        int fragment = header.getShort() & 0xFFFF;
+        int packetFragmentCount = header.getShort() & 0xFFFF;
+        
+        if (fragment == 0) {
+            if (assembling) {
+                dropUnit();
+            } else if (hasSequence && packetSequence != expectedSequence) {
+                // Whole access units went missing in between
+                waitingForKeyframe = true;
+                droppedUnits += packetSequence - expectedSequence;
+            }
+            hasSequence = true;
+            expectedSequence = packetSequence + 1;
+            assembling = true;
+            sequence = packetSequence;
+            codec = packetCodec;
+            flags = packetFlags;
+            presentationTimeUs = packetTimeUs;
+            fragmentCount = packetFragmentCount;
+            nextFragment = 0;
+            length = 0;
+        } else if (!assembling || packetSequence != sequence || fragment != nextFragment) {
+            if (assembling) {
+                dropUnit();
+            }
+            return null;
+        }
+        
+        int payloadSize = count - VideoPacketizer.HEADER_SIZE;
+        if (length + payloadSize > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length + payloadSize, buffer.length * 2));
+        }
+        System.arraycopy(packet, offset + VideoPacketizer.HEADER_SIZE, buffer, length, payloadSize);
+        length += payloadSize;
+        nextFragment++;
+        
+        if (nextFragment < fragmentCount) {
+            return null;
+        }
+        
+        assembling = false;
+        boolean decodable = (flags & (VideoPacketizer.FLAG_KEYFRAME | VideoPacketizer.FLAG_CONFIG)) != 0;
+        if (waitingForKeyframe && !decodable) {
+            droppedUnits++;
+            return null;
+        }
+        if ((flags & VideoPacketizer.FLAG_KEYFRAME) != 0) {
+            waitingForKeyframe = false;
+        }
+        return new AccessUnit(sequence, codec, flags, presentationTimeUs, Arrays.copyOf(buffer, length));
+    }
+    
+    private void dropUnit() {
+        assembling = false;
+        waitingForKeyframe = true;
+        droppedUnits++;
+    }
+    
+    public boolean isWaitingForKeyframe() {
+        return waitingForKeyframe;
+    }
+    
+    public long getDroppedUnits() {
+        return droppedUnits;
+    }
+}
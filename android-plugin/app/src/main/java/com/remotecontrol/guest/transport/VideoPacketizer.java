@@ -0,0 +1,90 @@
+package com.remotecontrol.guest.transport;
+
+import java.nio.ByteBuffer;
+
+// Splits encoded video access units into binary WebSocket packets:
+//
+//   byte   magic ('V')
+//   byte   version
+//   byte   flags (FLAG_KEYFRAME, FLAG_CONFIG)
+//   byte   codec (CODEC_H264, CODEC_HEVC)
+//   int    access unit sequence number
+//   long   presentation time in microseconds
+//   short  fragment index
+//   short  fragment count
+//   byte[] payload
+//
+// All values are big-endian. Fragments of one access unit are sent in order, so the
+// receiver can reassemble them with VideoDepacketizer.
+public class VideoPacketizer {
+    public static final byte MAGIC = 'V';
+    public static final byte VERSION = 1;
+    public static final int FLAG_KEYFRAME = 0x01;
+    public static final int FLAG_CONFIG = 0x02;
+    public static final byte CODEC_H264 = 1;
+    public static final byte CODEC_HEVC = 2;
+    public static final int HEADER_SIZE = 20;
+    public static final int DEFAULT_MAX_PACKET_SIZE = 64 * 1024;
+    private static final int MAX_FRAGMENTS = 0xFFFF;
+    
+    public interface PacketListener {
+        void onPacket(byte[] packet);
+    }
+    
+    private final byte codec;
+    private final int maxPayloadSize;
+    private final PacketListener listener;
+    private int sequence = 0;
+    
+    public VideoPacketizer(byte codec, int maxPacketSize, PacketListener listener) {
+        if (maxPacketSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("maxPacketSize must exceed the " + HEADER_SIZE + " byte header");
+        }
+        this.codec = codec;
+        this.maxPayloadSize = maxPacketSize - HEADER_SIZE;
+        this.listener = listener;
+    }
+    
+    // Consumes the remaining bytes of accessUnit and returns the number of packets emitted
+    public int packetize(ByteBuffer accessUnit, long presentationTimeUs, int flags) {
+        int fragmentCount = Math.max(1, (accessUnit.remaining() + maxPayloadSize - 1) / maxPayloadSize);
+        if (fragmentCount > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("Access unit too large: " + accessUnit.remaining() + " bytes");
+        }
+        
+        int unitSequence = sequence++;
+        for (int fragment = 0; fragment < fragmentCount; fragment++) {
+            int payloadSize = Math.min(maxPayloadSize, accessUnit.remaining());
+            byte[] packet = new byte[HEADER_SIZE + payloadSize];
+            ByteBuffer header = ByteBuffer.wrap(packet);
+            header.put(MAGIC);
+            header.put(VERSION);
+            header.put((byte) flags);
+            header.put(codec);
+            header.putInt(unitSequence);
+            header.putLong(presentationTimeUs);
+            header.putShort((short) fragment);
+            header.putShort((short) fragmentCount);
+            accessUnit.get(packet, HEADER_SIZE, payloadSize);
+            listener.onPacket(packet);
+        }
+        return fragmentCount;
+    }
+    
+    public int packetize(byte[] data, int offset, int length, long presentationTimeUs, int flags) {
+        return packetize(ByteBuffer.wrap(data, offset, length), presentationTimeUs, flags);
+    }
+    
+    // Header fields of a finished packet, read without consuming it
+    public static boolean isPacket(ByteBuffer packet) {
+        return packet.remaining() >= HEADER_SIZE && packet.get(packet.position()) == MAGIC;
+    }
+    
+    public static int readFlags(ByteBuffer packet) {
+        return packet.get(packet.position() + 2) & 0xff;
+    }
+    
+    public static int readFragmentIndex(ByteBuffer packet) {
+        return packet.getShort(packet.position() + 16) & 0xffff;
+    }
+}
@@ -0,0 +1,104 @@
+package com.remotecontrol.guest.utils;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Reusable output buffer for encoders. It keeps its capacity between outputs, so once it has
+// seen the largest frame it no longer reallocates, and shrinks again if every output over a
+// window stays far below capacity (e.g. after a one-off large keyframe). The encoded bytes are
+// exposed in place as array + length or a ByteBuffer view. Not thread-safe: each encoding
+// thread owns its buffer, and a view is only valid until the next reset. The view object is
+// reused for every output, so readers must not keep it or change its position.
+public class EncodeBuffer extends OutputStream {
+    private static final int SHRINK_WINDOW = 64;
+    
+    private final int minCapacity;
+    private byte[] data;
+    private int length;
+    private int windowPeak;
+    private int windowCount;
+    private long growCount;
+    private ByteBuffer view;
+    
+    public EncodeBuffer(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity must be positive");
+        }
+        this.minCapacity = initialCapacity;
+        this.data = new byte[initialCapacity];
+    }
+    
+    // Starts a new output, learning from the size of the previous one
+    public void reset() {
+        windowPeak = Math.max(windowPeak, length);
+        if (++windowCount == SHRINK_WINDOW) {
+            int shrunk = Math.max(minCapacity, windowPeak * 2);
+            if (windowPeak * 4 < data.length && shrunk < data.length) {
+                data = new byte[shrunk];
+            }
+            windowPeak = 0;
+            windowCount = 0;
+        }
+        length = 0;
+    }
+    
+    @Override
+    public void write(int b) {
+        ensureCapacity(length + 1);
+        data[length++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] source, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(source, offset, data, length, count);
+        length += count;
+    }
+    
+    // Reserves count bytes to be filled in later through getData()
+    public int skip(int count) {
+        ensureCapacity(length + count);
+        int start = length;
+        length += count;
+        return start;
+    }
+    
+    // Backing array; only the first getLength() bytes are valid and it may change on growth
+    public byte[] getData() {
+        return data;
+    }
+    
+    public int getLength() {
+        return length;
+    }
+    
+    // Wraps the array again only after it was replaced
+    public ByteBuffer asByteBuffer() {
+        if (view == null || view.array() != data) {
+            view = ByteBuffer.wrap(data);
+        }
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+    
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+    
+    public int getCapacity() {
+        return data.length;
+    }
+    
+    public long getGrowCount() {
+        return growCount;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+            growCount++;
+        }
+    }
+}
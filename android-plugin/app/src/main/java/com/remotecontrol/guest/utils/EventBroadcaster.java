@@ -1,65 +1,351 @@
 package com.remotecontrol.guest.utils;
 
+import android.util.Log;
+
+import com.remotecontrol.guest.capture.FrameQueue;
+import com.remotecontrol.guest.models.CaptureSize;
 import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.LatencyReport;
+import com.remotecontrol.guest.models.LinkStats;
+import com.remotecontrol.guest.transport.QualitySettings;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+// Process-wide publish/subscribe bus between the services. Each channel keeps its subscribers
+// in a copy-on-write array published through a volatile field, so broadcasting never locks or
+// allocates; only subscribe/unsubscribe synchronize. Subscribers added with a queue capacity
+// are delivered on their own thread through a bounded queue that drops the oldest events;
+// they receive their own copy of frames, which are otherwise only valid during the callback.
 public class EventBroadcaster {
-    private static EventBroadcaster instance;
+    private static final String TAG = "EventBroadcaster";
+    
+    private static final class Holder {
+        static final EventBroadcaster INSTANCE = new EventBroadcaster();
+    }
     
-    private FrameListener frameListener;
-    private ControlEventListener controlEventListener;
-    private QualityChangeListener qualityChangeListener;
+    private final Channel<ByteBuffer> frameChannel = new Channel<>("Frame", EventBroadcaster::copyFrame);
+    private final Channel<ByteBuffer> frameDropChannel = new Channel<>("FrameDrop", null);
+    private final Channel<ControlEvent> controlEventChannel = new Channel<>("ControlEvent", null);
+    private final Channel<QualitySettings> qualityChangeChannel = new Channel<>("QualityChange", null);
+    private final Channel<Boolean> keyframeRequestChannel = new Channel<>("KeyframeRequest", null);
+    private final Channel<String> streamModeChannel = new Channel<>("StreamMode", null);
+    private final Channel<CaptureSize> captureSizeChannel = new Channel<>("CaptureSize", null);
+    private final Channel<LinkStats> linkStatsChannel = new Channel<>("LinkStats", null);
+    private final Channel<LatencyReport> latencyReportChannel = new Channel<>("LatencyReport", null);
+    private volatile CaptureSize captureSize;
+    private volatile LinkStats linkStats;
     
     private EventBroadcaster() {}
     
-    public static synchronized EventBroadcaster getInstance() {
-        if (instance == null) {
-            instance = new EventBroadcaster();
-        }
-        return instance;
+    public static EventBroadcaster getInstance() {
+        return Holder.INSTANCE;
     }
     
-    // Frame broadcasting
+    // Frame broadcasting. Synchronous listeners get a view of the encoder's buffer that is only
+    // valid during the callback and must leave its position and limit untouched.
     public interface FrameListener {
-        void onFrameAvailable(byte[] frameData);
+        void onFrameAvailable(ByteBuffer frame);
+    }
+    
+    public void addFrameListener(FrameListener listener) {
+        frameChannel.add(listener, listener::onFrameAvailable, 0);
+    }
+    
+    public void addFrameListener(FrameListener listener, int queueCapacity) {
+        frameChannel.add(listener, listener::onFrameAvailable, queueCapacity);
     }
     
-    public void setFrameListener(FrameListener listener) {
-        this.frameListener = listener;
+    public void removeFrameListener(FrameListener listener) {
+        frameChannel.remove(listener);
+    }
+    
+    public void broadcastFrame(ByteBuffer frame) {
+        frameChannel.publish(frame);
     }
     
     public void broadcastFrame(byte[] frameData) {
-        if (frameListener != null) {
-            frameListener.onFrameAvailable(frameData);
-        }
+        frameChannel.publish(ByteBuffer.wrap(frameData));
     }
     
-    // Control event broadcasting
+    // Frames the send queue dropped, so their content can be sent again. The buffer is only
+    // valid during the callback.
+    public interface FrameDropListener {
+        void onFrameDropped(ByteBuffer frame);
+    }
+    
+    public void addFrameDropListener(FrameDropListener listener) {
+        frameDropChannel.add(listener, listener::onFrameDropped, 0);
+    }
+    
+    public void removeFrameDropListener(FrameDropListener listener) {
+        frameDropChannel.remove(listener);
+    }
+    
+    public void broadcastFrameDrop(ByteBuffer frame) {
+        frameDropChannel.publish(frame);
+    }
+    
+    // Control event broadcasting. Events may be reused by the decoder once delivery returns,
+    // so listeners must not keep references beyond their callback.
     public interface ControlEventListener {
         void onControlEvent(ControlEvent event);
     }
     
-    public void setControlEventListener(ControlEventListener listener) {
-        this.controlEventListener = listener;
+    public void addControlEventListener(ControlEventListener listener) {
+        controlEventChannel.add(listener, listener::onControlEvent, 0);
+    }
+    
+    public void removeControlEventListener(ControlEventListener listener) {
+        controlEventChannel.remove(listener);
     }
     
     public void broadcastControlEvent(ControlEvent event) {
-        if (controlEventListener != null) {
-            controlEventListener.onControlEvent(event);
-        }
+        controlEventChannel.publish(event);
     }
     
     // Quality change broadcasting
     public interface QualityChangeListener {
-        void onQualityChange(String quality);
+        void onQualityChange(QualitySettings settings);
+    }
+    
+    public void addQualityChangeListener(QualityChangeListener listener) {
+        qualityChangeChannel.add(listener, listener::onQualityChange, 0);
+    }
+    
+    public void removeQualityChangeListener(QualityChangeListener listener) {
+        qualityChangeChannel.remove(listener);
+    }
+    
+    public void broadcastQualityChange(QualitySettings settings) {
+        qualityChangeChannel.publish(settings);
+    }
+    
+    // Keyframe request broadcasting
+    public interface KeyframeRequestListener {
+        void onKeyframeRequested();
+    }
+    
+    public void addKeyframeRequestListener(KeyframeRequestListener listener) {
+        keyframeRequestChannel.add(listener, request -> listener.onKeyframeRequested(), 0);
+    }
+    
+    public void removeKeyframeRequestListener(KeyframeRequestListener listener) {
+        keyframeRequestChannel.remove(listener);
+    }
+    
+    public void broadcastKeyframeRequest() {
+        keyframeRequestChannel.publish(Boolean.TRUE);
+    }
+    
+    // Stream mode requests, made by a controller when it joins
+    public interface StreamModeListener {
+        void onStreamModeRequested(String mode);
+    }
+    
+    public void addStreamModeListener(StreamModeListener listener) {
+        streamModeChannel.add(listener, listener::onStreamModeRequested, 0);
+    }
+    
+    public void removeStreamModeListener(StreamModeListener listener) {
+        streamModeChannel.remove(listener);
+    }
+    
+    public void broadcastStreamModeRequest(String mode) {
+        streamModeChannel.publish(mode);
     }
     
-    public void setQualityChangeListener(QualityChangeListener listener) {
-        this.qualityChangeListener = listener;
+    // Capture size broadcasting. The latest size is kept and handed to new listeners, so a
+    // service that starts after capture still maps coordinates correctly.
+    public interface CaptureSizeListener {
+        void onCaptureSizeChanged(CaptureSize size);
     }
     
-    public void broadcastQualityChange(String quality) {
-        if (qualityChangeListener != null) {
-            qualityChangeListener.onQualityChange(quality);
+    public void addCaptureSizeListener(CaptureSizeListener listener) {
+        captureSizeChannel.add(listener, listener::onCaptureSizeChanged, 0);
+        CaptureSize current = captureSize;
+        if (current != null) {
+            listener.onCaptureSizeChanged(current);
+        }
+    }
+    
+    public void removeCaptureSizeListener(CaptureSizeListener listener) {
+        captureSizeChannel.remove(listener);
+    }
+    
+    public void broadcastCaptureSize(CaptureSize size) {
+        captureSize = size;
+        captureSizeChannel.publish(size);
+    }
+    
+    // Link quality broadcasting. The latest snapshot is kept for components that poll.
+    public interface LinkStatsListener {
+        void onLinkStats(LinkStats stats);
+    }
+    
+    public void addLinkStatsListener(LinkStatsListener listener) {
+        linkStatsChannel.add(listener, listener::onLinkStats, 0);
+    }
+    
+    public void removeLinkStatsListener(LinkStatsListener listener) {
+        linkStatsChannel.remove(listener);
+    }
+    
+    public void broadcastLinkStats(LinkStats stats) {
+        linkStats = stats;
+        linkStatsChannel.publish(stats);
+    }
+    
+    // Latest link snapshot, or null before the first measurement
+    public LinkStats getLinkStats() {
+        return linkStats;
+    }
+    
+    // Frame latency percentiles, published by the capture service once per reporting window
+    public interface LatencyReportListener {
+        void onLatencyReport(LatencyReport report);
+    }
+    
+    public void addLatencyReportListener(LatencyReportListener listener) {
+        latencyReportChannel.add(listener, listener::onLatencyReport, 0);
+    }
+    
+    public void removeLatencyReportListener(LatencyReportListener listener) {
+        latencyReportChannel.remove(listener);
+    }
+    
+    public void broadcastLatencyReport(LatencyReport report) {
+        latencyReportChannel.publish(report);
+    }
+    
+    // Events dropped by async subscribers whose queues were full
+    public long getDroppedFrameDeliveries() {
+        return frameChannel.getDroppedCount();
+    }
+    
+    private static ByteBuffer copyFrame(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame.duplicate());
+        copy.flip();
+        return copy;
+    }
+    
+    private interface Sink<E> {
+        void deliver(E event);
+    }
+    
+    // Detaches an event from a reused buffer before it is queued for async delivery
+    private interface Copier<E> {
+        E copy(E event);
+    }
+    
+    private static final class Subscriber<E> {
+        final Object listener;
+        final Sink<E> sink;
+        final Copier<E> copier;
+        final FrameQueue<E> queue;
+        final Thread thread;
+        
+        Subscriber(String name, Object listener, Sink<E> sink, Copier<E> copier, int queueCapacity) {
+            this.listener = listener;
+            this.sink = sink;
+            this.copier = copier;
+            if (queueCapacity > 0) {
+                queue = new FrameQueue<>(queueCapacity);
+                thread = new Thread(this::deliverLoop, name + "Subscriber");
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                queue = null;
+                thread = null;
+            }
+        }
+        
+        void publish(E event) {
+            if (queue != null) {
+                queue.offer(copier != null ? copier.copy(event) : event);
+            } else {
+                sink.deliver(event);
+            }
+        }
+        
+        void close() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+        
+        long getDroppedCount() {
+            return queue != null ? queue.getDroppedCount() : 0;
+        }
+        
+        private void deliverLoop() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    E event = queue.take();
+                    try {
+                        sink.deliver(event);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Async subscriber failed", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private static final class Channel<E> {
+        private static final Subscriber<?>[] EMPTY = new Subscriber<?>[0];
+        
+        private final String name;
+        private final Copier<E> copier;
+        private volatile Subscriber<?>[] subscribers = EMPTY;
+        
+        Channel(String name, Copier<E> copier) {
+            this.name = name;
+            this.copier = copier;
+        }
+        
+        synchronized void add(Object listener, Sink<E> sink, int queueCapacity) {
+            Subscriber<?>[] current = subscribers;
+            for (Subscriber<?> subscriber : current) {
+                if (subscriber.listener == listener) {
+                    return;
+                }
+            }
+            Subscriber<?>[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = new Subscriber<>(name, listener, sink, copier, queueCapacity);
+            subscribers = next;
+        }
+        
+        synchronized void remove(Object listener) {
+            Subscriber<?>[] current = subscribers;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].listener == listener) {
+                    Subscriber<?>[] next = new Subscriber<?>[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    subscribers = next;
+                    current[i].close();
+                    return;
+                }
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        void publish(E event) {
+            for (Subscriber<?> subscriber : subscribers) {
+                ((Subscriber<E>) subscriber).publish(event);
+            }
+        }
+        
+        long getDroppedCount() {
+            long dropped = 0;
+            for (Subscriber<?> subscriber : subscribers) {
+                dropped += subscriber.getDroppedCount();
+            }
+            return dropped;
         }
     }
 }
@@ -1,37 +1,48 @@
 package com.remotecontrol.guest.utils;
 
 import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+// JPEG encoding into a reusable, size-learning EncodeBuffer. An instance is confined to one
+// thread; after a successful encode the bytes are available in place through getData()/
+// getLength() or asByteBuffer() until the next call. The static methods wrap a per-thread
+// instance and return an exact-size copy for callers that need to own the result.
 public class ImageEncoder {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
     
-    public static byte[] encodeBitmap(Bitmap bitmap, int quality) {
+    private static final ThreadLocal<ImageEncoder> THREAD_ENCODER = new ThreadLocal<ImageEncoder>() {
+        @Override
+        protected ImageEncoder initialValue() {
+            return new ImageEncoder();
+        }
+    };
+    
+    private final EncodeBuffer output = new EncodeBuffer(INITIAL_CAPACITY);
+    
+    public boolean encode(Bitmap bitmap, int quality) {
+        output.reset();
         if (bitmap == null || bitmap.isRecycled()) {
-            return null;
+            return false;
         }
         
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        
         try {
             // Compress bitmap to JPEG
-            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, outputStream);
-            return outputStream.toByteArray();
+            return bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
         } catch (Exception e) {
             e.printStackTrace();
-            return null;
-        } finally {
-            try {
-                outputStream.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            return false;
         }
     }
     
-    public static byte[] encodeBitmapWithResize(Bitmap bitmap, int maxWidth, int maxHeight, int quality) {
+    public boolean encodeWithResize(Bitmap bitmap, int maxWidth, int maxHeight, int quality) {
         if (bitmap == null || bitmap.isRecycled()) {
-            return null;
+            output.reset();
+            return false;
         }
         
         // Calculate scale factor
@@ -45,7 +56,7 @@ public class ImageEncoder {
             int newHeight = Math.round(bitmap.getHeight() * scale);
             
             Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, true);
-            byte[] result = encodeBitmap(resizedBitmap, quality);
+            boolean result = encode(resizedBitmap, quality);
             
             if (resizedBitmap != bitmap) {
                 resizedBitmap.recycle();
@@ -53,7 +64,71 @@ public class ImageEncoder {
             
             return result;
         } else {
-            return encodeBitmap(bitmap, quality);
+            return encode(bitmap, quality);
+        }
+    }
+    
+    public boolean encodeRegion(Bitmap bitmap, int x, int y, int width, int height, int quality) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            output.reset();
+            return false;
+        }
+        
+        Bitmap region = Bitmap.createBitmap(bitmap, x, y, width, height);
+        boolean result = encode(region, quality);
+        
+        if (region != bitmap) {
+            region.recycle();
+        }
+        
+        return result;
+    }
+    
+    public boolean encodeNv21(byte[] nv21, int width, int height, Rect region, int quality) {
+        output.reset();
+        return encodeNv21(nv21, width, height, region, quality, output);
+    }
+    
+    public byte[] getData() {
+        return output.getData();
+    }
+    
+    public int getLength() {
+        return output.getLength();
+    }
+    
+    public ByteBuffer asByteBuffer() {
+        return output.asByteBuffer();
+    }
+    
+    public byte[] toByteArray() {
+        return output.toByteArray();
+    }
+    
+    public static byte[] encodeBitmap(Bitmap bitmap, int quality) {
+        ImageEncoder encoder = THREAD_ENCODER.get();
+        return encoder.encode(bitmap, quality) ? encoder.toByteArray() : null;
+    }
+    
+    public static byte[] encodeBitmapWithResize(Bitmap bitmap, int maxWidth, int maxHeight, int quality) {
+        ImageEncoder encoder = THREAD_ENCODER.get();
+        return encoder.encodeWithResize(bitmap, maxWidth, maxHeight, quality) ? encoder.toByteArray() : null;
+    }
+    
+    public static byte[] encodeBitmapRegion(Bitmap bitmap, int x, int y, int width, int height, int quality) {
+        ImageEncoder encoder = THREAD_ENCODER.get();
+        return encoder.encodeRegion(bitmap, x, y, width, height, quality) ? encoder.toByteArray() : null;
+    }
+    
+    // Compresses a region of an NV21 frame straight into the given stream, without going
+    // through a Bitmap or an intermediate byte array
+    public static boolean encodeNv21(byte[] nv21, int width, int height, Rect region, int quality, OutputStream out) {
+        try {
+            YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+            return image.compressToJpeg(region, quality, out);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
         }
     }
 }
@@ -8,12 +8,14 @@ public class SessionManager {
     private static final String KEY_AUTH_TOKEN = "auth_token";
     private static final String KEY_SESSION_CODE = "session_code";
     private static final String KEY_IS_ACTIVE = "is_active";
+    private static final String KEY_RECORDING_ENABLED = "recording_enabled";
     
     private static SessionManager instance;
     private SharedPreferences preferences;
     private String currentSessionCode;
     private String authToken;
     private boolean isSessionActive;
+    private boolean recordingEnabled;
     
     private SessionManager(Context context) {
         preferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
@@ -38,6 +40,7 @@ public class SessionManager {
         authToken = preferences.getString(KEY_AUTH_TOKEN, null);
         currentSessionCode = preferences.getString(KEY_SESSION_CODE, null);
         isSessionActive = preferences.getBoolean(KEY_IS_ACTIVE, false);
+        recordingEnabled = preferences.getBoolean(KEY_RECORDING_ENABLED, false);
     }
     
     private void saveSession() {
@@ -45,6 +48,7 @@ public class SessionManager {
         editor.putString(KEY_AUTH_TOKEN, authToken);
         editor.putString(KEY_SESSION_CODE, currentSessionCode);
         editor.putBoolean(KEY_IS_ACTIVE, isSessionActive);
+        editor.putBoolean(KEY_RECORDING_ENABLED, recordingEnabled);
         editor.apply();
     }
     
@@ -71,6 +75,16 @@ public class SessionManager {
         return isSessionActive && currentSessionCode != null;
     }
     
+    // Sessions are only recorded when the user opted in on this device
+    public void setRecordingEnabled(boolean enabled) {
+        this.recordingEnabled = enabled;
+        saveSession();
+    }
+    
+    public boolean isRecordingEnabled() {
+        return recordingEnabled;
+    }
+    
     public void endSession() {
         this.currentSessionCode = null;
         this.isSessionActive = false;
@@ -81,6 +95,7 @@ public class SessionManager {
         this.authToken = null;
         this.currentSessionCode = null;
         this.isSessionActive = false;
+        this.recordingEnabled = false;
         
         SharedPreferences.Editor editor = preferences.edit();
         editor.clear();
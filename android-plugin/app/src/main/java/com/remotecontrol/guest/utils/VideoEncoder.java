@@ -0,0 +1,173 @@
+package com.remotecontrol.guest.utils;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Surface;
+
+import com.remotecontrol.guest.transport.VideoPacketizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Hardware video encoder fed through an input Surface. Encoded access units are split by
+// VideoPacketizer and handed to the packet listener for the binary WebSocket channel.
+public class VideoEncoder {
+    
+    private static final String TAG = "VideoEncoder";
+    private static final int I_FRAME_INTERVAL_SECONDS = 5;
+    private static final float BITS_PER_PIXEL = 0.06f;
+    private static final int MIN_BITRATE = 1_000_000;
+    private static final int MAX_BITRATE = 8_000_000;
+    private static final long REPEAT_FRAME_DELAY_US = 100_000;
+    
+    private final String mimeType;
+    private final VideoPacketizer packetizer;
+    private MediaCodec codec;
+    private Surface inputSurface;
+    private byte[] codecConfig;
+    private long codecConfigTimeUs;
+    
+    public VideoEncoder(String mimeType, VideoPacketizer.PacketListener listener) {
+        this.mimeType = mimeType;
+        byte codecId = MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mimeType)
+            ? VideoPacketizer.CODEC_HEVC : VideoPacketizer.CODEC_H264;
+        this.packetizer = new VideoPacketizer(codecId, VideoPacketizer.DEFAULT_MAX_PACKET_SIZE, listener);
+    }
+    
+    // Encoders generally require even dimensions
+    public static int alignDimension(int size) {
+        return size & ~1;
+    }
+    
+    public static int defaultBitrate(int width, int height, int frameRate) {
+        int bitrate = Math.round(width * height * frameRate * BITS_PER_PIXEL);
+        return Math.max(MIN_BITRATE, Math.min(MAX_BITRATE, bitrate));
+    }
+    
+    // Configures and starts the codec, returning the Surface the VirtualDisplay should render into
+    public Surface start(int width, int height, int bitrate, int frameRate, Handler callbackHandler) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+        // Keep emitting frames on a static screen so late joiners still get pictures
+        format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, REPEAT_FRAME_DELAY_US);
+        
+        codec = MediaCodec.createEncoderByType(mimeType);
+        try {
+            codec.setCallback(new MediaCodec.Callback() {
+                @Override
+                public void onInputBufferAvailable(MediaCodec mediaCodec, int index) {
+                    // Input arrives through the Surface
+                }
+                
+                @Override
+                public void onOutputBufferAvailable(MediaCodec mediaCodec, int index, MediaCodec.BufferInfo info) {
+                    handleOutput(mediaCodec, index, info);
+                }
+                
+                @Override
+                public void onError(MediaCodec mediaCodec, MediaCodec.CodecException e) {
+                    Log.e(TAG, "Video encoder error", e);
+                }
+                
+                @Override
+                public void onOutputFormatChanged(MediaCodec mediaCodec, MediaFormat outputFormat) {
+                    Log.d(TAG, "Video output format: " + outputFormat);
+                }
+            }, callbackHandler);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = codec.createInputSurface();
+            codec.start();
+        } catch (RuntimeException e) {
+            release();
+            throw new IOException("Failed to start " + mimeType + " encoder", e);
+        }
+        
+        Log.d(TAG, "Video encoder started: " + mimeType + " " + width + "x" + height + " @ " + bitrate + " bps");
+        return inputSurface;
+    }
+    
+    private void handleOutput(MediaCodec mediaCodec, int index, MediaCodec.BufferInfo info) {
+        try {
+            ByteBuffer output = mediaCodec.getOutputBuffer(index);
+            if (output == null || info.size == 0) {
+                return;
+            }
+            output.position(info.offset);
+            output.limit(info.offset + info.size);
+            
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                // Parameter sets are kept so every keyframe can be decoded on its own
+                codecConfig = new byte[info.size];
+                output.get(codecConfig);
+                codecConfigTimeUs = info.presentationTimeUs;
+                packetizer.packetize(codecConfig, 0, codecConfig.length, codecConfigTimeUs, VideoPacketizer.FLAG_CONFIG);
+                return;
+            }
+            
+            if ((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+                if (codecConfig != null) {
+                    packetizer.packetize(codecConfig, 0, codecConfig.length, codecConfigTimeUs, VideoPacketizer.FLAG_CONFIG);
+                }
+                packetizer.packetize(output, info.presentationTimeUs, VideoPacketizer.FLAG_KEYFRAME);
+            } else {
+                packetizer.packetize(output, info.presentationTimeUs, 0);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error sending encoded video", e);
+        } finally {
+            try {
+                mediaCodec.releaseOutputBuffer(index, false);
+            } catch (IllegalStateException e) {
+                // Codec already stopped
+            }
+        }
+    }
+    
+    public void setBitrate(int bitrate) {
+        if (codec != null) {
+            try {
+                Bundle params = new Bundle();
+                params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, Math.max(MIN_BITRATE, bitrate));
+                codec.setParameters(params);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Bitrate change ignored, encoder not running");
+            }
+        }
+    }
+    
+    public void requestKeyframe() {
+        if (codec != null) {
+            try {
+                Bundle params = new Bundle();
+                params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                codec.setParameters(params);
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Keyframe request ignored, encoder not running");
+            }
+        }
+    }
+    
+    public void release() {
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                // Never started
+            }
+            codec.release();
+            codec = null;
+        }
+        
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.models.LatencyReport;
+import com.remotecontrol.guest.platform.RgbaFrame;
+import com.remotecontrol.guest.platform.jvm.FakeTileEncoder;
+import com.remotecontrol.guest.platform.jvm.ManualClock;
+import com.remotecontrol.guest.platform.jvm.RecordingLogger;
+import com.remotecontrol.guest.transport.QualitySettings;
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+// Counts the bytes the capture path allocates per frame once its pools, buffers and grid are
+// set up. Frames change a different tile every time, so each one is diffed, converted, encoded
+// and handed on, and a keyframe comes along every KEYFRAME_INTERVAL_MS.
+public class FramePipelineAllocationTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 720;
+    private static final long KEYFRAME_INTERVAL_MS = 1000;
+    private static final int WARMUP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 300;
+    private static final int MEASURED_WINDOWS = 10;
+    
+    private final ManualClock clock = new ManualClock();
+    private final ReusableFrame frame = new ReusableFrame();
+    private int framesSent;
+    private int reports;
+    
+    @Test
+    public void steadyStateAllocatesNothingPerFrame() {
+        ThreadMXBean threads = allocationCounter();
+        FramePipeline pipeline = new FramePipeline(KEYFRAME_INTERVAL_MS, new QualitySettings(75, 1.0f, 30),
+            new FakeTileEncoder(), new FramePipeline.Listener() {
+                @Override
+                public void onFrame(ByteBuffer frame) {
+                    framesSent++;
+                }
+                
+                @Override
+                public void onGridChanged(TileGrid grid) {
+                }
+                
+                @Override
+                public void onLatencyReport(LatencyReport report) {
+                    reports++;
+                }
+            }, clock, new RecordingLogger());
+        
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            sendFrame(pipeline, i);
+        }
+        // The VM may allocate once on this thread now and then (lazy constant resolution,
+        // deoptimization); an allocation made per frame shows up in every window
+        long allocated = -1;
+        for (int window = 0; window < MEASURED_WINDOWS && allocated != 0; window++) {
+            int sentBefore = framesSent;
+            allocated = measureWindow(pipeline, threads, WARMUP_FRAMES + window * MEASURED_FRAMES);
+            assertEquals(MEASURED_FRAMES, framesSent - sentBefore);
+        }
+        assertEquals("bytes allocated by " + MEASURED_FRAMES + " frames", 0, allocated);
+        pipeline.release();
+    }
+    
+    private long measureWindow(FramePipeline pipeline, ThreadMXBean threads, int firstFrame) {
+        long threadId = Thread.currentThread().getId();
+        long allocated = 0;
+        for (int i = firstFrame; i < firstFrame + MEASURED_FRAMES; i++) {
+            int reportsBefore = reports;
+            long before = threads.getThreadAllocatedBytes(threadId);
+            sendFrame(pipeline, i);
+            // The timings log and latency report close a reporting window, they are not per frame
+            if (reports == reportsBefore) {
+                allocated += threads.getThreadAllocatedBytes(threadId) - before;
+            }
+        }
+        return allocated;
+    }
+    
+    private void sendFrame(FramePipeline pipeline, int index) {
+        clock.advanceMillis(33);
+        frame.touchTile(index);
+        frame.timestampNanos = clock.nanoTime();
+        pipeline.process(frame);
+        pipeline.encodeNext();
+    }
+    
+    // Needs HotSpot's per-thread allocation counter; skipped on VMs without it
+    private static ThreadMXBean allocationCounter() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof ThreadMXBean);
+        ThreadMXBean threads = (ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+    
+    // A capture buffer reused for every frame, as an ImageReader hands out the same planes
+    private static final class ReusableFrame implements RgbaFrame {
+        private final ByteBuffer pixels = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+        long timestampNanos;
+        
+        // Changes one pixel in a tile that moves along the top row of tiles
+        void touchTile(int index) {
+            int x = index * FramePipeline.TILE_SIZE % WIDTH;
+            int offset = x * 4;
+            pixels.put(offset, (byte) (pixels.get(offset) + 101));
+        }
+        
+        @Override
+        public ByteBuffer getPixels() {
+            return pixels;
+        }
+        
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+        
+        @Override
+        public int getHeight() {
+            return HEIGHT;
+        }
+        
+        @Override
+        public int getRowStride() {
+            return WIDTH * 4;
+        }
+        
+        @Override
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.models.LatencyReport;
+import com.remotecontrol.guest.platform.RgbaFrame;
+import com.remotecontrol.guest.platform.jvm.BufferFrame;
+import com.remotecontrol.guest.platform.jvm.FakeTileEncoder;
+import com.remotecontrol.guest.platform.jvm.ManualClock;
+import com.remotecontrol.guest.platform.jvm.QueueFrameSource;
+import com.remotecontrol.guest.platform.jvm.RecordingLogger;
+import com.remotecontrol.guest.transport.QualitySettings;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Drives the pipeline single-threaded through the platform/jvm fakes. A 300x200 screen is 3x2
+// tiles of 128 pixels, the last column and row cut short.
+public class FramePipelineTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final long KEYFRAME_INTERVAL_MS = 5000;
+    
+    private final List<ByteBuffer> sent = new ArrayList<>();
+    private final List<TileGrid> grids = new ArrayList<>();
+    private final List<LatencyReport> reports = new ArrayList<>();
+    private final FakeTileEncoder encoder = new FakeTileEncoder();
+    private final RecordingLogger logger = new RecordingLogger();
+    private final QueueFrameSource source = new QueueFrameSource();
+    private ManualClock clock;
+    private FramePipeline pipeline;
+    private byte[] pixels;
+    
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        pipeline = new FramePipeline(KEYFRAME_INTERVAL_MS, new QualitySettings(75, 1.0f, 30), encoder,
+            new FramePipeline.Listener() {
+                @Override
+                public void onFrame(ByteBuffer frame) {
+                    ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+                    copy.put(frame.duplicate()).flip();
+                    sent.add(copy);
+                }
+                
+                @Override
+                public void onGridChanged(TileGrid grid) {
+                    grids.add(grid);
+                }
+                
+                @Override
+                public void onLatencyReport(LatencyReport report) {
+                    reports.add(report);
+                }
+            }, clock, logger);
+        pixels = new byte[WIDTH * HEIGHT * 4];
+    }
+    
+    @Test
+    public void sendsKeyframeThenDeltasThenHeartbeats() {
+        // The capture loop only gets to the newest of two queued frames
+        BufferFrame skipped = frame();
+        source.offer(skipped);
+        BufferFrame first = frame();
+        source.offer(first);
+        assertEquals(6, capture());
+        assertTrue(skipped.isClosed());
+        assertTrue(first.isClosed());
+        assertEquals(1, source.getDroppedCount());
+        
+        ByteBuffer keyframe = sent.get(0);
+        assertEquals(DeltaFrameWriter.FLAG_KEYFRAME, flags(keyframe) & DeltaFrameWriter.FLAG_KEYFRAME);
+        assertEquals(0, keyframe.getInt(4));
+        assertEquals(WIDTH, keyframe.getShort(8));
+        assertEquals(HEIGHT, keyframe.getShort(10));
+        assertEquals(1, tileCount(keyframe));
+        assertEquals(WIDTH * HEIGHT, encoder.getEncodedPixels());
+        assertEquals(1, grids.size());
+        assertEquals(3, grids.get(0).getColumns());
+        assertEquals(2, grids.get(0).getRows());
+        
+        // Only the changed tile is encoded; tile 2 is 44 pixels wide
+        setPixel(260, 10, 0xff);
+        source.offer(frame());
+        assertEquals(1, capture());
+        ByteBuffer delta = sent.get(1);
+        assertEquals(1, delta.getInt(4));
+        assertEquals(tiles(2), readTiles(delta));
+        assertEquals(WIDTH * HEIGHT + 44 * 128, encoder.getEncodedPixels());
+        
+        source.offer(frame());
+        assertEquals(0, capture());
+        assertEquals(2, sent.size());
+        
+        // A heartbeat repeats the last frame id, without tiles
+        assertTrue(pipeline.sendHeartbeat(true));
+        ByteBuffer heartbeat = sent.get(2);
+        assertEquals(1, heartbeat.getInt(4));
+        assertEquals(DeltaFrameWriter.FLAG_IDLE, flags(heartbeat));
+        assertEquals(0, tileCount(heartbeat));
+        assertEquals(clock.uptimeMillis(), pipeline.getLastFrameSentTime());
+        assertEquals(1, grids.size());
+        assertEquals(0, logger.getErrorCount());
+    }
+    
+    @Test
+    public void heartbeatNeedsAFrameFirst() {
+        assertFalse(pipeline.sendHeartbeat(false));
+        assertTrue(sent.isEmpty());
+        assertNull(source.acquireLatestFrame());
+    }
+    
+    @Test
+    public void keyframeIntervalResendsUnchangedScreen() {
+        sendFrame();
+        clock.advanceMillis(KEYFRAME_INTERVAL_MS - 34);
+        sendFrame();
+        assertEquals(1, sent.size());
+        assertTrue(reports.isEmpty());
+        
+        clock.advanceMillis(1);
+        sendFrame();
+        assertEquals(2, sent.size());
+        assertFalse(DeltaFrameWriter.readTiles(sent.get(1), new BitSet()));
+        // The same five seconds close the first reporting window
+        assertEquals(1, reports.size());
+        assertTrue(logger.getLines().get(0).startsWith("D/FramePipeline: Pipeline timings:"));
+    }
+    
+    @Test
+    public void failedEncodeIsReplacedByKeyframe() {
+        sendFrame();
+        encoder.setFailing(true);
+        setPixel(10, 10, 0xff);
+        sendFrame();
+        assertEquals(1, sent.size());
+        
+        encoder.setFailing(false);
+        sendFrame();
+        assertEquals(2, sent.size());
+        assertFalse(DeltaFrameWriter.readTiles(sent.get(1), new BitSet()));
+        // The failed frame used up id 1, so the controller sees the gap
+        assertEquals(2, sent.get(1).getInt(4));
+    }
+    
+    @Test
+    public void rotationPublishesNewGridWithKeyframe() {
+        sendFrame();
+        byte[] portraitPixels = new byte[WIDTH * HEIGHT * 4];
+        source.offer(new BufferFrame(portraitPixels, HEIGHT, WIDTH, HEIGHT * 4, clock.nanoTime()));
+        capture();
+        
+        assertEquals(2, grids.size());
+        assertEquals(2, grids.get(1).getColumns());
+        assertEquals(3, grids.get(1).getRows());
+        assertFalse(DeltaFrameWriter.readTiles(sent.get(1), new BitSet()));
+        
+        // A change at the new size is a delta on the published grid
+        portraitPixels[(250 * HEIGHT + 150) * 4] = 1;
+        source.offer(new BufferFrame(portraitPixels, HEIGHT, WIDTH, HEIGHT * 4, clock.nanoTime()));
+        assertEquals(1, capture());
+        assertEquals(tiles(3), readTiles(sent.get(2)));
+        assertEquals(2, grids.size());
+    }
+    
+    @Test
+    public void droppedDeltaFrameTilesAreSentAgain() {
+        sendFrame();
+        setPixel(260, 150, 0xff);
+        sendFrame();
+        ByteBuffer delta = sent.get(1);
+        assertEquals(tiles(5), readTiles(delta));
+        
+        pipeline.onFrameDropped(delta);
+        
+        // The screen did not change, but the dropped tile still has to reach the controller
+        assertFalse(pipeline.isUnchanged(frame()));
+        sendFrame();
+        assertEquals(3, sent.size());
+        assertEquals(tiles(5), readTiles(sent.get(2)));
+        
+        // Sent once, after that an unchanged screen sends nothing
+        clock.advanceMillis(33);
+        assertEquals(0, pipeline.process(frame()));
+        assertFalse(pipeline.encodeNext());
+    }
+    
+    @Test
+    public void droppedKeyframeRequestsANewOne() {
+        sendFrame();
+        pipeline.onFrameDropped(sent.get(0));
+        
+        sendFrame();
+        assertEquals(2, sent.size());
+        assertFalse(DeltaFrameWriter.readTiles(sent.get(1), new BitSet()));
+    }
+    
+    // One turn of the capture loop: takes the newest frame from the source, closes it once it is
+    // read and encodes what it queued. Returns the number of changed tiles.
+    private int capture() {
+        clock.advanceMillis(33);
+        RgbaFrame image = source.acquireLatestFrame();
+        assertNotNull(image);
+        try {
+            return pipeline.process(image);
+        } finally {
+            image.close();
+            pipeline.encodeNext();
+        }
+    }
+    
+    private void sendFrame() {
+        clock.advanceMillis(33);
+        pipeline.process(frame());
+        pipeline.encodeNext();
+    }
+    
+    private BufferFrame frame() {
+        return new BufferFrame(pixels, WIDTH, HEIGHT, WIDTH * 4, clock.nanoTime());
+    }
+    
+    private void setPixel(int x, int y, int value) {
+        int offset = (y * WIDTH + x) * 4;
+        pixels[offset] = (byte) value;
+        pixels[offset + 1] = (byte) value;
+        pixels[offset + 2] = (byte) value;
+    }
+    
+    private static int flags(ByteBuffer frame) {
+        return frame.get(2);
+    }
+    
+    private static int tileCount(ByteBuffer frame) {
+        return frame.getShort(14) & 0xffff;
+    }
+    
+    private static BitSet readTiles(ByteBuffer frame) {
+        BitSet tiles = new BitSet();
+        assertTrue(DeltaFrameWriter.readTiles(frame, tiles));
+        return tiles;
+    }
+    
+    private static BitSet tiles(int... indices) {
+        BitSet tiles = new BitSet();
+        for (int index : indices) {
+            tiles.set(index);
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,108 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.platform.TileEncoder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PaletteTileEncoderTest {
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 64;
+    
+    private final PaletteTileEncoder encoder = new PaletteTileEncoder();
+    
+    @Test
+    public void roundTripMatchesDecodedFrame() {
+        byte[] nv21 = new byte[Nv21Converter.frameSize(WIDTH, HEIGHT)];
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, (byte) 240);
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+        // Grey text, a coloured button and a gradient strip with one colour per column
+        for (int y = 10; y < 20; y++) {
+            for (int x = 12; x < 80; x += 3) {
+                nv21[y * WIDTH + x] = 90;
+            }
+        }
+        for (int y = 30; y < 44; y++) {
+            for (int x = 20; x < 60; x++) {
+                nv21[y * WIDTH + x] = 110;
+                nv21[WIDTH * HEIGHT + (y >> 1) * WIDTH + (x & ~1)] = (byte) 200;
+            }
+        }
+        for (int y = 50; y < 54; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[y * WIDTH + x] = (byte) x;
+            }
+        }
+        assertRoundTrip(nv21, 0, 0, WIDTH, HEIGHT);
+        assertRoundTrip(nv21, 16, 8, 64, 48);
+    }
+    
+    @Test
+    public void rejectsTooManyColours() {
+        byte[] nv21 = new byte[Nv21Converter.frameSize(WIDTH, HEIGHT)];
+        new Random(1).nextBytes(nv21);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        
+        assertEquals(TileEncoder.FAILED, encoder.encodeNv21(nv21, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, 0, out));
+        assertEquals(TileEncoder.FAILED, encoder.write(out));
+        assertEquals(0, out.size());
+    }
+    
+    @Test
+    public void scanStopsAtByteLimit() {
+        byte[] nv21 = new byte[Nv21Converter.frameSize(WIDTH, HEIGHT)];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[y * WIDTH + x] = (byte) (x & 1);
+            }
+        }
+        assertFalse(encoder.scan(nv21, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, 1000));
+    }
+    
+    private void assertRoundTrip(byte[] nv21, int left, int top, int right, int bottom) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(DeltaFrameWriter.CODEC_PALETTE,
+            encoder.encodeNv21(nv21, WIDTH, HEIGHT, left, top, right, bottom, 0, out));
+        assertEquals(encoder.getEncodedSize(), out.size());
+        
+        int[] expected = new int[(right - left) * (bottom - top)];
+        Nv21Converter.toArgb(nv21, WIDTH, HEIGHT, left, top, right, bottom, expected);
+        assertArrayEquals(expected, decode(out.toByteArray(), right - left, bottom - top));
+    }
+    
+    // Reference decoder for the payload layout documented in PaletteTileEncoder
+    private static int[] decode(byte[] payload, int expectedWidth, int expectedHeight) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        assertEquals(expectedWidth, in.getShort() & 0xffff);
+        assertEquals(expectedHeight, in.getShort() & 0xffff);
+        int[] palette = new int[(in.get() & 0xff) + 1];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = 0xff000000 | (in.get() & 0xff) << 16 | (in.get() & 0xff) << 8 | (in.get() & 0xff);
+        }
+        int[] pixels = new int[expectedWidth * expectedHeight];
+        int filled = 0;
+        while (filled < pixels.length) {
+            int color = palette[in.get() & 0xff];
+            int length = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.get() & 0xff;
+                length |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            Arrays.fill(pixels, filled, filled + length + 1, color);
+            filled += length + 1;
+        }
+        assertFalse(in.hasRemaining());
+        return pixels;
+    }
+}
@@ -0,0 +1,190 @@
+package com.remotecontrol.guest.capture;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// A 200x130 frame in 32 pixel tiles: 7 columns and 5 rows, the last column 8 pixels wide and
+// the last row 2 pixels high. Tile index is row * 7 + column.
+public class RoiSelectorTest {
+    private static final int RADIUS = 40;
+    private static final long TOUCH_HOLD_MS = 500;
+    private static final long CHANGE_HOLD_MS = 200;
+    private static final long BACKGROUND_INTERVAL_MS = 1000;
+    
+    private final TileGrid grid = new TileGrid(200, 130, 32);
+    
+    @Test
+    public void touchRegionIsClampedAtFrameEdges() {
+        RoiSelector selector = selector(16);
+        selector.onTouch(190, 125, 0);
+        selector.select(grid, allTiles(), 10);
+        
+        // Columns 4 to 6 and rows 2 to 4
+        assertEquals(tiles(18, 19, 20, 25, 26, 27, 32, 33, 34), selector.getRegionTiles());
+        assertRegion(selector, 128, 64, 200, 130);
+        
+        selector = selector(16);
+        selector.onTouch(5, 5, 0);
+        selector.select(grid, allTiles(), 10);
+        assertEquals(tiles(0, 1, 7, 8), selector.getRegionTiles());
+        assertRegion(selector, 0, 0, 64, 64);
+    }
+    
+    @Test
+    public void touchRegionIncludesUnchangedTilesInBoundsOnly() {
+        RoiSelector selector = selector(16);
+        selector.onTouch(16, 16, 0);
+        selector.select(grid, tiles(1, 30), 0);
+        
+        // Tiles 0, 7 and 8 are near the touch but unchanged: nothing to send, still in bounds
+        assertEquals(tiles(1), selector.getRegionTiles());
+        assertRegion(selector, 0, 0, 64, 64);
+    }
+    
+    @Test
+    public void touchRegionExpiresAfterHold() {
+        RoiSelector selector = selector(16);
+        selector.select(grid, new BitSet(), 0);
+        selector.onTouch(100, 64, 100);
+        
+        selector.select(grid, tiles(17), 100 + TOUCH_HOLD_MS);
+        assertTrue(selector.hasRegion());
+        assertEquals(tiles(17), selector.getRegionTiles());
+        
+        selector.select(grid, tiles(24), 101 + TOUCH_HOLD_MS);
+        assertFalse(selector.hasRegion());
+        assertTrue(selector.getRegionTiles().isEmpty());
+        // Background was sent at 0, so the tile waits
+        assertTrue(selector.getSendTiles().isEmpty());
+        assertEquals(1, selector.getPendingCount());
+    }
+    
+    @Test
+    public void regionIsCappedAtMaxTiles() {
+        RoiSelector selector = selector(4);
+        // Columns 1 to 4 and rows 0 to 3 are near the touch; the first row fills the cap
+        selector.onTouch(100, 64, 0);
+        selector.select(grid, allTiles(), 0);
+        assertEquals(tiles(1, 2, 3, 4), selector.getRegionTiles());
+        assertRegion(selector, 32, 0, 160, 32);
+        
+        // Tiles changing again cannot grow a full region either
+        selector.select(grid, tiles(20, 30), 50);
+        assertTrue(selector.getRegionTiles().isEmpty());
+        assertEquals(2, selector.getPendingCount());
+    }
+    
+    @Test
+    public void tilesChangedAgainWithinHoldJoinRegion() {
+        RoiSelector selector = selector(16);
+        selector.select(grid, tiles(10), 0);
+        assertFalse(selector.hasRegion());
+        
+        selector.select(grid, tiles(10, 11), CHANGE_HOLD_MS);
+        assertEquals(tiles(10), selector.getRegionTiles());
+        assertRegion(selector, 96, 32, 128, 64);
+        assertEquals(tiles(10), selector.getSendTiles());
+        
+        selector.select(grid, tiles(10, 12), CHANGE_HOLD_MS + 150);
+        assertEquals(tiles(10), selector.getRegionTiles());
+        
+        // Last changed 201 ms ago
+        selector.select(grid, tiles(10), 2 * CHANGE_HOLD_MS + 151);
+        assertFalse(selector.hasRegion());
+    }
+    
+    @Test
+    public void backgroundTilesWaitForInterval() {
+        RoiSelector selector = selector(16);
+        selector.select(grid, tiles(1, 2), 0);
+        assertEquals(tiles(1, 2), selector.getSendTiles());
+        assertFalse(selector.hasPending());
+        
+        selector.select(grid, tiles(3), 100);
+        assertTrue(selector.getSendTiles().isEmpty());
+        assertEquals(900, selector.getBackgroundDelayMs(100));
+        
+        // A tile changing again is region and goes out; the rest stays pending
+        selector.select(grid, tiles(3, 4), 250);
+        assertEquals(tiles(3), selector.getSendTiles());
+        selector.select(grid, tiles(5), 500);
+        assertEquals(2, selector.getPendingCount());
+        
+        selector.select(grid, new BitSet(), BACKGROUND_INTERVAL_MS - 1);
+        assertTrue(selector.getSendTiles().isEmpty());
+        selector.select(grid, new BitSet(), BACKGROUND_INTERVAL_MS);
+        assertEquals(tiles(4, 5), selector.getSendTiles());
+        assertFalse(selector.hasPending());
+        assertEquals(BACKGROUND_INTERVAL_MS, selector.getBackgroundDelayMs(BACKGROUND_INTERVAL_MS));
+    }
+    
+    @Test
+    public void takePendingMovesTilesForSameGridOnly() {
+        RoiSelector selector = selector(16);
+        selector.select(grid, tiles(1), 0);
+        selector.select(grid, tiles(2, 3), 100);
+        assertEquals(2, selector.getPendingCount());
+        
+        BitSet frame = tiles(9);
+        selector.takePending(grid, frame);
+        assertEquals(tiles(2, 3, 9), frame);
+        assertFalse(selector.hasPending());
+        
+        // Pending tiles of an old grid mean nothing in a new one and are dropped
+        selector.select(grid, tiles(4), 200);
+        TileGrid rotated = new TileGrid(130, 200, 32);
+        BitSet rotatedFrame = new BitSet();
+        selector.takePending(rotated, rotatedFrame);
+        assertTrue(rotatedFrame.isEmpty());
+        assertFalse(selector.hasPending());
+    }
+    
+    @Test
+    public void newGridDropsPendingTiles() {
+        RoiSelector selector = selector(16);
+        selector.select(grid, tiles(1), 0);
+        selector.select(grid, tiles(2), 100);
+        assertTrue(selector.hasPending());
+        
+        TileGrid rotated = new TileGrid(130, 200, 32);
+        selector.select(rotated, tiles(5), 200);
+        BitSet frame = new BitSet();
+        selector.takePending(rotated, frame);
+        assertEquals(tiles(5), frame);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRegion() {
+        selector(0);
+    }
+    
+    private RoiSelector selector(int maxRegionTiles) {
+        return new RoiSelector(RADIUS, TOUCH_HOLD_MS, CHANGE_HOLD_MS, maxRegionTiles, BACKGROUND_INTERVAL_MS);
+    }
+    
+    private BitSet allTiles() {
+        BitSet all = new BitSet();
+        all.set(0, grid.getTileCount());
+        return all;
+    }
+    
+    private static BitSet tiles(int... indices) {
+        BitSet tiles = new BitSet();
+        for (int index : indices) {
+            tiles.set(index);
+        }
+        return tiles;
+    }
+    
+    private static void assertRegion(RoiSelector selector, int left, int top, int right, int bottom) {
+        assertEquals(left, selector.getRegionLeft());
+        assertEquals(top, selector.getRegionTop());
+        assertEquals(right, selector.getRegionRight());
+        assertEquals(bottom, selector.getRegionBottom());
+    }
+}
@@ -0,0 +1,89 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.platform.jvm.FakeTileEncoder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileClassifierTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+    
+    private final TileClassifier classifier = new TileClassifier(new PaletteTileEncoder());
+    
+    @Test
+    public void flatUiGoesToPalette() {
+        byte[] nv21 = flatUi();
+        assertEquals(DeltaFrameWriter.CODEC_PALETTE, classify(nv21));
+        assertEquals(0, classifier.getEdgeDensity(), 0);
+    }
+    
+    @Test
+    public void sharpDetailGoesToWebp() {
+        byte[] nv21 = new byte[Nv21Converter.frameSize(WIDTH, HEIGHT)];
+        new Random(1).nextBytes(nv21);
+        assertEquals(DeltaFrameWriter.CODEC_WEBP, classify(nv21));
+        assertTrue(classifier.getEdgeDensity() > 0.5f);
+    }
+    
+    @Test
+    public void smoothGradientGoesToJpeg() {
+        byte[] nv21 = new byte[Nv21Converter.frameSize(WIDTH, HEIGHT)];
+        int chromaBase = WIDTH * HEIGHT;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[y * WIDTH + x] = (byte) (2 * (x + y));
+            }
+        }
+        // Chroma changes with every 2x2 block, so there are far more colours than a palette holds
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH; x += 2) {
+                nv21[chromaBase + y * WIDTH + x] = (byte) (64 + y);
+                nv21[chromaBase + y * WIDTH + x + 1] = (byte) (64 + x / 2);
+            }
+        }
+        assertEquals(DeltaFrameWriter.CODEC_JPEG, classify(nv21));
+        assertEquals(0, classifier.getEdgeDensity(), 0);
+    }
+    
+    @Test
+    public void webpTilesFallBackToJpegWithoutWebpEncoder() {
+        byte[] nv21 = new byte[Nv21Converter.frameSize(WIDTH, HEIGHT)];
+        new Random(1).nextBytes(nv21);
+        FakeTileEncoder jpeg = new FakeTileEncoder();
+        CodecSelectingTileEncoder encoder = new CodecSelectingTileEncoder(jpeg, null);
+        
+        assertEquals(DeltaFrameWriter.CODEC_JPEG,
+            encoder.encodeNv21(nv21, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, 80, new ByteArrayOutputStream()));
+        assertEquals(DeltaFrameWriter.CODEC_PALETTE,
+            encoder.encodeNv21(flatUi(), WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, 80, new ByteArrayOutputStream()));
+        assertEquals(1, jpeg.getCallCount());
+        assertEquals(1, encoder.getTileCount(DeltaFrameWriter.CODEC_JPEG));
+        assertEquals(1, encoder.getTileCount(DeltaFrameWriter.CODEC_PALETTE));
+    }
+    
+    private int classify(byte[] nv21) {
+        return classifier.classify(nv21, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+    }
+    
+    // Light background with dark text-like bars
+    private static byte[] flatUi() {
+        byte[] nv21 = new byte[Nv21Converter.frameSize(WIDTH, HEIGHT)];
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, (byte) 235);
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+        for (int y = 8; y < 56; y += 8) {
+            for (int x = 4; x < 60; x++) {
+                if (x % 6 != 0) {
+                    nv21[y * WIDTH + x] = 20;
+                }
+            }
+        }
+        return nv21;
+    }
+}
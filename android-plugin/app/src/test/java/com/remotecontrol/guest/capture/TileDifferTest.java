@@ -0,0 +1,73 @@
+package com.remotecontrol.guest.capture;
+
+import com.remotecontrol.guest.platform.jvm.ManualClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileDifferTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final int TILE_SIZE = 128;
+    private static final long KEYFRAME_INTERVAL_MS = 5000;
+    
+    private ManualClock clock;
+    private TileDiffer differ;
+    private int[] pixels;
+    
+    @Before
+    public void setUp() {
+        clock = new ManualClock();
+        differ = new TileDiffer(TILE_SIZE, KEYFRAME_INTERVAL_MS, clock);
+        pixels = new int[WIDTH * HEIGHT];
+    }
+    
+    @Test
+    public void firstFrameIsKeyframe() {
+        assertEquals(6, differ.diff(pixels, WIDTH, HEIGHT, WIDTH));
+        assertTrue(differ.isKeyframe());
+    }
+    
+    @Test
+    public void reportsOnlyChangedTiles() {
+        differ.diff(pixels, WIDTH, HEIGHT, WIDTH);
+        pixels[150 * WIDTH + 260] = 0xff00ff00;
+        
+        assertEquals(1, differ.diff(pixels, WIDTH, HEIGHT, WIDTH));
+        assertFalse(differ.isKeyframe());
+        assertEquals(5, differ.getChangedTiles()[0]);
+        assertEquals(0, differ.diff(pixels, WIDTH, HEIGHT, WIDTH));
+    }
+    
+    @Test
+    public void keyframeFollowsElapsedTimeNotFrameCount() {
+        differ.diff(pixels, WIDTH, HEIGHT, WIDTH);
+        // Many frames within the interval stay deltas
+        for (int i = 0; i < 500; i++) {
+            clock.advanceMillis(1);
+            differ.diff(pixels, WIDTH, HEIGHT, WIDTH);
+            assertFalse(differ.isKeyframe());
+        }
+        // A single frame after a long pause, as with a lowered frame rate, is a keyframe
+        clock.advanceMillis(KEYFRAME_INTERVAL_MS);
+        assertTrue(differ.isKeyframeDue());
+        assertEquals(6, differ.diff(pixels, WIDTH, HEIGHT, WIDTH));
+        assertTrue(differ.isKeyframe());
+        assertFalse(differ.isKeyframeDue());
+    }
+    
+    @Test
+    public void requestAndResizeForceKeyframe() {
+        differ.diff(pixels, WIDTH, HEIGHT, WIDTH);
+        differ.requestKeyframe();
+        differ.diff(pixels, WIDTH, HEIGHT, WIDTH);
+        assertTrue(differ.isKeyframe());
+        
+        differ.diff(new int[100 * 100], 100, 100, 100);
+        assertTrue(differ.isKeyframe());
+    }
+}
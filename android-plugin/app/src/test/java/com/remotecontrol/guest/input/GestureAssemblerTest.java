@@ -0,0 +1,151 @@
+package com.remotecontrol.guest.input;
+
+import com.remotecontrol.guest.platform.jvm.RecordingGestureSink;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GestureAssemblerTest {
+    private RecordingGestureSink sink;
+    private GestureAssembler assembler;
+    
+    @Before
+    public void setUp() {
+        sink = new RecordingGestureSink();
+        assembler = new GestureAssembler(sink, 2, 16, 1, 100);
+    }
+    
+    @Test
+    public void moveWithoutDownIsIgnored() {
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 10, 10, 0);
+        
+        assertEquals(0, assembler.getActivePointerCount());
+        assertEquals(0, sink.getDispatches().size());
+        assertEquals(1, assembler.getDroppedSamples());
+    }
+    
+    @Test
+    public void moveAfterCancelIsIgnoredUntilNextDown() {
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 10, 10, 0);
+        assembler.cancel();
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 20, 20, 20);
+        assertEquals(0, assembler.getActivePointerCount());
+        
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 30, 30, 40);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 40, 40, 60);
+        assembler.onTouch(0, GestureAssembler.ACTION_UP, 50, 50, 80);
+        assertEquals(0, assembler.getActivePointerCount());
+        assertEquals(4, sink.getDispatches().size());
+    }
+    
+    @Test
+    public void pinchDispatchesBothPointersTogether() {
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 10, 10, 0);
+        assembler.onTouch(1, GestureAssembler.ACTION_DOWN, 100, 100, 2);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 20, 20, 20);
+        // Inside the batch window of the last dispatch, so it waits for the next one
+        assembler.onTouch(1, GestureAssembler.ACTION_MOVE, 90, 90, 25);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 30, 30, 40);
+        
+        List<RecordingGestureSink.Dispatch> dispatches = sink.getDispatches();
+        assertEquals(4, dispatches.size());
+        // The second finger's down also carries the first, which would otherwise be lifted
+        List<RecordingGestureSink.Stroke> strokes = dispatches.get(1).strokes;
+        assertEquals(2, strokes.size());
+        assertStroke(strokes.get(0), 0, true, true, 10, 10);
+        assertStroke(strokes.get(1), 1, false, true, 100, 100);
+        
+        RecordingGestureSink.Dispatch pinch = dispatches.get(3);
+        assertStroke(pinch.strokes.get(0), 0, true, true, 20, 20, 30, 30);
+        assertStroke(pinch.strokes.get(1), 1, true, true, 100, 100, 90, 90);
+        assertEquals(15, pinch.durationMs);
+        assertEquals(2, assembler.getActivePointerCount());
+    }
+    
+    @Test
+    public void successiveBatchesContinueTheStroke() {
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 10, 10, 0);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 20, 20, 20);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 30, 25, 40);
+        assembler.onTouch(0, GestureAssembler.ACTION_UP, 30, 25, 50);
+        
+        List<RecordingGestureSink.Dispatch> dispatches = sink.getDispatches();
+        assertEquals(4, dispatches.size());
+        assertStroke(dispatches.get(0).strokes.get(0), 0, false, true, 10, 10);
+        assertStroke(dispatches.get(1).strokes.get(0), 0, true, true, 10, 10, 20, 20);
+        assertStroke(dispatches.get(2).strokes.get(0), 0, true, true, 20, 20, 30, 25);
+        // The up at the same position only ends the stroke
+        assertStroke(dispatches.get(3).strokes.get(0), 0, true, false, 30, 25);
+        assertEquals(0, assembler.getActivePointerCount());
+        assertFalse(assembler.hasPending());
+    }
+    
+    @Test
+    public void samplesAccumulateWhileSinkIsBusy() {
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 10, 10, 0);
+        sink.setBusy(true);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 20, 20, 20);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 30, 30, 40);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 40, 40, 60);
+        assertEquals(3, sink.getRejectedCount());
+        assertTrue(assembler.hasPending());
+        
+        sink.setBusy(false);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 50, 50, 80);
+        
+        List<RecordingGestureSink.Dispatch> dispatches = sink.getDispatches();
+        assertEquals(2, dispatches.size());
+        assertStroke(dispatches.get(1).strokes.get(0), 0, true, true, 10, 10, 20, 20, 30, 30, 40, 40, 50, 50);
+        assertEquals(60, dispatches.get(1).durationMs);
+        assertFalse(assembler.hasPending());
+    }
+    
+    @Test
+    public void repeatedDownReleasesOldStroke() {
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 10, 10, 0);
+        assembler.onTouch(0, GestureAssembler.ACTION_MOVE, 20, 20, 5);
+        // The up for the first stroke was lost
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 50, 50, 10);
+        
+        List<RecordingGestureSink.Dispatch> dispatches = sink.getDispatches();
+        assertEquals(3, dispatches.size());
+        assertStroke(dispatches.get(1).strokes.get(0), 0, true, false, 10, 10, 20, 20);
+        assertEquals(1, dispatches.get(2).strokes.size());
+        assertStroke(dispatches.get(2).strokes.get(0), 0, false, true, 50, 50);
+        assertEquals(1, assembler.getActivePointerCount());
+    }
+    
+    @Test
+    public void pointersBeyondLimitAreDropped() {
+        assembler.onTouch(0, GestureAssembler.ACTION_DOWN, 10, 10, 0);
+        assembler.onTouch(1, GestureAssembler.ACTION_DOWN, 20, 20, 1);
+        assembler.onTouch(2, GestureAssembler.ACTION_DOWN, 30, 30, 2);
+        assembler.onTouch(2, GestureAssembler.ACTION_MOVE, 35, 35, 20);
+        assertEquals(2, assembler.getActivePointerCount());
+        assertEquals(2, assembler.getDroppedSamples());
+        
+        // A free slot takes the next pointer
+        assembler.onTouch(0, GestureAssembler.ACTION_UP, 10, 10, 30);
+        assembler.onTouch(2, GestureAssembler.ACTION_DOWN, 30, 30, 40);
+        List<RecordingGestureSink.Dispatch> dispatches = sink.getDispatches();
+        List<RecordingGestureSink.Stroke> strokes = dispatches.get(dispatches.size() - 1).strokes;
+        assertEquals(2, strokes.size());
+        assertEquals(1, strokes.get(0).pointerId);
+        assertStroke(strokes.get(1), 2, false, true, 30, 30);
+    }
+    
+    private static void assertStroke(RecordingGestureSink.Stroke stroke, int pointerId,
+                                     boolean continuesPrevious, boolean willContinue, float... points) {
+        assertEquals(pointerId, stroke.pointerId);
+        assertEquals(continuesPrevious, stroke.continuesPrevious);
+        assertEquals(willContinue, stroke.willContinue);
+        assertArrayEquals(points, stroke.points, 0);
+    }
+}
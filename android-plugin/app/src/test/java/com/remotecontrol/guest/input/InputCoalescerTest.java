@@ -0,0 +1,125 @@
+package com.remotecontrol.guest.input;
+
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.KeyEvent;
+import com.remotecontrol.guest.models.TouchEvent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InputCoalescerTest {
+    private static final long INTERVAL_MS = 16;
+    
+    // Forwarded events as "pointer action x,y" or "key action code"; pending moves are reused
+    private final List<String> forwarded = new ArrayList<>();
+    private final InputCoalescer coalescer = new InputCoalescer(event -> forwarded.add(describe(event)), INTERVAL_MS);
+    
+    @Test
+    public void movesMergeToLatestPerInterval() {
+        // The first move finds the interval long over and goes straight out
+        assertFalse(coalescer.offer(touch(0, "move", 10, 10), 0));
+        assertTrue(coalescer.offer(touch(0, "move", 11, 10), 5));
+        assertTrue(coalescer.offer(touch(0, "move", 12, 10), 10));
+        assertFalse(coalescer.offer(touch(0, "move", 13, 10), 16));
+        assertTrue(coalescer.offer(touch(0, "move", 14, 10), 20));
+        coalescer.flush(32);
+        coalescer.flush(48);
+        
+        assertEquals(Arrays.asList("0 move 10,10", "0 move 13,10", "0 move 14,10"), forwarded);
+        assertFalse(coalescer.hasPending());
+    }
+    
+    @Test
+    public void downAndUpFlushPendingMovesFirst() {
+        coalescer.offer(touch(0, "down", 10, 10), 0);
+        coalescer.offer(touch(0, "move", 20, 20), 1);
+        coalescer.offer(touch(0, "move", 30, 30), 5);
+        coalescer.offer(touch(0, "move", 40, 40), 8);
+        assertFalse(coalescer.offer(touch(0, "up", 40, 40), 9));
+        coalescer.offer(touch(0, "down", 50, 50), 10);
+        
+        assertEquals(Arrays.asList("0 down 10,10", "0 move 20,20", "0 move 40,40", "0 up 40,40", "0 down 50,50"),
+            forwarded);
+    }
+    
+    @Test
+    public void keysFlushPendingMovesFirst() {
+        coalescer.offer(touch(0, "move", 10, 10), 0);
+        coalescer.offer(touch(0, "move", 15, 10), 4);
+        coalescer.offer(key("down", 66), 6);
+        
+        assertEquals(Arrays.asList("0 move 10,10", "0 move 15,10", "key down 66"), forwarded);
+    }
+    
+    @Test
+    public void pointersAreMergedIndependently() {
+        coalescer.offer(touch(0, "move", 10, 10), 0);
+        coalescer.offer(touch(1, "move", 100, 100), 2);
+        coalescer.offer(touch(0, "move", 12, 12), 4);
+        coalescer.offer(touch(1, "move", 98, 98), 6);
+        coalescer.offer(touch(1, "move", 96, 96), 8);
+        // The flush at 20 ms carries the latest move of both pointers; then pointer 0 moves alone
+        coalescer.offer(touch(0, "move", 14, 14), 20);
+        coalescer.offer(touch(0, "move", 16, 16), 24);
+        coalescer.flush(40);
+        
+        assertEquals(Arrays.asList("0 move 10,10", "0 move 14,14", "1 move 96,96", "0 move 16,16"), forwarded);
+    }
+    
+    @Test
+    public void countsReceivedMovesAndDispatched() {
+        coalescer.offer(touch(0, "down", 0, 0), 0);
+        for (int i = 1; i <= 10; i++) {
+            coalescer.offer(touch(0, "move", i, i), i);
+        }
+        coalescer.offer(touch(0, "up", 10, 10), 11);
+        coalescer.offer(key("up", 4), 12);
+        
+        assertEquals(13, coalescer.getReceivedCount());
+        assertEquals(10, coalescer.getReceivedMoveCount());
+        // down, the first move, the merged rest, up and the key
+        assertEquals(5, coalescer.getDispatchedCount());
+        assertEquals(forwarded.size(), coalescer.getDispatchedCount());
+    }
+    
+    @Test
+    public void forwardedMoveIsACopy() {
+        ControlEvent event = touch(0, "move", 10, 10);
+        coalescer.offer(touch(0, "move", 1, 1), 0);
+        coalescer.offer(event, 4);
+        // A decoder reusing its event instance must not change what is pending
+        event.getTouchData().setX(99);
+        coalescer.flush(16);
+        
+        assertEquals("0 move 10,10", forwarded.get(1));
+    }
+    
+    private static ControlEvent touch(int pointerId, String action, float x, float y) {
+        TouchEvent touch = new TouchEvent(action, x, y, 0);
+        touch.setPointerId(pointerId);
+        ControlEvent event = new ControlEvent("touch", 0);
+        event.setTouchData(touch);
+        return event;
+    }
+    
+    private static ControlEvent key(String action, int keyCode) {
+        ControlEvent event = new ControlEvent("key", 0);
+        event.setKeyData(new KeyEvent(action, keyCode, 0));
+        return event;
+    }
+    
+    private static String describe(ControlEvent event) {
+        if (event.getKeyData() != null) {
+            return "key " + event.getKeyData().getAction() + " " + event.getKeyData().getKeyCode();
+        }
+        TouchEvent touch = event.getTouchData();
+        return touch.getPointerId() + " " + touch.getAction() + " " + (int) touch.getX() + "," + (int) touch.getY();
+    }
+}
@@ -0,0 +1,189 @@
+package com.remotecontrol.guest.input;
+
+import com.remotecontrol.guest.models.ControlEvent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Replays event sequences against VirtualReplayScheduler and checks each event's dispatch time
+// on the virtual clock.
+public class InputReplayerTest {
+    private static final long MS = 1_000_000L;
+    
+    private final VirtualReplayScheduler scheduler = new VirtualReplayScheduler();
+    private final List<ControlEvent> dispatched = new ArrayList<>();
+    private final List<Long> dispatchTimesNanos = new ArrayList<>();
+    private final List<String> finishes = new ArrayList<>();
+    
+    @Test
+    public void replaysWithOriginalTiming() {
+        InputReplayer replayer = replayer(scheduler, 5_000, 5_010, 5_050, 5_200);
+        scheduler.advanceBy(7 * MS);
+        replayer.start(1.0);
+        scheduler.runAll();
+        
+        assertDispatchedAtMs(7, 17, 57, 207);
+        assertEquals(0, replayer.getMaxLatenessNanos());
+        assertEquals(4, replayer.getDispatchedCount());
+        assertFalse(replayer.isRunning());
+        assertEquals("4 false", finishes.get(0));
+    }
+    
+    @Test
+    public void speedMultiplierScalesGaps() {
+        replayer(scheduler, 0, 10, 50, 200).start(2.0);
+        scheduler.runAll();
+        assertDispatchedAtMs(0, 5, 25, 100);
+        
+        dispatchTimesNanos.clear();
+        long startNanos = scheduler.nanoTime();
+        replayer(scheduler, 0, 10, 50, 200).start(0.5);
+        scheduler.runAll();
+        assertEquals(400 * MS, scheduler.nanoTime() - startNanos);
+    }
+    
+    @Test
+    public void lateTasksDoNotAccumulateDrift() {
+        // Every task runs 3 ms after it was asked to, as a busy executor would
+        VirtualReplayScheduler lateScheduler = new VirtualReplayScheduler() {
+            @Override
+            public synchronized void schedule(Runnable task, long delayNanos) {
+                super.schedule(task, delayNanos + 3 * MS);
+            }
+        };
+        InputReplayer replayer = replayer(lateScheduler, 0, 20, 40, 60, 80);
+        replayer.start(1.0);
+        lateScheduler.runAll();
+        
+        assertDispatchedAtMs(3, 23, 43, 63, 83);
+        assertEquals(3 * MS, replayer.getMaxLatenessNanos());
+    }
+    
+    @Test
+    public void eventsAlreadyDueAreDispatchedTogether() {
+        // The first task runs 30 ms late
+        VirtualReplayScheduler lateScheduler = new VirtualReplayScheduler() {
+            private boolean delayed;
+            
+            @Override
+            public synchronized void schedule(Runnable task, long delayNanos) {
+                super.schedule(task, delayed ? delayNanos : delayNanos + 30 * MS);
+                delayed = true;
+            }
+        };
+        InputReplayer replayer = replayer(lateScheduler, 0, 10, 20, 100);
+        replayer.start(1.0);
+        lateScheduler.runAll();
+        
+        assertDispatchedAtMs(30, 30, 30, 100);
+        assertEquals(30 * MS, replayer.getMaxLatenessNanos());
+    }
+    
+    @Test
+    public void timestampsSteppingBackwardsKeepRecordedOrder() {
+        replayer(scheduler, 1_000, 1_100, 1_050, 1_300).start(1.0);
+        scheduler.runAll();
+        
+        assertDispatchedAtMs(0, 100, 100, 300);
+        assertEquals(1_050, dispatched.get(2).getTimestamp());
+    }
+    
+    @Test
+    public void maxSpeedIgnoresTimestamps() {
+        InputReplayer replayer = replayer(scheduler, timestamps(200));
+        replayer.start(InputReplayer.MAX_SPEED);
+        scheduler.advanceBy(0);
+        
+        assertEquals(200, dispatched.size());
+        assertEquals(0, scheduler.nanoTime());
+        assertEquals("200 false", finishes.get(0));
+    }
+    
+    @Test
+    public void stopFromSinkEndsMaxSpeedReplayMidBatch() {
+        List<ControlEvent> events = new ArrayList<>();
+        for (long timestampMs : timestamps(200)) {
+            events.add(new ControlEvent("touch", timestampMs));
+        }
+        InputReplayer[] replayer = new InputReplayer[1];
+        replayer[0] = new InputReplayer(events, event -> {
+            dispatched.add(event);
+            if (dispatched.size() == 10) {
+                replayer[0].stop();
+            }
+        }, scheduler, (count, stopped) -> finishes.add(count + " " + stopped));
+        replayer[0].start(InputReplayer.MAX_SPEED);
+        scheduler.runAll();
+        
+        assertEquals(10, dispatched.size());
+        assertEquals(10, replayer[0].getDispatchedCount());
+        assertEquals("[10 true]", finishes.toString());
+    }
+    
+    @Test
+    public void stopDropsPendingEvents() {
+        InputReplayer replayer = replayer(scheduler, 0, 10, 50, 200);
+        replayer.start(1.0);
+        scheduler.advanceBy(20 * MS);
+        replayer.stop();
+        scheduler.runAll();
+        
+        assertDispatchedAtMs(0, 10);
+        assertEquals("2 true", finishes.get(0));
+        assertEquals(1, finishes.size());
+        
+        // The cancelled task due at 50 ms ran as a no-op; a restart begins from there
+        assertEquals(50 * MS, scheduler.nanoTime());
+        dispatchTimesNanos.clear();
+        replayer.start(1.0);
+        scheduler.runAll();
+        assertDispatchedAtMs(50, 60, 100, 250);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveSpeed() {
+        replayer(scheduler, 0, 10).start(0);
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void rejectsSecondStart() {
+        InputReplayer replayer = replayer(scheduler, 0, 10);
+        replayer.start(1.0);
+        replayer.start(1.0);
+    }
+    
+    private InputReplayer replayer(ReplayScheduler clock, long... timestampsMs) {
+        List<ControlEvent> events = new ArrayList<>();
+        for (long timestampMs : timestampsMs) {
+            events.add(new ControlEvent("touch", timestampMs));
+        }
+        return new InputReplayer(events, event -> {
+            dispatched.add(event);
+            dispatchTimesNanos.add(clock.nanoTime());
+        }, clock, (count, stopped) -> finishes.add(count + " " + stopped));
+    }
+    
+    private static long[] timestamps(int count) {
+        long[] timestampsMs = new long[count];
+        for (int i = 0; i < count; i++) {
+            timestampsMs[i] = i * 1_000L;
+        }
+        return timestampsMs;
+    }
+    
+    private void assertDispatchedAtMs(long... expectedMs) {
+        long[] actualMs = new long[dispatchTimesNanos.size()];
+        for (int i = 0; i < actualMs.length; i++) {
+            assertTrue(dispatchTimesNanos.get(i) % MS == 0);
+            actualMs[i] = dispatchTimesNanos.get(i) / MS;
+        }
+        assertArrayEquals(expectedMs, actualMs);
+    }
+}
@@ -0,0 +1,146 @@
+package com.remotecontrol.guest.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.remotecontrol.guest.recording.SegmentReaderTest.index;
+import static com.remotecontrol.guest.recording.SegmentReaderTest.payload;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Segments hold exactly RECORDS_PER_SEGMENT records, so record i is in segment i / 10. Records
+// are 1 ms apart starting at BASE_US and every seventh one is a sync point.
+public class RecordingReaderTest {
+    private static final long BASE_US = 5_000_000;
+    private static final long INDEX_INTERVAL_US = 2_500;
+    private static final int RECORDS_PER_SEGMENT = 10;
+    private static final int SEGMENT_BYTES =
+        SegmentWriter.HEADER_SIZE + RECORDS_PER_SEGMENT * (SegmentWriter.RECORD_HEADER_SIZE + 8);
+    private static final int RECORDS = 35;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void rollsOverAtSegmentCap() throws IOException {
+        File directory = write(RECORDS, 1024 * 1024);
+        
+        File[] segments = RecordingWriter.listSegments(directory);
+        assertEquals(4, segments.length);
+        assertEquals("segment-000001.seg", segments[0].getName());
+        for (File segment : segments) {
+            assertTrue(segment.length() <= SEGMENT_BYTES);
+            assertTrue(SegmentWriter.indexFileFor(segment).exists());
+        }
+        try (RecordingReader reader = new RecordingReader(directory, INDEX_INTERVAL_US)) {
+            assertEquals(4, reader.getSegmentCount());
+            assertEquals(BASE_US, reader.getStartTimestampUs());
+            assertEquals(at(RECORDS - 1), reader.getEndTimestampUs());
+            for (int i = 0; i < RECORDS; i++) {
+                assertEquals(i, index(reader.next()));
+            }
+            assertNull(reader.next());
+            reader.rewind();
+            assertEquals(0, index(reader.next()));
+        }
+    }
+    
+    @Test
+    public void deletesOldestSegmentsUnderTotalCap() throws IOException {
+        // Two closed segments with their indexes and the open segment fit, three do not
+        long maxTotalBytes = 1000;
+        File directory = write(RECORDS, maxTotalBytes);
+        
+        File[] segments = RecordingWriter.listSegments(directory);
+        assertEquals("segment-000002.seg", segments[0].getName());
+        assertFalse(new File(directory, "segment-000001.idx").exists());
+        long total = 0;
+        for (File file : directory.listFiles()) {
+            total += file.length();
+        }
+        assertTrue("total " + total, total <= maxTotalBytes);
+        try (RecordingReader reader = new RecordingReader(directory, INDEX_INTERVAL_US)) {
+            assertEquals(at(10), reader.getStartTimestampUs());
+            assertEquals(10, index(reader.next()));
+        }
+        
+        // A writer reopened on the directory continues the numbering and counts what is there
+        try (RecordingWriter writer = new RecordingWriter(directory, SEGMENT_BYTES, maxTotalBytes, INDEX_INTERVAL_US)) {
+            writer.append(RecordingEntry.TYPE_FRAME, (short) 0, at(RECORDS), payload(RECORDS));
+        }
+        segments = RecordingWriter.listSegments(directory);
+        assertEquals("segment-000005.seg", segments[segments.length - 1].getName());
+        assertEquals("segment-000003.seg", segments[0].getName());
+    }
+    
+    @Test
+    public void seeksAcrossSegments() throws IOException {
+        try (RecordingReader reader = new RecordingReader(write(RECORDS, 1024 * 1024), INDEX_INTERVAL_US)) {
+            reader.seek(at(15) + 500);
+            assertEquals(16, index(reader.next()));
+            // Past the last record of segment 1, so reading continues with segment 2
+            reader.seek(at(19) + 500);
+            assertEquals(20, index(reader.next()));
+            assertEquals(21, index(reader.next()));
+            reader.seek(at(30));
+            assertEquals(30, index(reader.next()));
+            
+            reader.seek(BASE_US - 1);
+            assertEquals(0, index(reader.next()));
+            reader.seek(at(RECORDS));
+            assertNull(reader.next());
+        }
+    }
+    
+    @Test
+    public void seeksToSyncInEarlierSegment() throws IOException {
+        try (RecordingReader reader = new RecordingReader(write(RECORDS, 1024 * 1024), INDEX_INTERVAL_US)) {
+            assertEquals(at(21), reader.seekToSync(at(25)));
+            assertEquals(21, index(reader.next()));
+            
+            // Segment 1 has no sync point before record 14, so replay starts in segment 0
+            assertEquals(at(7), reader.seekToSync(at(13)));
+            for (int i = 7; i <= 13; i++) {
+                assertEquals(i, index(reader.next()));
+            }
+            
+            assertEquals(at(28), reader.seekToSync(at(RECORDS + 100)));
+            assertEquals(28, index(reader.next()));
+            
+            // Before the start the whole recording replays
+            assertEquals(BASE_US, reader.seekToSync(BASE_US - 1_000_000));
+            assertEquals(0, index(reader.next()));
+        }
+    }
+    
+    @Test
+    public void emptyDirectoryHasNoRecords() throws IOException {
+        try (RecordingReader reader = new RecordingReader(folder.newFolder("empty"), INDEX_INTERVAL_US)) {
+            assertEquals(0, reader.getSegmentCount());
+            assertEquals(-1, reader.getStartTimestampUs());
+            assertNull(reader.next());
+        }
+    }
+    
+    private File write(int records, long maxTotalBytes) throws IOException {
+        File directory = new File(folder.getRoot(), "recording");
+        try (RecordingWriter writer = new RecordingWriter(directory, SEGMENT_BYTES, maxTotalBytes, INDEX_INTERVAL_US)) {
+            for (int i = 0; i < records; i++) {
+                short flags = i % 7 == 0 ? RecordingEntry.FLAG_SYNC : 0;
+                assertTrue(writer.append(RecordingEntry.TYPE_FRAME, flags, at(i), payload(i)));
+            }
+            assertEquals((records + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT, writer.getSegmentsOpened());
+        }
+        return directory;
+    }
+    
+    private static long at(int index) {
+        return BASE_US + index * 1_000L;
+    }
+}
@@ -0,0 +1,63 @@
+package com.remotecontrol.guest.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingRetentionTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void deletesOldestSessionsFirst() throws IOException {
+        File root = folder.getRoot();
+        File oldest = session(root, "111111", 100, 1000000L);
+        File middle = session(root, "222222", 100, 2000000L);
+        File newest = session(root, "333333", 100, 3000000L);
+        
+        assertEquals(1, RecordingRetention.prune(root, 200, "none"));
+        assertFalse(oldest.exists());
+        assertTrue(middle.exists());
+        assertTrue(newest.exists());
+        
+        assertEquals(0, RecordingRetention.prune(root, 200, "none"));
+    }
+    
+    @Test
+    public void keptSessionIsNotCountedOrDeleted() throws IOException {
+        File root = folder.getRoot();
+        File kept = session(root, "111111", 500, 1000000L);
+        File other = session(root, "222222", 100, 2000000L);
+        
+        assertEquals(0, RecordingRetention.prune(root, 100, "111111"));
+        assertEquals(1, RecordingRetention.prune(root, 0, "111111"));
+        assertTrue(kept.exists());
+        assertFalse(other.exists());
+    }
+    
+    @Test
+    public void missingRootDeletesNothing() {
+        assertEquals(0, RecordingRetention.prune(new File(folder.getRoot(), "absent"), 0, "none"));
+    }
+    
+    private static File session(File root, String name, int bytes, long modified) throws IOException {
+        File directory = new File(root, name);
+        assertTrue(directory.mkdir());
+        File segment = new File(directory, "segment-000001.seg");
+        try (FileOutputStream out = new FileOutputStream(segment)) {
+            out.write(new byte[bytes]);
+        }
+        assertTrue(segment.setLastModified(modified));
+        assertTrue(directory.setLastModified(modified));
+        return directory;
+    }
+}
@@ -0,0 +1,188 @@
+package com.remotecontrol.guest.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Records are 1 ms apart starting at BASE_US, every seventh one a sync point, and carry their
+// index as payload.
+public class SegmentReaderTest {
+    private static final long BASE_US = 5_000_000;
+    private static final long INDEX_INTERVAL_US = 2_500;
+    private static final int MAX_BYTES = 64 * 1024;
+    private static final int RECORDS = 20;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void roundTripsRecords() throws IOException {
+        File file = writeSegment();
+        try (SegmentReader reader = new SegmentReader(file, INDEX_INTERVAL_US)) {
+            assertEquals(BASE_US, reader.getCreatedUs());
+            assertEquals(BASE_US, reader.getFirstTimestampUs());
+            assertEquals(at(RECORDS - 1), reader.getLastTimestampUs());
+            for (int i = 0; i < RECORDS; i++) {
+                RecordingEntry record = reader.next();
+                assertEquals(i, index(record));
+                assertEquals(at(i), record.getTimestampUs());
+                assertEquals(RecordingEntry.TYPE_FRAME, record.getType());
+                assertEquals(i % 7 == 0, record.isSync());
+            }
+            assertNull(reader.next());
+        }
+        // Closing trims the mapping to the records written
+        assertEquals(SegmentWriter.HEADER_SIZE + RECORDS * (SegmentWriter.RECORD_HEADER_SIZE + 8), file.length());
+    }
+    
+    @Test
+    public void seeksInsideSegment() throws IOException {
+        try (SegmentReader reader = new SegmentReader(writeSegment(), INDEX_INTERVAL_US)) {
+            reader.seek(at(4));
+            assertEquals(4, index(reader.next()));
+            reader.seek(at(11) + 500);
+            assertEquals(12, index(reader.next()));
+            reader.seek(at(2));
+            assertEquals(2, index(reader.next()));
+            
+            reader.seek(BASE_US - 1);
+            assertEquals(0, index(reader.next()));
+            reader.seek(at(RECORDS));
+            assertNull(reader.next());
+        }
+    }
+    
+    @Test
+    public void seeksToLatestSyncPoint() throws IOException {
+        try (SegmentReader reader = new SegmentReader(writeSegment(), INDEX_INTERVAL_US)) {
+            assertEquals(at(7), reader.seekToSync(at(8)));
+            assertEquals(7, index(reader.next()));
+            assertEquals(at(7), reader.seekToSync(at(14) - 1));
+            assertEquals(at(14), reader.seekToSync(at(14)));
+            assertEquals(at(14), reader.seekToSync(at(RECORDS + 100)));
+            assertEquals(14, index(reader.next()));
+            
+            // Nothing before the start: the position stays where it was
+            assertEquals(-1, reader.seekToSync(BASE_US - 1));
+            assertEquals(15, index(reader.next()));
+        }
+    }
+    
+    @Test
+    public void rebuildsMissingIndex() throws IOException {
+        File file = writeSegment();
+        assertTrue(SegmentWriter.indexFileFor(file).delete());
+        
+        try (SegmentReader reader = new SegmentReader(file, INDEX_INTERVAL_US)) {
+            assertEquals(at(RECORDS - 1), reader.getLastTimestampUs());
+            assertEquals(at(7), reader.seekToSync(at(13)));
+            assertEquals(7, index(reader.next()));
+            reader.seek(at(16));
+            assertEquals(16, index(reader.next()));
+        }
+    }
+    
+    @Test
+    public void readsSegmentOfCrashedWriter() throws IOException {
+        File file = folder.newFile("crashed" + SegmentWriter.SEGMENT_SUFFIX);
+        SegmentWriter writer = new SegmentWriter(file, MAX_BYTES, INDEX_INTERVAL_US, BASE_US);
+        try {
+            for (int i = 0; i < RECORDS; i++) {
+                append(writer, i, at(i));
+            }
+            // Never closed: full mapped size, zero tail, no index
+            assertEquals(MAX_BYTES, file.length());
+            assertFalse(SegmentWriter.indexFileFor(file).exists());
+            
+            try (SegmentReader reader = new SegmentReader(file, INDEX_INTERVAL_US)) {
+                int count = 0;
+                while (reader.next() != null) {
+                    count++;
+                }
+                assertEquals(RECORDS, count);
+                assertEquals(at(14), reader.seekToSync(at(15)));
+                assertEquals(14, index(reader.next()));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+    
+    @Test
+    public void clampsTimestampsGoingBackwards() throws IOException {
+        File file = folder.newFile("clamped" + SegmentWriter.SEGMENT_SUFFIX);
+        try (SegmentWriter writer = new SegmentWriter(file, MAX_BYTES, INDEX_INTERVAL_US, 0)) {
+            append(writer, 0, 1_000);
+            append(writer, 1, 3_000);
+            append(writer, 2, 2_000);
+            append(writer, 3, 4_000);
+        }
+        try (SegmentReader reader = new SegmentReader(file, INDEX_INTERVAL_US)) {
+            assertEquals(1_000, reader.next().getTimestampUs());
+            assertEquals(3_000, reader.next().getTimestampUs());
+            assertEquals(3_000, reader.next().getTimestampUs());
+            assertEquals(4_000, reader.next().getTimestampUs());
+            
+            reader.seek(3_000);
+            assertEquals(1, index(reader.next()));
+        }
+    }
+    
+    @Test
+    public void refusesRecordsBeyondCap() throws IOException {
+        int recordSize = SegmentWriter.RECORD_HEADER_SIZE + 8;
+        File file = folder.newFile("full" + SegmentWriter.SEGMENT_SUFFIX);
+        try (SegmentWriter writer = new SegmentWriter(file, SegmentWriter.HEADER_SIZE + 2 * recordSize, INDEX_INTERVAL_US, 0)) {
+            assertTrue(append(writer, 0, 0));
+            assertTrue(append(writer, 1, 1));
+            assertFalse(append(writer, 2, 2));
+            assertEquals(2, writer.getRecordCount());
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReservedType() throws IOException {
+        File file = folder.newFile("reserved" + SegmentWriter.SEGMENT_SUFFIX);
+        try (SegmentWriter writer = new SegmentWriter(file, MAX_BYTES, INDEX_INTERVAL_US, 0)) {
+            writer.append((short) 0, (short) 0, 0, ByteBuffer.allocate(8));
+        }
+    }
+    
+    private File writeSegment() throws IOException {
+        File file = folder.newFile("segment" + SegmentWriter.SEGMENT_SUFFIX);
+        try (SegmentWriter writer = new SegmentWriter(file, MAX_BYTES, INDEX_INTERVAL_US, BASE_US)) {
+            for (int i = 0; i < RECORDS; i++) {
+                append(writer, i, at(i));
+            }
+        }
+        return file;
+    }
+    
+    private static boolean append(SegmentWriter writer, int index, long timestampUs) {
+        short flags = index % 7 == 0 ? RecordingEntry.FLAG_SYNC : 0;
+        return writer.append(RecordingEntry.TYPE_FRAME, flags, timestampUs, payload(index));
+    }
+    
+    static ByteBuffer payload(int index) {
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putInt(0, index);
+        return payload;
+    }
+    
+    static int index(RecordingEntry record) {
+        return record.getPayload().getInt(0);
+    }
+    
+    private static long at(int index) {
+        return BASE_US + index * 1_000L;
+    }
+}
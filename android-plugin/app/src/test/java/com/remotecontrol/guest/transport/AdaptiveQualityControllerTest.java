@@ -0,0 +1,134 @@
+package com.remotecontrol.guest.transport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Drives the controller through SimulatedLink with WebSocketService's parameters. A 20 KB frame
+// at native resolution makes the best level offer about 640 KB/s and level 3 about 200 KB/s.
+public class AdaptiveQualityControllerTest {
+    private static final long TARGET_LATENCY_MS = 150;
+    private static final long MAX_BUFFERED_BYTES = 256 * 1024;
+    private static final long DECREASE_INTERVAL_MS = 1000;
+    private static final long INCREASE_HOLD_MS = 3000;
+    private static final int FRAME_BYTES = 20_000;
+    private static final long RTT_MS = 40;
+    private static final long FAST_LINK = 5_000_000;
+    private static final long SLOW_LINK = 300_000;
+    // Entries of the controller's ladder either side of SLOW_LINK
+    private static final QualitySettings LEVEL_2 = new QualitySettings(65, 1.0f, 24);
+    private static final QualitySettings LEVEL_3 = new QualitySettings(55, 0.75f, 24);
+    
+    private final AdaptiveQualityController controller = newController();
+    
+    @Test
+    public void fastLinkClimbsToBestLevel() {
+        SimulatedLink link = new SimulatedLink(controller, FRAME_BYTES, RTT_MS, FAST_LINK);
+        link.run(10_000);
+        
+        assertEquals(0, controller.getLevel());
+        assertTrue(link.latencyPercentile(5_000, 10_000, 100) < TARGET_LATENCY_MS);
+    }
+    
+    @Test
+    public void bandwidthDropStepsDownUntilLatencyRecovers() {
+        SimulatedLink link = new SimulatedLink(controller, FRAME_BYTES, RTT_MS, FAST_LINK);
+        link.run(15_000);
+        link.setBandwidth(SLOW_LINK);
+        link.run(40_000);
+        
+        // The first observation after the drop reacts
+        long[] changes = link.levelChanges(15_000, 55_000);
+        assertTrue(changes[0] <= 15_000 + SimulatedLink.UPDATE_INTERVAL_MS);
+        assertTrue(link.latencyPercentile(20_000, 25_000, 50) < TARGET_LATENCY_MS);
+        
+        // Once settled it only probes one level above what the link carries, and backs off
+        for (int level : link.levels(25_000, 55_000)) {
+            assertTrue("level " + level, level >= 2);
+        }
+        assertTrue(link.getOfferedRate(LEVEL_3) < SLOW_LINK);
+        assertTrue(link.getOfferedRate(LEVEL_2) > SLOW_LINK);
+        assertTrue(link.latencyPercentile(25_000, 55_000, 50) < TARGET_LATENCY_MS);
+    }
+    
+    @Test
+    public void recoveryStepsUpOneLevelPerHold() {
+        SimulatedLink link = new SimulatedLink(controller, FRAME_BYTES, RTT_MS, 50_000);
+        link.run(20_000);
+        int congestedLevel = controller.getLevel();
+        link.setBandwidth(FAST_LINK);
+        link.run(40_000);
+        
+        int[] levels = link.levels(20_000, 60_000);
+        for (int i = 1; i < levels.length; i++) {
+            assertTrue(Arrays.toString(levels), levels[i] == levels[i - 1] || levels[i] == levels[i - 1] - 1);
+        }
+        long[] changes = link.levelChanges(20_000, 60_000);
+        assertEquals(congestedLevel, changes.length);
+        for (int i = 1; i < changes.length; i++) {
+            assertTrue(Arrays.toString(changes), changes[i] - changes[i - 1] >= INCREASE_HOLD_MS);
+        }
+        assertEquals(0, controller.getLevel());
+    }
+    
+    @Test
+    public void stalledLinkFallsToLowestLevelTwoStepsAtATime() {
+        SimulatedLink link = new SimulatedLink(controller, FRAME_BYTES, RTT_MS, FAST_LINK);
+        link.run(5_000);
+        link.setBandwidth(0);
+        link.run(10_000);
+        
+        int[] stepped = Arrays.stream(link.levels(4_500, 15_000)).distinct().toArray();
+        assertArrayEquals(new int[] {0, 2, 4, 6, 7}, stepped);
+        assertEquals(7, controller.getLevel());
+    }
+    
+    @Test
+    public void presetCapsBestLevel() {
+        controller.setPreset(AdaptiveQualityController.PRESET_MEDIUM);
+        SimulatedLink link = new SimulatedLink(controller, FRAME_BYTES, RTT_MS, FAST_LINK);
+        link.run(20_000);
+        
+        assertEquals(0, link.levelChanges(0, 20_000).length);
+        assertEquals(3, controller.getLevel());
+        
+        controller.setPreset(AdaptiveQualityController.PRESET_AUTO);
+        link.run(INCREASE_HOLD_MS + SimulatedLink.UPDATE_INTERVAL_MS);
+        assertEquals(2, controller.getLevel());
+    }
+    
+    @Test
+    public void regionOfInterestKeepsNativeResolution() {
+        controller.setRegionOfInterest(true);
+        SimulatedLink link = new SimulatedLink(controller, FRAME_BYTES, RTT_MS, 50_000);
+        link.run(20_000);
+        
+        QualitySettings settings = controller.getSettings();
+        assertTrue(controller.getLevel() > 3);
+        assertEquals(1.0f, settings.getScale(), 0);
+        assertTrue(settings.isRegionOfInterest());
+    }
+    
+    @Test
+    public void sameObservationsGiveSameDecisions() {
+        AdaptiveQualityController other = newController();
+        SimulatedLink first = new SimulatedLink(controller, FRAME_BYTES, RTT_MS, FAST_LINK);
+        SimulatedLink second = new SimulatedLink(other, FRAME_BYTES, RTT_MS, FAST_LINK);
+        for (long bandwidth : new long[] {FAST_LINK, SLOW_LINK, 80_000, FAST_LINK}) {
+            first.setBandwidth(bandwidth);
+            second.setBandwidth(bandwidth);
+            first.run(15_000);
+            second.run(15_000);
+        }
+        
+        assertArrayEquals(first.levels(0, 60_000), second.levels(0, 60_000));
+    }
+    
+    private static AdaptiveQualityController newController() {
+        return new AdaptiveQualityController(TARGET_LATENCY_MS, MAX_BUFFERED_BYTES, DECREASE_INTERVAL_MS, INCREASE_HOLD_MS);
+    }
+}
@@ -0,0 +1,248 @@
+package com.remotecontrol.guest.transport;
+
+import com.google.gson.Gson;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Runs ConnectionManager against a stand-in server on the loopback interface that speaks just
+// enough of GuestProtocol to authenticate a guest and resume its session.
+public class ConnectionManagerTest {
+    private static final long TIMEOUT_MS = 5000;
+    private static final String SESSION_CODE = "123456";
+    
+    private final Gson gson = new Gson();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private StandInServer server;
+    private StandInGuest guest;
+    private ConnectionManager manager;
+    
+    @Before
+    public void setUp() throws InterruptedException {
+        server = new StandInServer();
+        server.start();
+        assertTrue(server.started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        guest = new StandInGuest(URI.create("ws://127.0.0.1:" + server.getPort()));
+        manager = new ConnectionManager(guest, scheduler, new ReconnectBackoff(10, 50, 2, new Random(1)));
+        guest.manager = manager;
+    }
+    
+    @After
+    public void tearDown() throws InterruptedException {
+        manager.stop();
+        guest.close();
+        server.stop(1000);
+        scheduler.shutdownNow();
+    }
+    
+    @Test
+    public void reconnectsAfterDropAndResumesSession() throws InterruptedException {
+        manager.start();
+        assertEquals(GuestProtocol.AUTH_SUCCESS, guest.nextEvent());
+        
+        server.dropConnections();
+        String closed = guest.nextEvent();
+        assertTrue(closed, closed.startsWith("closed ") && Long.parseLong(closed.substring(7)) >= 0);
+        
+        assertEquals(GuestProtocol.SESSION_RESUMED, guest.nextEvent());
+        assertEquals("token-2", guest.token);
+        assertEquals(2, server.connections.get());
+        assertEquals(1, manager.getReconnectCount());
+        assertTrue(manager.isConnected());
+    }
+    
+    @Test
+    public void waitsForNetworkBeforeReconnecting() throws InterruptedException {
+        manager.start();
+        assertEquals(GuestProtocol.AUTH_SUCCESS, guest.nextEvent());
+        
+        manager.onNetworkLost();
+        server.dropConnections();
+        assertEquals("closed -1", guest.nextEvent());
+        assertNull(guest.events.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, server.connections.get());
+        
+        manager.onNetworkAvailable();
+        assertEquals(GuestProtocol.SESSION_RESUMED, guest.nextEvent());
+        assertEquals(2, server.connections.get());
+    }
+    
+    @Test
+    public void resumeClosesStaleConnectionOfSameGuest() throws InterruptedException {
+        manager.start();
+        assertEquals(GuestProtocol.AUTH_SUCCESS, guest.nextEvent());
+        
+        // The guest gives up on a connection the server still holds open, as after a silent drop
+        guest.abandon();
+        assertTrue(manager.onDisconnected() >= 0);
+        
+        Set<String> events = new HashSet<>();
+        events.add(guest.nextEvent());
+        events.add(guest.nextEvent());
+        assertEquals(new HashSet<>(Arrays.asList(GuestProtocol.SESSION_RESUMED, "stale closed")), events);
+        assertEquals(2, server.connections.get());
+        assertTrue(manager.isConnected());
+    }
+    
+    // Issues a new token on every authentication and resume, each good for one resume. Like the
+    // backend, a resume closes every other connection, since they can only be stale ones of the guest.
+    private final class StandInServer extends WebSocketServer {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger tokens = new AtomicInteger();
+        private volatile String validToken;
+        
+        StandInServer() {
+            super(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            setReuseAddr(true);
+        }
+        
+        void dropConnections() {
+            for (WebSocket connection : getConnections()) {
+                connection.close();
+            }
+        }
+        
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+        
+        @Override
+        public void onOpen(WebSocket connection, ClientHandshake handshake) {
+            connections.incrementAndGet();
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onMessage(WebSocket connection, String json) {
+            Map<String, Object> message = gson.fromJson(json, Map.class);
+            Object type = message.get("type");
+            Map<String, Object> reply;
+            if (GuestProtocol.AUTHENTICATE.equals(type)) {
+                reply = GuestProtocol.message(GuestProtocol.AUTH_SUCCESS);
+            } else if (GuestProtocol.RESUME_SESSION.equals(type)
+                    && SESSION_CODE.equals(message.get("sessionCode"))
+                    && message.get("token") != null && message.get("token").equals(validToken)) {
+                reply = GuestProtocol.message(GuestProtocol.SESSION_RESUMED);
+                for (WebSocket other : getConnections()) {
+                    if (other != connection) {
+                        other.close();
+                    }
+                }
+            } else {
+                connection.send(gson.toJson(GuestProtocol.message(GuestProtocol.RESUME_FAILED)));
+                return;
+            }
+            validToken = "token-" + tokens.incrementAndGet();
+            reply.put("token", validToken);
+            connection.send(gson.toJson(reply));
+        }
+        
+        @Override
+        public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+        }
+        
+        @Override
+        public void onError(WebSocket connection, Exception e) {
+        }
+    }
+    
+    // Authenticates on its first connection and resumes with the last token afterwards,
+    // reporting connection changes to the manager like WebSocketService does. A connection it has
+    // abandoned only reports being closed, as "stale closed".
+    private final class StandInGuest implements ConnectionManager.Connector {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        private final URI uri;
+        volatile ConnectionManager manager;
+        volatile String token;
+        private volatile WebSocketClient client;
+        
+        StandInGuest(URI uri) {
+            this.uri = uri;
+        }
+        
+        String nextEvent() throws InterruptedException {
+            String event = events.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (event == null) {
+                throw new AssertionError("Timed out waiting for the guest");
+            }
+            return event;
+        }
+        
+        @Override
+        public void connect() {
+            client = new WebSocketClient(uri) {
+                @Override
+                public void onOpen(ServerHandshake handshake) {
+                    manager.onConnected();
+                    Map<String, Object> deviceInfo = Collections.emptyMap();
+                    send(gson.toJson(token == null ? GuestProtocol.authenticate(deviceInfo)
+                        : GuestProtocol.resumeSession(SESSION_CODE, token, deviceInfo)));
+                }
+                
+                @Override
+                @SuppressWarnings("unchecked")
+                public void onMessage(String json) {
+                    Map<String, Object> message = gson.fromJson(json, Map.class);
+                    if (message.get("token") != null) {
+                        token = (String) message.get("token");
+                    }
+                    events.add((String) message.get("type"));
+                }
+                
+                @Override
+                public void onClose(int code, String reason, boolean remote) {
+                    if (this != client) {
+                        events.add("stale closed");
+                        return;
+                    }
+                    events.add("closed " + manager.onDisconnected());
+                }
+                
+                @Override
+                public void onError(Exception e) {
+                }
+            };
+            client.connect();
+        }
+        
+        // Forgets the current connection without closing it
+        void abandon() {
+            client = null;
+        }
+        
+        void close() throws InterruptedException {
+            if (client != null) {
+                client.closeBlocking();
+            }
+        }
+    }
+}
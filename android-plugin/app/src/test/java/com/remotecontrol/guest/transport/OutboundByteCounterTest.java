@@ -0,0 +1,58 @@
+package com.remotecontrol.guest.transport;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutboundByteCounterTest {
+    
+    @Test
+    public void utf8LengthMatchesEncoder() {
+        String[] texts = {"", "plain ascii", "café €", "emoji 😀", "lone \ud83d surrogate"};
+        for (String text : texts) {
+            assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, OutboundByteCounter.utf8Length(text));
+        }
+    }
+    
+    @Test
+    public void frameSizeIncludesMaskedHeader() {
+        assertEquals(6, OutboundByteCounter.frameSize(0));
+        assertEquals(6 + 125, OutboundByteCounter.frameSize(125));
+        assertEquals(8 + 126, OutboundByteCounter.frameSize(126));
+        assertEquals(8 + 65535, OutboundByteCounter.frameSize(65535));
+        assertEquals(14 + 65536, OutboundByteCounter.frameSize(65536));
+    }
+    
+    @Test
+    public void bufferedBytesDrainAsTheSocketIsWritten() throws Exception {
+        OutboundByteCounter counter = new OutboundByteCounter();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket socket = counter.socketFactory().createSocket(server.getInetAddress(), server.getLocalPort());
+             Socket peer = server.accept()) {
+            counter.onFrameQueued(200);
+            assertEquals(208, counter.getBufferedBytes());
+            
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[100], 0, 100);
+            assertEquals(108, counter.getBufferedBytes());
+            out.write(new byte[108]);
+            out.flush();
+            assertEquals(0, counter.getBufferedBytes());
+            assertEquals(208, counter.getWrittenBytes());
+            
+            InputStream in = peer.getInputStream();
+            int received = 0;
+            while (received < 208) {
+                received += in.read(new byte[256]);
+            }
+            assertEquals(208, received);
+        }
+    }
+}
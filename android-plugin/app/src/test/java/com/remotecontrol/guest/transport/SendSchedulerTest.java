@@ -0,0 +1,180 @@
+package com.remotecontrol.guest.transport;
+
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.capture.TileGrid;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SendSchedulerTest {
+    private static final long TIMEOUT_MS = 2000;
+    
+    private final RecordingTransport transport = new RecordingTransport();
+    private final List<BitSet> droppedTiles = new ArrayList<>();
+    private int keyframesNeeded;
+    private SendScheduler scheduler;
+    
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+    
+    @Test
+    public void videoDropsWholeGopsAndKeepsConfig() throws InterruptedException {
+        scheduler = newScheduler(2);
+        // Two fragments per keyframe; the scheduler is not started, so everything queues
+        VideoPacketizer packetizer = new VideoPacketizer(VideoPacketizer.CODEC_H264,
+            VideoPacketizer.HEADER_SIZE + 8, packet -> scheduler.sendFrame(packet));
+        packetizer.packetize(new byte[4], 0, 4, 0, VideoPacketizer.FLAG_CONFIG);
+        packetizer.packetize(new byte[16], 0, 16, 1, VideoPacketizer.FLAG_KEYFRAME);
+        packetizer.packetize(new byte[4], 0, 4, 2, 0);
+        
+        // The queue holds only the current GOP: the rest of it is skipped
+        packetizer.packetize(new byte[4], 0, 4, 3, 0);
+        packetizer.packetize(new byte[4], 0, 4, 4, 0);
+        assertEquals(1, keyframesNeeded);
+        
+        // The next keyframe replaces the queued GOP, config stays
+        packetizer.packetize(new byte[4], 0, 4, 5, VideoPacketizer.FLAG_CONFIG);
+        packetizer.packetize(new byte[16], 0, 16, 6, VideoPacketizer.FLAG_KEYFRAME);
+        packetizer.packetize(new byte[4], 0, 4, 7, 0);
+        
+        drain(5);
+        assertEquals(Arrays.asList("0/0", "5/0", "6/0", "6/1", "7/0"), transport.videoPackets());
+        assertEquals(1, keyframesNeeded);
+        assertEquals(5, scheduler.getFramesDropped());
+    }
+    
+    @Test
+    public void fragmentsOfQueuedUnitNeverWaitForRoom() throws InterruptedException {
+        scheduler = newScheduler(1);
+        VideoPacketizer packetizer = new VideoPacketizer(VideoPacketizer.CODEC_H264,
+            VideoPacketizer.HEADER_SIZE + 8, packet -> scheduler.sendFrame(packet));
+        packetizer.packetize(new byte[32], 0, 32, 0, VideoPacketizer.FLAG_KEYFRAME);
+        
+        drain(4);
+        assertEquals(Arrays.asList("0/0", "0/1", "0/2", "0/3"), transport.videoPackets());
+        assertEquals(0, scheduler.getFramesDropped());
+    }
+    
+    @Test
+    public void droppedDeltaFrameIsReportedWithItsTiles() throws InterruptedException {
+        scheduler = newScheduler(2);
+        scheduler.sendFrame(deltaFrame(0, 1, 2));
+        scheduler.sendFrame(deltaFrame(1, 3));
+        scheduler.sendFrame(deltaFrame(2, 4));
+        
+        assertEquals(1, droppedTiles.size());
+        assertEquals(BitSet.valueOf(new long[] {0b110}), droppedTiles.get(0));
+        assertEquals(0, keyframesNeeded);
+        drain(2);
+    }
+    
+    @Test
+    public void sendFailuresCountAsErrors() throws InterruptedException {
+        scheduler = newScheduler(2);
+        transport.failSends = true;
+        scheduler.start();
+        scheduler.sendFrame(deltaFrame(0, 1));
+        scheduler.sendControl("{}");
+        
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (scheduler.getSendErrors() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, scheduler.getSendErrors());
+        assertEquals(0, scheduler.getFramesSent());
+        assertEquals(0, scheduler.getControlSent());
+    }
+    
+    private SendScheduler newScheduler(int maxQueuedFrames) {
+        return new SendScheduler(transport, maxQueuedFrames, 64 * 1024, new SendScheduler.DropListener() {
+            @Override
+            public void onFrameDropped(ByteBuffer frame, long totalDropped) {
+                BitSet tiles = new BitSet();
+                assertTrue(DeltaFrameWriter.readTiles(frame, tiles));
+                droppedTiles.add(tiles);
+            }
+            
+            @Override
+            public void onKeyframeNeeded() {
+                keyframesNeeded++;
+            }
+        });
+    }
+    
+    private static ByteBuffer deltaFrame(int frameId, int... tiles) {
+        DeltaFrameWriter writer = new DeltaFrameWriter();
+        writer.begin(frameId, new TileGrid(512, 512, 128), false);
+        writer.reserveTrace();
+        for (int tile : tiles) {
+            writer.addTile(tile, new byte[] {1, 2, 3}, 0, 3);
+        }
+        return ByteBuffer.wrap(writer.finish());
+    }
+    
+    private void drain(int packets) throws InterruptedException {
+        scheduler.start();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (transport.packetCount() < packets && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(packets, transport.packetCount());
+    }
+    
+    private static final class RecordingTransport implements SendScheduler.Transport {
+        private final List<ByteBuffer> packets = new ArrayList<>();
+        volatile boolean failSends;
+        
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+        
+        @Override
+        public long getBufferedBytes() {
+            return 0;
+        }
+        
+        @Override
+        public void sendText(String message) {
+            if (failSends) {
+                throw new IllegalStateException("Not connected");
+            }
+        }
+        
+        @Override
+        public synchronized void sendBinary(ByteBuffer data) {
+            if (failSends) {
+                throw new IllegalStateException("Not connected");
+            }
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data.duplicate()).flip();
+            packets.add(copy);
+        }
+        
+        synchronized int packetCount() {
+            return packets.size();
+        }
+        
+        // Access unit sequence and fragment index of each video packet sent
+        synchronized List<String> videoPackets() {
+            List<String> sent = new ArrayList<>();
+            for (ByteBuffer packet : packets) {
+                if (VideoPacketizer.isPacket(packet)) {
+                    sent.add(packet.getInt(4) + "/" + VideoPacketizer.readFragmentIndex(packet));
+                }
+            }
+            return sent;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.remotecontrol.guest.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Discrete-time model of a guest streaming through a bottleneck link, feeding an
+// AdaptiveQualityController the way WebSocketService does. Frames are produced at the frame
+// rate of the current settings, sized in proportion to JPEG quality and scaled area, wait in
+// the send buffer and drain at the link bandwidth. Every UPDATE_INTERVAL_MS the controller sees
+// the buffered bytes, the time they need to drain at the measured throughput, and an RTT that
+// includes the queueing delay a ping sent behind them would see.
+final class SimulatedLink {
+    static final long STEP_MS = 5;
+    static final long UPDATE_INTERVAL_MS = 500;
+    
+    private final AdaptiveQualityController controller;
+    // Size of a frame at JPEG quality 75 and native resolution
+    private final int baseFrameBytes;
+    private final long baseRttMs;
+    // Frames in the send buffer: queued at, bytes left
+    private final ArrayDeque<long[]> queue = new ArrayDeque<>();
+    // Sent frames: time fully received, end-to-end latency
+    private final List<long[]> frames = new ArrayList<>();
+    // Controller decisions: time, level
+    private final List<long[]> levels = new ArrayList<>();
+    private long bandwidthBytesPerSecond;
+    private QualitySettings settings;
+    private long nowMs;
+    private long nextFrameMs;
+    private long nextUpdateMs = UPDATE_INTERVAL_MS;
+    private long bufferedBytes;
+    private long writtenSinceUpdate;
+    private double drainCredit;
+    
+    SimulatedLink(AdaptiveQualityController controller, int baseFrameBytes, long baseRttMs,
+                  long bandwidthBytesPerSecond) {
+        this.controller = controller;
+        this.baseFrameBytes = baseFrameBytes;
+        this.baseRttMs = baseRttMs;
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        this.settings = controller.getSettings();
+    }
+    
+    void setBandwidth(long bytesPerSecond) {
+        bandwidthBytesPerSecond = bytesPerSecond;
+    }
+    
+    void run(long durationMs) {
+        long end = nowMs + durationMs;
+        while (nowMs < end) {
+            if (nowMs >= nextFrameMs) {
+                int size = frameBytes(settings);
+                queue.addLast(new long[] {nowMs, size});
+                bufferedBytes += size;
+                nextFrameMs += settings.getFrameIntervalMs();
+            }
+            drain();
+            nowMs += STEP_MS;
+            if (nowMs >= nextUpdateMs) {
+                update();
+                nextUpdateMs += UPDATE_INTERVAL_MS;
+            }
+        }
+    }
+    
+    int frameBytes(QualitySettings settings) {
+        float scale = settings.getScale();
+        return (int) (baseFrameBytes * settings.getJpegQuality() / 75.0 * scale * scale);
+    }
+    
+    long getNowMs() {
+        return nowMs;
+    }
+    
+    // Bytes per second the given settings produce
+    long getOfferedRate(QualitySettings settings) {
+        return (long) frameBytes(settings) * settings.getFrameRate();
+    }
+    
+    // Latency percentile of the frames received in [fromMs, toMs)
+    long latencyPercentile(long fromMs, long toMs, double percentile) {
+        long[] latencies = frames.stream()
+            .filter(frame -> frame[0] >= fromMs && frame[0] < toMs)
+            .mapToLong(frame -> frame[1])
+            .toArray();
+        if (latencies.length == 0) {
+            throw new IllegalStateException("No frames between " + fromMs + " and " + toMs);
+        }
+        Arrays.sort(latencies);
+        return latencies[(int) Math.ceil(percentile / 100 * latencies.length) - 1];
+    }
+    
+    // Levels the controller chose in [fromMs, toMs), in order
+    int[] levels(long fromMs, long toMs) {
+        return levels.stream()
+            .filter(level -> level[0] >= fromMs && level[0] < toMs)
+            .mapToInt(level -> (int) level[1])
+            .toArray();
+    }
+    
+    // Times in [fromMs, toMs) at which the level changed
+    long[] levelChanges(long fromMs, long toMs) {
+        List<Long> changes = new ArrayList<>();
+        for (int i = 1; i < levels.size(); i++) {
+            long[] level = levels.get(i);
+            if (level[0] >= fromMs && level[0] < toMs && level[1] != levels.get(i - 1)[1]) {
+                changes.add(level[0]);
+            }
+        }
+        return changes.stream().mapToLong(Long::longValue).toArray();
+    }
+    
+    private void drain() {
+        drainCredit += bandwidthBytesPerSecond * STEP_MS / 1000.0;
+        while (!queue.isEmpty() && drainCredit >= 1) {
+            long[] frame = queue.peekFirst();
+            long sent = Math.min(frame[1], (long) drainCredit);
+            frame[1] -= sent;
+            drainCredit -= sent;
+            bufferedBytes -= sent;
+            writtenSinceUpdate += sent;
+            if (frame[1] == 0) {
+                queue.removeFirst();
+                long receivedMs = nowMs + STEP_MS + baseRttMs / 2;
+                frames.add(new long[] {receivedMs, receivedMs - frame[0]});
+            }
+        }
+        // An idle link does not save up bandwidth for later
+        if (queue.isEmpty()) {
+            drainCredit = 0;
+        }
+    }
+    
+    // Same estimates WebSocketService.updateLinkQuality feeds the controller
+    private void update() {
+        double throughput = writtenSinceUpdate * 1000.0 / UPDATE_INTERVAL_MS;
+        writtenSinceUpdate = 0;
+        double sendLatencyMs = bufferedBytes == 0 ? 0
+            : throughput > 0 ? bufferedBytes * 1000.0 / throughput : UPDATE_INTERVAL_MS;
+        double queueingMs = bandwidthBytesPerSecond > 0
+            ? bufferedBytes * 1000.0 / bandwidthBytesPerSecond : UPDATE_INTERVAL_MS;
+        settings = controller.update(nowMs, bufferedBytes, sendLatencyMs, baseRttMs + queueingMs);
+        levels.add(new long[] {nowMs, controller.getLevel()});
+    }
+}
@@ -0,0 +1,159 @@
+package com.remotecontrol.guest.transport;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VideoPacketizerTest {
+    private static final int MAX_PACKET_SIZE = VideoPacketizer.HEADER_SIZE + 100;
+    
+    private final List<byte[]> packets = new ArrayList<>();
+    private final VideoPacketizer packetizer =
+        new VideoPacketizer(VideoPacketizer.CODEC_H264, MAX_PACKET_SIZE, packets::add);
+    private final VideoDepacketizer depacketizer = new VideoDepacketizer();
+    
+    @Test
+    public void multiFragmentRoundTrip() {
+        byte[] keyframe = unit(250, 1);
+        assertEquals(3, packetizer.packetize(keyframe, 0, keyframe.length, 40_000, VideoPacketizer.FLAG_KEYFRAME));
+        assertEquals(MAX_PACKET_SIZE, packets.get(0).length);
+        assertEquals(VideoPacketizer.HEADER_SIZE + 50, packets.get(2).length);
+        ByteBuffer last = ByteBuffer.wrap(packets.get(2));
+        assertTrue(VideoPacketizer.isPacket(last));
+        assertEquals(2, VideoPacketizer.readFragmentIndex(last));
+        assertEquals(VideoPacketizer.FLAG_KEYFRAME, VideoPacketizer.readFlags(last));
+        
+        assertNull(accept(0));
+        assertNull(accept(1));
+        VideoDepacketizer.AccessUnit unit = accept(2);
+        assertArrayEquals(keyframe, unit.data);
+        assertEquals(0, unit.sequence);
+        assertEquals(VideoPacketizer.CODEC_H264, unit.codec);
+        assertEquals(40_000, unit.presentationTimeUs);
+        assertTrue(unit.isKeyframe());
+        assertFalse(depacketizer.isWaitingForKeyframe());
+        
+        byte[] delta = unit(80, 2);
+        packetizer.packetize(ByteBuffer.wrap(delta), 73_333, 0);
+        unit = accept(3);
+        assertArrayEquals(delta, unit.data);
+        assertEquals(1, unit.sequence);
+        assertFalse(unit.isKeyframe());
+        assertEquals(0, depacketizer.getDroppedUnits());
+    }
+    
+    @Test
+    public void emptyAccessUnitIsOnePacket() {
+        assertEquals(1, packetizer.packetize(new byte[0], 0, 0, 0, VideoPacketizer.FLAG_CONFIG));
+        VideoDepacketizer.AccessUnit unit = accept(0);
+        assertEquals(0, unit.data.length);
+        assertTrue(unit.isConfig());
+    }
+    
+    @Test
+    public void lostMiddleFragmentDropsUnitUntilKeyframe() {
+        sendKeyframe();
+        assertTrue(accept(0).isKeyframe());
+        byte[] delta = unit(250, 2);
+        packetizer.packetize(delta, 0, delta.length, 1, 0);
+        assertNull(accept(1));
+        // Fragment 1 of the delta never arrives
+        assertNull(accept(3));
+        assertTrue(depacketizer.isWaitingForKeyframe());
+        assertEquals(1, depacketizer.getDroppedUnits());
+        
+        // The following delta is complete but cannot be decoded without its reference
+        packetizer.packetize(unit(10, 3), 0, 10, 2, 0);
+        assertNull(accept(4));
+        assertEquals(2, depacketizer.getDroppedUnits());
+        
+        sendKeyframe();
+        assertTrue(accept(5).isKeyframe());
+        assertFalse(depacketizer.isWaitingForKeyframe());
+    }
+    
+    @Test
+    public void sequenceGapWaitsForNextKeyframe() {
+        sendKeyframe();
+        assertTrue(accept(0).isKeyframe());
+        packetizer.packetize(unit(10, 2), 0, 10, 1, 0);
+        packetizer.packetize(unit(10, 3), 0, 10, 2, 0);
+        packetizer.packetize(unit(10, 4), 0, 10, 3, 0);
+        
+        // Unit 1 is lost as a whole; unit 2 arrives complete but after a gap
+        assertNull(accept(2));
+        assertTrue(depacketizer.isWaitingForKeyframe());
+        assertNull(accept(3));
+        assertEquals(3, depacketizer.getDroppedUnits());
+        
+        sendKeyframe();
+        VideoDepacketizer.AccessUnit unit = accept(4);
+        assertEquals(4, unit.sequence);
+        assertTrue(unit.isKeyframe());
+    }
+    
+    @Test
+    public void configPassesThroughWhileWaitingForKeyframe() {
+        assertTrue(depacketizer.isWaitingForKeyframe());
+        packetizer.packetize(unit(10, 1), 0, 10, 0, 0);
+        assertNull(accept(0));
+        
+        byte[] config = unit(30, 9);
+        packetizer.packetize(config, 0, config.length, 0, VideoPacketizer.FLAG_CONFIG);
+        VideoDepacketizer.AccessUnit unit = accept(1);
+        assertTrue(unit.isConfig());
+        assertArrayEquals(config, unit.data);
+        // Config alone does not make later deltas decodable
+        assertTrue(depacketizer.isWaitingForKeyframe());
+    }
+    
+    @Test
+    public void rejectsAccessUnitNeedingTooManyFragments() {
+        // One payload byte per packet: the fragment count must fit the 16-bit header field
+        VideoPacketizer tiny = new VideoPacketizer(VideoPacketizer.CODEC_HEVC, VideoPacketizer.HEADER_SIZE + 1, packets::add);
+        try {
+            tiny.packetize(new byte[0x10000], 0, 0x10000, 0, 0);
+            throw new AssertionError("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(packets.isEmpty());
+        }
+        assertEquals(0xFFFF, tiny.packetize(new byte[0xFFFF], 0, 0xFFFF, 0, 0));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPacketSizeNotAboveHeader() {
+        new VideoPacketizer(VideoPacketizer.CODEC_H264, VideoPacketizer.HEADER_SIZE, packets::add);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void depacketizerRejectsForeignPacket() {
+        byte[] packet = new byte[VideoPacketizer.HEADER_SIZE];
+        packet[0] = 'X';
+        depacketizer.accept(packet, 0, packet.length);
+    }
+    
+    private void sendKeyframe() {
+        packetizer.packetize(unit(50, 7), 0, 50, 0, VideoPacketizer.FLAG_KEYFRAME);
+    }
+    
+    private VideoDepacketizer.AccessUnit accept(int packet) {
+        byte[] bytes = packets.get(packet);
+        return depacketizer.accept(bytes, 0, bytes.length);
+    }
+    
+    private static byte[] unit(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,93 @@
+package com.remotecontrol.guest.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.models.TouchEvent;
+import com.remotecontrol.guest.transport.ControlEventCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Decoding cost of one control event on each path WebSocketService supports: the JSON parse
+// tree bound straight to ControlEvent (handleControlEvent), the Map round-trip used before
+// that, and the binary codec reading a batch of events from one message.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ControlEventDecodeBenchmark {
+    private static final int BATCH = 64;
+    
+    private final Gson gson = new Gson();
+    private final ControlEventCodec codec = new ControlEventCodec();
+    private String[] messages;
+    private ByteBuffer binaryBatch;
+    private int next;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        // A swipe: down, a run of moves, up
+        messages = new String[BATCH];
+        binaryBatch = ByteBuffer.allocate(BATCH * ControlEventCodec.MESSAGE_SIZE);
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < BATCH; i++) {
+            String action = i == 0 ? "down" : i == BATCH - 1 ? "up" : "move";
+            TouchEvent touch = new TouchEvent(action, 120.5f + i * 9.25f, 1600f - i * 17.5f, timestamp + i * 8);
+            touch.setPressure(1f);
+            ControlEvent event = new ControlEvent("touch", timestamp + i * 8);
+            event.setTouchData(touch);
+            JsonObject message = gson.toJsonTree(event).getAsJsonObject();
+            message.addProperty("type", "control-event");
+            message.addProperty("sessionCode", "ABC123");
+            messages[i] = message.toString();
+            ControlEventCodec.encode(event, binaryBatch);
+        }
+        binaryBatch.flip();
+    }
+    
+    // The control event fast path of handleServerMessage
+    @Benchmark
+    public ControlEvent jsonTree() {
+        JsonObject json = JsonParser.parseString(messages[next++ & (BATCH - 1)]).getAsJsonObject();
+        JsonElement typeElement = json.get("type");
+        String type = typeElement != null ? typeElement.getAsString() : null;
+        if (!"control-event".equals(type)) {
+            throw new IllegalStateException("Unexpected type " + type);
+        }
+        return gson.fromJson(json, ControlEvent.class);
+    }
+    
+    // The generic path every other message type still takes, for comparison
+    @Benchmark
+    public ControlEvent jsonMapRoundTrip() {
+        Map<?, ?> data = gson.fromJson(messages[next++ & (BATCH - 1)], Map.class);
+        if (!"control-event".equals(data.get("type"))) {
+            throw new IllegalStateException("Unexpected type " + data.get("type"));
+        }
+        return gson.fromJson(gson.toJsonTree(data), ControlEvent.class);
+    }
+    
+    // handleBinaryMessage: several events back to back in one message
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void binaryBatch(Blackhole blackhole) {
+        ByteBuffer bytes = binaryBatch.duplicate();
+        while (ControlEventCodec.isControlMessage(bytes)) {
+            blackhole.consume(codec.decode(bytes));
+        }
+    }
+}
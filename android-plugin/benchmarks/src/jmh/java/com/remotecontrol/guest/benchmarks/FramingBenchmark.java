@@ -0,0 +1,134 @@
+package com.remotecontrol.guest.benchmarks;
+
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.capture.FrameQueue;
+import com.remotecontrol.guest.capture.TileGrid;
+import com.remotecontrol.guest.transport.SendScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Framing and hand-off of an encoded delta frame: writing the tile container, passing it
+// through the capture queue and into SendScheduler, both on the direct path (idle socket) and
+// the queued path (socket buffer over the limit, so the frame is copied and old ones dropped).
+// Queue and buffer limits match WebSocketService.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FramingBenchmark {
+    private static final int MAX_QUEUED_FRAMES = 3;
+    private static final long MAX_SOCKET_BUFFERED_BYTES = 64 * 1024;
+    private static final int TILE_SIZE = 128;
+    
+    // Changed tiles per frame: a cursor, a partial update and a full 1080p keyframe
+    @Param({"1", "16", "135"})
+    public int tiles;
+    
+    // Typical encoded size of one tile
+    @Param({"4096"})
+    public int tileBytes;
+    
+    private final TileGrid grid = new TileGrid(1920, 1080, TILE_SIZE);
+    private final DeltaFrameWriter writer = new DeltaFrameWriter();
+    private final FrameQueue<ByteBuffer> captureQueue = new FrameQueue<>(MAX_QUEUED_FRAMES);
+    private byte[] tileData;
+    private ByteBuffer frame;
+    private CountingTransport idleTransport;
+    private CountingTransport busyTransport;
+    private SendScheduler directScheduler;
+    private SendScheduler queuedScheduler;
+    private int frameId;
+    
+    static final class CountingTransport implements SendScheduler.Transport {
+        private final long bufferedBytes;
+        long bytesSent;
+        
+        CountingTransport(long bufferedBytes) {
+            this.bufferedBytes = bufferedBytes;
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+        
+        @Override
+        public long getBufferedBytes() {
+            return bufferedBytes;
+        }
+        
+        @Override
+        public void sendText(String message) {
+            bytesSent += message.length();
+        }
+        
+        @Override
+        public void sendBinary(ByteBuffer data) {
+            bytesSent += data.remaining();
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (tiles > grid.getTileCount()) {
+            throw new IllegalArgumentException("At most " + grid.getTileCount() + " tiles");
+        }
+        tileData = new byte[tileBytes];
+        new Random(7).nextBytes(tileData);
+        frame = writeFrame();
+        idleTransport = new CountingTransport(0);
+        busyTransport = new CountingTransport(MAX_SOCKET_BUFFERED_BYTES);
+        directScheduler = new SendScheduler(idleTransport, MAX_QUEUED_FRAMES, MAX_SOCKET_BUFFERED_BYTES, null);
+        queuedScheduler = new SendScheduler(busyTransport, MAX_QUEUED_FRAMES, MAX_SOCKET_BUFFERED_BYTES, null);
+        directScheduler.start();
+        queuedScheduler.start();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        directScheduler.stop();
+        queuedScheduler.stop();
+    }
+    
+    @Benchmark
+    public ByteBuffer writeFrame() {
+        writer.begin(frameId++, grid, tiles == grid.getTileCount());
+        writer.reserveTrace();
+        for (int tile = 0; tile < tiles; tile++) {
+            writer.addTile(tile, tileData, 0, tileData.length);
+        }
+        ByteBuffer buffer = writer.finishBuffer();
+        writer.setTrace(System.nanoTime(), 100, 2000, 5000, 50);
+        return buffer;
+    }
+    
+    @Benchmark
+    public ByteBuffer captureQueue() {
+        captureQueue.offer(frame);
+        return captureQueue.poll();
+    }
+    
+    @Benchmark
+    public long sendDirect() {
+        directScheduler.sendFrame(frame);
+        return idleTransport.bytesSent;
+    }
+    
+    @Benchmark
+    public long sendQueued() {
+        queuedScheduler.sendFrame(frame);
+        return queuedScheduler.getQueuedFrameBytes();
+    }
+}
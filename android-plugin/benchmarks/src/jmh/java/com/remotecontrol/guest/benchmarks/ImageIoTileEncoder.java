@@ -0,0 +1,49 @@
+package com.remotecontrol.guest.benchmarks;
+
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.capture.Nv21Converter;
+import com.remotecontrol.guest.platform.TileEncoder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// JVM stand-in for YuvImage.compressToJpeg: converts the NV21 region to RGB and compresses it
+// with the JDK's libjpeg-based ImageIO writer. Absolute times differ from a device, but the
+// work scales with the region the same way. Confined to one thread, like the Android encoder.
+public class ImageIoTileEncoder implements TileEncoder {
+    private final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    private final ImageWriteParam param = writer.getDefaultWriteParam();
+    private BufferedImage image;
+    
+    public ImageIoTileEncoder() {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    }
+    
+    @Override
+    public int encodeNv21(byte[] nv21, int width, int height, int left, int top, int right, int bottom,
+                          int quality, OutputStream out) {
+        int regionWidth = right - left;
+        int regionHeight = bottom - top;
+        if (image == null || image.getWidth() != regionWidth || image.getHeight() != regionHeight) {
+            image = new BufferedImage(regionWidth, regionHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        Nv21Converter.toArgb(nv21, width, height, left, top, right, bottom,
+            ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        param.setCompressionQuality(quality / 100f);
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+            return DeltaFrameWriter.CODEC_JPEG;
+        } catch (IOException e) {
+            return FAILED;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.remotecontrol.guest.benchmarks;
+
+import com.remotecontrol.guest.capture.Nv21Converter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// RGBA plane to NV21 conversion straight from a padded row-stride buffer, for the full frame,
+// a single changed tile and a downscaled frame. Measured as throughput so the byte counters
+// come out as plane bytes read and NV21 bytes written per second.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class Nv21ConvertBenchmark {
+    private static final int TILE_SIZE = 128;
+    
+    @Param({"1280x720", "1920x1080", "2560x1440"})
+    public String resolution;
+    
+    @Param({"0", "16"})
+    public int rowPadding;
+    
+    private SyntheticScreen screen;
+    private Nv21Converter converter;
+    private byte[] nv21;
+    private byte[] scaledNv21;
+    private int scaledWidth;
+    private int scaledHeight;
+    
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytesRead;
+        public long bytesWritten;
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        screen = SyntheticScreen.parse(resolution, rowPadding);
+        converter = new Nv21Converter();
+        nv21 = new byte[Nv21Converter.frameSize(screen.getWidth(), screen.getHeight())];
+        scaledWidth = Nv21Converter.evenDimension(screen.getWidth() / 2);
+        scaledHeight = Nv21Converter.evenDimension(screen.getHeight() / 2);
+        scaledNv21 = new byte[Nv21Converter.frameSize(scaledWidth, scaledHeight)];
+    }
+    
+    @Benchmark
+    public byte[] fullFrame(Bytes bytes) {
+        int width = screen.getWidth();
+        int height = screen.getHeight();
+        converter.convert(screen.getPixels(), width, height, screen.getRowStride(),
+            nv21, width, height, 0, 0, width, height);
+        bytes.bytesRead += (long) width * height * SyntheticScreen.PIXEL_STRIDE;
+        bytes.bytesWritten += Nv21Converter.frameSize(width, height);
+        return nv21;
+    }
+    
+    @Benchmark
+    public byte[] singleTile(Bytes bytes) {
+        int left = screen.getWidth() / 2 & ~(TILE_SIZE - 1);
+        int top = screen.getHeight() / 2 & ~(TILE_SIZE - 1);
+        converter.convert(screen.getPixels(), screen.getWidth(), screen.getHeight(), screen.getRowStride(),
+            nv21, screen.getWidth(), screen.getHeight(), left, top, left + TILE_SIZE, top + TILE_SIZE);
+        bytes.bytesRead += TILE_SIZE * TILE_SIZE * SyntheticScreen.PIXEL_STRIDE;
+        bytes.bytesWritten += Nv21Converter.frameSize(TILE_SIZE, TILE_SIZE);
+        return nv21;
+    }
+    
+    @Benchmark
+    public byte[] halfScale(Bytes bytes) {
+        converter.convert(screen.getPixels(), screen.getWidth(), screen.getHeight(), screen.getRowStride(),
+            scaledNv21, scaledWidth, scaledHeight, 0, 0, scaledWidth, scaledHeight);
+        // Nearest-neighbour sampling touches one source pixel per output pixel
+        bytes.bytesRead += (long) scaledWidth * scaledHeight * SyntheticScreen.PIXEL_STRIDE;
+        bytes.bytesWritten += Nv21Converter.frameSize(scaledWidth, scaledHeight);
+        return scaledNv21;
+    }
+}
@@ -0,0 +1,129 @@
+package com.remotecontrol.guest.benchmarks;
+
+import com.remotecontrol.guest.capture.Nv21Converter;
+import com.remotecontrol.guest.capture.ParallelTileEncoder;
+import com.remotecontrol.guest.capture.TileGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Single-threaded versus striped JPEG encoding of a keyframe and of a frame where every tile
+// changed. threads = 1 is the single-threaded path: one FULL_FRAME image, or the tiles one after
+// the other; 0 uses one worker per available core, as the capture service does. Keyframes are
+// split into the same tile-row slices as FramePipeline sends them. The speedup needs as many
+// free cores as workers; on fewer cores the extra threads only add overhead. largestSlice
+// encodes only the biggest of those slices on one thread: with a free core per worker a
+// keyframe cannot finish faster than that, so it bounds the speedup even on a single core.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class ParallelEncodeBenchmark {
+    private static final int TILE_SIZE = 128;
+    private static final int QUALITY = 75;
+    
+    @Param({"1920x1080", "2560x1440"})
+    public String resolution;
+    
+    @Param({"1", "2", "4", "8", "0"})
+    public int threads;
+    
+    private ParallelTileEncoder encoder;
+    private byte[] nv21;
+    private int width;
+    private int height;
+    private int[] sliceRegions;
+    private int sliceCount;
+    private int[] largestSliceRegion;
+    private int[] tileRegions;
+    private int tileCount;
+    private int[] qualities;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticScreen screen = SyntheticScreen.parse(resolution, 0);
+        width = Nv21Converter.evenDimension(screen.getWidth());
+        height = Nv21Converter.evenDimension(screen.getHeight());
+        nv21 = new byte[Nv21Converter.frameSize(width, height)];
+        new Nv21Converter().convert(screen.getPixels(), screen.getWidth(), screen.getHeight(), screen.getRowStride(),
+            nv21, width, height, 0, 0, width, height);
+        
+        int threadCount = threads > 0 ? threads : ParallelTileEncoder.defaultThreadCount();
+        encoder = new ParallelTileEncoder(threadCount, ImageIoTileEncoder::new);
+        
+        TileGrid grid = new TileGrid(width, height, TILE_SIZE);
+        int rows = grid.getRows();
+        sliceCount = Math.min(threadCount, rows);
+        sliceRegions = new int[sliceCount * 4];
+        for (int slice = 0; slice < sliceCount; slice++) {
+            int top = grid.tileY(rows * slice / sliceCount * grid.getColumns());
+            int lastTile = (rows * (slice + 1) / sliceCount - 1) * grid.getColumns();
+            setRegion(sliceRegions, slice, 0, top, width, grid.tileY(lastTile) + grid.tileHeight(lastTile));
+        }
+        largestSliceRegion = new int[4];
+        for (int slice = 0; slice < sliceCount; slice++) {
+            int base = slice * 4;
+            if (sliceRegions[base + 3] - sliceRegions[base + 1] > largestSliceRegion[3] - largestSliceRegion[1]) {
+                System.arraycopy(sliceRegions, base, largestSliceRegion, 0, 4);
+            }
+        }
+        tileCount = grid.getTileCount();
+        tileRegions = new int[tileCount * 4];
+        for (int tile = 0; tile < tileCount; tile++) {
+            setRegion(tileRegions, tile, grid.tileX(tile), grid.tileY(tile),
+                grid.tileX(tile) + grid.tileWidth(tile), grid.tileY(tile) + grid.tileHeight(tile));
+        }
+        qualities = new int[tileCount];
+        Arrays.fill(qualities, QUALITY);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encoder.shutdown();
+    }
+    
+    @Benchmark
+    public int keyframe() {
+        return encode(sliceRegions, sliceCount);
+    }
+    
+    // A single region is always encoded on the calling thread
+    @Benchmark
+    public int largestSlice() {
+        return encode(largestSliceRegion, 1);
+    }
+    
+    @Benchmark
+    public int allTiles() {
+        return encode(tileRegions, tileCount);
+    }
+    
+    // Total encoded size
+    private int encode(int[] regions, int count) {
+        if (!encoder.encode(nv21, width, height, regions, qualities, count)) {
+            throw new IllegalStateException("Encoding failed");
+        }
+        int bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += encoder.getOutput(i).getLength();
+        }
+        return bytes;
+    }
+    
+    private static void setRegion(int[] regions, int index, int left, int top, int right, int bottom) {
+        regions[index * 4] = left;
+        regions[index * 4 + 1] = top;
+        regions[index * 4 + 2] = right;
+        regions[index * 4 + 3] = bottom;
+    }
+}
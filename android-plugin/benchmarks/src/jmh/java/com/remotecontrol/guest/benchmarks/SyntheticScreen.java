@@ -0,0 +1,146 @@
+package com.remotecontrol.guest.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+// Deterministic UI-like RGBA_8888 content: a status bar, list rows with text-like strokes and
+// an image-like gradient block. Frames are held in direct buffers with padded rows, the same
+// layout an ImageReader plane hands to the capture pipeline.
+public final class SyntheticScreen {
+    // Bytes per pixel of RGBA_8888
+    public static final int PIXEL_STRIDE = 4;
+    
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final ByteBuffer pixels;
+    
+    public SyntheticScreen(int width, int height, int rowPaddingPixels) {
+        this.width = width;
+        this.height = height;
+        this.rowStride = (width + rowPaddingPixels) * PIXEL_STRIDE;
+        this.pixels = ByteBuffer.allocateDirect(rowStride * height).order(ByteOrder.nativeOrder());
+        paint(0);
+    }
+    
+    // Parses "1920x1080" as used in @Param values
+    public static SyntheticScreen parse(String resolution, int rowPaddingPixels) {
+        int separator = resolution.indexOf('x');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid resolution " + resolution);
+        }
+        return new SyntheticScreen(Integer.parseInt(resolution.substring(0, separator)),
+            Integer.parseInt(resolution.substring(separator + 1)), rowPaddingPixels);
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int getRowStride() {
+        return rowStride;
+    }
+    
+    // Read-only view positioned at the first pixel
+    public ByteBuffer getPixels() {
+        return pixels.duplicate().order(pixels.order());
+    }
+    
+    public SyntheticScreen copy() {
+        SyntheticScreen copy = new SyntheticScreen(width, height, rowStride / PIXEL_STRIDE - width);
+        copy.pixels.put(pixels.duplicate());
+        copy.pixels.clear();
+        return copy;
+    }
+    
+    // Redraws the whole screen with the list scrolled by the given number of rows
+    public void paint(int scrollRows) {
+        int statusBar = Math.max(24, height / 30);
+        int rowHeight = Math.max(48, height / 14);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            if (y < statusBar) {
+                fillRow(y, 0, width, 0xff202124);
+                continue;
+            }
+            int contentY = y - statusBar + scrollRows;
+            int listRow = contentY / rowHeight;
+            int inRow = contentY % rowHeight;
+            fillRow(y, 0, width, (listRow & 1) == 0 ? 0xffffffff : 0xfff1f3f4);
+            if (inRow == rowHeight - 1) {
+                fillRow(y, 0, width, 0xffdadce0);
+            }
+        }
+        // Text-like strokes and a thumbnail per list row, positioned from a fixed seed
+        for (int row = 0; ; row++) {
+            int top = statusBar + row * rowHeight - scrollRows;
+            if (top >= height) {
+                break;
+            }
+            int thumbnail = rowHeight - 16;
+            gradient(16, top + 8, thumbnail, thumbnail, row);
+            int textLeft = 32 + thumbnail;
+            for (int line = 0; line < 2; line++) {
+                int lineTop = top + 12 + line * (rowHeight / 2 - 4);
+                int x = textLeft;
+                while (x < width - 32) {
+                    int glyph = 6 + random.nextInt(10);
+                    fillRect(x, lineTop, Math.min(glyph, width - 32 - x), 12 - line * 3, 0xff3c4043);
+                    x += glyph + 3 + (random.nextInt(8) == 0 ? 8 : 0);
+                }
+            }
+        }
+    }
+    
+    // Blinks a text cursor, the smallest change a UI produces
+    public void toggleCursor(boolean visible) {
+        fillRect(width / 2, height / 2, 3, 24, visible ? 0xff1a73e8 : 0xffffffff);
+    }
+    
+    private void fillRow(int y, int x0, int x1, int argb) {
+        fillRect(x0, y, x1 - x0, 1, argb);
+    }
+    
+    private void fillRect(int left, int top, int w, int h, int argb) {
+        int x0 = Math.max(0, left);
+        int x1 = Math.min(width, left + w);
+        int y0 = Math.max(0, top);
+        int y1 = Math.min(height, top + h);
+        int rgba = toRgba(argb);
+        for (int y = y0; y < y1; y++) {
+            int offset = y * rowStride;
+            for (int x = x0; x < x1; x++) {
+                pixels.putInt(offset + x * PIXEL_STRIDE, rgba);
+            }
+        }
+    }
+    
+    private void gradient(int left, int top, int w, int h, int seed) {
+        for (int y = Math.max(0, top); y < Math.min(height, top + h); y++) {
+            int offset = y * rowStride;
+            for (int x = Math.max(0, left); x < Math.min(width, left + w); x++) {
+                int r = (x * 255 / w + seed * 40) & 0xff;
+                int g = ((y - top) * 255 / h) & 0xff;
+                int b = (seed * 70 + x + y) & 0xff;
+                pixels.putInt(offset + x * PIXEL_STRIDE, toRgba(0xff000000 | r << 16 | g << 8 | b));
+            }
+        }
+    }
+    
+    // Stores R, G, B, A in memory order whatever the buffer's byte order is
+    private int toRgba(int argb) {
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        int a = argb >>> 24;
+        if (pixels.order() == ByteOrder.BIG_ENDIAN) {
+            return r << 24 | g << 16 | b << 8 | a;
+        }
+        return a << 24 | b << 16 | g << 8 | r;
+    }
+}
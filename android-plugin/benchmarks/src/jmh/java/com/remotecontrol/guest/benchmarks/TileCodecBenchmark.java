@@ -0,0 +1,117 @@
+package com.remotecontrol.guest.benchmarks;
+
+import com.remotecontrol.guest.capture.CodecSelectingTileEncoder;
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.capture.Nv21Converter;
+import com.remotecontrol.guest.capture.PaletteTileEncoder;
+import com.remotecontrol.guest.capture.TileClassifier;
+import com.remotecontrol.guest.capture.TileGrid;
+import com.remotecontrol.guest.platform.TileEncoder;
+import com.remotecontrol.guest.utils.EncodeBuffer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Every tile of a synthetic UI frame encoded as JPEG only, or with the codec the classifier
+// picks per tile. Measured as throughput so the score is frames per second and the counters
+// come out per second too: bytes / score is the frame size, and the tile counters show the
+// codec mix. There is no WebP encoder on the JVM, so "selected" sends WebP candidates as JPEG.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TileCodecBenchmark {
+    private static final int TILE_SIZE = 128;
+    private static final int QUALITY = 75;
+    
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+    
+    @Param({"jpeg", "selected"})
+    public String codec;
+    
+    private TileEncoder encoder;
+    private TileClassifier classifier;
+    private final EncodeBuffer output = new EncodeBuffer(64 * 1024);
+    private byte[] nv21;
+    private int width;
+    private int height;
+    private int[] regions;
+    private int tileCount;
+    
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Output {
+        public long bytes;
+        public long jpegTiles;
+        public long paletteTiles;
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticScreen screen = SyntheticScreen.parse(resolution, 0);
+        width = Nv21Converter.evenDimension(screen.getWidth());
+        height = Nv21Converter.evenDimension(screen.getHeight());
+        nv21 = new byte[Nv21Converter.frameSize(width, height)];
+        new Nv21Converter().convert(screen.getPixels(), screen.getWidth(), screen.getHeight(), screen.getRowStride(),
+            nv21, width, height, 0, 0, width, height);
+        
+        encoder = "jpeg".equals(codec)
+            ? new ImageIoTileEncoder() : new CodecSelectingTileEncoder(new ImageIoTileEncoder(), null);
+        classifier = new TileClassifier(new PaletteTileEncoder());
+        
+        TileGrid grid = new TileGrid(width, height, TILE_SIZE);
+        tileCount = grid.getTileCount();
+        regions = new int[tileCount * 4];
+        for (int tile = 0; tile < tileCount; tile++) {
+            regions[tile * 4] = grid.tileX(tile);
+            regions[tile * 4 + 1] = grid.tileY(tile);
+            regions[tile * 4 + 2] = grid.tileX(tile) + grid.tileWidth(tile);
+            regions[tile * 4 + 3] = grid.tileY(tile) + grid.tileHeight(tile);
+        }
+    }
+    
+    @Benchmark
+    public long encodeFrame(Output counters) {
+        long bytes = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            int base = tile * 4;
+            output.reset();
+            int tileCodec = encoder.encodeNv21(nv21, width, height,
+                regions[base], regions[base + 1], regions[base + 2], regions[base + 3], QUALITY, output);
+            if (tileCodec == DeltaFrameWriter.CODEC_PALETTE) {
+                counters.paletteTiles++;
+            } else if (tileCodec == DeltaFrameWriter.CODEC_JPEG) {
+                counters.jpegTiles++;
+            } else {
+                throw new IllegalStateException("Tile " + tile + " failed");
+            }
+            bytes += output.getLength() + DeltaFrameWriter.TILE_HEADER_SIZE;
+        }
+        counters.bytes += bytes;
+        return bytes;
+    }
+    
+    // Cost of the classification alone, included in encodeFrame for "selected"
+    @Benchmark
+    public int classifyFrame() {
+        int palette = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            int base = tile * 4;
+            if (classifier.classify(nv21, width, height, regions[base], regions[base + 1], regions[base + 2],
+                    regions[base + 3]) == DeltaFrameWriter.CODEC_PALETTE) {
+                palette++;
+            }
+        }
+        return palette;
+    }
+}
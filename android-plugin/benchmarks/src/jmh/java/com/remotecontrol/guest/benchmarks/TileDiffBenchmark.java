@@ -0,0 +1,94 @@
+package com.remotecontrol.guest.benchmarks;
+
+import com.remotecontrol.guest.capture.ChangeDetector;
+import com.remotecontrol.guest.capture.TileDiffer;
+import com.remotecontrol.guest.platform.jvm.SystemClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Per-frame cost of change detection on padded RGBA planes. Each invocation diffs the next of
+// two alternating frames, so "cursor" and "scroll" always see their change and "static" never
+// does. Tile size and sample step match ScreenCaptureService.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class TileDiffBenchmark {
+    private static final int TILE_SIZE = 128;
+    private static final int CHANGE_SAMPLE_STEP = 4;
+    
+    @Param({"1280x720", "1920x1080", "2560x1440"})
+    public String resolution;
+    
+    // Pixels of row padding; real planes are commonly padded to a 64-byte multiple
+    @Param({"0", "16"})
+    public int rowPadding;
+    
+    @Param({"static", "cursor", "scroll"})
+    public String change;
+    
+    private SyntheticScreen[] frames;
+    private int[][] packedFrames;
+    private TileDiffer differ;
+    private TileDiffer packedDiffer;
+    private ChangeDetector detector;
+    private int frame;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticScreen first = SyntheticScreen.parse(resolution, rowPadding);
+        SyntheticScreen second = first.copy();
+        if ("cursor".equals(change)) {
+            second.toggleCursor(true);
+        } else if ("scroll".equals(change)) {
+            second.paint(24);
+        } else if (!"static".equals(change)) {
+            throw new IllegalArgumentException("Unknown change " + change);
+        }
+        frames = new SyntheticScreen[] {first, second};
+        packedFrames = new int[][] {pack(first), pack(second)};
+        differ = new TileDiffer(TILE_SIZE, Long.MAX_VALUE, new SystemClock());
+        packedDiffer = new TileDiffer(TILE_SIZE, Long.MAX_VALUE, new SystemClock());
+        detector = new ChangeDetector(CHANGE_SAMPLE_STEP);
+        // The first diff is always a keyframe; keep it out of the measurement
+        diffPlane();
+        diffPacked();
+    }
+    
+    @Benchmark
+    public int diffPlane() {
+        SyntheticScreen screen = frames[frame++ & 1];
+        return differ.diff(screen.getPixels(), screen.getWidth(), screen.getHeight(), screen.getRowStride());
+    }
+    
+    @Benchmark
+    public int diffPacked() {
+        int index = frame++ & 1;
+        SyntheticScreen screen = frames[index];
+        int stride = screen.getRowStride() / SyntheticScreen.PIXEL_STRIDE;
+        return packedDiffer.diff(packedFrames[index], screen.getWidth(), screen.getHeight(), stride);
+    }
+    
+    @Benchmark
+    public boolean sampleChange() {
+        SyntheticScreen screen = frames[frame++ & 1];
+        return detector.hasChanged(screen.getPixels(), screen.getWidth(), screen.getHeight(), screen.getRowStride());
+    }
+    
+    private static int[] pack(SyntheticScreen screen) {
+        ByteBuffer pixels = screen.getPixels();
+        int[] packed = new int[pixels.remaining() / SyntheticScreen.PIXEL_STRIDE];
+        pixels.asIntBuffer().get(packed);
+        return packed;
+    }
+}
@@ -0,0 +1,86 @@
+package com.remotecontrol.guest.loadgen;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Simulates many guests against one backend's /android endpoint to find where a single node
+// stops keeping up. Guests are started evenly over the ramp period, stream until the end of
+// the run and report throughput, frame send latency, ping round trip and drop rate every
+// report interval, followed by a summary of the whole run.
+public final class LoadGenerator {
+    private static final long CLOSE_GRACE_MS = 2000;
+    
+    private LoadGenerator() {}
+    
+    public static void main(String[] args) throws InterruptedException {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.usage());
+            System.exit(2);
+            return;
+        }
+        
+        ThreadFactory threadFactory = Thread.ofVirtual().name("guest-", 0).factory();
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(threadFactory);
+        HttpClient httpClient = HttpClient.newBuilder()
+            .executor(executor)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+        LoadStats stats = new LoadStats();
+        
+        System.out.printf("Starting %d guests against %s at %d fps for %d s%n",
+            options.guests, options.url, options.fps, options.durationSeconds);
+        long start = System.nanoTime();
+        long stopAt = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long rampNanos = TimeUnit.SECONDS.toNanos(options.rampSeconds);
+        List<Thread> guests = new ArrayList<>(options.guests);
+        for (int i = 0; i < options.guests; i++) {
+            VirtualGuest guest = new VirtualGuest(i, options, stats, httpClient, threadFactory);
+            long startAt = start + rampNanos * i / options.guests;
+            guests.add(threadFactory.newThread(() -> {
+                long delay = startAt - System.nanoTime();
+                if (delay > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                guest.run(stopAt);
+            }));
+        }
+        guests.forEach(Thread::start);
+        
+        long reportMs = TimeUnit.SECONDS.toMillis(options.reportSeconds);
+        long lastReport = start;
+        while (System.nanoTime() < stopAt) {
+            Thread.sleep(Math.min(reportMs, Math.max(1, TimeUnit.NANOSECONDS.toMillis(stopAt - System.nanoTime()))));
+            long now = System.nanoTime();
+            System.out.println(stats.report(TimeUnit.NANOSECONDS.toMillis(now - start),
+                TimeUnit.NANOSECONDS.toMillis(now - lastReport), options.guests));
+            lastReport = now;
+        }
+        
+        // Give the guests a moment to close their sockets cleanly
+        long closeDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_GRACE_MS);
+        for (Thread guest : guests) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(closeDeadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
+            guest.join(remaining);
+        }
+        System.out.println();
+        System.out.print(stats.summary(TimeUnit.NANOSECONDS.toMillis(stopAt - start), options.guests));
+        System.exit(0);
+    }
+}
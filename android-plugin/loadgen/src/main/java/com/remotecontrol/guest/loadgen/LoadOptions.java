@@ -0,0 +1,90 @@
+package com.remotecontrol.guest.loadgen;
+
+// Command line options, given as --name=value
+final class LoadOptions {
+    String url = "ws://localhost:3001/android";
+    int guests = 100;
+    int fps = 15;
+    int durationSeconds = 60;
+    int rampSeconds = 10;
+    int reportSeconds = 5;
+    int width = 1080;
+    int height = 2400;
+    int tileSize = 128;
+    int changedTiles = 8;
+    int tileBytes = 3000;
+    int keyframeBytes = 120_000;
+    int keyframeIntervalSeconds = 5;
+    
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "url":
+                    options.url = value;
+                    break;
+                case "guests":
+                    options.guests = positive(name, value);
+                    break;
+                case "fps":
+                    options.fps = positive(name, value);
+                    break;
+                case "duration":
+                    options.durationSeconds = positive(name, value);
+                    break;
+                case "ramp":
+                    options.rampSeconds = Integer.parseInt(value);
+                    break;
+                case "report":
+                    options.reportSeconds = positive(name, value);
+                    break;
+                case "resolution":
+                    int x = value.indexOf('x');
+                    if (x < 0) {
+                        throw new IllegalArgumentException("Invalid resolution " + value);
+                    }
+                    options.width = positive(name, value.substring(0, x));
+                    options.height = positive(name, value.substring(x + 1));
+                    break;
+                case "tile-size":
+                    options.tileSize = positive(name, value);
+                    break;
+                case "changed-tiles":
+                    options.changedTiles = Integer.parseInt(value);
+                    break;
+                case "tile-bytes":
+                    options.tileBytes = positive(name, value);
+                    break;
+                case "keyframe-bytes":
+                    options.keyframeBytes = positive(name, value);
+                    break;
+                case "keyframe-interval":
+                    options.keyframeIntervalSeconds = positive(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        return options;
+    }
+    
+    private static int positive(String name, String value) {
+        int number = Integer.parseInt(value);
+        if (number <= 0) {
+            throw new IllegalArgumentException("--" + name + " must be positive");
+        }
+        return number;
+    }
+    
+    static String usage() {
+        return "Usage: LoadGenerator [--url=ws://host:port/android] [--guests=N] [--fps=N] [--duration=s]\n"
+            + "    [--ramp=s] [--report=s] [--resolution=WxH] [--tile-size=px] [--changed-tiles=N]\n"
+            + "    [--tile-bytes=N] [--keyframe-bytes=N] [--keyframe-interval=s]";
+    }
+}
@@ -0,0 +1,132 @@
+package com.remotecontrol.guest.loadgen;
+
+import com.remotecontrol.guest.capture.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters and latency histograms shared by all virtual guests. Every value is kept twice: for
+// the current reporting interval, which report() resets, and for the whole run.
+final class LoadStats {
+    private static final long MAX_TRACKABLE_US = 60_000_000;
+    
+    final AtomicLong guestsConnected = new AtomicLong();
+    final AtomicLong guestsStreaming = new AtomicLong();
+    final AtomicLong connectFailures = new AtomicLong();
+    final AtomicLong sessionFailures = new AtomicLong();
+    final AtomicLong disconnects = new AtomicLong();
+    final AtomicLong sendErrors = new AtomicLong();
+    final AtomicLong serverErrors = new AtomicLong();
+    final AtomicLong controlEvents = new AtomicLong();
+    
+    private final Window interval = new Window();
+    private final Window total = new Window();
+    
+    private static final class Window {
+        final LatencyHistogram sessionSetupUs = new LatencyHistogram(MAX_TRACKABLE_US);
+        final LatencyHistogram frameSendUs = new LatencyHistogram(MAX_TRACKABLE_US);
+        final LatencyHistogram pingRttUs = new LatencyHistogram(MAX_TRACKABLE_US);
+        long framesGenerated;
+        long framesSent;
+        long framesDropped;
+        long bytesSent;
+        
+        void reset() {
+            sessionSetupUs.reset();
+            frameSendUs.reset();
+            pingRttUs.reset();
+            framesGenerated = 0;
+            framesSent = 0;
+            framesDropped = 0;
+            bytesSent = 0;
+        }
+    }
+    
+    synchronized void onSessionCreated(long setupUs) {
+        interval.sessionSetupUs.record(setupUs);
+        total.sessionSetupUs.record(setupUs);
+    }
+    
+    synchronized void onFrameGenerated() {
+        interval.framesGenerated++;
+        total.framesGenerated++;
+    }
+    
+    // latencyUs runs from frame capture until the socket accepted the last byte
+    synchronized void onFrameSent(int bytes, long latencyUs) {
+        interval.framesSent++;
+        total.framesSent++;
+        interval.bytesSent += bytes;
+        total.bytesSent += bytes;
+        interval.frameSendUs.record(latencyUs);
+        total.frameSendUs.record(latencyUs);
+    }
+    
+    synchronized void onFrameDropped() {
+        interval.framesDropped++;
+        total.framesDropped++;
+    }
+    
+    synchronized void onPong(long rttUs) {
+        interval.pingRttUs.record(rttUs);
+        total.pingRttUs.record(rttUs);
+    }
+    
+    // One line for the interval that just ended, then starts a new interval
+    synchronized String report(long elapsedMs, long intervalMs, int guests) {
+        double seconds = intervalMs / 1000.0;
+        String line = String.format(Locale.US,
+            "[%5ds] guests %d/%d streaming  %s  send %s  rtt %s  setup %s  errors %d",
+            elapsedMs / 1000, guestsStreaming.get(), guests,
+            throughput(interval, seconds), percentiles(interval.frameSendUs),
+            percentiles(interval.pingRttUs), percentiles(interval.sessionSetupUs), errorCount());
+        interval.reset();
+        return line;
+    }
+    
+    synchronized String summary(long elapsedMs, int guests) {
+        double seconds = elapsedMs / 1000.0;
+        StringBuilder out = new StringBuilder();
+        row(out, "Guests", String.format(Locale.US, "%d started, %d connected, %d connect failures, %d session failures, %d disconnects",
+            guests, guestsConnected.get(), connectFailures.get(), sessionFailures.get(), disconnects.get()));
+        row(out, "Frames", String.format(Locale.US, "%d generated, %d sent, %d dropped (%.2f%%)",
+            total.framesGenerated, total.framesSent, total.framesDropped, dropPercent(total)));
+        row(out, "Throughput", throughput(total, seconds));
+        row(out, "Frame send ms", percentiles(total.frameSendUs));
+        row(out, "Ping RTT ms", percentiles(total.pingRttUs));
+        row(out, "Session setup ms", percentiles(total.sessionSetupUs));
+        row(out, "Errors", String.format(Locale.US, "%d send, %d server, %d control events received",
+            sendErrors.get(), serverErrors.get(), controlEvents.get()));
+        return out.toString();
+    }
+    
+    private static void row(StringBuilder out, String label, String value) {
+        out.append(String.format(Locale.US, "%-18s%s%n", label + ":", value));
+    }
+    
+    private long errorCount() {
+        return connectFailures.get() + sessionFailures.get() + sendErrors.get() + serverErrors.get();
+    }
+    
+    private static double dropPercent(Window window) {
+        long offered = window.framesSent + window.framesDropped;
+        return offered == 0 ? 0 : window.framesDropped * 100.0 / offered;
+    }
+    
+    private static String throughput(Window window, double seconds) {
+        if (seconds <= 0) {
+            return "-";
+        }
+        return String.format(Locale.US, "%.0f frames/s  %.2f MB/s  dropped %.2f%%",
+            window.framesSent / seconds, window.bytesSent / seconds / (1024 * 1024), dropPercent(window));
+    }
+    
+    private static String percentiles(LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "-";
+        }
+        return String.format(Locale.US, "p50 %.1f p90 %.1f p99 %.1f max %.1f",
+            histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+            histogram.getValueAtPercentile(99) / 1000.0, histogram.getMaxUs() / 1000.0);
+    }
+}
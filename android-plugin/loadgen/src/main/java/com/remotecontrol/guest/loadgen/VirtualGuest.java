@@ -0,0 +1,376 @@
+package com.remotecontrol.guest.loadgen;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.remotecontrol.guest.capture.DeltaFrameWriter;
+import com.remotecontrol.guest.capture.TileGrid;
+import com.remotecontrol.guest.models.ControlEvent;
+import com.remotecontrol.guest.transport.ControlEventCodec;
+import com.remotecontrol.guest.transport.GuestProtocol;
+import com.remotecontrol.guest.transport.OutboundByteCounter;
+import com.remotecontrol.guest.transport.SendScheduler;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+// One simulated guest. It authenticates and creates a session with the same messages as
+// WebSocketService, then streams synthetic delta frames at a fixed rate through a
+// SendScheduler with the app's queue and socket buffer limits, so backpressure from a
+// saturated server shows up as queued and dropped frames exactly as on a device. Incoming
+// control events are decoded on the same JSON and binary paths the app uses.
+final class VirtualGuest implements WebSocket.Listener {
+    private static final int MAX_QUEUED_FRAMES = 3;
+    private static final long MAX_SOCKET_BUFFERED_BYTES = 64 * 1024;
+    private static final long PING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+    private static final long SESSION_TIMEOUT_MS = 10_000;
+    
+    // Maps System.nanoTime() onto the epoch clock the frame trace block uses
+    private static final long EPOCH_OFFSET_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+    
+    private final int id;
+    private final LoadOptions options;
+    private final LoadStats stats;
+    private final HttpClient httpClient;
+    private final Gson gson = new Gson();
+    private final ControlEventCodec controlEventCodec = new ControlEventCodec();
+    private final DeltaFrameWriter frameWriter = new DeltaFrameWriter();
+    private final TileGrid grid;
+    private final byte[] tileData;
+    private final byte[] keyframeData;
+    private final SendScheduler sendScheduler;
+    private final SocketTransport transport = new SocketTransport();
+    private final CountDownLatch sessionCreated = new CountDownLatch(1);
+    private final StringBuilder textMessage = new StringBuilder();
+    private ByteBuffer binaryMessage = ByteBuffer.allocate(ControlEventCodec.MESSAGE_SIZE * 16);
+    private volatile WebSocket webSocket;
+    private volatile boolean closed;
+    private volatile boolean keyframeRequested = true;
+    private volatile long pingSentNanos;
+    // Tiles of dropped frames, resent with the next frame like the app's capture pipeline does
+    private final BitSet droppedTiles = new BitSet();
+    
+    VirtualGuest(int id, LoadOptions options, LoadStats stats, HttpClient httpClient, ThreadFactory threadFactory) {
+        this.id = id;
+        this.options = options;
+        this.stats = stats;
+        this.httpClient = httpClient;
+        this.grid = new TileGrid(options.width, options.height, options.tileSize);
+        Random random = new Random(id);
+        tileData = new byte[options.tileBytes];
+        random.nextBytes(tileData);
+        keyframeData = new byte[options.keyframeBytes];
+        random.nextBytes(keyframeData);
+        sendScheduler = new SendScheduler(transport, MAX_QUEUED_FRAMES, MAX_SOCKET_BUFFERED_BYTES,
+            new SendScheduler.DropListener() {
+                @Override
+                public void onFrameDropped(ByteBuffer frame, long totalDropped) {
+                    VirtualGuest.this.onFrameDropped(frame);
+                }
+                
+                @Override
+                public void onKeyframeNeeded() {
+                    keyframeRequested = true;
+                }
+            }, threadFactory);
+    }
+    
+    // Runs the whole guest lifecycle on the calling (virtual) thread
+    void run(long stopAtNanos) {
+        long connectStart = System.nanoTime();
+        sendScheduler.start();
+        try {
+            httpClient.newWebSocketBuilder()
+                .buildAsync(URI.create(options.url), this)
+                .get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            stats.connectFailures.incrementAndGet();
+            sendScheduler.stop();
+            return;
+        }
+        stats.guestsConnected.incrementAndGet();
+        try {
+            if (!sessionCreated.await(SESSION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                stats.sessionFailures.incrementAndGet();
+                return;
+            }
+            stats.onSessionCreated(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - connectStart));
+            stats.guestsStreaming.incrementAndGet();
+            try {
+                stream(stopAtNanos);
+            } finally {
+                stats.guestsStreaming.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+    
+    private void stream(long stopAtNanos) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.fps;
+        long keyframeInterval = (long) options.fps * options.keyframeIntervalSeconds;
+        // Spread the guests' frame phases so they do not all send at the same instant
+        long next = System.nanoTime() + (intervalNanos * id / Math.max(1, options.guests)) % intervalNanos;
+        long lastPing = 0;
+        int frameId = 0;
+        while (!closed && next < stopAtNanos) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long now = System.nanoTime();
+            if (now - lastPing >= PING_INTERVAL_NANOS) {
+                lastPing = now;
+                transport.sendPing();
+            }
+            boolean keyframe = keyframeRequested || frameId % keyframeInterval == 0;
+            keyframeRequested = false;
+            sendScheduler.sendFrame(writeFrame(frameId++, keyframe, now));
+            stats.onFrameGenerated();
+            next += intervalNanos;
+            // A guest that fell behind skips frames instead of bursting to catch up, like the capture loop
+            if (now - next > intervalNanos) {
+                next = now + intervalNanos;
+            }
+        }
+    }
+    
+    private ByteBuffer writeFrame(int frameId, boolean keyframe, long capturedNanos) {
+        frameWriter.begin(frameId, grid, keyframe);
+        frameWriter.reserveTrace();
+        if (keyframe) {
+            frameWriter.addTile(DeltaFrameWriter.FULL_FRAME, keyframeData, 0, keyframeData.length);
+        } else {
+            // A moving band of changed tiles, as when content scrolls or animates, plus the
+            // tiles of dropped frames
+            int tileCount = grid.getTileCount();
+            int changed = Math.min(options.changedTiles, tileCount);
+            for (int i = 0; i < changed; i++) {
+                droppedTiles.set((frameId * changed + i) % tileCount);
+            }
+            for (int tile = droppedTiles.nextSetBit(0); tile >= 0; tile = droppedTiles.nextSetBit(tile + 1)) {
+                frameWriter.addTile(tile, tileData, 0, tileData.length);
+            }
+        }
+        droppedTiles.clear();
+        ByteBuffer frame = frameWriter.finishBuffer();
+        frameWriter.setTrace(capturedNanos + EPOCH_OFFSET_NANOS, 0, 0, 0, 0);
+        return frame;
+    }
+    
+    // Runs on the streaming thread, inside sendFrame
+    private void onFrameDropped(ByteBuffer frame) {
+        stats.onFrameDropped();
+        if (!DeltaFrameWriter.readTiles(frame, droppedTiles)) {
+            keyframeRequested = true;
+        }
+    }
+    
+    private void close() {
+        closed = true;
+        sendScheduler.stop();
+        if (webSocket != null) {
+            transport.sendClose();
+        }
+    }
+    
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        this.webSocket = webSocket;
+        sendMessage(GuestProtocol.authenticate(deviceInfo()));
+        webSocket.request(1);
+    }
+    
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        textMessage.append(data);
+        if (last) {
+            handleServerMessage(textMessage.toString());
+            textMessage.setLength(0);
+        }
+        webSocket.request(1);
+        return null;
+    }
+    
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        if (binaryMessage.remaining() < data.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(binaryMessage.capacity() * 2,
+                binaryMessage.position() + data.remaining()));
+            binaryMessage.flip();
+            binaryMessage = grown.put(binaryMessage);
+        }
+        binaryMessage.put(data);
+        if (last) {
+            binaryMessage.flip();
+            // A binary message may carry several control events back to back
+            while (ControlEventCodec.isControlMessage(binaryMessage)) {
+                if (controlEventCodec.decode(binaryMessage) == null) {
+                    break;
+                }
+                stats.controlEvents.incrementAndGet();
+            }
+            binaryMessage.clear();
+        }
+        webSocket.request(1);
+        return null;
+    }
+    
+    @Override
+    public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+        long sent = pingSentNanos;
+        if (sent != 0) {
+            pingSentNanos = 0;
+            stats.onPong(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+        }
+        webSocket.request(1);
+        return null;
+    }
+    
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        if (!closed) {
+            stats.disconnects.incrementAndGet();
+        }
+        closed = true;
+        sessionCreated.countDown();
+        return null;
+    }
+    
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        if (!closed) {
+            stats.disconnects.incrementAndGet();
+        }
+        closed = true;
+        sessionCreated.countDown();
+    }
+    
+    private void handleServerMessage(String message) {
+        try {
+            JsonObject json = JsonParser.parseString(message).getAsJsonObject();
+            JsonElement typeElement = json.get("type");
+            String type = typeElement != null ? typeElement.getAsString() : null;
+            if (GuestProtocol.CONTROL_EVENT.equals(type)) {
+                ControlEvent event = gson.fromJson(json, ControlEvent.class);
+                if (event != null) {
+                    stats.controlEvents.incrementAndGet();
+                }
+                return;
+            }
+            if (type == null) {
+                return;
+            }
+            switch (type) {
+                case GuestProtocol.AUTH_SUCCESS:
+                    sendMessage(GuestProtocol.createSession());
+                    break;
+                case GuestProtocol.SESSION_CREATED:
+                    sessionCreated.countDown();
+                    break;
+                case GuestProtocol.CONTROLLER_JOINED:
+                case GuestProtocol.QUALITY_CHANGE:
+                    keyframeRequested = true;
+                    break;
+                case "error":
+                    stats.serverErrors.incrementAndGet();
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            stats.serverErrors.incrementAndGet();
+        }
+    }
+    
+    private void sendMessage(Map<String, Object> message) {
+        sendScheduler.sendControl(gson.toJson(message));
+    }
+    
+    private Map<String, Object> deviceInfo() {
+        Map<String, Object> deviceInfo = new HashMap<>();
+        deviceInfo.put("model", "loadgen-" + id);
+        deviceInfo.put("manufacturer", "loadgen");
+        deviceInfo.put("androidVersion", "14");
+        deviceInfo.put("sdkVersion", 34);
+        return deviceInfo;
+    }
+    
+    // Adapts java.net.http's one-send-at-a-time WebSocket to the fire-and-forget sends the app's
+    // client offers: sends are chained in order and the bytes still in the chain are reported as
+    // buffered, which is what SendScheduler's backpressure looks at.
+    private final class SocketTransport implements SendScheduler.Transport {
+        private final AtomicLong bufferedBytes = new AtomicLong();
+        private CompletableFuture<WebSocket> tail = CompletableFuture.completedFuture(null);
+        
+        @Override
+        public boolean isOpen() {
+            return webSocket != null && !closed;
+        }
+        
+        @Override
+        public long getBufferedBytes() {
+            return bufferedBytes.get();
+        }
+        
+        @Override
+        public void sendText(String message) {
+            enqueue(OutboundByteCounter.utf8Length(message), -1, socket -> socket.sendText(message, true));
+        }
+        
+        @Override
+        public void sendBinary(ByteBuffer data) {
+            // The scheduler only lends the buffer for the duration of the call
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data.duplicate()).flip();
+            long capturedEpochNanos = DeltaFrameWriter.readTraceEpochNanos(copy);
+            enqueue(copy.remaining(), capturedEpochNanos, socket -> socket.sendBinary(copy, true));
+        }
+        
+        void sendPing() {
+            enqueue(0, -1, socket -> {
+                pingSentNanos = System.nanoTime();
+                return socket.sendPing(ByteBuffer.allocate(0));
+            });
+        }
+        
+        void sendClose() {
+            enqueue(0, -1, socket -> socket.sendClose(WebSocket.NORMAL_CLOSURE, "load test finished"));
+        }
+        
+        private synchronized void enqueue(int bytes, long capturedEpochNanos,
+                                          Function<WebSocket, CompletableFuture<WebSocket>> send) {
+            WebSocket socket = webSocket;
+            bufferedBytes.addAndGet(bytes);
+            // A failed send must not stall the ones queued behind it
+            tail = tail.handle((ignored, error) -> socket).thenCompose(send).whenComplete((ignored, error) -> {
+                bufferedBytes.addAndGet(-bytes);
+                if (error != null) {
+                    stats.sendErrors.incrementAndGet();
+                } else if (capturedEpochNanos >= 0) {
+                    long latencyNanos = System.nanoTime() + EPOCH_OFFSET_NANOS - capturedEpochNanos;
+                    stats.onFrameSent(bytes, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+                }
+            });
+        }
+    }
+}
@@ -2,16 +2,51 @@ import { WebSocketServer } from 'ws';
 import { Server } from 'http';
 import { sessionManager } from './sessionManager';
 import { config } from '../config';
+import { randomBytes } from 'crypto';
+import { ControlEvent, KeyEvent, TouchEvent } from '../types';
 
 interface AndroidClient {
   ws: any;
   userId: string;
   sessionId?: string;
   authenticated: boolean;
+  linkStats?: any;
+  frameLatency?: any;
+  controlEncoding: ControlEncoding;
 }
 
+// Control events go to guests as fixed-size binary messages when the guest offers the binary
+// encoding in authenticate or resume-session, as JSON otherwise. Layout, big-endian:
+//   byte magic ('C'), byte type (1 touch, 2 key), byte action (0 down, 1 up, 2 move),
+//   byte pointer id, float x | int key code, float y | int meta state, float pressure,
+//   long timestamp in milliseconds
+type ControlEncoding = 'binary' | 'json';
+const CONTROL_MESSAGE_SIZE = 24;
+const CONTROL_MAGIC = 'C'.charCodeAt(0);
+const CONTROL_TYPE_TOUCH = 1;
+const CONTROL_TYPE_KEY = 2;
+const CONTROL_ACTIONS = ['down', 'up', 'move'];
+
 const androidClients = new Map<string, AndroidClient>();
 
+// Tokens handed out at authentication, so a reconnecting guest can prove it owns its session.
+// A token is good for one resume, which hands out a new one, and for no longer than a session
+// can live; tokens of a guest are dropped when its session ends.
+interface ResumeToken {
+  userId: string;
+  expiresAt: number;
+}
+
+const resumeTokens = new Map<string, ResumeToken>();
+
+sessionManager.onSessionEnded((session) => {
+  for (const [token, resumeToken] of resumeTokens) {
+    if (resumeToken.userId === session.guestId) {
+      resumeTokens.delete(token);
+    }
+  }
+});
+
 export const setupAndroidWebSocketServer = (server: Server) => {
   const wss = new WebSocketServer({ 
     server,
@@ -31,7 +66,8 @@ export const setupAndroidWebSocketServer = (server: Server) => {
       ws,
       userId: clientId,
       sessionId: sessionId,
-      authenticated: true // Skip auth for now to fix connection
+      authenticated: true, // Skip auth for now to fix connection
+      controlEncoding: 'json'
     };
     
     androidClients.set(clientId, client);
@@ -89,6 +125,17 @@ async function handleAndroidMessage(clientId: string, message: any) {
     case 'create-session':
       await handleCreateSession(clientId);
       break;
+    case 'resume-session':
+      handleResumeSession(clientId, message);
+      break;
+    case 'link-stats':
+      // Latest link measurements reported by the guest
+      client.linkStats = message;
+      break;
+    case 'frame-latency':
+      // Per-stage frame latency percentiles of the guest's last reporting window
+      client.frameLatency = message;
+      break;
     default:
       console.log('Unknown Android message type:', message.type);
   }
@@ -104,12 +151,17 @@ async function handleAuthentication(clientId: string, message: any) {
     
     client.userId = userId;
     client.authenticated = true;
+    client.controlEncoding = negotiateControlEncoding(message.controlEncodings);
+
+    const token = issueResumeToken(userId);
 
     // Send authentication success
     sendMessage(client.ws, {
       type: 'auth-success',
       userId: userId,
-      status: 'authenticated'
+      token: token,
+      status: 'authenticated',
+      controlEncoding: client.controlEncoding
     });
 
     console.log(`✅ Android client authenticated: ${userId}`);
@@ -149,6 +201,137 @@ async function handleCreateSession(clientId: string) {
   }
 }
 
+function handleResumeSession(clientId: string, message: any) {
+  const client = androidClients.get(clientId);
+  if (!client) return;
+
+  const userId = takeResumeToken(message.token);
+  const session = sessionManager.getSessionByCode(message.sessionCode);
+  if (!userId || !session || session.guestId !== userId) {
+    return sendMessage(client.ws, {
+      type: 'resume-failed',
+      reason: session ? 'Invalid token' : 'Session not found'
+    });
+  }
+
+  // The guest's old socket may still look open until a ping times out. Lookups take the first
+  // entry with the user id, so drop the old ones now rather than send events into a dead socket.
+  for (const [otherId, other] of androidClients) {
+    if (otherId !== clientId && other.userId === userId) {
+      androidClients.delete(otherId);
+      other.ws.terminate();
+    }
+  }
+
+  client.userId = userId;
+  client.sessionId = session.id;
+  client.authenticated = true;
+  client.controlEncoding = negotiateControlEncoding(message.controlEncodings);
+
+  sendMessage(client.ws, {
+    type: 'session-resumed',
+    sessionCode: session.code,
+    sessionId: session.id,
+    token: issueResumeToken(userId),
+    controlEncoding: client.controlEncoding
+  });
+
+  console.log(`📱 Android session resumed: ${session.code} for user ${userId}`);
+}
+
+function issueResumeToken(userId: string): string {
+  const now = Date.now();
+  for (const [token, resumeToken] of resumeTokens) {
+    if (resumeToken.expiresAt <= now) {
+      resumeTokens.delete(token);
+    }
+  }
+
+  const token = generateResumeToken();
+  resumeTokens.set(token, { userId, expiresAt: now + config.SESSION_TIMEOUT });
+  return token;
+}
+
+// Removes the token and returns its user id, or undefined if it is unknown or expired
+function takeResumeToken(token: unknown): string | undefined {
+  if (typeof token !== 'string') {
+    return undefined;
+  }
+  const resumeToken = resumeTokens.get(token);
+  resumeTokens.delete(token);
+  return resumeToken && resumeToken.expiresAt > Date.now() ? resumeToken.userId : undefined;
+}
+
+function negotiateControlEncoding(offered: unknown): ControlEncoding {
+  return Array.isArray(offered) && offered.includes('binary') ? 'binary' : 'json';
+}
+
+// Sends a JSON message to the Android guest with the given user id. Android guests are not in
+// socket.io rooms, so messages for them go here. Returns false if the guest is not connected here.
+export function sendToGuest(guestId: string, message: any): boolean {
+  const client = findGuestClient(guestId);
+  if (!client) {
+    return false;
+  }
+
+  sendMessage(client.ws, message);
+  return true;
+}
+
+// Forwards a controller's event to the Android guest with the given user id, in the encoding
+// negotiated with that guest. Returns false if the guest is not connected here.
+export function sendControlEventToGuest(guestId: string, event: ControlEvent): boolean {
+  const client = findGuestClient(guestId);
+  if (!client) {
+    return false;
+  }
+
+  const binary = client.controlEncoding === 'binary' ? encodeControlEvent(event) : null;
+  if (binary) {
+    client.ws.send(binary, { binary: true });
+  } else {
+    sendMessage(client.ws, {
+      type: 'control-event',
+      touchData: event.type === 'touch' ? event.data : undefined,
+      keyData: event.type === 'key' ? event.data : undefined,
+      timestamp: event.data.timestamp
+    });
+  }
+  return true;
+}
+
+function findGuestClient(guestId: string): AndroidClient | undefined {
+  const client = [...androidClients.values()].find((candidate) => candidate.userId === guestId);
+  return client && client.ws.readyState === client.ws.OPEN ? client : undefined;
+}
+
+// Binary form of touch and key events; other events have no binary form and go as JSON
+function encodeControlEvent(event: ControlEvent): Buffer | null {
+  const action = CONTROL_ACTIONS.indexOf((event.data as TouchEvent | KeyEvent).action);
+  if (action < 0 || (event.type !== 'touch' && event.type !== 'key')) {
+    return null;
+  }
+
+  const message = Buffer.alloc(CONTROL_MESSAGE_SIZE);
+  message.writeUInt8(CONTROL_MAGIC, 0);
+  message.writeUInt8(action, 2);
+  if (event.type === 'touch') {
+    const touch = event.data as TouchEvent;
+    message.writeUInt8(CONTROL_TYPE_TOUCH, 1);
+    message.writeUInt8((touch.pointerId ?? 0) & 0xff, 3);
+    message.writeFloatBE(touch.x, 4);
+    message.writeFloatBE(touch.y, 8);
+    message.writeFloatBE(touch.pressure ?? 1, 12);
+  } else {
+    const key = event.data as KeyEvent;
+    message.writeUInt8(CONTROL_TYPE_KEY, 1);
+    message.writeInt32BE(key.keyCode, 4);
+    message.writeInt32BE(key.metaState ?? 0, 8);
+  }
+  message.writeBigInt64BE(BigInt(Math.round(event.data.timestamp)), 16);
+  return message;
+}
+
 function sendMessage(ws: any, message: any) {
   if (ws.readyState === ws.OPEN) {
     ws.send(JSON.stringify(message));
@@ -170,6 +353,10 @@ function generateUserId(): string {
   return 'guest_' + Math.random().toString(36).substr(2, 9);
 }
 
+function generateResumeToken(): string {
+  return randomBytes(24).toString('hex');
+}
+
 function generateSessionCode(): string {
   return Math.floor(100000 + Math.random() * 900000).toString();
 }
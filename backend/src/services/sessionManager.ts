@@ -4,6 +4,7 @@ import { Session, SessionPermissions } from '../types';
 class SessionManager {
   private sessions = new Map<string, Session>();
   private sessionsByCodes = new Map<string, string>();
+  private endedListeners: Array<(session: Session) => void> = [];
 
   // Generate a 6-digit session code
   private generateSessionCode(): string {
@@ -91,9 +92,15 @@ class SessionManager {
       this.sessionsByCodes.delete(session.code);
       this.sessions.delete(sessionId);
       console.log(`🔚 Session ended: ${session.code}`);
+      this.endedListeners.forEach((listener) => listener(session));
     }
   }
 
+  // Called with every session that ends, whether explicitly or by expiry
+  onSessionEnded(listener: (session: Session) => void): void {
+    this.endedListeners.push(listener);
+  }
+
   // Get active sessions count for monitoring
   getActiveSessionsCount(): number {
     return Array.from(this.sessions.values())
@@ -1,6 +1,7 @@
 import { Server as SocketIOServer, Socket } from 'socket.io';
 import { verifyToken } from '../utils/auth';
 import { sessionManager } from './sessionManager';
+import { sendControlEventToGuest, sendToGuest } from './androidWebSocketService';
 import { SocketData, WebRTCSignal, ControlEvent } from '../types';
 
 export const setupSocketHandlers = (io: SocketIOServer) => {
@@ -45,7 +46,7 @@ export const setupSocketHandlers = (io: SocketIOServer) => {
     });
 
     // Handle session joining (controller)
-    socket.on('join-session', async (data: { code: string }, callback) => {
+    socket.on('join-session', async (data: { code: string; streamMode?: 'jpeg' | 'video' }, callback) => {
       try {
         if (socket.data.role !== 'controller') {
           return callback({ success: false, error: 'Only controllers can join sessions' });
@@ -55,11 +56,15 @@ export const setupSocketHandlers = (io: SocketIOServer) => {
         socket.data.sessionId = session.id;
         socket.join(session.id);
 
-        // Notify guest that controller joined
-        socket.to(session.guestId!).emit('controller-joined', {
+        // Notify guest that controller joined; guests stream JPEG tiles unless asked for video.
+        // Android guests are on the /android WebSocket rather than in the socket.io room
+        const controllerJoined = {
           controllerId: socket.data.userId,
-          sessionId: session.id
-        });
+          sessionId: session.id,
+          streamMode: data.streamMode
+        };
+        socket.to(session.guestId!).emit('controller-joined', controllerJoined);
+        sendToGuest(session.guestId!, { type: 'controller-joined', ...controllerJoined });
 
         callback({ success: true, data: session });
         console.log(`🎮 Controller ${socket.data.userId} joined session ${data.code}`);
@@ -91,11 +96,15 @@ export const setupSocketHandlers = (io: SocketIOServer) => {
         return;
       }
 
-      // Forward control event to guest
+      // Forward control event to guest; Android guests get it over their own WebSocket
       socket.to(socket.data.sessionId).emit('control-event', {
         ...event,
         from: socket.data.userId
       });
+      const session = sessionManager.getSession(socket.data.sessionId);
+      if (session?.guestId) {
+        sendControlEventToGuest(session.guestId, event);
+      }
 
       console.log(`🎮 Control event: ${event.type} in session ${socket.data.sessionId}`);
     });
@@ -44,6 +44,7 @@ export interface TouchEvent {
   x: number;
   y: number;
   pressure?: number;
+  pointerId?: number;
   timestamp: number;
 }
 